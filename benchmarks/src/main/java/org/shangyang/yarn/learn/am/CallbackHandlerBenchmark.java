@@ -0,0 +1,173 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerState;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shangyang.yarn.learn.sizing.ContainerSizer;
+
+/**
+ * 
+ * AMRM 回调线程上的两个热点：onContainersAllocated 以及 onContainersCompleted。
+ * 
+ * RM 和 NM 都不存在，Container 以及 ContainerStatus 都是直接构造的 YARN record；AMRMClientAsync 没有启动，
+ * 多余的 Container 的释放只是记录在本地；launch() 被替换掉了，不会真的去启动 Container。
+ * 每次调用之前重新设置 slot，所以每次调用处理的都是一整批新的 Container；batch 很小的时候 Level.Invocation 本身的开销不可忽略。
+ * 
+ * 结果的单位是每秒处理的批次，乘以 batch 就是每秒处理的 Container 数量。
+ * 
+ * @author 商洋
+ *
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Dhadoop.root.logger=WARN,console" )
+public class CallbackHandlerBenchmark {
+	
+	private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance( ApplicationId.newInstance( System.currentTimeMillis(), 1 ), 1 );
+	
+	/** 分配到的 Container 分布在这么多个 Node 上 **/
+	private static final int NODES = 1000;
+	
+	@State( Scope.Benchmark )
+	public static class HandlerState {
+		
+		@Param( { "1", "100", "1000", "10000" } )
+		int batch;
+		
+		ApplicationMasterResourceManagerCallbackHandler handler;
+		
+		List<Container> containers;
+		
+		List<ContainerStatus> statuses;
+		
+		long launched;
+		
+		@Setup( Level.Trial )
+		public void setUpHandler() throws IOException {
+			
+			Configuration conf = new YarnConfiguration();
+			
+			conf.setBoolean( Speculator.ENABLED, false );
+			
+			conf.setBoolean( MetricsHttpServer.ENABLED, false );
+			
+			conf.setBoolean( ContainerSizer.ENABLED, false );
+			
+			ApplicationMasterMetrics metrics = new ApplicationMasterMetrics();
+			
+			handler = new ApplicationMasterResourceManagerCallbackHandler( conf, metrics, new ContainerLifecycleTracker( metrics ) ) {
+				
+				@Override
+				protected void launch( Container container ) {
+					
+					launched++;
+				}
+			};
+			
+			handler.setResourceManager( AMRMClientAsync.<AMRMClient.ContainerRequest>createAMRMClientAsync( 1000, handler ) );
+			
+			containers = new ArrayList<Container>( batch );
+			
+			statuses = new ArrayList<ContainerStatus>( batch );
+			
+			Resource capability = Resource.newInstance( 1024, 1 );
+			
+			Priority priority = Priority.newInstance( 0 );
+			
+			for ( int i = 0; i < batch; i++ ) {
+				
+				ContainerId containerId = ContainerId.newContainerId( ATTEMPT, i + 2 );
+				
+				NodeId nodeId = NodeId.newInstance( "node-" + ( i % NODES ) + ".cluster", 45454 );
+				
+				containers.add( Container.newInstance( containerId, nodeId, nodeId.getHost() + ":8042", capability, priority, null ) );
+				
+				statuses.add( ContainerStatus.newInstance( containerId, ContainerState.COMPLETE, "", 0 ) );
+			}
+		}
+		
+		/**
+		 * 多留一个 slot，处理完一批以后 AM 不会认为所有的工作都完成了而去注销
+		 */
+		void resetSlots() {
+			
+			handler.setContainers( batch + 1 );
+		}
+	}
+	
+	public static class AllocateState extends HandlerState {
+		
+		@Setup( Level.Invocation )
+		public void setUpInvocation() {
+			
+			resetSlots();
+		}
+		
+		/**
+		 * 让这一批 Container 结束，下一次调用的时候它们又是新分配的
+		 */
+		@TearDown( Level.Invocation )
+		public void tearDownInvocation() {
+			
+			handler.onContainersCompleted( statuses );
+		}
+	}
+	
+	public static class CompleteState extends HandlerState {
+		
+		@Setup( Level.Invocation )
+		public void setUpInvocation() {
+			
+			resetSlots();
+			
+			handler.onContainersAllocated( containers );
+		}
+	}
+	
+	@Benchmark
+	public long onContainersAllocated( AllocateState state ) {
+		
+		state.handler.onContainersAllocated( state.containers );
+		
+		return state.launched;
+	}
+	
+	@Benchmark
+	public float onContainersCompleted( CompleteState state ) {
+		
+		state.handler.onContainersCompleted( state.statuses );
+		
+		return state.handler.getProgress();
+	}
+
+}
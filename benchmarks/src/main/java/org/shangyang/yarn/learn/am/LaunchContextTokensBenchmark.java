@@ -0,0 +1,113 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.yarn.api.ApplicationConstants;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.security.AMRMTokenIdentifier;
+import org.apache.hadoop.yarn.util.Records;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 
+ * LaunchContextTemplate#setupLaunchContextTokens 的开销；UGI 中放入若干个 HDFS delegation token 以及一个 AMRM token，
+ * 与一个访问多个 HDFS 集群的安全集群上的 AM 相当。
+ * 
+ * 1) cached，正常的路径，绝大多数 Container 直接复用已经序列化好的 tokens；
+ * 2) reserialize，每次都重新复制 Credentials、去掉 AMRM token 并且序列化，也就是 tokens 发生变化时的开销。
+ * 
+ * @author 商洋
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Dhadoop.root.logger=WARN,console" )
+public class LaunchContextTokensBenchmark {
+	
+	private static final Text HDFS_DELEGATION_KIND = new Text( "HDFS_DELEGATION_TOKEN" );
+	
+	@Param( { "1", "10", "50" } )
+	int tokens;
+	
+	LaunchContextTemplate template;
+	
+	@Setup( Level.Trial )
+	public void setUp() throws IOException {
+		
+		Random random = new Random( 42 );
+		
+		Credentials credentials = new Credentials();
+		
+		for ( int i = 0; i < tokens; i++ ) {
+			
+			Text service = new Text( "ha-hdfs:nameservice" + i );
+			
+			credentials.addToken( service, new Token<TokenIdentifier>( bytes( random, 64 ), bytes( random, 20 ), HDFS_DELEGATION_KIND, service ) );
+		}
+		
+		Text rm = new Text( "rm.cluster:8030" );
+		
+		credentials.addToken( rm, new Token<TokenIdentifier>( bytes( random, 48 ), bytes( random, 20 ), AMRMTokenIdentifier.KIND_NAME, rm ) );
+		
+		UserGroupInformation.getCurrentUser().addCredentials( credentials );
+		
+		Map<String, String> environment = new HashMap<String, String>();
+		
+		environment.put( ApplicationConstants.Environment.CLASSPATH.name(), System.getProperty( "java.class.path" ) );
+		
+		template = new LaunchContextTemplate( Collections.singletonList( "sleep 1" ), environment, Collections.<String, LocalResource>emptyMap() );
+	}
+	
+	private static byte[] bytes( Random random, int length ) {
+		
+		byte[] bytes = new byte[ length ];
+		
+		random.nextBytes( bytes );
+		
+		return bytes;
+	}
+	
+	@Benchmark
+	public ContainerLaunchContext cached() {
+		
+		ContainerLaunchContext launchContext = Records.newRecord( ContainerLaunchContext.class );
+		
+		template.setupLaunchContextTokens( launchContext );
+		
+		return launchContext;
+	}
+	
+	@Benchmark
+	public ContainerLaunchContext reserialize() {
+		
+		template.invalidate();
+		
+		return cached();
+	}
+
+}
@@ -0,0 +1,64 @@
+package org.shangyang.yarn.learn.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 
+ * ApplicationClient#hadoopClassPath 的开销；minicluster 下会把测试进程的整个 java.class.path 拼接进来，字符串要长得多。
+ * YarnClient 启动的时候不会去连接 RM，所以这里不需要集群。
+ * 
+ * @author 商洋
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Dhadoop.root.logger=WARN,console" )
+public class ClassPathBenchmark {
+	
+	@Param( { "false", "true" } )
+	boolean miniCluster;
+	
+	ApplicationClient client;
+	
+	@Setup( Level.Trial )
+	public void setUp() {
+		
+		Configuration conf = new YarnConfiguration();
+		
+		conf.setBoolean( YarnConfiguration.IS_MINI_YARN_CLUSTER, miniCluster );
+		
+		client = new ApplicationClient( conf );
+	}
+	
+	@TearDown( Level.Trial )
+	public void tearDown() {
+		
+		client.stop();
+	}
+	
+	@Benchmark
+	public String hadoopClassPath() {
+		
+		return client.hadoopClassPath();
+	}
+
+}
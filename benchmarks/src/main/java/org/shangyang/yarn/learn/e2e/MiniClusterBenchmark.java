@@ -0,0 +1,304 @@
+package org.shangyang.yarn.learn.e2e;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.ClassUtil;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.server.MiniYARNCluster;
+import org.shangyang.yarn.learn.am.ApplicationMaster;
+import org.shangyang.yarn.learn.am.ApplicationMasterConfig;
+import org.shangyang.yarn.learn.client.ApplicationClient;
+import org.shangyang.yarn.learn.client.ApplicationMonitor;
+import org.shangyang.yarn.learn.sizing.ContainerSizer;
+
+/**
+ * 
+ * 端到端的调度性能测试：在进程内启动 MiniDFSCluster 以及 MiniYARNCluster（全部使用随机端口，不需要网络，也不需要事先启动任何服务），
+ * 提交若干轮 Application，每个 Application 启动 containers 个什么也不做的 Container（task.command 为 true）。
+ * 
+ * 每一轮输出，
+ * 1) submit → accepted，RM 接受 Application；
+ * 2) submit → running，AM 已经向 RM 注册；
+ * 3) AM registration，accepted → running，包括 AM Container 的分配、本地化、JVM 启动以及注册；
+ * 4) containers/s，AM 注册以后到 Application 结束，平均每秒完成的 Container 数量；
+ * 最后输出关闭两个集群所用的时间。时间点由 ApplicationMonitor 以 10ms 的间隔轮询得到。
+ * 
+ * AM 的 jar 就是 benchmarks.jar，用法: 
+ * 
+ *   java -cp target/benchmarks.jar org.shangyang.yarn.learn.e2e.MiniClusterBenchmark [containers] [nodeManagers] [rounds]
+ * 
+ * 第一轮包含了 jar 上传到 HDFS 以及 NM 第一次本地化的开销。
+ * 
+ * @author 商洋
+ *
+ */
+public class MiniClusterBenchmark {
+	
+	private static final long POLL_INTERVAL_MS = 10;
+	
+	private static final long TIMEOUT_MINUTES = 10;
+	
+	private final int containers;
+	
+	private final int nodeManagers;
+	
+	private File baseDir;
+	
+	private MiniDFSCluster dfsCluster;
+	
+	private MiniYARNCluster yarnCluster;
+	
+	private ApplicationClient client;
+	
+	public MiniClusterBenchmark( int containers, int nodeManagers ) {
+		
+		this.containers = containers;
+		
+		this.nodeManagers = nodeManagers;
+	}
+	
+	public void start() throws IOException, YarnException, InterruptedException {
+		
+		String appMasterJar = ClassUtil.findContainingJar( ApplicationMaster.class );
+		
+		if ( appMasterJar == null ) {
+			
+			throw new IllegalStateException( "The Application Master must be loaded from a jar, run it with target/benchmarks.jar" );
+		}
+		
+		baseDir = Files.createTempDirectory( "learn-yarn-e2e" ).toFile();
+		
+		Configuration conf = new YarnConfiguration();
+		
+		conf.set( MiniDFSCluster.HDFS_MINIDFS_BASEDIR, new File( baseDir, "dfs" ).getAbsolutePath() );
+		
+		// 默认就是随机端口
+		dfsCluster = new MiniDFSCluster.Builder( conf ).numDataNodes( 1 ).build();
+		
+		dfsCluster.waitActive();
+		
+		conf.set( CommonConfigurationKeysPublic.FS_DEFAULT_NAME_KEY, dfsCluster.getFileSystem().getUri().toString() );
+		
+		conf.setInt( YarnConfiguration.RM_SCHEDULER_MINIMUM_ALLOCATION_MB, 128 );
+		
+		conf.setInt( YarnConfiguration.NM_PMEM_MB, 8 * 1024 );
+		
+		// 只关心调度，Container 里面跑什么不重要
+		conf.setBoolean( YarnConfiguration.NM_PMEM_CHECK_ENABLED, false );
+		
+		conf.setBoolean( YarnConfiguration.NM_VMEM_CHECK_ENABLED, false );
+		
+		// Container 使用与当前进程相同的 JVM
+		conf.set( YarnConfiguration.NM_ADMIN_USER_ENV, "JAVA_HOME=" + System.getProperty( "java.home" ) );
+		
+		yarnCluster = new MiniYARNCluster( "learn-yarn-e2e", nodeManagers, 1, 1 );
+		
+		yarnCluster.init( conf );
+		
+		yarnCluster.start();
+		
+		if ( !yarnCluster.waitForNodeManagersToConnect( TimeUnit.MINUTES.toMillis( 1 ) ) ) {
+			
+			throw new IllegalStateException( "Node managers failed to connect to the resource manager" );
+		}
+		
+		// 启动以后的配置中才是真正绑定的端口
+		Configuration clientConf = new YarnConfiguration( yarnCluster.getConfig() );
+		
+		clientConf.set( ApplicationMasterConfig.TASK_COMMAND, "true" );
+		
+		clientConf.setInt( ApplicationMasterConfig.CONTAINERS, containers );
+		
+		// 每一轮的 Container 大小保持一致
+		clientConf.setBoolean( ContainerSizer.ENABLED, false );
+		
+		clientConf.setLong( ApplicationMonitor.MIN_INTERVAL_MS, POLL_INTERVAL_MS );
+		
+		clientConf.setLong( ApplicationMonitor.MAX_INTERVAL_MS, POLL_INTERVAL_MS );
+		
+		client = new ApplicationClient( clientConf );
+		
+		client.setAppMasterJar( appMasterJar );
+	}
+	
+	public Round run() throws IOException, YarnException, InterruptedException, ExecutionException, TimeoutException {
+		
+		final Round round = new Round();
+		
+		round.submittedNanos = System.nanoTime();
+		
+		ApplicationId applicationId = client.submit();
+		
+		ApplicationReport report = client.getMonitor().monitor( applicationId, new ApplicationMonitor.Listener() {
+			
+			@Override
+			public void onStateChanged( ApplicationReport report, YarnApplicationState previous ) {
+				
+				long now = System.nanoTime();
+				
+				switch ( report.getYarnApplicationState() ) {
+				
+					case ACCEPTED :
+						
+						round.acceptedNanos = now;
+						
+						break;
+						
+					case RUNNING :
+						
+						round.runningNanos = now;
+						
+						break;
+						
+					default :
+						
+						break;
+				}
+			}
+			
+		}).get( TIMEOUT_MINUTES, TimeUnit.MINUTES );
+		
+		round.finishedNanos = System.nanoTime();
+		
+		round.report = report;
+		
+		return round;
+	}
+	
+	/**
+	 * 
+	 * @return 关闭 Client 以及两个集群所用的时间
+	 */
+	public long stop() {
+		
+		long start = System.nanoTime();
+		
+		if ( client != null ) {
+			
+			client.stop();
+		}
+		
+		if ( yarnCluster != null ) {
+			
+			yarnCluster.stop();
+		}
+		
+		if ( dfsCluster != null ) {
+			
+			dfsCluster.shutdown();
+		}
+		
+		long elapsed = System.nanoTime() - start;
+		
+		if ( baseDir != null ) {
+			
+			FileUtil.fullyDelete( baseDir );
+		}
+		
+		return TimeUnit.NANOSECONDS.toMillis( elapsed );
+	}
+	
+	/**
+	 * 一轮的结果；轮询的时候可能跳过了 ACCEPTED，这时把它当作与 RUNNING 同时发生
+	 */
+	public class Round {
+		
+		long submittedNanos;
+		
+		long acceptedNanos;
+		
+		long runningNanos;
+		
+		long finishedNanos;
+		
+		ApplicationReport report;
+		
+		public long getSubmitToAcceptedMs() {
+			
+			return millis( submittedNanos, acceptedNanos == 0 ? runningNanos : acceptedNanos );
+		}
+		
+		public long getSubmitToRunningMs() {
+			
+			return millis( submittedNanos, runningNanos );
+		}
+		
+		public long getRegistrationMs() {
+			
+			return getSubmitToRunningMs() - getSubmitToAcceptedMs();
+		}
+		
+		public double getContainersPerSecond() {
+			
+			long nanos = finishedNanos - runningNanos;
+			
+			return runningNanos == 0 || nanos <= 0 ? 0 : containers * 1e9 / nanos;
+		}
+		
+		public ApplicationReport getReport() {
+			
+			return report;
+		}
+		
+		private long millis( long from, long to ) {
+			
+			return to == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis( to - from );
+		}
+		
+		@Override
+		public String toString() {
+			
+			return String.format( "%-10s submit->accepted %6d ms, submit->running %6d ms, AM registration %6d ms, %8.1f containers/s",
+								  report.getFinalApplicationStatus(), getSubmitToAcceptedMs(), getSubmitToRunningMs(), getRegistrationMs(), getContainersPerSecond() );
+		}
+	}
+	
+	public static void main( String[] args ) throws Exception {
+		
+		int containers = args.length > 0 ? Integer.parseInt( args[0] ) : 10;
+		
+		int nodeManagers = args.length > 1 ? Integer.parseInt( args[1] ) : 1;
+		
+		int rounds = args.length > 2 ? Integer.parseInt( args[2] ) : 3;
+		
+		MiniClusterBenchmark benchmark = new MiniClusterBenchmark( containers, nodeManagers );
+		
+		StringBuilder summary = new StringBuilder();
+		
+		summary.append( String.format( "%d containers, %d node managers%n", containers, nodeManagers ) );
+		
+		try {
+			
+			long start = System.nanoTime();
+			
+			benchmark.start();
+			
+			summary.append( String.format( "cluster startup %d ms%n", TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) ) );
+			
+			for ( int i = 1; i <= rounds; i++ ) {
+				
+				summary.append( String.format( "round %d: %s%n", i, benchmark.run() ) );
+			}
+			
+		} finally {
+			
+			summary.append( String.format( "teardown %d ms%n", benchmark.stop() ) );
+			
+			System.out.print( summary );
+		}
+	}
+
+}
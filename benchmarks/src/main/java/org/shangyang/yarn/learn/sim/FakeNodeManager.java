@@ -0,0 +1,386 @@
+package org.shangyang.yarn.learn.sim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
+import org.shangyang.yarn.learn.am.ApplicationMasterConfig;
+
+/**
+ *
+ * 进程内的 NodeManager，代替 NMClientAsync 交给 AM 使用：startContainerAsync 以后经过 start-latency-ms 回调 onContainerStarted
+ * （或者按照 start-failure-ratio 回调 onStartContainerError），再运行 runtime-ms（上下浮动 runtime-jitter）以后结束，
+ * 按照 failure-ratio 以退出码 1 失败，结束的 Container 通过 FakeResourceManager 在下一次心跳交给 AM。
+ *
+ * AM 在 ContainerLauncher 的线程池中调用 startContainerAsync，调用的先后顺序每次都不一样；这里只是把请求缓存起来，
+ * 由驱动线程调用 flush() 按照 ContainerId 排序以后再抽取随机数、调度事件，这样同一个种子得到的结果总是相同的。
+ *
+ * @author 商洋
+ *
+ */
+public class FakeNodeManager extends NMClientAsync {
+	
+	public static final String START_LATENCY_MS = FakeResourceManager.PREFIX + "nm.start-latency-ms";
+	
+	public static final long DEFAULT_START_LATENCY_MS = 100;
+	
+	public static final String STOP_LATENCY_MS = FakeResourceManager.PREFIX + "nm.stop-latency-ms";
+	
+	public static final long DEFAULT_STOP_LATENCY_MS = 50;
+	
+	public static final String RUNTIME_MS = FakeResourceManager.PREFIX + "container.runtime-ms";
+	
+	public static final long DEFAULT_RUNTIME_MS = 30000;
+	
+	/** 运行时间在 runtime * (1 ± jitter) 之间均匀分布 **/
+	public static final String RUNTIME_JITTER = FakeResourceManager.PREFIX + "container.runtime-jitter";
+	
+	public static final float DEFAULT_RUNTIME_JITTER = 0.5f;
+	
+	public static final String FAILURE_RATIO = FakeResourceManager.PREFIX + "container.failure-ratio";
+	
+	public static final float DEFAULT_FAILURE_RATIO = 0.01f;
+	
+	public static final String START_FAILURE_RATIO = FakeResourceManager.PREFIX + "nm.start-failure-ratio";
+	
+	public static final float DEFAULT_START_FAILURE_RATIO = 0.001f;
+	
+	public static final String SEED = FakeResourceManager.PREFIX + "seed";
+	
+	public static final long DEFAULT_SEED = 1;
+	
+	private static final Comparator<Container> BY_ID = new Comparator<Container>() {
+		
+		@Override
+		public int compare( Container c1, Container c2 ) {
+			
+			return c1.getId().compareTo( c2.getId() );
+		}
+	};
+	
+	private final SimulatedClock clock;
+	
+	private final long startLatencyMs;
+	
+	private final long stopLatencyMs;
+	
+	private final long runtimeMs;
+	
+	private final float runtimeJitter;
+	
+	private final float failureRatio;
+	
+	private final float startFailureRatio;
+	
+	private final Random random;
+	
+	private FakeResourceManager resourceManager;
+	
+	/** 来自 launcher 线程的请求，等待 flush() **/
+	private final ConcurrentLinkedQueue<Container> starting = new ConcurrentLinkedQueue<Container>();
+	
+	private final ConcurrentLinkedQueue<ContainerId> stopping = new ConcurrentLinkedQueue<ContainerId>();
+	
+	private final AtomicLong startRequests = new AtomicLong();
+	
+	/** 已经开始启动还没有结束的 Container，以及它们是否已经启动完成；只在驱动线程中访问 **/
+	private final Map<ContainerId, Boolean> live = new HashMap<ContainerId, Boolean>();
+	
+	/** 启动过程中被要求停止的 Container，启动完成以后马上停止 **/
+	private final Set<ContainerId> stopRequested = new HashSet<ContainerId>();
+	
+	/** 执行任务图的时候每个 Container 所属的 vertex；在 launcher 的线程中写入 **/
+	private final ConcurrentMap<ContainerId, String> vertices = new ConcurrentHashMap<ContainerId, String>();
+	
+	/** 每个 vertex 成功的 Container 的数量以及最后一个成功的时间；只在驱动线程中访问 **/
+	private final Map<String, long[]> finishes = new TreeMap<String, long[]>();
+	
+	private long started = 0;
+	
+	private long startFailures = 0;
+	
+	private long succeeded = 0;
+	
+	private long failed = 0;
+	
+	private long stopped = 0;
+	
+	public FakeNodeManager( Configuration conf, SimulatedClock clock ) {
+		
+		super( FakeNodeManager.class.getName(), null, (NMClientAsync.CallbackHandler) null );
+		
+		this.clock = clock;
+		
+		this.startLatencyMs = conf.getLong( START_LATENCY_MS, DEFAULT_START_LATENCY_MS );
+		
+		this.stopLatencyMs = conf.getLong( STOP_LATENCY_MS, DEFAULT_STOP_LATENCY_MS );
+		
+		this.runtimeMs = conf.getLong( RUNTIME_MS, DEFAULT_RUNTIME_MS );
+		
+		this.runtimeJitter = Math.min( 1f, Math.max( 0f, conf.getFloat( RUNTIME_JITTER, DEFAULT_RUNTIME_JITTER ) ) );
+		
+		this.failureRatio = conf.getFloat( FAILURE_RATIO, DEFAULT_FAILURE_RATIO );
+		
+		this.startFailureRatio = conf.getFloat( START_FAILURE_RATIO, DEFAULT_START_FAILURE_RATIO );
+		
+		this.random = new Random( conf.getLong( SEED, DEFAULT_SEED ) );
+	}
+	
+	public void setResourceManager( FakeResourceManager resourceManager ) {
+		
+		this.resourceManager = resourceManager;
+	}
+	
+	@Override
+	public void startContainerAsync( Container container, ContainerLaunchContext containerLaunchContext ) {
+		
+		String vertex = containerLaunchContext.getEnvironment().get( ApplicationMasterConfig.ENV_VERTEX );
+		
+		if ( vertex != null ) {
+			
+			vertices.put( container.getId(), vertex );
+		}
+		
+		starting.add( container );
+		
+		startRequests.incrementAndGet();
+	}
+	
+	@Override
+	public void stopContainerAsync( ContainerId containerId, NodeId nodeId ) {
+		
+		stopping.add( containerId );
+	}
+	
+	@Override
+	public void increaseContainerResourceAsync( Container container ) {
+		
+		throw new UnsupportedOperationException( "Resizing containers is not simulated" );
+	}
+	
+	@Override
+	public void getContainerStatusAsync( ContainerId containerId, NodeId nodeId ) {
+		
+		throw new UnsupportedOperationException( "Querying container status is not simulated" );
+	}
+	
+	/**
+	 * 在驱动线程中把缓存的请求按照确定的顺序转换成事件
+	 */
+	public void flush() {
+		
+		List<Container> containers = new ArrayList<Container>();
+		
+		for ( Container container = starting.poll(); container != null; container = starting.poll() ) {
+			
+			containers.add( container );
+		}
+		
+		Collections.sort( containers, BY_ID );
+		
+		for ( Container container : containers ) {
+			
+			scheduleStart( container.getId() );
+		}
+		
+		List<ContainerId> containerIds = new ArrayList<ContainerId>();
+		
+		for ( ContainerId containerId = stopping.poll(); containerId != null; containerId = stopping.poll() ) {
+			
+			containerIds.add( containerId );
+		}
+		
+		Collections.sort( containerIds );
+		
+		for ( final ContainerId containerId : containerIds ) {
+			
+			clock.schedule( stopLatencyMs, new Runnable() {
+				
+				@Override
+				public void run() {
+					
+					stop( containerId );
+				}
+			});
+		}
+	}
+	
+	private void scheduleStart( final ContainerId containerId ) {
+		
+		live.put( containerId, Boolean.FALSE );
+		
+		if ( random.nextFloat() < startFailureRatio ) {
+			
+			clock.schedule( startLatencyMs, new Runnable() {
+				
+				@Override
+				public void run() {
+					
+					live.remove( containerId );
+					
+					stopRequested.remove( containerId );
+					
+					startFailures++;
+					
+					// AM 负责把启动失败的 Container 还给 RM
+					callbackHandler.onStartContainerError( containerId, new IOException( "Simulated start failure of " + containerId ) );
+				}
+			});
+			
+			return;
+		}
+		
+		final boolean failure = random.nextFloat() < failureRatio;
+		
+		long runtime = Math.max( 1, (long) ( runtimeMs * ( 1 + runtimeJitter * ( 2 * random.nextFloat() - 1 ) ) ) );
+		
+		clock.schedule( startLatencyMs, new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				live.put( containerId, Boolean.TRUE );
+				
+				started++;
+				
+				callbackHandler.onContainerStarted( containerId, Collections.<String, ByteBuffer>emptyMap() );
+				
+				if ( stopRequested.remove( containerId ) ) {
+					
+					stop( containerId );
+				}
+			}
+		});
+		
+		clock.schedule( startLatencyMs + runtime, new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				if ( live.remove( containerId ) == null ) {
+					
+					return; // 已经被停止了
+				}
+				
+				if ( failure ) {
+					
+					failed++;
+					
+					resourceManager.containerCompleted( containerId, 1, "Simulated failure of " + containerId );
+				
+				} else {
+					
+					succeeded++;
+					
+					String vertex = vertices.remove( containerId );
+					
+					if ( vertex != null ) {
+						
+						long[] finish = finishes.get( vertex );
+						
+						if ( finish == null ) {
+							
+							finish = new long[2];
+							
+							finishes.put( vertex, finish );
+						}
+						
+						finish[0]++;
+						
+						finish[1] = clock.now();
+					}
+					
+					resourceManager.containerCompleted( containerId, ContainerExitStatus.SUCCESS, "" );
+				}
+			}
+		});
+	}
+	
+	private void stop( ContainerId containerId ) {
+		
+		Boolean running = live.get( containerId );
+		
+		if ( Boolean.FALSE.equals( running ) ) {
+			
+			stopRequested.add( containerId );
+			
+			return;
+		}
+		
+		if ( running != null ) {
+			
+			live.remove( containerId );
+			
+			stopped++;
+			
+			resourceManager.containerCompleted( containerId, ContainerExitStatus.KILLED_BY_APPMASTER, "Container killed by the ApplicationMaster." );
+		}
+		
+		callbackHandler.onContainerStopped( containerId );
+	}
+	
+	public long getStartRequests() {
+		
+		return startRequests.get();
+	}
+	
+	/**
+	 *
+	 * @return 启动失败的 Container，AM 已经把它们还给了 RM
+	 */
+	public long getStartFailures() {
+		
+		return startFailures;
+	}
+	
+	/**
+	 *
+	 * @return 正在启动或者运行中的 Container
+	 */
+	public int getLive() {
+		
+		return live.size();
+	}
+	
+	/**
+	 *
+	 * @return 执行任务图的时候，每个 vertex 最后一个任务成功的时间
+	 */
+	public String getVertexStats() {
+		
+		StringBuilder stats = new StringBuilder();
+		
+		for ( Map.Entry<String, long[]> finish : finishes.entrySet() ) {
+			
+			stats.append( stats.length() == 0 ? "" : ", " ).append( String.format( "%s %d succeeded by %.1f s", finish.getKey(), finish.getValue()[0], finish.getValue()[1] / 1000.0 ) );
+		}
+		
+		return stats.toString();
+	}
+	
+	public String getStats() {
+		
+		return String.format( "%d started, %d failed to start, %d succeeded, %d failed, %d stopped, %d still alive", started, startFailures, succeeded, failed, stopped, live.size() );
+	}
+
+}
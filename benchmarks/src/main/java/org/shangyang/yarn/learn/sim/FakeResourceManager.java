@@ -0,0 +1,542 @@
+package org.shangyang.yarn.learn.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.protocolrecords.RegisterApplicationMasterResponse;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerState;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
+import org.apache.hadoop.yarn.util.Records;
+
+/**
+ *
+ * 进程内的 ResourceManager，代替 AMRMClientAsync 交给 AM 使用；没有 RPC，也没有调度器，只有一个按照虚拟时间心跳的循环：
+ *
+ * 每次心跳先把这段时间内结束的 Container 通过 onContainersCompleted 交给 AM，再从排队的 ContainerRequest 中分配最多 allocation-batch 个
+ * Container（与 RM 一样先满足 priority 数字小的请求，同一个 priority 按照注册的顺序；受每个 Node 的内存以及 vcores 的限制，按 Node 轮流分配），通过 onContainersAllocated 交给 AM；两个回调都在驱动线程上执行，
+ * 与 AMRMClientAsync 的回调线程一样是串行的。回调所花的真实时间单独统计，用来计算 AM 处理回调的吞吐量。
+ *
+ * 与 AMRMClient 一样，注册的 ContainerRequest 一直留在请求表中，直到 AM 调用 removeContainerRequest；已经被满足但是没有删除的请求，
+ * 在 AM 下一次注册新的请求的时候会随着整张表再次发给 RM（真实的 AMRMClient 按照 priority、capability 以及位置分组重发，这里不区分分组），
+ * RM 就会为它们再分配一次 Container。
+ *
+ * 不支持 locality，ContainerRequest 中的 nodes 以及 racks 被忽略。
+ *
+ * @author 商洋
+ *
+ */
+public class FakeResourceManager extends AMRMClientAsync<AMRMClient.ContainerRequest> {
+	
+	public static final String PREFIX = "learn.yarn.sim.";
+	
+	public static final String NODES = PREFIX + "nodes";
+	
+	public static final int DEFAULT_NODES = 1000;
+	
+	public static final String NODE_MEMORY_MB = PREFIX + "node.memory-mb";
+	
+	public static final int DEFAULT_NODE_MEMORY_MB = 64 * 1024;
+	
+	public static final String NODE_VCORES = PREFIX + "node.vcores";
+	
+	public static final int DEFAULT_NODE_VCORES = 64;
+	
+	public static final String HEARTBEAT_MS = PREFIX + "heartbeat-ms";
+	
+	public static final int DEFAULT_HEARTBEAT_MS = 1000;
+	
+	/** 每次心跳最多分配的 Container 数量，也就是 RM 的分配速率 **/
+	public static final String ALLOCATION_BATCH = PREFIX + "allocation-batch";
+	
+	public static final int DEFAULT_ALLOCATION_BATCH = 1000;
+	
+	/** Priority 的 compareTo 把数字大的排在前面，这里按照数字从小到大，也就是 RM 满足请求的顺序 **/
+	private static final Comparator<Priority> HIGHEST_FIRST = new Comparator<Priority>() {
+		
+		@Override
+		public int compare( Priority p1, Priority p2 ) {
+			
+			return Integer.compare( p1.getPriority(), p2.getPriority() );
+		}
+	};
+	
+	private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance( ApplicationId.newInstance( 0, 1 ), 1 );
+	
+	private final SimulatedClock clock;
+	
+	private final int heartbeatMs;
+	
+	private final int allocationBatch;
+	
+	private final NodeId[] nodes;
+	
+	private final long[] freeMemoryMb;
+	
+	private final int[] freeVcores;
+	
+	private final Resource nodeCapability;
+	
+	/** AMRMClient 的请求表；ContainerRequest 没有重写 equals，按照对象本身去重以及删除 **/
+	private final Set<AMRMClient.ContainerRequest> table = new LinkedHashSet<AMRMClient.ContainerRequest>();
+	
+	/** RM 还需要为之分配 Container 的请求 **/
+	private final Set<AMRMClient.ContainerRequest> pending = new LinkedHashSet<AMRMClient.ContainerRequest>();
+	
+	/** 已经分配过 Container、但是还留在请求表中的请求 **/
+	private final Set<AMRMClient.ContainerRequest> satisfied = new LinkedHashSet<AMRMClient.ContainerRequest>();
+	
+	private final List<ContainerStatus> completed = new ArrayList<ContainerStatus>();
+	
+	/** 已经分配出去还没有结束的 Container 占用的资源以及所在的 Node **/
+	private final Map<ContainerId, Container> assigned = new HashMap<ContainerId, Container>();
+	
+	private final Map<NodeId, Integer> nodeIndex = new HashMap<NodeId, Integer>();
+	
+	private int nextNode = 0;
+	
+	private long nextContainerId = 2; // 1 是 AM 自己
+	
+	private long allocated = 0;
+	
+	private long released = 0;
+	
+	private long requested = 0;
+	
+	private long removed = 0;
+	
+	private long reasked = 0;
+	
+	private int heartbeats = 0;
+	
+	private int allocateCallbacks = 0;
+	
+	private int completeCallbacks = 0;
+	
+	private long completedStatuses = 0;
+	
+	private long callbackNanos = 0;
+	
+	private boolean registered = false;
+	
+	private int unregistrations = 0;
+	
+	private FinalApplicationStatus finalStatus;
+	
+	private String finalMessage;
+	
+	public FakeResourceManager( Configuration conf, SimulatedClock clock, AMRMClientAsync.CallbackHandler handler ) {
+		
+		super( conf.getInt( HEARTBEAT_MS, DEFAULT_HEARTBEAT_MS ), handler );
+		
+		this.clock = clock;
+		
+		this.heartbeatMs = Math.max( 1, conf.getInt( HEARTBEAT_MS, DEFAULT_HEARTBEAT_MS ) );
+		
+		this.allocationBatch = Math.max( 1, conf.getInt( ALLOCATION_BATCH, DEFAULT_ALLOCATION_BATCH ) );
+		
+		int count = Math.max( 1, conf.getInt( NODES, DEFAULT_NODES ) );
+		
+		this.nodeCapability = Resource.newInstance( conf.getInt( NODE_MEMORY_MB, DEFAULT_NODE_MEMORY_MB ), conf.getInt( NODE_VCORES, DEFAULT_NODE_VCORES ) );
+		
+		this.nodes = new NodeId[ count ];
+		
+		this.freeMemoryMb = new long[ count ];
+		
+		this.freeVcores = new int[ count ];
+		
+		for ( int i = 0; i < count; i++ ) {
+			
+			nodes[i] = NodeId.newInstance( "node-" + i + ".sim", 45454 );
+			
+			nodeIndex.put( nodes[i], i );
+			
+			freeMemoryMb[i] = nodeCapability.getMemorySize();
+			
+			freeVcores[i] = nodeCapability.getVirtualCores();
+		}
+	}
+	
+	/**
+	 * 注册以后开始心跳
+	 */
+	@Override
+	public synchronized RegisterApplicationMasterResponse registerApplicationMaster( String appHostName, int appHostPort, String appTrackingUrl ) throws IOException {
+		
+		if ( registered ) {
+			
+			throw new IOException( "The application master has already registered" );
+		}
+		
+		registered = true;
+		
+		clock.schedule( heartbeatMs, new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				if ( heartbeat() ) {
+					
+					clock.schedule( heartbeatMs, this );
+				}
+			}
+		});
+		
+		RegisterApplicationMasterResponse response = Records.newRecord( RegisterApplicationMasterResponse.class );
+		
+		response.setMaximumResourceCapability( nodeCapability );
+		
+		return response;
+	}
+	
+	@Override
+	public synchronized void unregisterApplicationMaster( FinalApplicationStatus appStatus, String appMessage, String appTrackingUrl ) {
+		
+		unregistrations++;
+		
+		finalStatus = appStatus;
+		
+		finalMessage = appMessage;
+	}
+	
+	/**
+	 * 一次心跳：先交付结束的 Container，再分配新的 Container
+	 *
+	 * @return AM 还没有注销，需要继续心跳
+	 */
+	private boolean heartbeat() {
+		
+		List<ContainerStatus> statuses;
+		
+		synchronized ( this ) {
+			
+			heartbeats++;
+			
+			statuses = new ArrayList<ContainerStatus>( completed );
+			
+			completed.clear();
+		}
+		
+		if ( !statuses.isEmpty() ) {
+			
+			long start = System.nanoTime();
+			
+			handler.onContainersCompleted( statuses );
+			
+			synchronized ( this ) {
+				
+				callbackNanos += System.nanoTime() - start;
+				
+				completeCallbacks++;
+				
+				completedStatuses += statuses.size();
+			}
+		}
+		
+		if ( isUnregistered() || isInState( STATE.STOPPED ) ) {
+			
+			return false;
+		}
+		
+		List<Container> containers = allocate();
+		
+		if ( !containers.isEmpty() ) {
+			
+			long start = System.nanoTime();
+			
+			handler.onContainersAllocated( containers );
+			
+			synchronized ( this ) {
+				
+				callbackNanos += System.nanoTime() - start;
+				
+				allocateCallbacks++;
+			}
+		}
+		
+		return !isUnregistered() && !isInState( STATE.STOPPED );
+	}
+	
+	private synchronized List<Container> allocate() {
+		
+		List<Container> containers = new ArrayList<Container>();
+		
+		// priority 的种类很少，按照 priority 逐个遍历，不需要给所有的请求排序
+		Set<Priority> priorities = new TreeSet<Priority>( HIGHEST_FIRST );
+		
+		for ( AMRMClient.ContainerRequest request : pending ) {
+			
+			priorities.add( request.getPriority() );
+		}
+		
+		for ( Priority priority : priorities ) {
+			
+			if ( !allocate( priority, containers ) ) {
+				
+				break; // 集群满了，等 Container 结束
+			}
+		}
+		
+		allocated += containers.size();
+		
+		return containers;
+	}
+	
+	/**
+	 * 分配该 priority 的请求
+	 *
+	 * @return 没有因为集群满了而停下来
+	 */
+	private boolean allocate( Priority priority, List<Container> containers ) {
+		
+		Iterator<AMRMClient.ContainerRequest> requests = pending.iterator();
+		
+		while ( requests.hasNext() && containers.size() < allocationBatch ) {
+			
+			AMRMClient.ContainerRequest request = requests.next();
+			
+			if ( !request.getPriority().equals( priority ) ) {
+				
+				continue;
+			}
+			
+			Resource capability = request.getCapability();
+			
+			int node = findNode( capability );
+			
+			if ( node < 0 ) {
+				
+				return false;
+			}
+			
+			requests.remove();
+			
+			satisfied.add( request );
+			
+			freeMemoryMb[node] -= capability.getMemorySize();
+			
+			freeVcores[node] -= capability.getVirtualCores();
+			
+			NodeId nodeId = nodes[node];
+			
+			Container container = Container.newInstance( ContainerId.newContainerId( ATTEMPT, nextContainerId++ ), nodeId, nodeId.getHost() + ":8042",
+														  capability, request.getPriority(), null );
+			
+			assigned.put( container.getId(), container );
+			
+			containers.add( container );
+		}
+		
+		return containers.size() < allocationBatch;
+	}
+	
+	/**
+	 * 从上一次分配的 Node 开始轮流查找有足够资源的 Node
+	 */
+	private int findNode( Resource capability ) {
+		
+		for ( int i = 0; i < nodes.length; i++ ) {
+			
+			int node = ( nextNode + i ) % nodes.length;
+			
+			if ( freeMemoryMb[node] >= capability.getMemorySize() && freeVcores[node] >= capability.getVirtualCores() ) {
+				
+				nextNode = ( node + 1 ) % nodes.length;
+				
+				return node;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * NM 报告 Container 结束，释放资源，下一次心跳交给 AM
+	 */
+	public synchronized void containerCompleted( ContainerId containerId, int exitStatus, String diagnostics ) {
+		
+		if ( free( containerId ) ) {
+			
+			completed.add( ContainerStatus.newInstance( containerId, ContainerState.COMPLETE, diagnostics, exitStatus ) );
+		}
+	}
+	
+	private boolean free( ContainerId containerId ) {
+		
+		Container container = assigned.remove( containerId );
+		
+		if ( container == null ) {
+			
+			return false;
+		}
+		
+		int node = nodeIndex.get( container.getNodeId() );
+		
+		freeMemoryMb[node] += container.getResource().getMemorySize();
+		
+		freeVcores[node] += container.getResource().getVirtualCores();
+		
+		return true;
+	}
+	
+	@Override
+	public synchronized void addContainerRequest( AMRMClient.ContainerRequest req ) {
+		
+		if ( table.add( req ) ) {
+			
+			requested++;
+			
+			pending.add( req );
+			
+			// 整张表重新发给 RM，已经被满足的请求又变成了需要分配的请求
+			reasked += satisfied.size();
+			
+			pending.addAll( satisfied );
+			
+			satisfied.clear();
+		}
+	}
+	
+	@Override
+	public synchronized void removeContainerRequest( AMRMClient.ContainerRequest req ) {
+		
+		if ( table.remove( req ) ) {
+			
+			removed++;
+			
+			pending.remove( req );
+			
+			satisfied.remove( req );
+		}
+	}
+	
+	/**
+	 * AM 不需要的 Container 马上释放，不会再出现在 onContainersCompleted 中
+	 */
+	@Override
+	public synchronized void releaseAssignedContainer( ContainerId containerId ) {
+		
+		if ( free( containerId ) ) {
+			
+			released++;
+		}
+	}
+	
+	@Override
+	public synchronized Resource getAvailableResources() {
+		
+		long memory = 0;
+		
+		int vcores = 0;
+		
+		for ( int i = 0; i < nodes.length; i++ ) {
+			
+			memory += freeMemoryMb[i];
+			
+			vcores += freeVcores[i];
+		}
+		
+		return Resource.newInstance( memory, vcores );
+	}
+	
+	@Override
+	public int getClusterNodeCount() {
+		
+		return nodes.length;
+	}
+	
+	@Override
+	public void updateBlacklist( List<String> blacklistAdditions, List<String> blacklistRemovals ) {
+		
+		// 模拟的 Node 不会出问题，也就不会被加入黑名单
+	}
+	
+	@Override
+	public List<? extends Collection<AMRMClient.ContainerRequest>> getMatchingRequests( Priority priority, String resourceName, Resource capability ) {
+		
+		return Collections.emptyList();
+	}
+	
+	@Override
+	public void requestContainerResourceChange( Container container, Resource capability ) {
+		
+		throw new UnsupportedOperationException( "Resizing containers is not simulated" );
+	}
+	
+	public synchronized boolean isUnregistered() {
+		
+		return unregistrations > 0;
+	}
+	
+	public synchronized int getUnregistrations() {
+		
+		return unregistrations;
+	}
+	
+	public synchronized FinalApplicationStatus getFinalStatus() {
+		
+		return finalStatus;
+	}
+	
+	public synchronized String getFinalMessage() {
+		
+		return finalMessage;
+	}
+	
+	/**
+	 *
+	 * @return 分配出去以后没有被释放的 Container，AM 应该启动它们
+	 */
+	public synchronized long getLaunchable() {
+		
+		return allocated - released;
+	}
+	
+	/**
+	 *
+	 * @return 分配出去还没有结束的 Container
+	 */
+	public synchronized int getAssigned() {
+		
+		return assigned.size();
+	}
+	
+	/**
+	 * 
+	 * @return 还留在请求表中的请求，包括已经被满足但是 AM 没有删除的
+	 */
+	public synchronized int getPendingRequests() {
+		
+		return table.size();
+	}
+	
+	public synchronized String getStats() {
+		
+		return String.format( "%d heartbeats, %d requested, %d removed, %d re-asked, %d allocated in %d callbacks, %d released, %d completed in %d callbacks, callbacks took %d ms (%.0f containers/s)",
+							  heartbeats, requested, removed, reasked, allocated, allocateCallbacks, released, completedStatuses, completeCallbacks,
+							  TimeUnit.NANOSECONDS.toMillis( callbackNanos ),
+							  callbackNanos == 0 ? 0 : ( allocated + completedStatuses ) * 1e9 / callbackNanos );
+	}
+
+}
@@ -0,0 +1,299 @@
+package org.shangyang.yarn.learn.sim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.service.Service;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.shangyang.yarn.learn.am.ApplicationMasterConfig;
+import org.shangyang.yarn.learn.am.ApplicationMasterMetrics;
+import org.shangyang.yarn.learn.am.ApplicationMasterResourceManagerCallbackHandler;
+import org.shangyang.yarn.learn.am.ContainerLauncher;
+import org.shangyang.yarn.learn.am.ContainerLifecycleTracker;
+import org.shangyang.yarn.learn.am.EventJournal;
+import org.shangyang.yarn.learn.am.MetricsHttpServer;
+import org.shangyang.yarn.learn.am.Speculator;
+import org.shangyang.yarn.learn.am.TaskGraph;
+import org.shangyang.yarn.learn.sizing.ContainerSizer;
+
+/**
+ *
+ * 在一个 JVM 中用 FakeResourceManager 以及 FakeNodeManager 驱动真实的 AM 回调逻辑（普通模式），跑完 containers 个 Container 的整个生命周期，输出，
+ * 1) 虚拟时间下的完成时间以及真实的耗时；
+ * 2) AM 处理 onContainersAllocated / onContainersCompleted 所花的真实时间，以及每秒处理的 Container 数量；
+ * 3) 堆内存的峰值，以及结束以后 AM 仍然持有的内存（每个 Container 平均多少字节）；
+ * 4) 退出是否干净：只注销一次、两个客户端都已经停止、没有残留的 Container 以及 ContainerRequest、进度为 100%；不干净的时候退出码为 1。
+ *
+ * 所有的参数都是配置项，通过 -D 修改，比如 10 万个 Container、每次心跳分配 5000 个、5% 的失败率：
+ *
+ *   java -Xmx4g -cp target/benchmarks.jar org.shangyang.yarn.learn.sim.ScaleSimulation \
+ *        -Dlearn.yarn.sim.allocation-batch=5000 -Dlearn.yarn.sim.container.failure-ratio=0.05 100000
+ *
+ * 配置了 learn.yarn.am.dag.* 的时候执行任务图，Container 的数量就是任务图中任务的数量，可以用来比较流水线与逐个阶段执行的完成时间。
+ *
+ * 设置了 -Dlearn.yarn.am.journal.dir 的时候，AM 的事件日志写在该目录下，可以用来衡量事件日志的开销，也可以用 EventJournalReader 查看。
+ *
+ * 推测执行依赖真实的时间，这里关掉了；每个 Node 同时启动的 Container 数量也不做限制，因为启动完成的回调要等虚拟时间推进以后才会到来。
+ *
+ * @author 商洋
+ *
+ */
+public class ScaleSimulation {
+	
+	/** launcher 线程池这么久都没有把分配到的 Container 交给 NM，说明 AM 卡住了 **/
+	private static final long LAUNCH_TIMEOUT_MS = TimeUnit.MINUTES.toMillis( 1 );
+	
+	private final Configuration conf;
+	
+	private final int containers;
+	
+	private final List<String> problems = new ArrayList<String>();
+	
+	public ScaleSimulation( Configuration conf, int containers ) {
+		
+		this.conf = conf;
+		
+		this.containers = containers;
+	}
+	
+	public String run() throws Exception {
+		
+		StringBuilder report = new StringBuilder();
+		
+		long baseline = usedHeapAfterGc();
+		
+		resetPeakUsage();
+		
+		SimulatedClock clock = new SimulatedClock();
+		
+		ApplicationMasterMetrics metrics = new ApplicationMasterMetrics();
+		
+		FakeNodeManager nodeManager = new FakeNodeManager( conf, clock );
+		
+		ApplicationMasterResourceManagerCallbackHandler handler = new ApplicationMasterResourceManagerCallbackHandler( conf, metrics, new ContainerLifecycleTracker( metrics ),
+																														nodeManager, clock.newExecutor() );
+		
+		FakeResourceManager resourceManager = new FakeResourceManager( conf, clock, handler );
+		
+		nodeManager.setResourceManager( resourceManager );
+		
+		TaskGraph graph = TaskGraph.parse( conf );
+		
+		if ( graph != null ) {
+			
+			handler.setTaskGraph( graph );
+			
+		} else {
+			
+			handler.setContainers( containers );
+		}
+		
+		handler.setResourceManager( resourceManager );
+		
+		EventJournal journal = EventJournal.open( conf );
+		
+		if ( journal != null ) {
+			
+			handler.setJournal( journal );
+		}
+		
+		resourceManager.init( conf );
+		
+		resourceManager.start();
+		
+		long start = System.nanoTime();
+		
+		resourceManager.registerApplicationMaster( "localhost", 0, "" );
+		
+		handler.requestContainers( Resource.newInstance( conf.getInt( ApplicationMasterConfig.CONTAINER_MEMORY_MB, ApplicationMasterConfig.DEFAULT_CONTAINER_MEMORY_MB ),
+														 conf.getInt( ApplicationMasterConfig.CONTAINER_VCORES, ApplicationMasterConfig.DEFAULT_CONTAINER_VCORES ) ),
+								   Priority.newInstance( 0 ) );
+		
+		while ( !resourceManager.isUnregistered() ) {
+			
+			awaitLaunches( resourceManager, nodeManager, metrics.getGauges().get( "gang_held_containers" ) );
+			
+			nodeManager.flush();
+			
+			if ( !clock.runNext() ) {
+				
+				problems.add( "the simulation ran out of events before the application master unregistered" );
+				
+				break;
+			}
+		}
+		
+		long wallMs = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+		
+		long peak = peakUsage();
+		
+		long retained = usedHeapAfterGc();
+		
+		report.append( String.format( "%d containers, %d events, simulated %.1f s in %d ms%n", containers, clock.getExecuted(), clock.now() / 1000.0, wallMs ) );
+		
+		report.append( String.format( "RM: %s%n", resourceManager.getStats() ) );
+		
+		report.append( String.format( "NM: %s%n", nodeManager.getStats() ) );
+		
+		if ( graph != null ) {
+			
+			report.append( String.format( "vertices: %s%n", nodeManager.getVertexStats() ) );
+		}
+		
+		report.append( String.format( "heap: peak %d MB, retained %d MB (%d bytes per container)%n",
+									  ( peak - baseline ) >> 20, ( retained - baseline ) >> 20, containers == 0 ? 0 : ( retained - baseline ) / containers ) );
+		
+		if ( journal != null ) {
+			
+			report.append( String.format( "journal: %s (%d KB, %d events dropped)%n", journal.getFile(), journal.getFile().length() >> 10, journal.getDropped() ) );
+		}
+		
+		report.append( String.format( "final status %s: %s%n", resourceManager.getFinalStatus(), resourceManager.getFinalMessage() ) );
+		
+		checkShutdown( handler, resourceManager, nodeManager );
+		
+		report.append( problems.isEmpty() ? "shutdown OK" : "shutdown FAILED: " + problems ).append( String.format( "%n" ) );
+		
+		return report.toString();
+	}
+	
+	public boolean isClean() {
+		
+		return problems.isEmpty();
+	}
+	
+	/**
+	 * 等待 launcher 线程池把分配到的 Container 全部交给 NM，这之后 NM 的请求才是完整的，事件的顺序才是确定的；gang 模式下还没有凑齐而攒着的 Container 除外。
+	 * 启动失败的 Container 被 AM 还给了 RM，两边都不再计算它们
+	 */
+	private void awaitLaunches( FakeResourceManager resourceManager, FakeNodeManager nodeManager, ApplicationMasterMetrics.Gauge held ) throws InterruptedException {
+		
+		long deadline = System.currentTimeMillis() + LAUNCH_TIMEOUT_MS;
+		
+		while ( nodeManager.getStartRequests() - nodeManager.getStartFailures() < resourceManager.getLaunchable() - held.getValue() && !resourceManager.isUnregistered() ) {
+			
+			if ( System.currentTimeMillis() > deadline ) {
+				
+				throw new IllegalStateException( ( resourceManager.getLaunchable() - held.getValue() - nodeManager.getStartRequests() + nodeManager.getStartFailures() ) + " containers were never launched" );
+			}
+			
+			Thread.sleep( 1 );
+		}
+	}
+	
+	private void checkShutdown( ApplicationMasterResourceManagerCallbackHandler handler, FakeResourceManager resourceManager, FakeNodeManager nodeManager ) {
+		
+		if ( resourceManager.getUnregistrations() != 1 ) {
+			
+			problems.add( "unregistered " + resourceManager.getUnregistrations() + " times" );
+		}
+		
+		if ( !resourceManager.isInState( Service.STATE.STOPPED ) ) {
+			
+			problems.add( "the AMRM client is " + resourceManager.getServiceState() );
+		}
+		
+		if ( !nodeManager.isInState( Service.STATE.STOPPED ) ) {
+			
+			problems.add( "the NM client is " + nodeManager.getServiceState() );
+		}
+		
+		if ( nodeManager.getLive() > 0 ) {
+			
+			problems.add( nodeManager.getLive() + " containers still alive" );
+		}
+		
+		if ( resourceManager.getAssigned() > 0 ) {
+			
+			problems.add( resourceManager.getAssigned() + " containers still assigned" );
+		}
+		
+		if ( resourceManager.getPendingRequests() > 0 ) {
+			
+			problems.add( resourceManager.getPendingRequests() + " container requests still outstanding" );
+		}
+		
+		if ( handler.getProgress() < 1f ) {
+			
+			problems.add( "progress " + handler.getProgress() );
+		}
+	}
+	
+	private static long usedHeapAfterGc() {
+		
+		System.gc();
+		
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	private static void resetPeakUsage() {
+		
+		for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			
+			if ( pool.getType() == MemoryType.HEAP ) {
+				
+				pool.resetPeakUsage();
+			}
+		}
+	}
+	
+	/**
+	 * 各个堆内存池的峰值之和，略大于真实的峰值，因为各个池的峰值不一定出现在同一时刻
+	 */
+	private static long peakUsage() {
+		
+		long peak = 0;
+		
+		for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			
+			if ( pool.getType() == MemoryType.HEAP ) {
+				
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		
+		return peak;
+	}
+	
+	public static void main( String[] args ) throws Exception {
+		
+		Configuration conf = new YarnConfiguration();
+		
+		String[] remaining = new GenericOptionsParser( conf, args ).getRemainingArgs();
+		
+		TaskGraph graph = TaskGraph.parse( conf );
+		
+		int containers = graph != null ? graph.getSlots() : remaining.length > 0 ? Integer.parseInt( remaining[0] ) : 100000;
+		
+		conf.setInt( ApplicationMasterConfig.CONTAINERS, containers );
+		
+		conf.setBooleanIfUnset( Speculator.ENABLED, false );
+		
+		conf.setBooleanIfUnset( MetricsHttpServer.ENABLED, false );
+		
+		// 不要把模拟的结果写进资源使用的历史
+		conf.setBooleanIfUnset( ContainerSizer.ENABLED, false );
+		
+		conf.setIfUnset( ContainerLauncher.MAX_STARTS_PER_NODE, String.valueOf( Integer.MAX_VALUE ) );
+		
+		// AM 为每个 Container 打好几行 INFO 日志，10 万个 Container 的时候测的就是日志了
+		Logger.getLogger( "org.shangyang.yarn.learn" ).setLevel( Level.ERROR );
+		
+		ScaleSimulation simulation = new ScaleSimulation( conf, containers );
+		
+		System.out.print( simulation.run() );
+		
+		System.exit( simulation.isClean() ? 0 : 1 );
+	}
+
+}
@@ -0,0 +1,407 @@
+package org.shangyang.yarn.learn.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ *
+ * 虚拟时钟：所有的事件按照（虚拟时间，加入的先后顺序）排队，由驱动线程通过 runNext() 逐个执行，执行之前把当前时间推进到事件的时间。
+ *
+ * 同一个种子、同样的调度顺序，得到的事件序列就完全相同，与机器的快慢无关；因此只有驱动线程可以调度事件，
+ * 其它线程（比如 ContainerLauncher 的线程池）产生的请求需要先缓存起来，由驱动线程按照确定的顺序转换成事件。
+ *
+ * newExecutor() 得到一个运行在虚拟时间上的 ScheduledExecutorService，交给 AM 代替它自己的定时线程；它的 shutdown 只影响它自己调度的事件。
+ *
+ * @author 商洋
+ *
+ */
+public class SimulatedClock {
+	
+	private final PriorityQueue<Event<?>> events = new PriorityQueue<Event<?>>();
+	
+	private long now = 0;
+	
+	private long sequence = 0;
+	
+	private long executed = 0;
+	
+	/**
+	 *
+	 * @return 当前的虚拟时间，毫秒
+	 */
+	public synchronized long now() {
+		
+		return now;
+	}
+	
+	/**
+	 *
+	 * @return 已经执行的事件数量
+	 */
+	public synchronized long getExecuted() {
+		
+		return executed;
+	}
+	
+	public synchronized int getPending() {
+		
+		return events.size();
+	}
+	
+	/**
+	 * 在 delayMs 以后执行 task
+	 */
+	public ScheduledFuture<Void> schedule( long delayMs, Runnable task ) {
+		
+		return schedule( delayMs, task, null );
+	}
+	
+	private synchronized ScheduledFuture<Void> schedule( long delayMs, final Runnable task, VirtualExecutor owner ) {
+		
+		Event<Void> event = new Event<Void>( now + Math.max( 0, delayMs ), sequence++, new Callable<Void>() {
+			
+			@Override
+			public Void call() throws Exception {
+				
+				task.run();
+				
+				return null;
+			}
+		
+		}, owner );
+		
+		events.add( event );
+		
+		return event;
+	}
+	
+	private synchronized <V> Event<V> schedule( long delayMs, Callable<V> task, VirtualExecutor owner ) {
+		
+		Event<V> event = new Event<V>( now + Math.max( 0, delayMs ), sequence++, task, owner );
+		
+		events.add( event );
+		
+		return event;
+	}
+	
+	/**
+	 * 把时间推进到最早的一个事件并执行它；事件在锁外执行，它可以继续调度新的事件
+	 *
+	 * @return 没有事件可以执行的时候返回 false
+	 */
+	public boolean runNext() {
+		
+		Event<?> event;
+		
+		synchronized ( this ) {
+			
+			do {
+				
+				event = events.poll();
+			
+			} while ( event != null && event.isCancelled() );
+			
+			if ( event == null ) {
+				
+				return false;
+			}
+			
+			now = event.time;
+			
+			executed++;
+		}
+		
+		event.run();
+		
+		// 模拟器自己的事件出错说明模拟本身出了问题，不能忽略；交给 executor 的任务与真实的线程池一样，异常留在 future 中
+		Throwable failure = event.getFailure();
+		
+		if ( event.owner == null && failure != null ) {
+			
+			throw new IllegalStateException( "The event at " + event.time + "ms failed", failure );
+		}
+		
+		return true;
+	}
+	
+	public ScheduledExecutorService newExecutor() {
+		
+		return new VirtualExecutor();
+	}
+	
+	private synchronized List<Runnable> cancelAll( VirtualExecutor owner ) {
+		
+		List<Runnable> cancelled = new ArrayList<Runnable>();
+		
+		for ( Event<?> event : events ) {
+			
+			if ( event.owner == owner && event.cancel( false ) ) {
+				
+				cancelled.add( event );
+			}
+		}
+		
+		return cancelled;
+	}
+	
+	private synchronized boolean hasPending( VirtualExecutor owner ) {
+		
+		for ( Event<?> event : events ) {
+			
+			if ( event.owner == owner && !event.isCancelled() ) {
+				
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private class Event<V> implements ScheduledFuture<V>, Runnable {
+		
+		private final long time;
+		
+		private final long sequence;
+		
+		private final Callable<V> task;
+		
+		private final VirtualExecutor owner;
+		
+		private boolean cancelled;
+		
+		private boolean done;
+		
+		private V result;
+		
+		private Throwable failure;
+		
+		Event( long time, long sequence, Callable<V> task, VirtualExecutor owner ) {
+			
+			this.time = time;
+			
+			this.sequence = sequence;
+			
+			this.task = task;
+			
+			this.owner = owner;
+		}
+		
+		@Override
+		public void run() {
+			
+			try {
+				
+				V value = task.call();
+				
+				synchronized ( this ) {
+					
+					result = value;
+				}
+			
+			} catch ( Exception e ) {
+				
+				synchronized ( this ) {
+					
+					failure = e;
+				}
+			}
+			
+			synchronized ( this ) {
+				
+				done = true;
+			}
+		}
+		
+		synchronized Throwable getFailure() {
+			
+			return failure;
+		}
+		
+		@Override
+		public long getDelay( TimeUnit unit ) {
+			
+			return unit.convert( time - now(), TimeUnit.MILLISECONDS );
+		}
+		
+		@Override
+		public int compareTo( Delayed o ) {
+			
+			Event<?> other = (Event<?>) o;
+			
+			if ( time != other.time ) {
+				
+				return time < other.time ? -1 : 1;
+			}
+			
+			return sequence < other.sequence ? -1 : ( sequence == other.sequence ? 0 : 1 );
+		}
+		
+		@Override
+		public synchronized boolean cancel( boolean mayInterruptIfRunning ) {
+			
+			if ( done || cancelled ) {
+				
+				return false;
+			}
+			
+			cancelled = true;
+			
+			return true;
+		}
+		
+		@Override
+		public synchronized boolean isCancelled() {
+			
+			return cancelled;
+		}
+		
+		@Override
+		public synchronized boolean isDone() {
+			
+			return done || cancelled;
+		}
+		
+		/**
+		 * 虚拟时间只由驱动线程推进，在驱动线程中等待一个还没有执行的事件永远不会返回，所以这里不等待
+		 */
+		@Override
+		public synchronized V get() throws ExecutionException {
+			
+			if ( !done ) {
+				
+				throw new IllegalStateException( "The event at " + time + "ms has not run yet, now is " + now() + "ms" );
+			}
+			
+			if ( failure != null ) {
+				
+				throw new ExecutionException( failure );
+			}
+			
+			return result;
+		}
+		
+		@Override
+		public V get( long timeout, TimeUnit unit ) throws ExecutionException, TimeoutException {
+			
+			synchronized ( this ) {
+				
+				if ( !done ) {
+					
+					throw new TimeoutException();
+				}
+			}
+			
+			return get();
+		}
+	}
+	
+	private class VirtualExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+		
+		private volatile boolean shutdown = false;
+		
+		private void checkRunning() {
+			
+			if ( shutdown ) {
+				
+				throw new RejectedExecutionException( "The executor has been shut down" );
+			}
+		}
+		
+		@Override
+		public void execute( Runnable command ) {
+			
+			checkRunning();
+			
+			SimulatedClock.this.schedule( 0, command, this );
+		}
+		
+		@Override
+		public ScheduledFuture<?> schedule( Runnable command, long delay, TimeUnit unit ) {
+			
+			checkRunning();
+			
+			return SimulatedClock.this.schedule( unit.toMillis( delay ), command, this );
+		}
+		
+		@Override
+		public <V> ScheduledFuture<V> schedule( Callable<V> callable, long delay, TimeUnit unit ) {
+			
+			checkRunning();
+			
+			return SimulatedClock.this.schedule( unit.toMillis( delay ), callable, this );
+		}
+		
+		@Override
+		public ScheduledFuture<?> scheduleAtFixedRate( Runnable command, long initialDelay, long period, TimeUnit unit ) {
+			
+			return scheduleWithFixedDelay( command, initialDelay, period, unit );
+		}
+		
+		/**
+		 * 事件在执行的那一刻没有耗时，固定频率与固定延迟是一样的；返回的 future 只能取消第一次执行，周期任务通过 shutdown 停止
+		 */
+		@Override
+		public ScheduledFuture<?> scheduleWithFixedDelay( final Runnable command, long initialDelay, final long delay, final TimeUnit unit ) {
+			
+			checkRunning();
+			
+			return SimulatedClock.this.schedule( unit.toMillis( initialDelay ), new Runnable() {
+				
+				@Override
+				public void run() {
+					
+					command.run();
+					
+					if ( !shutdown ) {
+						
+						SimulatedClock.this.schedule( unit.toMillis( delay ), this, VirtualExecutor.this );
+					}
+				}
+			
+			}, this );
+		}
+		
+		@Override
+		public void shutdown() {
+			
+			shutdown = true;
+		}
+		
+		@Override
+		public List<Runnable> shutdownNow() {
+			
+			shutdown = true;
+			
+			return cancelAll( this );
+		}
+		
+		@Override
+		public boolean isShutdown() {
+			
+			return shutdown;
+		}
+		
+		@Override
+		public boolean isTerminated() {
+			
+			return shutdown && !hasPending( this );
+		}
+		
+		@Override
+		public boolean awaitTermination( long timeout, TimeUnit unit ) {
+			
+			return isTerminated();
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 
+ * 根据当前的需求动态的调整 AM 与 RM 之间的心跳间隔。
+ * 
+ * 固定 1 秒的心跳意味着每一轮 Container 的分配都要等上最多 1 秒；所以，
+ * 1) 当还有未被分配的 ContainerRequest，或者还有正在启动的 Container 的时候，使用最小的心跳间隔，尽快的拿到 Container；
+ * 2) 当没有任何需求的时候，每次将心跳间隔翻倍，直到最大的心跳间隔，以减少 RM 调度器的负担。
+ * 
+ * @author 商洋
+ *
+ */
+public class AdaptiveHeartbeatController implements Runnable {
+	
+	private static Log LOGGER = LogFactory.getLog(AdaptiveHeartbeatController.class);
+	
+	public static final String MIN_INTERVAL_MS = ApplicationMasterConfig.PREFIX + "heartbeat.min-interval-ms";
+	
+	public static final int DEFAULT_MIN_INTERVAL_MS = 100;
+	
+	public static final String MAX_INTERVAL_MS = ApplicationMasterConfig.PREFIX + "heartbeat.max-interval-ms";
+	
+	public static final int DEFAULT_MAX_INTERVAL_MS = 3000;
+
+	private final int minIntervalMs;
+	
+	private final int maxIntervalMs;
+	
+	private final ApplicationMasterMetrics metrics;
+	
+	private final ContainerLifecycleTracker tracker;
+	
+	private AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager;
+	
+	private ScheduledExecutorService scheduler;
+	
+	private volatile int currentIntervalMs;
+	
+	public AdaptiveHeartbeatController( Configuration conf, ApplicationMasterMetrics metrics, ContainerLifecycleTracker tracker ) {
+		
+		this.minIntervalMs = Math.max( 1, conf.getInt( MIN_INTERVAL_MS, DEFAULT_MIN_INTERVAL_MS ) );
+		
+		this.maxIntervalMs = Math.max( minIntervalMs, conf.getInt( MAX_INTERVAL_MS, DEFAULT_MAX_INTERVAL_MS ) );
+		
+		this.metrics = metrics;
+		
+		this.tracker = tracker;
+		
+		// 启动的时候马上就要申请 Container，所以从最小的心跳间隔开始
+		this.currentIntervalMs = minIntervalMs;
+		
+		metrics.setHeartbeatIntervalMs( currentIntervalMs );
+	}
+	
+	/**
+	 * 
+	 * @return 创建 AMRMClientAsync 时所使用的初始心跳间隔
+	 */
+	public int getInitialIntervalMs() {
+		
+		return minIntervalMs;
+	}
+	
+	public int getCurrentIntervalMs() {
+		
+		return currentIntervalMs;
+	}
+	
+	/**
+	 * 开始周期性的检查需求，检查的周期就是最小的心跳间隔，检查本身只是读取几个分段计数器，开销可以忽略
+	 */
+	public void start( AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager ) {
+		
+		this.resourceManager = resourceManager;
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon(true).setNameFormat("heartbeat-controller").build() );
+		
+		scheduler.scheduleWithFixedDelay( this, minIntervalMs, minIntervalMs, TimeUnit.MILLISECONDS );
+	}
+	
+	public void stop() {
+		
+		if ( scheduler != null ) {
+			
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Override
+	public void run() {
+		
+		try {
+			
+			adjust();
+			
+		} catch ( Throwable t ) {
+			
+			// 不能让异常中断周期性的调度
+			LOGGER.error("Failed to adjust the heartbeat interval", t );
+		}
+	}
+	
+	void adjust() {
+		
+		int next = nextInterval( tracker.pending() );
+		
+		if ( next != currentIntervalMs ) {
+			
+			if ( LOGGER.isDebugEnabled() ) {
+				LOGGER.debug("Heartbeat interval changed from " + currentIntervalMs + "ms to " + next + "ms");
+			}
+			
+			currentIntervalMs = next;
+			
+			metrics.setHeartbeatIntervalMs( next );
+			
+			resourceManager.setHeartbeatInterval( next );
+		}
+	}
+	
+	/**
+	 * 有需求的时候立刻回到最小间隔，没有需求的时候逐步的退避到最大间隔
+	 * 
+	 * @param demand 未被分配的 ContainerRequest 与已分配但还没有启动的 Container 的总数
+	 */
+	int nextInterval( long demand ) {
+		
+		if ( demand > 0 ) {
+			
+			return minIntervalMs;
+		}
+		
+		return (int) Math.min( (long) currentIntervalMs * 2, maxIntervalMs );
+	}
+	
+}
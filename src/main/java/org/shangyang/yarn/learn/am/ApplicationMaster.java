@@ -1,11 +1,14 @@
 package org.shangyang.yarn.learn.am;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.CountDownLatch;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.yarn.api.protocolrecords.RegisterApplicationMasterResponse;
 import org.apache.hadoop.yarn.api.records.Priority;
@@ -14,6 +17,8 @@ import org.apache.hadoop.yarn.client.api.AMRMClient;
 import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.shangyang.yarn.learn.sizing.ContainerSizer;
+import org.shangyang.yarn.learn.sizing.UsageHistory;
 
 public class ApplicationMaster {
 	
@@ -22,6 +27,14 @@ public class ApplicationMaster {
 	public static void main(String[] args) throws IOException, YarnException, InterruptedException {
 		
 		Configuration conf = new YarnConfiguration();
+		
+		// Client 提交时附带的配置，覆盖 classpath 中的配置
+		File clientConf = new File( ApplicationMasterConfig.CONF_FILE );
+		
+		if ( clientConf.exists() ) {
+			
+			conf.addResource( new Path( clientConf.getAbsolutePath() ) );
+		}
 
 		// 便于使用 minicluster 调试
 		boolean isDebug = false;
@@ -60,10 +73,26 @@ public class ApplicationMaster {
 		 * 2) 注册 Application Master 到 Resource Manager，告知我的运行状态
 		 * 
 		 */
-		ApplicationMasterResourceManagerCallbackHandler applicationMasterResourceManagerCallbackHandler = new ApplicationMasterResourceManagerCallbackHandler( conf );
+		ApplicationMasterMetrics metrics = new ApplicationMasterMetrics();
+		
+		ContainerLifecycleTracker tracker = new ContainerLifecycleTracker( metrics );
+		
+		ApplicationMasterResourceManagerCallbackHandler applicationMasterResourceManagerCallbackHandler = new ApplicationMasterResourceManagerCallbackHandler( conf, metrics, tracker );
+		
+		// Container 的生命周期事件写入日志目录中的二进制事件日志，用 EventJournalReader 离线分析
+		EventJournal journal = EventJournal.open( conf );
+		
+		if ( journal != null ) {
+			
+			applicationMasterResourceManagerCallbackHandler.setJournal( journal );
+		}
+		
+		// 心跳间隔不再是固定的 1 秒，而是根据是否还有未分配的请求以及还没有启动的 Container 动态调整
+		AdaptiveHeartbeatController heartbeatController = new AdaptiveHeartbeatController( conf, metrics, tracker );
 		
 		// 当 RM 回调 AM 的时候，会触发 ApplicationClientCallbackHandler 方法, 第一个参数是心跳间隔
-		AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager = AMRMClientAsync.createAMRMClientAsync( 1000, applicationMasterResourceManagerCallbackHandler );
+		// TimedAMRMClient 记录每一次心跳的往返时间
+		AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager = AMRMClientAsync.createAMRMClientAsync( new TimedAMRMClient( metrics ), heartbeatController.getInitialIntervalMs(), applicationMasterResourceManagerCallbackHandler );
 		
 		resourceManager.init( conf );
 		
@@ -72,97 +101,99 @@ public class ApplicationMaster {
 		// 将 resource manager 注入，这样方便 ApplicationMasterResourceManager 根据 node manager 的情况来控制两者的生命周期。
 		applicationMasterResourceManagerCallbackHandler.setResourceManager( resourceManager );
 		
-		applicationMasterResourceManagerCallbackHandler.setContainers( 5 );
+		applicationMasterResourceManagerCallbackHandler.setHeartbeatController( heartbeatController );
 		
-		/** The ApplicationMaster needs to register itself with the ResourceManager to start heart beating.
-		    The timeout expiry interval at the RM is defined by a config setting accessible via YarnConfiguration.RM_AM_EXPIRY_INTERVAL_MS with the default being defined by YarnConfiguration.DEFAULT_RM_AM_EXPIRY_INTERVAL_MS
-		    三个参数的意义，
-		    1) appHostName, AM's host name, 
-		    2) appHostPort, AM's host port, -1, random, 
-		    3) appTrakcingUrl，告诉 RM，我可以被 trakcing 的 URL 地址，比如，AM 启动了一个 netty web 服务，可以通过 URL 得知执行的状态信息。
-		**/ 
-		RegisterApplicationMasterResponse response = resourceManager.registerApplicationMaster( NetUtils.getHostname(), -1, null );
-
-		Resource clusterMax = response.getMaximumResourceCapability();
+		int containers = conf.getInt( ApplicationMasterConfig.CONTAINERS, ApplicationMasterConfig.DEFAULT_CONTAINERS );
 		
-		CountDownLatch latch = new CountDownLatch( 5 ); // 让 5 个线程同时执行
+		// 普通模式下配置了输入路径的时候，Container 的数量由 split 的数量决定，并且优先申请数据所在的 Node；Worker 模式下不处理输入路径
+		boolean workerMode = conf.getBoolean( ApplicationMasterConfig.WORKER_ENABLED, ApplicationMasterConfig.DEFAULT_WORKER_ENABLED );
 		
-		for( int i=0; i< 5; i++ ) {
+		// 配置了任务图的时候，在一个 AM 中执行多个阶段，下游的任务在输入满足以后马上开始；它优先于输入路径
+		TaskGraph graph = workerMode ? null : TaskGraph.parse( conf );
+		
+		List<InputSplit> splits = workerMode || graph != null ? Collections.<InputSplit>emptyList() : InputSplitter.split( conf );
+		
+		if ( graph != null ) {
 			
-			LOGGER.info("Application Master start to request "+ i +" Container~");
+			LOGGER.info("Execute the task graph " + graph.getVertices() );
 			
-			ContainerRequestRunnable rr = new ContainerRequestRunnable( clusterMax, resourceManager, latch );
+			applicationMasterResourceManagerCallbackHandler.setTaskGraph( graph );
 			
-			rr.setIndex(i);
+		} else if ( !splits.isEmpty() ) {
 			
-			Thread t = new Thread( rr );
+			applicationMasterResourceManagerCallbackHandler.setInputSplits( splits );
 			
-			t.start();
+		} else {
 			
+			applicationMasterResourceManagerCallbackHandler.setContainers( containers );
 		}
 		
-	}
-	
-}
-
-/**
- * 
- * Container Request Runnable Object.
- * 
- * @author 商洋
- *
- * @createTime：Dec 14, 2016 10:15:21 AM
- */
-class ContainerRequestRunnable implements Runnable{
-	
-	private static Log LOGGER = LogFactory.getLog(ContainerRequestRunnable.class);
-	
-	Resource clusterMax;
-	
-	AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager;		
-	
-	CountDownLatch latch;
-	
-	int i;
-	
-	public ContainerRequestRunnable( Resource clusterMax, AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager, CountDownLatch latch ){
+		// 内嵌的 HTTP 服务，对外提供 AM 的运行指标，它的地址作为 tracking URL 注册到 RM
+		String trackingUrl = null;
 		
-		this.clusterMax = clusterMax;
+		if ( conf.getBoolean( MetricsHttpServer.ENABLED, MetricsHttpServer.DEFAULT_ENABLED ) ) {
+			
+			MetricsHttpServer metricsServer = new MetricsHttpServer( conf, metrics, tracker );
+			
+			trackingUrl = metricsServer.start();
+			
+			applicationMasterResourceManagerCallbackHandler.setMetricsServer( metricsServer );
+		}
 		
-		this.resourceManager = resourceManager;
+		/** The ApplicationMaster needs to register itself with the ResourceManager to start heart beating.
+		    The timeout expiry interval at the RM is defined by a config setting accessible via YarnConfiguration.RM_AM_EXPIRY_INTERVAL_MS with the default being defined by YarnConfiguration.DEFAULT_RM_AM_EXPIRY_INTERVAL_MS
+		    三个参数的意义，
+		    1) appHostName, AM's host name, 
+		    2) appHostPort, AM's host port, -1, random, 
+		    3) appTrakcingUrl，告诉 RM，我可以被 trakcing 的 URL 地址，比如，AM 启动了一个 netty web 服务，可以通过 URL 得知执行的状态信息。
+		**/ 
+		RegisterApplicationMasterResponse response = resourceManager.registerApplicationMaster( NetUtils.getHostname(), -1, trackingUrl );
+
+		// 任务的完成情况写入 HDFS 上的检查点；AM 重启以后跳过之前的 attempt 中已经完成的任务，并且接管仍然在运行的 Container
+		TaskCheckpoint checkpoint = TaskCheckpoint.open( conf );
 		
-		this.latch = latch;
+		TaskCheckpoint.State recovered = new TaskCheckpoint.State();
 		
-	}
-	
-	public void setIndex(int index){
+		if ( checkpoint != null ) {
+			
+			recovered = checkpoint.recover();
+			
+			applicationMasterResourceManagerCallbackHandler.setCheckpoint( checkpoint );
+		}
 		
-		i = index;
-	}
-
-	@Override
-	public void run() {
+		// 没有检查点的时候也要处理上一个 attempt 留下来的 Container，不知道它们的 slot，只能释放
+		applicationMasterResourceManagerCallbackHandler.recover( recovered, response.getContainersFromPreviousAttempts() );
 		
-		this.latch.countDown();
+		Resource clusterMax = response.getMaximumResourceCapability();
 		
-		LOGGER.info("Starts to allocated the <"+ i +"> containers, negotiates with Resource Manager ~~~~");
+		if ( graph != null ) {
+			
+			graph.cap( clusterMax );
+		}
 		
 		LOGGER.info("Available cluster memory size: " + clusterMax.getMemorySize() + " and cluster vitual cores : " + clusterMax.getVirtualCores() );
 		
-		LOGGER.info("Allocated the memory size: " + Math.min( clusterMax.getMemorySize(), 128 ) + " and the vitual cores : " + Math.min(clusterMax.getVirtualCores(), 1 ) );
+		Resource fallback = Resource.newInstance( conf.getInt( ApplicationMasterConfig.CONTAINER_MEMORY_MB, ApplicationMasterConfig.DEFAULT_CONTAINER_MEMORY_MB ), 
+												  conf.getInt( ApplicationMasterConfig.CONTAINER_VCORES, ApplicationMasterConfig.DEFAULT_CONTAINER_VCORES ) );
 		
-		// 单机跑，资源有限，慎用
-		Resource capability = Resource.newInstance( Math.min( clusterMax.getMemorySize(), 128 ), Math.min(clusterMax.getVirtualCores(), 1 ) );
+		Resource capability;
 		
-		AMRMClient.ContainerRequest containerRequest = new AMRMClient.ContainerRequest( capability, 
-															 							null, // 让 RM 帮我们选择 Node
-															 							null, // 让 RM 帮我们选择 RACKS
-															 							Priority.newInstance(0) );
+		// 根据同类任务历史上的资源使用情况来决定 Container 的大小
+		if ( conf.getBoolean( ContainerSizer.ENABLED, ContainerSizer.DEFAULT_ENABLED ) ) {
+			
+			capability = new ContainerSizer( conf, new UsageHistory( conf ) ).size( applicationMasterResourceManagerCallbackHandler.getTaskType(), fallback, clusterMax );
+			
+		} else {
+			
+			capability = Resource.newInstance( Math.min( clusterMax.getMemorySize(), fallback.getMemorySize() ), Math.min( clusterMax.getVirtualCores(), fallback.getVirtualCores() ) );
+		}
 		
-		// AM 向 RM 正式提交请求，当请求成功，会回调 ApplicationClientCallbackHandler
-		resourceManager.addContainerRequest( containerRequest );				
+		LOGGER.info("Application Master start to request " + applicationMasterResourceManagerCallbackHandler.getContainers() + " Containers~");
+		
+		applicationMasterResourceManagerCallbackHandler.requestContainers( capability, Priority.newInstance(0) );
+		
+		heartbeatController.start( resourceManager );
 		
 	}
 	
 }
-
@@ -0,0 +1,99 @@
+package org.shangyang.yarn.learn.am;
+
+/**
+ * 
+ * Application Master 相关的配置项，统一以 learn.yarn.am. 作为前缀，可以在 yarn-site.xml 中进行配置。
+ * 
+ * @author 商洋
+ *
+ */
+public final class ApplicationMasterConfig {
+
+	public static final String PREFIX = "learn.yarn.am.";
+	
+	/** Application Master 需要申请的 Container 的数量 **/
+	public static final String CONTAINERS = PREFIX + "containers";
+	
+	public static final int DEFAULT_CONTAINERS = 5;
+	
+	/**
+	 * 是否使用 Worker 模式；Worker 模式下，Container 常驻并且不断的从 AM 拉取任务执行，而不是每个 Container 只执行一次命令
+	 */
+	public static final String WORKER_ENABLED = PREFIX + "worker.enabled";
+	
+	public static final boolean DEFAULT_WORKER_ENABLED = false;
+	
+	/** Worker 模式下任务的数量，默认与 Container 的数量相同 **/
+	public static final String TASKS = PREFIX + "tasks";
+	
+	/** 每个任务需要执行的 shell 命令 **/
+	public static final String TASK_COMMAND = PREFIX + "task.command";
+	
+	// -cN: N 表示要 ping 多少次
+	public static final String DEFAULT_TASK_COMMAND = "ping -c100 www.baidu.com";
+	
+	/** 任务的类型，同一类型的任务共享资源使用的历史；默认由任务命令生成 **/
+	public static final String TASK_TYPE = PREFIX + "task.type";
+	
+	/** 没有资源使用的历史，或者关闭了 learn.yarn.sizing.enabled 的时候，Container 的大小 **/
+	public static final String CONTAINER_MEMORY_MB = PREFIX + "container.memory-mb";
+	
+	// 单机跑，资源有限，慎用
+	public static final int DEFAULT_CONTAINER_MEMORY_MB = 128;
+	
+	public static final String CONTAINER_VCORES = PREFIX + "container.vcores";
+	
+	public static final int DEFAULT_CONTAINER_VCORES = 1;
+	
+	/**
+	 * ApplicationClient 把它的 Configuration 作为 local resource 交给 AM，AM 启动的时候加载
+	 */
+	public static final String CONF_FILE = "learn-yarn-conf.xml";
+	
+	/**
+	 * 由 ApplicationClient 设置的环境变量，告诉 AM 它自己的 jar 在 HDFS 上的位置，这样 AM 可以把同一个 jar 分发给 Worker Container
+	 */
+	public static final String ENV_AM_JAR = "LEARN_YARN_AM_JAR";
+	
+	public static final String ENV_AM_JAR_LENGTH = "LEARN_YARN_AM_JAR_LENGTH";
+	
+	public static final String ENV_AM_JAR_TIMESTAMP = "LEARN_YARN_AM_JAR_TIMESTAMP";
+	
+	public static final String ENV_AM_JAR_VISIBILITY = "LEARN_YARN_AM_JAR_VISIBILITY";
+	
+	/**
+	 * 逗号分隔的 HDFS 输入路径（文件或者目录）；设置以后，每个 block 作为一个 split，每个 split 由一个 Container 处理，
+	 * Container 的数量由 split 的数量决定，并且优先申请数据所在的 Node 以及 Rack
+	 */
+	public static final String INPUT_PATHS = PREFIX + "input.paths";
+	
+	/**
+	 * Worker 模式下的弹性伸缩：集群扩容以后，如果还有排队的任务，并且 RM 返回的 headroom 放得下，就增加 Worker；
+	 * Node 不可用导致 Worker 丢失的时候，如果剩下的 Worker 足够处理排队的任务，就不再补充
+	 */
+	public static final String ELASTIC_ENABLED = PREFIX + "elastic.enabled";
+	
+	public static final boolean DEFAULT_ELASTIC_ENABLED = false;
+	
+	/** 弹性模式下同时存在的 Worker 的上限 **/
+	public static final String ELASTIC_MAX_CONTAINERS = PREFIX + "elastic.max-containers";
+	
+	public static final int DEFAULT_ELASTIC_MAX_CONTAINERS = 100;
+	
+	/** 分配给 Container 的 split，通过环境变量告诉任务命令 **/
+	public static final String ENV_SPLIT_PATH = "LEARN_YARN_SPLIT_PATH";
+	
+	public static final String ENV_SPLIT_START = "LEARN_YARN_SPLIT_START";
+	
+	public static final String ENV_SPLIT_LENGTH = "LEARN_YARN_SPLIT_LENGTH";
+	
+	/** 执行任务图的时候，Container 所属的 vertex 以及它是该 vertex 的第几个任务，通过环境变量告诉任务命令 **/
+	public static final String ENV_VERTEX = "LEARN_YARN_VERTEX";
+	
+	public static final String ENV_TASK_INDEX = "LEARN_YARN_TASK_INDEX";
+	
+	private ApplicationMasterConfig() {
+		
+	}
+	
+}
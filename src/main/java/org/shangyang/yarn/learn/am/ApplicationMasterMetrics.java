@@ -0,0 +1,134 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * Application Master 运行时的各项指标；各个回调线程都会并发的更新这些指标，所以全部使用原子变量以及 Histogram 来保存。
+ * 
+ * 各个状态的 Container 的数量见 ContainerLifecycleTracker；这些指标通过 MetricsHttpServer 对外提供。
+ * 
+ * @author 商洋
+ *
+ */
+public class ApplicationMasterMetrics {
+	
+	/**
+	 * 在读取的时候才计算的指标，比如各种队列的长度
+	 */
+	public interface Gauge {
+		
+		long getValue();
+	}
+
+	/** 已经分配，但是还在 launcher 队列中等待启动的 Container 的数量 **/
+	private final AtomicInteger launchQueueDepth = new AtomicInteger(0);
+	
+	/** 从 ContainerRequest 注册到 Container 被分配的延迟 **/
+	private final Histogram requestToAllocatedMs = new Histogram();
+	
+	/** 从 Container 被分配到 NM 回复已启动的延迟 **/
+	private final Histogram allocatedToStartedMs = new Histogram();
+	
+	/** 从 Container 启动到结束的时间 **/
+	private final Histogram startedToCompletedMs = new Histogram();
+	
+	/** 每次 onContainersAllocated 回调中 Container 的数量 **/
+	private final Histogram allocationBatchSizes = new Histogram();
+	
+	/** 每次 allocate 心跳调用的耗时 **/
+	private final Histogram heartbeatRoundTripMs = new Histogram();
+	
+	/** 当前 AM 与 RM 之间的心跳间隔 **/
+	private final AtomicLong heartbeatIntervalMs = new AtomicLong(0);
+	
+	private final Map<String, Gauge> gauges = Collections.synchronizedMap( new TreeMap<String, Gauge>() );
+	
+	public ApplicationMasterMetrics() {
+		
+		registerGauge( "launch_queue_depth", new Gauge() {
+			
+			@Override
+			public long getValue() {
+				
+				return launchQueueDepth.get();
+			}
+		});
+	}
+	
+	public void incrLaunchQueueDepth() {
+		
+		launchQueueDepth.incrementAndGet();
+	}
+	
+	public void decrLaunchQueueDepth() {
+		
+		launchQueueDepth.decrementAndGet();
+	}
+	
+	public int getLaunchQueueDepth() {
+		
+		return launchQueueDepth.get();
+	}
+	
+	public Histogram getRequestToAllocatedMs() {
+		
+		return requestToAllocatedMs;
+	}
+	
+	public Histogram getAllocatedToStartedMs() {
+		
+		return allocatedToStartedMs;
+	}
+	
+	public Histogram getStartedToCompletedMs() {
+		
+		return startedToCompletedMs;
+	}
+	
+	public Histogram getAllocationBatchSizes() {
+		
+		return allocationBatchSizes;
+	}
+	
+	public Histogram getHeartbeatRoundTripMs() {
+		
+		return heartbeatRoundTripMs;
+	}
+	
+	public void setHeartbeatIntervalMs( long interval ) {
+		
+		heartbeatIntervalMs.set( interval );
+	}
+	
+	public long getHeartbeatIntervalMs() {
+		
+		return heartbeatIntervalMs.get();
+	}
+	
+	/**
+	 * 
+	 * @param name 小写字母加下划线，会直接作为指标的名字输出
+	 */
+	public void registerGauge( String name, Gauge gauge ) {
+		
+		gauges.put( name, gauge );
+	}
+	
+	/**
+	 * 
+	 * @return 按名字排序的 Gauge 的拷贝
+	 */
+	public Map<String, Gauge> getGauges() {
+		
+		synchronized ( gauges ) {
+			
+			return new TreeMap<String, Gauge>( gauges );
+		}
+	}
+	
+}
@@ -20,12 +20,31 @@ public class ApplicationMasterNodeManagerCallbackHandler implements CallbackHand
 
     private static final Log LOGGER = LogFactory.getLog( ApplicationMasterNodeManagerCallbackHandler.class );
     
+    private ContainerLauncher containerLauncher;
+    
+    private ContainerLifecycleTracker tracker;
+    
+    public void setContainerLauncher( ContainerLauncher containerLauncher ) {
+    	
+    	this.containerLauncher = containerLauncher;
+    }
+    
+    public void setTracker( ContainerLifecycleTracker tracker ) {
+    	
+    	this.tracker = tracker;
+    }
 
     //调用 startContainerAsync 之后返回的消息
     @Override
     public void onContainerStarted(ContainerId containerId, Map<String, ByteBuffer> allServiceResponse) {
     	
-    	LOGGER.info("container id:"+containerId+" started ");
+    	containerLauncher.onContainerStarted( containerId );
+    	
+    	// 启动的时间记录在 EventJournal 中
+    	if ( LOGGER.isDebugEnabled() ) {
+    		
+    		LOGGER.debug("container id:"+containerId+" started ");
+    	}
     	
     }
 
@@ -51,6 +70,9 @@ public class ApplicationMasterNodeManagerCallbackHandler implements CallbackHand
     //下面三个错误都是ApplicationMaster抛出，表示发送某个RPC失败
     @Override
     public void onStartContainerError(ContainerId containerId, Throwable throwable) {
+    	
+    	containerLauncher.onStartContainerError( containerId );
+    	
         if (LOGGER.isErrorEnabled()) {
             LOGGER.error("Start都发不了你是不是和NM大人失去联系了？ containerId=" + containerId, throwable);
         }
@@ -58,6 +80,9 @@ public class ApplicationMasterNodeManagerCallbackHandler implements CallbackHand
 
     @Override
     public void onGetContainerStatusError(ContainerId containerId, Throwable throwable) {
+    	
+    	tracker.error( containerId, EventJournal.ERROR_STATUS );
+    	
         if (LOGGER.isErrorEnabled()) {
             LOGGER.error("发个RPC都出错，Hadoop不给力啊 containerId=" + containerId, throwable);
         }
@@ -65,6 +90,9 @@ public class ApplicationMasterNodeManagerCallbackHandler implements CallbackHand
 
     @Override
     public void onStopContainerError(ContainerId containerId, Throwable throwable) {
+    	
+    	tracker.error( containerId, EventJournal.ERROR_STOP );
+    	
         if (LOGGER.isErrorEnabled()) {
             LOGGER.error("关个进程都挂掉，Hadoop不给力啊 containerId=" + containerId, throwable);
         }
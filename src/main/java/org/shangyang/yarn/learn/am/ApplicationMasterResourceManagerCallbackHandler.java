@@ -1,33 +1,54 @@
 package org.shangyang.yarn.learn.am;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.DataOutputBuffer;
-import org.apache.hadoop.security.Credentials;
-import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.yarn.api.ApplicationConstants;
 import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
 import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
 import org.apache.hadoop.yarn.api.records.ContainerStatus;
 import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.LocalResourceType;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.api.records.NodeReport;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
 import org.apache.hadoop.yarn.client.api.AMRMClient;
 import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
 import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
 import org.apache.hadoop.yarn.client.api.async.impl.NMClientAsyncImpl;
 import org.apache.hadoop.yarn.exceptions.YarnException;
-import org.apache.hadoop.yarn.security.AMRMTokenIdentifier;
-import org.apache.hadoop.yarn.util.Records;
+import org.apache.hadoop.yarn.util.ConverterUtils;
+import org.apache.hadoop.yarn.util.RackResolver;
+import org.shangyang.yarn.learn.sizing.ContainerSizer;
+import org.shangyang.yarn.learn.sizing.ProcessUsage;
+import org.shangyang.yarn.learn.sizing.ResourceUsage;
+import org.shangyang.yarn.learn.sizing.UsageCollector;
+import org.shangyang.yarn.learn.sizing.UsageHistory;
+import org.shangyang.yarn.learn.task.TaskSpec;
+import org.shangyang.yarn.learn.task.TaskTokenIdentifier;
+import org.shangyang.yarn.learn.worker.TaskWorker;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * 
@@ -36,218 +57,1545 @@ import org.apache.hadoop.yarn.util.Records;
  * @createTime：Dec 11, 2016 10:35:20 AM
  * 
  */
-public class ApplicationMasterResourceManagerCallbackHandler implements AMRMClientAsync.CallbackHandler {
-
+public class ApplicationMasterResourceManagerCallbackHandler implements AMRMClientAsync.CallbackHandler, TaskQueue.Listener {
+	
 	private static Log LOGGER = LogFactory.getLog(ApplicationMasterResourceManagerCallbackHandler.class);
-
+	
 	private AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager;
 	
 	private NMClientAsync nodeManager;
 	
+	private ContainerLauncher containerLauncher;
+	
+	private LaunchContextTemplate launchContextTemplate;
+	
+	private final ApplicationMasterMetrics metrics;
+	
+	/** 各个状态的 Container 的数量，进度以及最终的结果都由它来计算 **/
+	private final ContainerLifecycleTracker tracker;
+	
+	private AdaptiveHeartbeatController heartbeatController;
+	
 	private AtomicBoolean stopped = new AtomicBoolean(false);
 	
-	private boolean failure = false; // indicates there has errors, perhaps the partial fail or the full fail.
+	private AtomicBoolean finishing = new AtomicBoolean(false);
+	
+	private volatile int containers = 0; // how many containers the Application Master get applied.
+	
+	private final RetryPolicy retryPolicy;
+	
+	/** 每个 slot（普通模式下的任务，Worker 模式下的 Worker）的执行情况，最终的结果由它来决定 **/
+	private volatile ContainerAttempts attempts;
+	
+	private ContainerRequester containerRequester;
+	
+	/** 普通模式下配置了输入路径的时候，每个 slot 处理一个 split **/
+	private volatile List<InputSplit> splits;
+	
+	/** 普通模式下配置了任务图的时候，每个 slot 是某个 vertex 的一个任务 **/
+	private volatile TaskGraph graph;
+	
+	/** 每个 vertex 的启动参数，按照 vertex 的位置索引 **/
+	private LaunchContextTemplate[] vertexTemplates;
+	
+	private Resource capability;
+	
+	private Priority priority;
+	
+	/** 失败的 slot 等待退避时间以后再重新申请 Container **/
+	private final ScheduledExecutorService retryScheduler;
+	
+	private final boolean workerMode;
+	
+	private TaskQueue taskQueue;
+	
+	private TaskServer taskServer;
+	
+	private MetricsHttpServer metricsServer;
+	
+	private EventJournal journal;
+	
+	private TaskCheckpoint checkpoint;
+	
+	/** 正在运行的 Container 以及它们所在的 Node；Worker 模式下就是所有的 Worker **/
+	private final ConcurrentMap<ContainerId, NodeId> runningContainers = new ConcurrentHashMap<ContainerId, NodeId>();
+	
+	private final Configuration conf;
+	
+	private Speculator speculator;
+	
+	/** 从之前的 attempt 接管过来的 Container，不是由这里的 NMClientAsync 启动的，只能通过 RM 释放 **/
+	private final Set<ContainerId> adopted = Collections.newSetFromMap( new ConcurrentHashMap<ContainerId, Boolean>() );
+	
+	/** 由 AM 主动停止的 Container，它们的退出码不代表失败 **/
+	private final Set<ContainerId> stoppedByAM = Collections.newSetFromMap( new ConcurrentHashMap<ContainerId, Boolean>() );
+	
+	/** 同一类型的任务共享资源使用的历史 **/
+	private final String taskType;
 	
-	private int containers = 0; // how many containers the Application Master get applied.
+	/** 本次运行中每个任务的资源使用情况，AM 退出的时候写入 UsageHistory **/
+	private final UsageCollector usageCollector = new UsageCollector();
 	
-	private AtomicInteger processed = new AtomicInteger(0);
+	private final long startMillis = System.currentTimeMillis();
 	
-	public ApplicationMasterResourceManagerCallbackHandler( Configuration conf ){
+	/** 由 onNodesUpdated 维护的集群视图 **/
+	private final ClusterCapacity clusterCapacity = new ClusterCapacity();
+	
+	/** Worker 模式下，是否根据集群的容量以及排队的任务增减 Worker **/
+	private final boolean elastic;
+	
+	private final int maxContainers;
+	
+	/** Gang 模式下，所有的 slot 凑齐 Container 以后才一起启动 **/
+	private final boolean gangEnabled;
+	
+	private volatile ContainerGang gang;
+	
+	public ApplicationMasterResourceManagerCallbackHandler( Configuration conf, ApplicationMasterMetrics metrics, ContainerLifecycleTracker tracker ) throws IOException {
+		
+		this( conf, metrics, tracker, new InstrumentedNMClientAsync(), 
+			  Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon(true).setNameFormat("container-retry").build() ) );
+	}
+	
+	/**
+	 * 由调用者提供与 NM 通讯的客户端以及重试的调度器，比如进程内模拟的 NM 以及虚拟时钟；nodeManager 的回调在这里设置
+	 */
+	public ApplicationMasterResourceManagerCallbackHandler( Configuration conf, ApplicationMasterMetrics metrics, ContainerLifecycleTracker tracker, 
+															NMClientAsync nodeManager, ScheduledExecutorService retryScheduler ) throws IOException {
+		
+		this.conf = conf;
+		
+		this.metrics = metrics;
+		
+		this.tracker = tracker;
+		
+		this.workerMode = conf.getBoolean( ApplicationMasterConfig.WORKER_ENABLED, ApplicationMasterConfig.DEFAULT_WORKER_ENABLED );
+		
+		this.retryPolicy = new RetryPolicy( conf );
+		
+		this.retryScheduler = retryScheduler;
 		
-		nodeManager = new NMClientAsyncImpl( new ApplicationMasterNodeManagerCallbackHandler() );
+		this.taskType = taskType( conf, workerMode );
+		
+		this.gangEnabled = conf.getBoolean( ContainerGang.ENABLED, ContainerGang.DEFAULT_ENABLED );
+		
+		// 普通模式下 slot 就是任务，一开始就全部申请了，新加入的 Node 自然会被 RM 用上，不需要弹性；gang 的大小是固定的，也不需要弹性
+		this.elastic = workerMode && !gangEnabled && conf.getBoolean( ApplicationMasterConfig.ELASTIC_ENABLED, ApplicationMasterConfig.DEFAULT_ELASTIC_ENABLED );
+		
+		this.maxContainers = conf.getInt( ApplicationMasterConfig.ELASTIC_MAX_CONTAINERS, ApplicationMasterConfig.DEFAULT_ELASTIC_MAX_CONTAINERS );
+		
+		// 用来判断分配到的 Container 与 split 的数据是否在同一个 Rack 上
+		RackResolver.init( conf );
+		
+		if ( workerMode ) {
+			
+			startTaskServer( conf );
+		}
+		
+		ApplicationMasterNodeManagerCallbackHandler nodeManagerCallbackHandler = new ApplicationMasterNodeManagerCallbackHandler();
+		
+		this.nodeManager = nodeManager;
+		
+		nodeManager.setCallbackHandler( nodeManagerCallbackHandler );
+		
+		if ( nodeManager instanceof InstrumentedNMClientAsync ) {
+			
+			final InstrumentedNMClientAsync instrumentedNodeManager = (InstrumentedNMClientAsync) nodeManager;
+			
+			metrics.registerGauge( "nm_event_queue_depth", new ApplicationMasterMetrics.Gauge() {
+				
+				@Override
+				public long getValue() {
+					
+					return instrumentedNodeManager.getEventQueueDepth();
+				}
+			});
+		}
 		
 		nodeManager.init(conf);
 		
 		nodeManager.start();
 		
-	}
+		// 所有 Container 的启动参数都是一样的，只构造一次
+		launchContextTemplate = workerMode ? createWorkerLaunchContextTemplate( conf ) : createLaunchContextTemplate( conf );
+		
+		// Container 的构造和启动都交给独立的线程池，不再占用 AMRM 的回调线程
+		containerLauncher = new ContainerLauncher( conf, nodeManager, new ContainerLaunchContextFactory() {
+			
+			@Override
+			public ContainerLaunchContext createLaunchContext( Container container ) {
+				
+				return createSlotLaunchContext( container );
+			}
+		
+		}, metrics, tracker, new ContainerLauncher.Listener() {
+			
+			@Override
+			public void onLaunchFailed( ContainerId containerId ) {
+				
+				launchFailed( containerId );
+			}
+		
+		});
+		
+		nodeManagerCallbackHandler.setContainerLauncher( containerLauncher );
+		
+		nodeManagerCallbackHandler.setTracker( tracker );
+		
+		registerAttemptGauges();
 	
-	public void setResourceManager(AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager) {
-
-		this.resourceManager = resourceManager;
 	}
-
+	
 	/**
-	 * 
-	 * 注意，不是当所有的 Container 任务完成后才会回调此方法；而是逐步的进行回调的，也就是某些 Container 执行完毕以后，就会直接回调...., 看下面 Application Master 的输出日志，
-	 * 
-	 * 16/12/11 13:56:46 INFO am.ApplicationMasterResourceManagerCallbackHandler: onContainersCompleted() called, totally get 1 replied ~~~~
-	 * 
-	 * 看到没，只返回了一个 Container 的状态信息，所以，这里需要统计反馈的信息，然后才能关闭
-	 * 
-	 * @param statues, 返回相关的状态信息。
-	 * 
+	 * 没有配置任务类型的时候，使用任务命令的 hash；Worker 模式下 Container 中还包含了 Worker 自身，单独作为一类
 	 */
-	@Override
-	public void onContainersCompleted(List<ContainerStatus> statuses) {
+	private static String taskType( Configuration conf, boolean workerMode ) {
 		
-		LOGGER.info("onContainersCompleted() called, totally get " + statuses.size() + " replied ~~~~");
+		String type = conf.get( ApplicationMasterConfig.TASK_TYPE );
 		
-        // 如果你要尝试重启某些任务可以在这里做
+		if ( type == null ) {
+			
+			type = "cmd-" + Integer.toHexString( conf.get( ApplicationMasterConfig.TASK_COMMAND, ApplicationMasterConfig.DEFAULT_TASK_COMMAND ).hashCode() );
+		}
 		
-        for (ContainerStatus status : statuses) {
-        	
-        	int exitStatus = status.getExitStatus();
-            
-            // Container return code 非 0 表示失败
-            if ( 0 != exitStatus ) {
-            	
-                LOGGER.warn( String.format( "容器挂了 ContainerID=%s Diagnostics=%s", status.getContainerId(), status.getDiagnostics() ) );
-                
-                failure = true;
-                
-            }
-            
-        }
-        
-        processed.addAndGet( statuses.size() );        
-        
-        LOGGER.info("onContainersCompleted() called, increased the processed number with " + statuses.size() + ", and the current processed number is "+ processed.get() );
-        
-        if( processed.get() == containers ){
-        	
-        	this.stop();
-        }
-        
+		return workerMode ? "worker-" + type : type;
 	}
 	
 	/**
-	 * 一次并不会申请所有的所需的 Containers，往往一次只能申请部分，或者更少；我单机测试的时候，大多数一次只能分配一个 Container... 
-	 * 
-	 * 16/12/11 14:11:04 INFO am.ApplicationMasterResourceManagerCallbackHandler: onContainersAllocated() get called, you have get totally 1 containers for computation 
-	 * 
-	 * 
-	 * @param containers
+	 * 在共用的启动参数的基础上，通过环境变量告诉 Container 它要处理的 split；执行任务图的时候使用该 vertex 的启动参数，并且告诉它是第几个任务
 	 */
-	@Override
-	public void onContainersAllocated( List<Container> containers ) {
-		
-		LOGGER.info("onContainersAllocated() get called, you have get totally " + containers.size() + " containers for computation ");
+	private ContainerLaunchContext createSlotLaunchContext( Container container ) {
 		
-		for (Container c : containers) {
-
-			/**
-			 * 这里的实现方式是有问题的，官方教程是建议使用线程来提交；
-			 * 见 http://hadoop.apache.org/docs/stable/hadoop-yarn/hadoop-yarn-site/WritingYarnApplications.html 关于 onContainersAllocated() 方法的描述
-			 */
+		if ( graph != null ) {
 			
-			LOGGER.info( "Container " + c.getId() + " takes the Memory Size: " + c.getResource().getMemorySize() + "; the cpu vitual cores: " + c.getResource().getVirtualCores() );
+			Integer slot = attempts.getSlot( container.getId() );
 			
-			ContainerLaunchContext launchContext = Records.newRecord( ContainerLaunchContext.class );
-
-			StringBuilder cmd = new StringBuilder();
+			TaskGraph.Vertex vertex = graph.vertexOf( slot == null ? 0 : slot );
 			
-			// -cN: N 表示要 ping 多少次
-			cmd.append("ping -c100 www.baidu.com").append(" ").append("1>")
-			   .append(ApplicationConstants.LOG_DIR_EXPANSION_VAR).append(Path.SEPARATOR)
-			   .append(ApplicationConstants.STDOUT).append(" ").append("2>")
-			   .append(ApplicationConstants.LOG_DIR_EXPANSION_VAR).append(Path.SEPARATOR)
-			   .append(ApplicationConstants.STDERR);
-
-			launchContext.setCommands( Collections.singletonList( cmd.toString() ) );
+			ContainerLaunchContext launchContext = vertexTemplates[ vertex.getIndex() ].createLaunchContext( container );
 			
-			setupLaunchContextTokens( launchContext );
+			Map<String, String> environment = new HashMap<String, String>( launchContext.getEnvironment() );
 			
-			nodeManager.startContainerAsync( c, launchContext );
-
+			environment.put( ApplicationMasterConfig.ENV_VERTEX, vertex.getName() );
+			
+			environment.put( ApplicationMasterConfig.ENV_TASK_INDEX, String.valueOf( slot == null ? 0 : slot - vertex.getFirstSlot() ) );
+			
+			launchContext.setEnvironment( environment );
+			
+			return launchContext;
 		}
-
-	}
-
-    // 当 yarn kill 的时候会调用这个刚发
-	@Override
-	public void onShutdownRequest() {
 		
-        stopped.set(true);
-	}
-
-	// 这个方法很美好，意思是指集群中增加了新的 NodeManager（扩容）但是现在 Hadoop 还不支持"在线"伸缩
-	@Override
-	public void onNodesUpdated(List<NodeReport> updatedNodes) {
-
-	}
-
-	@Override
-	public float getProgress() {
+		ContainerLaunchContext launchContext = launchContextTemplate.createLaunchContext( container );
 		
-		return 0;
-	}
-
-    // 本地的线程挂掉的时候会调用这个，如果你要提高可用性可以尝试在这里重启 AMRMClient
-	@Override
-	public void onError(Throwable e) {
+		if ( workerMode ) {
+			
+			try {
+				
+				// Worker 凭这个 token 连接 TaskServer，只能以它自己所在的 Container 的身份拉取任务
+				launchContextTemplate.setupLaunchContextTokens( launchContext, TaskTokenIdentifier.KIND_NAME, taskServer.createToken( container.getId().toString() ) );
+			
+			} catch ( IOException e ) {
+				
+				throw new IllegalStateException( "Failed to set up the task token of " + container.getId(), e );
+			}
+		}
 		
-		LOGGER.error(e.getMessage(), e);
+		Integer slot = splits == null ? null : attempts.getSlot( container.getId() );
 		
-		stopped.set( true );
+		if ( slot != null ) {
+			
+			InputSplit split = splits.get( slot );
+			
+			Map<String, String> environment = new HashMap<String, String>( launchContext.getEnvironment() );
+			
+			environment.put( ApplicationMasterConfig.ENV_SPLIT_PATH, split.getPath().toString() );
+			
+			environment.put( ApplicationMasterConfig.ENV_SPLIT_START, String.valueOf( split.getStart() ) );
+			
+			environment.put( ApplicationMasterConfig.ENV_SPLIT_LENGTH, String.valueOf( split.getLength() ) );
+			
+			launchContext.setEnvironment( environment );
+		}
+		
+		return launchContext;
 	}
 	
-	protected void setupLaunchContextTokens(ContainerLaunchContext ctx) {
+	private void registerAttemptGauges() {
 		
-		try {
-			
-			Credentials credentials = UserGroupInformation.getCurrentUser().getCredentials();
+		metrics.registerGauge( "node_local_assignments", new ApplicationMasterMetrics.Gauge() {
 			
-			DataOutputBuffer dob = new DataOutputBuffer();
-			
-			credentials.writeTokenStorageToStream(dob);
+			@Override
+			public long getValue() {
+				
+				return attempts == null ? 0 : attempts.getNodeLocal();
+			}
+		});
+		
+		metrics.registerGauge( "rack_local_assignments", new ApplicationMasterMetrics.Gauge() {
 			
-			Iterator<org.apache.hadoop.security.token.Token<?>> iterator = credentials.getAllTokens().iterator();
+			@Override
+			public long getValue() {
+				
+				return attempts == null ? 0 : attempts.getRackLocal();
+			}
+		});
+		
+		metrics.registerGauge( "off_switch_assignments", new ApplicationMasterMetrics.Gauge() {
 			
-			while (iterator.hasNext()) {
+			@Override
+			public long getValue() {
 				
-				org.apache.hadoop.security.token.Token<?> token = iterator.next();
+				return attempts == null ? 0 : attempts.getOffSwitch();
+			}
+		});
+		
+		metrics.registerGauge( "speculative_attempts", new ApplicationMasterMetrics.Gauge() {
+			
+			@Override
+			public long getValue() {
 				
-				LOGGER.debug("Token " + token);
+				return attempts == null ? 0 : attempts.getSpeculations();
+			}
+		});
+		
+		metrics.registerGauge( "speculative_wins", new ApplicationMasterMetrics.Gauge() {
+			
+			@Override
+			public long getValue() {
 				
-				if (token.getKind().equals(AMRMTokenIdentifier.KIND_NAME)) {
-					
-					iterator.remove();
-				}
+				return attempts == null ? 0 : attempts.getSpeculationWins();
 			}
+		});
+		
+		metrics.registerGauge( "usable_nodes", new ApplicationMasterMetrics.Gauge() {
 			
-			ByteBuffer allTokens = ByteBuffer.wrap(dob.getData(), 0, dob.getLength());
+			@Override
+			public long getValue() {
+				
+				return clusterCapacity.getUsableNodes();
+			}
+		});
+		
+		metrics.registerGauge( "active_slots", new ApplicationMasterMetrics.Gauge() {
 			
-			ctx.setTokens(allTokens);
+			@Override
+			public long getValue() {
+				
+				return attempts == null ? 0 : attempts.getActive();
+			}
+		});
+		
+		metrics.registerGauge( "outstanding_requests", new ApplicationMasterMetrics.Gauge() {
 			
-		} catch (IOException e) {
+			@Override
+			public long getValue() {
+				
+				return containerRequester == null ? 0 : containerRequester.getOutstanding();
+			}
+		});
+		
+		metrics.registerGauge( "gang_held_containers", new ApplicationMasterMetrics.Gauge() {
 			
-			LOGGER.error("Error setting tokens for launch context", e );
-		}
+			@Override
+			public long getValue() {
+				
+				return gang == null ? 0 : gang.getHeld();
+			}
+		});
+	}
+	
+	/**
+	 * 构造所有 Container 共用的启动参数，每个 Container 执行一次任务命令
+	 */
+	protected LaunchContextTemplate createLaunchContextTemplate( Configuration conf ) {
 		
+		return createLaunchContextTemplate( conf.get( ApplicationMasterConfig.TASK_COMMAND, ApplicationMasterConfig.DEFAULT_TASK_COMMAND ) );
+	}
+	
+	private static LaunchContextTemplate createLaunchContextTemplate( String command ) {
+		
+		StringBuilder cmd = new StringBuilder();
+		
+		cmd.append( command ).append(" ").append("1>")
+		   .append(ApplicationConstants.LOG_DIR_EXPANSION_VAR).append(Path.SEPARATOR)
+		   .append(ApplicationConstants.STDOUT).append(" ").append("2>")
+		   .append(ApplicationConstants.LOG_DIR_EXPANSION_VAR).append(Path.SEPARATOR)
+		   .append(ApplicationConstants.STDERR);
+		
+		return new LaunchContextTemplate( Collections.singletonList( cmd.toString() ), 
+										  Collections.<String, String>emptyMap(), 
+										  Collections.<String, LocalResource>emptyMap() );
 	}
 	
 	/**
-	 * 关闭 Application Master 与 Resource Manager 之间的连接
-	 * 关闭 Application Master 与 Node Manager 之间的连接 
+	 * Worker 模式下，Container 中运行的是 TaskWorker；它需要 AM 的 jar 以及与 AM 相同的 CLASSPATH
 	 */
-	void stop(){
+	protected LaunchContextTemplate createWorkerLaunchContextTemplate( Configuration conf ) {
 		
-        nodeManager.stop();
-        
-        try {
-        	
-        	// 取消 Application Master 与 Resource Manager 之间的注册关系；两者之间不再关联
-			resourceManager.unregisterApplicationMaster( failure == false ? FinalApplicationStatus.SUCCEEDED : FinalApplicationStatus.FAILED, 
-														 failure == false ? "成功了" : "失败了", 
-														 null );
+		StringBuilder cmd = new StringBuilder();
+		
+		cmd.append( "\"" + ApplicationConstants.Environment.JAVA_HOME.$() + "/bin/java\"" ).append(" ")
+		   .append( TaskWorker.class.getName() ).append(" ")
+		   .append( taskServer.getConnectAddress() ).append(" ")
+		   .append("1>").append(ApplicationConstants.LOG_DIR_EXPANSION_VAR).append(Path.SEPARATOR).append(ApplicationConstants.STDOUT).append(" ")
+		   .append("2>").append(ApplicationConstants.LOG_DIR_EXPANSION_VAR).append(Path.SEPARATOR).append(ApplicationConstants.STDERR);
+		
+		Map<String, String> environment = new HashMap<String, String>();
+		
+		String classpath = System.getenv( ApplicationConstants.Environment.CLASSPATH.name() );
+		
+		if ( classpath != null ) {
 			
-		} catch (YarnException | IOException e) {
-
-			LOGGER.error(e, e.getCause() );
+			environment.put( ApplicationConstants.Environment.CLASSPATH.name(), classpath );
+		}
+		
+		Map<String, LocalResource> localResources = new HashMap<String, LocalResource>();
+		
+		String appMasterJar = System.getenv( ApplicationMasterConfig.ENV_AM_JAR );
+		
+		if ( appMasterJar != null ) {
 			
-			e.printStackTrace();
+			Path jarPath = new Path( appMasterJar );
 			
-			throw new RuntimeException(e);
+			// 与 AM 使用相同的 visibility，这样 NodeManager 可以复用同一个本地副本
+			String visibility = System.getenv( ApplicationMasterConfig.ENV_AM_JAR_VISIBILITY );
 			
+			localResources.put( jarPath.getName(), LocalResource.newInstance( ConverterUtils.getYarnUrlFromPath( jarPath ), 
+																			  LocalResourceType.FILE, 
+																			  visibility == null ? LocalResourceVisibility.PRIVATE : LocalResourceVisibility.valueOf( visibility ), 
+																			  Long.parseLong( System.getenv( ApplicationMasterConfig.ENV_AM_JAR_LENGTH ) ), 
+																			  Long.parseLong( System.getenv( ApplicationMasterConfig.ENV_AM_JAR_TIMESTAMP ) ) ) );
+		} else {
+			
+			LOGGER.warn("The location of the Application Master jar is unknown, the workers rely on the CLASSPATH only");
 		}
-        
-        resourceManager.stop();		
+		
+		return new LaunchContextTemplate( Collections.singletonList( cmd.toString() ), environment, localResources );
 	}
-
-	public void setContainers( int containers ) {
-
-		this.containers = containers;
+	
+	private void startTaskServer( Configuration conf ) throws IOException {
+		
+		taskQueue = new TaskQueue();
+		
+		String command = conf.get( ApplicationMasterConfig.TASK_COMMAND, ApplicationMasterConfig.DEFAULT_TASK_COMMAND );
+		
+		int tasks = conf.getInt( ApplicationMasterConfig.TASKS, conf.getInt( ApplicationMasterConfig.CONTAINERS, ApplicationMasterConfig.DEFAULT_CONTAINERS ) );
+		
+		for ( int i = 0; i < tasks; i++ ) {
+			
+			taskQueue.add( new TaskSpec( i, command ) );
+		}
+		
+		taskQueue.setListener( this );
+		
+		taskQueue.setMaxAttempts( retryPolicy.getMaxAttempts() );
+		
+		metrics.registerGauge( "task_queue_pending", new ApplicationMasterMetrics.Gauge() {
+			
+			@Override
+			public long getValue() {
+				
+				return taskQueue.getPending();
+			}
+		});
+		
+		taskServer = new TaskServer( conf, taskQueue, usageCollector );
+		
+		taskServer.start();
+	}
+	
+	public void setResourceManager(AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager) {
+		
+		this.resourceManager = resourceManager;
+		
+		this.containerRequester = new ContainerRequester( resourceManager, tracker );
 	}
 	
+	/**
+	 * 为所有等待中的 slot 申请 Container；重试的时候也使用相同的资源以及优先级。
+	 * 重启以后所有的 slot 都已经在之前的 attempt 中结束了的时候，直接结束 AM
+	 */
+	public void requestContainers( Resource capability, Priority priority ) {
+		
+		this.capability = capability;
+		
+		this.priority = priority;
+		
+		if ( attempts.isFinished() && finishing.compareAndSet( false, true ) ) {
+			
+			LOGGER.info("All " + attempts.getSlots() + " slots finished in the previous attempts");
+			
+			stop();
+			
+			return;
+		}
+		
+		// 任务图中的 slot 是陆续开始等待的，凑不成一个 gang
+		if ( gangEnabled && graph == null && attempts.getWaiting() > 0 ) {
+			
+			gang = new ContainerGang( conf, attempts.getWaiting() );
+			
+			LOGGER.info("Gang mode, launch " + gang.getSize() + " containers together once all of them are allocated");
+		
+		} else if ( gangEnabled && graph != null ) {
+			
+			LOGGER.warn("Gang mode does not apply to a task graph, ignored");
+		}
+		
+		requestWaiting();
+		
+		// Worker 模式下的 slot 是长期运行的 Worker，没有推测执行的意义；任务图中各个 vertex 的执行时间差别很大，中位数没有意义；gang 中的备份 Container 没有用
+		if ( !workerMode && graph == null && gang == null && conf.getBoolean( Speculator.ENABLED, Speculator.DEFAULT_ENABLED ) ) {
+			
+			speculator = new Speculator( conf, attempts, new Speculator.Listener() {
+				
+				@Override
+				public void onSpeculate( int slot ) {
+					
+					requestContainerFor( slot );
+				}
+			});
+			
+			speculator.start();
+		}
+	}
+	
+	/**
+	 * 为所有等待中的 slot 注册 ContainerRequest；gang 模式下同时开始新的一轮，超时以后由 expireGang 处理
+	 */
+	private void requestWaiting() {
+		
+		// 在当前线程中一次性的注册所有的 ContainerRequest，它们会随着下一次心跳一起发送给 RM
+		if ( graph != null ) {
+			
+			// 只有输入已经满足的任务在等待，每个 vertex 按照自己的大小以及优先级申请
+			reconcileTiers();
+		
+		} else if ( splits != null ) {
+			
+			List<InputSplit> waiting = new ArrayList<InputSplit>();
+			
+			for ( int slot : attempts.getWaitingSlots() ) {
+				
+				waiting.add( splits.get( slot ) );
+			}
+			
+			containerRequester.requestContainers( capability, priority, waiting );
+		
+		} else {
+			
+			containerRequester.requestContainers( capability, priority, attempts.getWaiting() );
+		}
+		
+		if ( gang != null ) {
+			
+			final int round = gang.startRound();
+			
+			retryScheduler.schedule( new Runnable() {
+				
+				@Override
+				public void run() {
+					
+					expireGang( round );
+				}
+			
+			}, gang.getTimeoutMs(), TimeUnit.MILLISECONDS );
+		}
+	}
+	
+	/**
+	 * 这一轮没有凑齐 gang：手上的 Container 全部还给 RM，它们的 slot 重新等待；撤销所有的请求，退避以后重新申请
+	 */
+	private void expireGang( int round ) {
+		
+		List<Container> members = gang.expire( round );
+		
+		if ( members == null || finishing.get() ) {
+			
+			return;
+		}
+		
+		long backoffMs = gang.backoffMs();
+		
+		LOGGER.warn("Gang incomplete after " + gang.getTimeoutMs() + "ms in round " + round + ", release " + members.size() + " of " + gang.getSize() + " containers and retry in " + backoffMs + "ms");
+		
+		containerRequester.cancel( containerRequester.getOutstanding() );
+		
+		for ( Container c : members ) {
+			
+			runningContainers.remove( c.getId() );
+			
+			attempts.unassign( c.getId() );
+			
+			tracker.released( c.getId() );
+			
+			resourceManager.releaseAssignedContainer( c.getId() );
+		}
+		
+		retryScheduler.schedule( new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				if ( !gang.isLaunched() && !finishing.get() ) {
+					
+					requestWaiting();
+				}
+			}
+		
+		}, backoffMs, TimeUnit.MILLISECONDS );
+	}
+	
+	public void setHeartbeatController(AdaptiveHeartbeatController heartbeatController) {
+		
+		this.heartbeatController = heartbeatController;
+	}
+	
+	public void setMetricsServer(MetricsHttpServer metricsServer) {
+		
+		this.metricsServer = metricsServer;
+	}
+	
+	/**
+	 * Container 的生命周期事件写入事件日志，AM 退出的时候关闭
+	 */
+	public void setJournal(EventJournal journal) {
+		
+		this.journal = journal;
+		
+		tracker.setJournal( journal );
+	}
+	
+	/**
+	 * 任务的完成情况写入检查点，Application 结束的时候删除
+	 */
+	public void setCheckpoint(TaskCheckpoint checkpoint) {
+		
+		this.checkpoint = checkpoint;
+		
+		if ( workerMode ) {
+			
+			taskQueue.setCheckpoint( checkpoint );
+		}
+	}
+	
+	/**
+	 * AM 重启以后，在申请 Container 之前调用：之前的 attempt 中已经结束的 slot 以及任务不再执行，仍然在运行的 Container 接管过来。
+	 * 
+	 * Worker 连接的是上一个 AM 的 TaskServer，接管不了，直接释放，它们手上的任务没有结束的记录，会被重新执行；
+	 * 普通模式下检查点中没有记录 slot 的、或者 slot 已经结束的 Container 也直接释放
+	 * 
+	 * @param state 之前的 attempt 的检查点
+	 * @param previous RegisterApplicationMasterResponse 中上一个 attempt 留下来的 Container
+	 */
+	public void recover( TaskCheckpoint.State state, List<Container> previous ) {
+		
+		int restored = 0;
+		
+		if ( workerMode ) {
+			
+			restored = taskQueue.restore( state.getTasks() );
+			
+			if ( taskQueue.isDrained() ) {
+				
+				attempts.retireWaiting( attempts.getWaiting() );
+			}
+		
+		} else {
+			
+			for ( Map.Entry<Integer, Boolean> slot : state.getSlots().entrySet() ) {
+				
+				if ( attempts.restore( slot.getKey(), slot.getValue() ) ) {
+					
+					restored++;
+					
+					// 还没有申请 Container，满足了输入的任务只进入等待，由 requestContainers 统一申请
+					advance( slot.getKey(), slot.getValue(), false );
+				}
+			}
+		}
+		
+		int adoptedNow = 0;
+		
+		for ( Container c : previous ) {
+			
+			runningContainers.put( c.getId(), c.getNodeId() );
+			
+			adopted.add( c.getId() );
+			
+			tracker.adopted( c.getId(), c.getNodeId() );
+			
+			Integer slot = workerMode ? null : state.getSlot( c.getId() );
+			
+			if ( slot != null && attempts.adopt( c.getId(), slot ) ) {
+				
+				adoptedNow++;
+			
+			} else {
+				
+				stopContainer( c.getId() );
+			}
+		}
+		
+		LOGGER.info("Recovered " + restored + ( workerMode ? " finished tasks" : " finished slots" ) + ", adopted " + adoptedNow + " and released " + ( previous.size() - adoptedNow ) + " containers of the previous attempts");
+	}
+	
+	/**
+	 * 
+	 * 注意，不是当所有的 Container 任务完成后才会回调此方法；而是逐步的进行回调的，也就是某些 Container 执行完毕以后，就会直接回调...., 看下面 Application Master 的输出日志，
+	 * 
+	 * 16/12/11 13:56:46 INFO am.ApplicationMasterResourceManagerCallbackHandler: onContainersCompleted() called, totally get 1 replied ~~~~
+	 * 
+	 * 看到没，只返回了一个 Container 的状态信息，所以，这里需要统计反馈的信息，然后才能关闭
+	 * 
+	 * @param statues, 返回相关的状态信息。
+	 * 
+	 */
+	@Override
+	public void onContainersCompleted(List<ContainerStatus> statuses) {
+		
+		LOGGER.info("onContainersCompleted() called, totally get " + statuses.size() + " replied ~~~~");
+
+        for (ContainerStatus status : statuses) {
+
+        	int exitStatus = status.getExitStatus();
+
+        	boolean stoppedByUs = stoppedByAM.remove( status.getContainerId() );
+
+        	boolean exempt = stoppedByUs;
+
+        	runningContainers.remove( status.getContainerId() );
+
+        	adopted.remove( status.getContainerId() );
+
+        	// 还没有启动就被 RM 收回了，它的 slot 下面按照 RetryPolicy 重新申请
+        	if ( gang != null ) {
+
+        		gang.remove( status.getContainerId() );
+        	}
+
+        	if ( workerMode ) {
+
+        		// Worker 挂掉的时候，它手上正在执行的任务重新放回队列，交给其它 Worker
+
+        		taskQueue.workerLost( status.getContainerId().toString() );
+
+        		taskServer.retire( status.getContainerId().toString() );
+
+        		// 所有的任务都已经完成了，Worker 怎么退出的都不重要了
+        		exempt = exempt || taskQueue.isDrained();
+        	}
+
+            // Container return code 非 0 表示失败；但是被 AM 主动停止的 Container 除外，它们的 slot 不需要重试
+            boolean succeeded = 0 == exitStatus || exempt;
+
+            if ( !succeeded ) {
+
+                LOGGER.warn( String.format( "容器挂了 ContainerID=%s ExitStatus=%d Diagnostics=%s", status.getContainerId(), exitStatus, status.getDiagnostics() ) );
+            }
+
+            // 普通模式下只能从 NM 杀掉 Container 时的 diagnostics 得知内存的使用量；Worker 模式下由 Worker 自己汇报
+            if ( !workerMode && exitStatus == ContainerExitStatus.KILLED_EXCEEDED_PMEM ) {
+
+            	usageCollector.add( ResourceUsage.fromDiagnostics( status.getDiagnostics() ) );
+            }
+
+            // 被 AM 停止的 Container 单独统计，不算作成功；豁免只用于下面 slot 的结果
+            if ( stoppedByUs && 0 != exitStatus ) {
+
+            	tracker.stopped( status.getContainerId(), exitStatus );
+
+            } else {
+
+            	tracker.completed( status.getContainerId(), exitStatus, 0 == exitStatus );
+            }
+
+            ContainerAttempts.Decision decision = attempts.completed( status.getContainerId(), exitStatus, succeeded );
+
+            decide( decision, status.getContainerId() );
+        }
+
+        cancelSurplusRequests();
+
+        LOGGER.info("onContainersCompleted() called, " + statuses.size() + " replied, " + attempts.getSucceeded() + " succeeded and " + attempts.getFailed() + " failed of " + attempts.getSlots() );
+
+        if( attempts.isFinished() && finishing.compareAndSet( false, true ) ){
+
+        	this.stop();
+        }
+	
+	}
+	
+	/**
+	 * 按照 ContainerAttempts 对该 Container 结束的判断：重试它的 slot、停止推测执行中输掉的 Container，或者推进任务图
+	 */
+	private void decide( ContainerAttempts.Decision decision, ContainerId containerId ) {
+		
+		if ( decision.getOutcome() == ContainerAttempts.Outcome.RETRY ) {
+			
+			if ( elastic && !needReplacement() && attempts.retire( decision.getSlot() ) ) {
+				
+				// 剩下的 Worker 足够处理排队的任务，不再补充
+				LOGGER.info("Retire the worker slot " + decision.getSlot() + ", " + taskQueue.getPending() + " tasks pending for " + attempts.getActive() + " workers");
+			
+			} else {
+				
+				scheduleRetry( decision.getSlot(), decision.getDelayMs() );
+			}
+		
+		} else if ( decision.getOutcome() == ContainerAttempts.Outcome.SUCCEEDED ) {
+			
+			checkpointSlot( decision.getSlot(), true );
+			
+			advance( decision.getSlot(), true, true );
+			
+			// 推测执行中输掉的 Container
+			for ( ContainerId loser : decision.getLosers() ) {
+				
+				stopContainer( loser );
+			}
+		
+		} else if ( decision.getOutcome() == ContainerAttempts.Outcome.FAILED ) {
+			
+			LOGGER.error("Slot " + decision.getSlot() + " failed permanently, the last container is " + containerId );
+			
+			checkpointSlot( decision.getSlot(), false );
+			
+			advance( decision.getSlot(), false, true );
+		}
+	}
+	
+	/**
+	 * Container 没有启动起来（构造 ContainerLaunchContext 失败或者 NM 启动失败）：马上还给 RM，而不是等 RM 在分配过期以后才回收它；
+	 * 按照框架的失败交给 ContainerAttempts，slot 马上重新申请，并且不计入 max-attempts
+	 */
+	private void launchFailed( ContainerId containerId ) {
+		
+		runningContainers.remove( containerId );
+		
+		if ( workerMode ) {
+			
+			taskServer.retire( containerId.toString() );
+		}
+		
+		stoppedByAM.add( containerId );
+		
+		tracker.released( containerId );
+		
+		resourceManager.releaseAssignedContainer( containerId );
+		
+		decide( attempts.completed( containerId, ContainerExitStatus.ABORTED, false ), containerId );
+		
+		if( attempts.isFinished() && finishing.compareAndSet( false, true ) ){
+			
+			this.stop();
+		}
+	}
+	
+	/**
+	 * 一次并不会申请所有的所需的 Containers，往往一次只能申请部分，或者更少；我单机测试的时候，大多数一次只能分配一个 Container... 
+	 * 
+	 * 16/12/11 14:11:04 INFO am.ApplicationMasterResourceManagerCallbackHandler: onContainersAllocated() get called, you have get totally 1 containers for computation 
+	 * 
+	 * 这里只是把 Container 交给 ContainerLauncher，真正的构造 ContainerLaunchContext 以及启动都在 launcher 的线程池中并行执行；
+	 * 每个 Container 满足的请求马上从 AMRMClient 中删除，没有 slot 需要的 Container 马上还给 RM，
+	 * 见 http://hadoop.apache.org/docs/stable/hadoop-yarn/hadoop-yarn-site/WritingYarnApplications.html 关于 onContainersAllocated() 方法的描述
+	 * 
+	 * @param containers
+	 */
+	@Override
+	public void onContainersAllocated( List<Container> containers ) {
+		
+		LOGGER.info("onContainersAllocated() get called, you have get totally " + containers.size() + " containers for computation ");
+		
+		metrics.getAllocationBatchSizes().record( containers.size() );
+		
+		for (Container c : containers) {
+			
+			tracker.allocated( c.getId(), c.getNodeId() );
+			
+			String host = c.getNodeId().getHost();
+			
+			String rack = splits == null ? null : RackResolver.resolve( host ).getNetworkLocation();
+			
+			containerRequester.fulfill( c, rack );
+			
+			Integer slot = graph != null ? assignToTier( c ) : attempts.assign( c.getId(), host, rack );
+			
+			if ( slot == null ) {
+				
+				// 比需要的多出来的 Container，直接还给 RM
+				if ( LOGGER.isDebugEnabled() ) {
+					
+					LOGGER.debug("Release the surplus container " + c.getId() );
+				}
+				
+				tracker.released( c.getId() );
+				
+				resourceManager.releaseAssignedContainer( c.getId() );
+				
+				continue;
+			}
+			
+			// 每个 Container 的分配、启动以及结束都记录在 EventJournal 中，这里只在 DEBUG 的时候打印
+			if ( LOGGER.isDebugEnabled() ) {
+				
+				LOGGER.debug( "Container " + c.getId() + " takes the Memory Size: " + c.getResource().getMemorySize() + "; the cpu vitual cores: " + c.getResource().getVirtualCores() );
+			}
+			
+			runningContainers.put( c.getId(), c.getNodeId() );
+			
+			// Worker 模式下重启以后不接管 Worker，不需要记录
+			if ( checkpoint != null && !workerMode ) {
+				
+				checkpoint.assigned( slot, c.getId() );
+			}
+			
+			// 凑齐以后一起启动，包括刚刚分配到的这一个
+			if ( gang != null && !gang.isLaunched() ) {
+				
+				List<Container> members = gang.hold( c );
+				
+				if ( !members.isEmpty() ) {
+					
+					LOGGER.info("Gang complete in round " + gang.getRounds() + ", launch all " + members.size() + " containers");
+					
+					for ( Container member : members ) {
+						
+						launch( member );
+					}
+				}
+				
+				continue;
+			}
+			
+			launch( c );
+		
+		}
+		
+		cancelSurplusRequests();
+	
+	}
+	
+	/**
+	 * 执行任务图的时候，Container 交给排名最靠前的、有任务在等待并且放得下的 vertex；
+	 * 它自己的 vertex 总是放得下（RM 可能只按照内存分配，vcores 不一定与申请的相同）。
+	 * 交给了别的 vertex 的时候，两边的请求由 reconcileTiers 重新对齐
+	 */
+	private Integer assignToTier( Container c ) {
+		
+		int own = c.getPriority().getPriority() - priority.getPriority();
+		
+		for ( TaskGraph.Vertex vertex : graph.getRanked() ) {
+			
+			Resource wanted = vertexCapability( vertex.getIndex() );
+			
+			if ( vertex.getRank() != own && ( wanted.getMemorySize() > c.getResource().getMemorySize() || wanted.getVirtualCores() > c.getResource().getVirtualCores() ) ) {
+				
+				continue;
+			}
+			
+			Integer slot = attempts.assign( c.getId(), vertex.getIndex() );
+			
+			if ( slot != null ) {
+				
+				return slot;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * 按照排名逐个 vertex 对齐还没有被满足的请求与等待中的任务，多出来的请求撤销，不够的补上；
+	 * 有更重要的 tier 还在等待 Container 的时候，只为 weight 比例的等待中的任务申请（向上取整，weight 为 0 的时候等待）
+	 */
+	private synchronized void reconcileTiers() {
+		
+		if ( containerRequester == null || priority == null ) {
+			
+			return;
+		}
+		
+		// 还有任务在等待的最重要的 tier
+		int waitingTier = Integer.MAX_VALUE;
+		
+		for ( TaskGraph.Vertex vertex : graph.getRanked() ) {
+			
+			int waiting = attempts.getWaiting( vertex.getIndex() );
+			
+			int wanted = vertex.getPriority() > waitingTier ? weighted( waiting, vertex.getWeight() ) : waiting;
+			
+			Priority tierPriority = vertexPriority( vertex.getIndex() );
+			
+			int outstanding = containerRequester.getOutstanding( tierPriority );
+			
+			if ( outstanding > wanted ) {
+				
+				containerRequester.cancel( tierPriority, outstanding - wanted );
+			
+			} else if ( outstanding < wanted ) {
+				
+				containerRequester.requestContainers( vertexCapability( vertex.getIndex() ), tierPriority, wanted - outstanding );
+			}
+			
+			if ( waiting > 0 ) {
+				
+				waitingTier = Math.min( waitingTier, vertex.getPriority() );
+			}
+		}
+	}
+	
+	/**
+	 * weight 比例的任务数向上取整，有任务在等待并且 weight 大于 0 的时候至少申请一个；float 的误差（比如 50 * 0.3f）不算进位
+	 */
+	private static int weighted( int waiting, float weight ) {
+		
+		float share = waiting * weight;
+		
+		int rounded = Math.round( share );
+		
+		return Math.abs( share - rounded ) <= share * 1e-6f ? rounded : (int) Math.ceil( share );
+	}
+	
+	/**
+	 * 普通模式下 slot 就是任务；Worker 模式下由 TaskQueue 记录每个任务的结果
+	 */
+	private void checkpointSlot( int slot, boolean succeeded ) {
+		
+		if ( checkpoint != null && !workerMode ) {
+			
+			checkpoint.slotFinished( slot, succeeded );
+		}
+	}
+	
+	/**
+	 * 还没有被满足的请求比等待 Container 的 slot 多的时候，撤销多出来的请求，RM 不会再为它们分配 Container；
+	 * 比如推测执行的 slot 在备份的 Container 分配到之前已经成功了，弹性模式下撤销了等待中的 Worker，或者 RM 多分配的 Container 被用掉了。
+	 * 
+	 * 其它线程总是先让 slot 进入等待，再注册请求，所以这里只可能少撤销，不会撤销掉需要的请求
+	 */
+	private void cancelSurplusRequests() {
+		
+		if ( containerRequester == null || attempts == null ) {
+			
+			return;
+		}
+		
+		if ( graph != null ) {
+			
+			reconcileTiers();
+			
+			return;
+		}
+		
+		int surplus = containerRequester.getOutstanding() - attempts.getWaiting();
+		
+		if ( surplus > 0 ) {
+			
+			containerRequester.cancel( surplus );
+		}
+	}
+	
+	/**
+	 * 交给 ContainerLauncher 的线程池去构造 ContainerLaunchContext 并且启动
+	 */
+	protected void launch( Container container ) {
+		
+		containerLauncher.launch( container );
+	}
+	
+	/**
+	 * 退避时间到了以后，重新为该 slot 申请一个 Container
+	 */
+	private void scheduleRetry( final int slot, long delayMs ) {
+		
+		LOGGER.info("Retry slot " + slot + " in " + delayMs + "ms");
+		
+		retryScheduler.schedule( new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				if ( attempts.retry( slot ) ) {
+					
+					requestContainerFor( slot );
+				}
+			}
+		
+		}, delayMs, TimeUnit.MILLISECONDS );
+	}
+	
+	/**
+	 * 执行任务图的时候，某个任务结束以后，开始满足了输入的下游任务，或者放弃依赖它的下游任务
+	 * 
+	 * @param request 是否马上为开始的任务申请 Container
+	 */
+	private void advance( int slot, boolean succeeded, boolean request ) {
+		
+		if ( graph == null ) {
+			
+			return;
+		}
+		
+		if ( succeeded ) {
+			
+			boolean started = false;
+			
+			for ( int next : graph.succeeded( slot ) ) {
+				
+				started = attempts.ready( next ) || started;
+			}
+			
+			if ( started && request ) {
+				
+				reconcileTiers();
+			}
+		
+		} else {
+			
+			List<Integer> skipped = graph.failed( slot );
+			
+			for ( int next : skipped ) {
+				
+				attempts.skip( next );
+			}
+			
+			if ( !skipped.isEmpty() ) {
+				
+				LOGGER.warn("Skip " + skipped.size() + " downstream tasks of the failed slot " + slot );
+			}
+		}
+	}
+	
+	private Resource vertexCapability( int vertex ) {
+		
+		return graph.getVertex( vertex ).getCapability( capability );
+	}
+	
+	/**
+	 * 每个 vertex 使用不同的优先级，分配到的 Container 由此对应到 vertex；排名靠前的 vertex 优先级更高（数字更小），RM 先满足它们的请求
+	 */
+	private Priority vertexPriority( int vertex ) {
+		
+		return Priority.newInstance( priority.getPriority() + graph.getVertex( vertex ).getRank() );
+	}
+	
+	/**
+	 * 为某一个 slot 再申请一个 Container，有 split 的时候仍然优先申请数据所在的 Node；执行任务图的时候按照 tier 重新对齐所有 vertex 的请求
+	 */
+	private void requestContainerFor( int slot ) {
+		
+		if ( graph != null ) {
+			
+			reconcileTiers();
+		
+		} else if ( splits != null ) {
+			
+			containerRequester.requestContainers( capability, priority, Collections.singletonList( splits.get( slot ) ) );
+		
+		} else {
+			
+			containerRequester.requestContainers( capability, priority, 1 );
+		}
+	}
+	
+	private void stopContainer( ContainerId containerId ) {
+		
+		NodeId nodeId = runningContainers.get( containerId );
+		
+		if ( nodeId != null ) {
+			
+			LOGGER.info("Stop the container " + containerId );
+			
+			stoppedByAM.add( containerId );
+			
+			if ( adopted.contains( containerId ) ) {
+				
+				// NMClientAsync 只能停止由它自己启动的 Container
+				resourceManager.releaseAssignedContainer( containerId );
+			
+			} else {
+				
+				nodeManager.stopContainerAsync( containerId, nodeId );
+			}
+		}
+	}
+	
+	/**
+	 * Worker 模式下，所有的任务都执行完毕，撤销还在等待 Container 的 Worker 以及为它们注册的请求，通过 NMClientAsync 停止所有的 Worker；
+	 * 当所有 Worker Container 结束以后，onContainersCompleted 会负责关闭 AM；一个 Worker 也没有在运行的时候直接关闭
+	 */
+	@Override
+	public void onTasksDrained( TaskQueue queue ) {
+		
+		int retired = 0;
+		
+		// 与 scaleOut 互斥，不会在撤销以后又增加 Worker
+		synchronized ( this ) {
+			
+			if ( attempts != null ) {
+				
+				retired = attempts.retireWaiting( attempts.getWaiting() );
+				
+				cancelSurplusRequests();
+			}
+		}
+		
+		LOGGER.info("All " + queue.getTotal() + " tasks finished, " + queue.getFailed() + " failed, retire " + retired + " waiting workers and stop " + runningContainers.size() + " workers ~~~~");
+		
+		for ( ContainerId worker : runningContainers.keySet() ) {
+			
+			stopContainer( worker );
+		}
+		
+		if ( attempts != null && attempts.isFinished() && finishing.compareAndSet( false, true ) ) {
+			
+			this.stop();
+		}
+	}
+
+    // 当 yarn kill 的时候会调用这个刚发
+	@Override
+	public void onShutdownRequest() {
+
+        stopped.set(true);
+	}
+	
+	/**
+	 * 集群中有 Node 加入、恢复、变得不健康或者下线的时候回调；
+	 * 不可用的 Node 加入黑名单，不再往上面放 Container，它上面的 Container 结束以后按照 RetryPolicy 处理；
+	 * 弹性模式下，集群扩容以后按照排队的任务以及 headroom 增加 Worker
+	 */
+	@Override
+	public void onNodesUpdated(List<NodeReport> updatedNodes) {
+		
+		ClusterCapacity.Change change = clusterCapacity.update( updatedNodes );
+		
+		List<String> additions = new ArrayList<String>();
+		
+		List<String> removals = new ArrayList<String>();
+		
+		for ( NodeReport lost : change.getLost() ) {
+			
+			LOGGER.warn("Node " + lost.getNodeId() + " becomes " + lost.getNodeState() + ", " + lost.getHealthReport() );
+			
+			additions.add( lost.getNodeId().getHost() );
+		}
+		
+		for ( NodeReport added : change.getAdded() ) {
+			
+			LOGGER.info("Node " + added.getNodeId() + " is usable, capability " + added.getCapability() );
+			
+			removals.add( added.getNodeId().getHost() );
+		}
+		
+		if ( resourceManager != null && ( !additions.isEmpty() || !removals.isEmpty() ) ) {
+			
+			resourceManager.updateBlacklist( additions, removals );
+		}
+		
+		LOGGER.info( clusterCapacity.getUsableNodes() + " updated nodes usable with " + clusterCapacity.getTotalMemoryMb() + "MB in total" );
+		
+		if ( elastic && !change.getAdded().isEmpty() ) {
+			
+			scaleOut();
+		}
+		
+		if ( elastic && !change.getLost().isEmpty() ) {
+			
+			scaleIn();
+		}
+	}
+	
+	/**
+	 * 集群缩容以后，撤销比排队的任务还多的、还在等待 Container 的 Worker，以及为它们注册的请求；已经分配到的多余的 Container 会被直接还给 RM
+	 */
+	private synchronized void scaleIn() {
+		
+		if ( attempts == null ) {
+			
+			return;
+		}
+		
+		int excess = attempts.getWaiting() - taskQueue.getPending();
+		
+		if ( excess > 0 ) {
+			
+			LOGGER.info("Scale in " + attempts.retireWaiting( excess ) + " waiting workers, " + taskQueue.getPending() + " tasks pending");
+			
+			cancelSurplusRequests();
+		}
+	}
+	
+	/**
+	 * 按照排队的任务、RM 返回的 headroom 以及上限增加 Worker；新增的 Worker 与原来的 Worker 完全一样
+	 */
+	private synchronized void scaleOut() {
+		
+		if ( attempts == null || capability == null || taskQueue.isDrained() ) {
+			
+			return;
+		}
+		
+		// 还在等待 Container 的 Worker 启动以后自然会去拉取排队的任务
+		int wanted = taskQueue.getPending() - attempts.getWaiting();
+		
+		int headroom = ContainerRequester.fit( resourceManager.getAvailableResources(), capability );
+		
+		int count = Math.min( Math.min( wanted, headroom ), maxContainers - attempts.getActive() );
+		
+		if ( count <= 0 ) {
+			
+			return;
+		}
+		
+		attempts.grow( count );
+		
+		containers += count;
+		
+		LOGGER.info("Scale out " + count + " workers for " + taskQueue.getPending() + " pending tasks, headroom fits " + headroom + " containers and the updated nodes fit " + clusterCapacity.fit( capability ) );
+		
+		containerRequester.requestContainers( capability, priority, count );
+	}
+	
+	/**
+	 * 
+	 * @return 除了刚刚丢失的这个 Worker 以外，其它的 Worker（包括还在等待 Container 的）是否少于排队的任务；一个 Worker 也不剩的时候总是需要补充
+	 */
+	private boolean needReplacement() {
+		
+		int others = attempts.getActive() - 1;
+		
+		return others <= 0 ? !taskQueue.isDrained() : others < taskQueue.getPending();
+	}
+	
+	/**
+	 * 每次心跳都会调用，这里只读取计数器，不加锁；
+	 * Worker 模式下按照完成的任务计算，否则按照完成的 slot 计算
+	 */
+	@Override
+	public float getProgress() {
+		
+		if ( workerMode ) {
+			
+			int total = taskQueue.getTotal();
+			
+			return total == 0 ? 0 : Math.min( 1f, (float) ( taskQueue.getSucceeded() + taskQueue.getFailed() ) / total );
+		}
+		
+		return attempts == null ? 0 : attempts.getProgress();
+	}
+	
+	public ContainerLifecycleTracker.Snapshot getSnapshot() {
+		
+		return tracker.snapshot();
+	}
+
+    // 本地的线程挂掉的时候会调用这个，如果你要提高可用性可以尝试在这里重启 AMRMClient
+	@Override
+	public void onError(Throwable e) {
+		
+		LOGGER.error(e.getMessage(), e);
+		
+		tracker.error( null, EventJournal.ERROR_RESOURCE_MANAGER );
+		
+		stopped.set( true );
+	}
+	
+	/**
+	 * 关闭 Application Master 与 Resource Manager 之间的连接
+	 * 关闭 Application Master 与 Node Manager 之间的连接 
+	 */
+	void stop(){
+		
+		if ( heartbeatController != null ) {
+			
+			heartbeatController.stop();
+		}
+		
+		containerLauncher.stop();
+		
+		retryScheduler.shutdownNow();
+		
+		if ( speculator != null ) {
+			
+			speculator.stop();
+		}
+		
+		if ( taskServer != null ) {
+			
+			taskServer.stop();
+		}
+		
+		if ( metricsServer != null ) {
+			
+			metricsServer.stop();
+		}
+		
+		// Worker 模式下，成功与否由任务的执行结果决定
+		boolean failure = workerMode ? !taskQueue.isDrained() || taskQueue.getFailed() > 0 
+									 : attempts.getFailed() > 0;
+		
+		// 不再需要任何 Container，不在 AMRMClient 中留下请求
+		containerRequester.cancel( containerRequester.getOutstanding() );
+		
+		ContainerLifecycleTracker.Snapshot snapshot = tracker.snapshot();
+		
+		LOGGER.info("Containers: " + snapshot );
+		
+		if ( conf.getBoolean( ContainerSizer.ENABLED, ContainerSizer.DEFAULT_ENABLED ) ) {
+			
+			recordUsage();
+		}
+
+        nodeManager.stop();
+
+        try {
+
+        	// 取消 Application Master 与 Resource Manager 之间的注册关系；两者之间不再关联
+			resourceManager.unregisterApplicationMaster( failure == false ? FinalApplicationStatus.SUCCEEDED : FinalApplicationStatus.FAILED, 
+														 ( failure == false ? "成功了" : "失败了" ) + " [" + snapshot + "]", 
+														 null );
+		
+		} catch (YarnException | IOException e) {
+			
+			LOGGER.error(e, e.getCause() );
+			
+			e.printStackTrace();
+			
+			// 没有 unregister，RM 还会启动下一个 attempt，保留检查点
+			if ( checkpoint != null ) {
+				
+				checkpoint.close( false );
+			}
+			
+			throw new RuntimeException(e);
+		
+		}
+
+        // 不会再有下一个 attempt 了
+        if ( checkpoint != null ) {
+
+        	checkpoint.close( true );
+        }
+
+        resourceManager.stop();
+
+        if ( journal != null ) {
+
+        	journal.close();
+        }
+	}
+	
+	/**
+	 * 把本次运行的资源使用情况写入历史，下一次运行时用来决定 Container 以及 AM 的大小；写入失败不影响本次运行的结果
+	 */
+	private void recordUsage() {
+		
+		String runId = System.getenv( ApplicationConstants.Environment.CONTAINER_ID.name() );
+		
+		if ( runId == null ) {
+			
+			runId = String.valueOf( startMillis );
+		}
+		
+		try {
+			
+			UsageHistory history = new UsageHistory( conf );
+			
+			history.record( taskType, runId, usageCollector.getSamples() );
+			
+			history.record( UsageHistory.AM_TYPE, runId, Collections.singletonList( ProcessUsage.self( System.currentTimeMillis() - startMillis ) ) );
+		
+		} catch ( IOException e ) {
+			
+			LOGGER.warn("Failed to record the resource usage of " + taskType, e );
+		}
+	}
+	
+	/**
+	 * 
+	 * @return 任务的类型，用来查找资源使用的历史
+	 */
+	public String getTaskType() {
+		
+		return taskType;
+	}
+	
+	public void setContainers( int containers ) {
+		
+		this.containers = containers;
+		
+		this.attempts = new ContainerAttempts( containers, retryPolicy );
+	}
+	
+	/**
+	 * 每个 split 一个 slot，Container 的数量由 split 的数量决定
+	 */
+	public void setInputSplits( List<InputSplit> splits ) {
+		
+		setContainers( splits.size() );
+		
+		for ( int i = 0; i < splits.size(); i++ ) {
+			
+			attempts.prefer( i, splits.get( i ).getHosts(), splits.get( i ).getRacks() );
+		}
+		
+		this.splits = splits;
+	}
+	
+	/**
+	 * 每个任务一个 slot；输入还没有满足的任务先不等待 Container
+	 */
+	public void setTaskGraph( TaskGraph graph ) {
+		
+		setContainers( graph.getSlots() );
+		
+		vertexTemplates = new LaunchContextTemplate[ graph.getVertices().size() ];
+		
+		for ( TaskGraph.Vertex vertex : graph.getVertices() ) {
+			
+			vertexTemplates[ vertex.getIndex() ] = createLaunchContextTemplate( vertex.getCommand() );
+			
+			for ( int i = 0; i < vertex.getTasks(); i++ ) {
+				
+				int slot = vertex.getFirstSlot() + i;
+				
+				attempts.group( slot, vertex.getIndex() );
+				
+				if ( !graph.isReady( slot ) ) {
+					
+					attempts.hold( slot );
+				}
+			}
+		}
+		
+		this.graph = graph;
+	}
+	
+	public int getContainers() {
+		
+		return containers;
+	}
+	
+	/**
+	 * 暴露 NMClientAsync 内部事件队列的长度，用于观察 NM 的回调是否积压
+	 */
+	private static class InstrumentedNMClientAsync extends NMClientAsyncImpl {
+		
+		/**
+		 * 回调在 handler 的构造函数中通过 setCallbackHandler 设置
+		 */
+		InstrumentedNMClientAsync() {
+			
+			super( (NMClientAsync.CallbackHandler) null );
+		}
+		
+		int getEventQueueDepth() {
+			
+			return events.size();
+		}
+	}
+
 }
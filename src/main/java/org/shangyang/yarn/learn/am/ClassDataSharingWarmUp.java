@@ -0,0 +1,135 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ClassUtil;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.api.records.NodeReport;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
+import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.util.RackResolver;
+import org.apache.hadoop.yarn.util.Records;
+
+/**
+ *
+ * 生成 class-data-sharing 归档时使用的类列表：在 -XX:DumpLoadedClassList 下运行它，加载 AM 启动时会用到的类，然后退出。
+ *
+ * 不连接任何服务，只是把启动路径上的对象构造一遍（Configuration、AMRMClientAsync、NMClientAsync、本地 FileSystem 以及 YARN 的 record），
+ * 再加载 AM jar 中所有的类（不初始化），它们引用到的 Hadoop 的类也会随之加载。
+ *
+ * @author 商洋
+ *
+ */
+public class ClassDataSharingWarmUp {
+	
+	public static void main( String[] args ) throws IOException {
+		
+		Configuration conf = new YarnConfiguration();
+		
+		RackResolver.init( conf );
+		
+		FileSystem.getLocal( conf ).exists( new Path( "." ) );
+		
+		AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager = AMRMClientAsync.createAMRMClientAsync( 1000, new NoopCallbackHandler() );
+		
+		resourceManager.init( conf );
+		
+		NMClientAsync nodeManager = NMClientAsync.createNMClientAsync( new ApplicationMasterNodeManagerCallbackHandler() );
+		
+		nodeManager.init( conf );
+		
+		Records.newRecord( ContainerLaunchContext.class );
+		
+		Resource.newInstance( 128, 1 );
+		
+		Priority.newInstance( 0 );
+		
+		resourceManager.addContainerRequest( new AMRMClient.ContainerRequest( Resource.newInstance( 128, 1 ), null, null, Priority.newInstance( 0 ) ) );
+		
+		int loaded = loadAll( ClassUtil.findContainingJar( ClassDataSharingWarmUp.class ) );
+		
+		System.out.println( "Loaded " + loaded + " classes of the application master" );
+	}
+	
+	private static int loadAll( String jar ) throws IOException {
+		
+		if ( jar == null ) {
+			
+			return 0;
+		}
+		
+		int loaded = 0;
+		
+		try ( JarFile file = new JarFile( new File( jar ) ) ) {
+			
+			Enumeration<JarEntry> entries = file.entries();
+			
+			while ( entries.hasMoreElements() ) {
+				
+				String name = entries.nextElement().getName();
+				
+				if ( !name.endsWith( ".class" ) ) {
+					
+					continue;
+				}
+				
+				try {
+					
+					Class.forName( name.substring( 0, name.length() - ".class".length() ).replace( '/', '.' ), false, ClassDataSharingWarmUp.class.getClassLoader() );
+					
+					loaded++;
+				
+				} catch ( ClassNotFoundException | LinkageError e ) {
+					
+					// 依赖不在 CLASSPATH 上的类（比如 Client 才用到的类）跳过即可
+				}
+			}
+		}
+		
+		return loaded;
+	}
+	
+	private static class NoopCallbackHandler implements AMRMClientAsync.CallbackHandler {
+		
+		@Override
+		public void onContainersCompleted( List<ContainerStatus> statuses ) {
+		}
+		
+		@Override
+		public void onContainersAllocated( List<Container> containers ) {
+		}
+		
+		@Override
+		public void onShutdownRequest() {
+		}
+		
+		@Override
+		public void onNodesUpdated( List<NodeReport> updatedNodes ) {
+		}
+		
+		@Override
+		public float getProgress() {
+			
+			return 0;
+		}
+		
+		@Override
+		public void onError( Throwable e ) {
+		}
+	}
+
+}
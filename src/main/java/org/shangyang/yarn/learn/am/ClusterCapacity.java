@@ -0,0 +1,132 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.NodeReport;
+import org.apache.hadoop.yarn.api.records.NodeState;
+import org.apache.hadoop.yarn.api.records.Resource;
+
+/**
+ * 
+ * 根据 onNodesUpdated 中的 NodeReport 维护的集群视图：哪些 Node 可用，以及它们的总容量和剩余容量。
+ * 
+ * RM 只会汇报状态发生了变化的 Node（新加入的、不健康的、下线的等等），所以这里只包含 AM 启动以后发生过变化的 Node，
+ * 它用来判断集群是在扩容还是在缩容；AM 实际还能用多少资源以 RM 返回的 headroom 为准。
+ * 
+ * 正在下线（DECOMMISSIONING）的 Node 上的 Container 还会继续运行，但是不应该再往上面放新的 Container，这里也算作不可用。
+ * 
+ * @author 商洋
+ *
+ */
+public class ClusterCapacity {
+	
+	/**
+	 * 一次 onNodesUpdated 带来的变化
+	 */
+	public static class Change {
+		
+		private final List<NodeReport> added = new ArrayList<NodeReport>();
+		
+		private final List<NodeReport> lost = new ArrayList<NodeReport>();
+		
+		/**
+		 * 
+		 * @return 新加入的或者恢复可用的 Node
+		 */
+		public List<NodeReport> getAdded() {
+			
+			return added;
+		}
+		
+		/**
+		 * 
+		 * @return 变为不可用的 Node
+		 */
+		public List<NodeReport> getLost() {
+			
+			return lost;
+		}
+	}
+	
+	private final Map<NodeId, NodeReport> usable = new HashMap<NodeId, NodeReport>();
+	
+	public synchronized Change update( List<NodeReport> reports ) {
+		
+		Change change = new Change();
+		
+		for ( NodeReport report : reports ) {
+			
+			if ( isUsable( report.getNodeState() ) ) {
+				
+				if ( usable.put( report.getNodeId(), report ) == null ) {
+					
+					change.added.add( report );
+				}
+				
+			} else {
+				
+				usable.remove( report.getNodeId() );
+				
+				// 不知道它之前是不是可用的，都当作丢失，由调用方去决定是否需要处理
+				change.lost.add( report );
+			}
+		}
+		
+		return change;
+	}
+	
+	public static boolean isUsable( NodeState state ) {
+		
+		return !state.isUnusable() && state != NodeState.DECOMMISSIONING;
+	}
+	
+	public synchronized boolean isUsable( NodeId nodeId ) {
+		
+		return usable.containsKey( nodeId );
+	}
+	
+	public synchronized int getUsableNodes() {
+		
+		return usable.size();
+	}
+	
+	/**
+	 * 
+	 * @return 已知的可用 Node 的总内存
+	 */
+	public synchronized long getTotalMemoryMb() {
+		
+		long total = 0;
+		
+		for ( NodeReport report : usable.values() ) {
+			
+			total += report.getCapability().getMemorySize();
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * 
+	 * @return 已知的可用 Node 上按照最近一次汇报的使用情况，还能放下多少个该大小的 Container
+	 */
+	public synchronized int fit( Resource capability ) {
+		
+		int fit = 0;
+		
+		for ( NodeReport report : usable.values() ) {
+			
+			Resource used = report.getUsed() == null ? Resource.newInstance( 0, 0 ) : report.getUsed();
+			
+			fit += ContainerRequester.fit( Resource.newInstance( report.getCapability().getMemorySize() - used.getMemorySize(), 
+																 report.getCapability().getVirtualCores() - used.getVirtualCores() ), capability );
+		}
+		
+		return fit;
+	}
+
+}
@@ -0,0 +1,907 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+
+/**
+ * 
+ * 记录每个 slot 的执行情况；slot 是一个需要一个 Container 来完成的工作单元，普通模式下就是一个任务，Worker 模式下就是一个 Worker。
+ * 
+ * 1) 分配到的 Container 优先交给数据在该 Node 上的 slot，其次是数据在同一个 Rack 上的 slot，最后是最早的一个等待中的 slot；
+ *    没有等待中的 slot 的 Container 是多余的；
+ * 2) Container 结束的时候，根据 RetryPolicy 决定该 slot 是成功、重试还是最终失败；
+ *    重试的 slot 要等到退避时间过了以后，由调用方调用 retry() 重新放回等待队列并且重新申请 Container；
+ * 3) 同一个 slot 可以同时有多个 Container 在运行（推测执行），最先成功的那个为准，其它的作为 loser 返回给调用方去停止；
+ *    某一个 Container 失败的时候，如果该 slot 还有其它的 Container 在运行或者在等待，不重试；
+ * 4) 弹性模式下 slot 的数量可以增加（grow），不再需要的 slot 可以撤销（retire），撤销的 slot 既不算成功也不算失败；
+ * 5) AM 重启以后，之前的 attempt 中已经结束的 slot 直接恢复为结束（restore），还在运行的 Container 重新接管（adopt）；
+ * 6) 执行 TaskGraph 的时候，slot 按照 vertex 分组（group），Container 只分配给同组的 slot；输入还没有满足的 slot 先不等待 Container（hold），
+ *    满足以后再进入等待（ready），上游失败的 slot 不再执行（skip）。
+ * 
+ * 所有方法都很轻，直接用 synchronized。
+ * 
+ * @author 商洋
+ *
+ */
+public class ContainerAttempts {
+	
+	private static Log LOGGER = LogFactory.getLog(ContainerAttempts.class);
+	
+	public enum Outcome {
+		
+		SUCCEEDED, RETRY, FAILED, IGNORED
+	}
+	
+	/**
+	 * Container 结束以后对其所在 slot 的处理结果
+	 */
+	public static class Decision {
+		
+		private final Outcome outcome;
+		
+		private final int slot;
+		
+		private final long delayMs;
+		
+		private final List<ContainerId> losers;
+		
+		Decision( Outcome outcome, int slot, long delayMs ) {
+			
+			this( outcome, slot, delayMs, Collections.<ContainerId>emptyList() );
+		}
+		
+		Decision( Outcome outcome, int slot, long delayMs, List<ContainerId> losers ) {
+			
+			this.outcome = outcome;
+			
+			this.slot = slot;
+			
+			this.delayMs = delayMs;
+			
+			this.losers = losers;
+		}
+		
+		public Outcome getOutcome() {
+			
+			return outcome;
+		}
+		
+		public int getSlot() {
+			
+			return slot;
+		}
+		
+		/**
+		 * 
+		 * @return 重试之前需要等待的时间
+		 */
+		public long getDelayMs() {
+			
+			return delayMs;
+		}
+		
+		/**
+		 * 
+		 * @return 该 slot 已经成功了，还在运行的其它 Container 需要被停止
+		 */
+		public List<ContainerId> getLosers() {
+			
+			return losers;
+		}
+	}
+	
+	private static class Attempt {
+		
+		final int slot;
+		
+		final long startNanos;
+		
+		final boolean speculative;
+		
+		Attempt( int slot, long startNanos, boolean speculative ) {
+			
+			this.slot = slot;
+			
+			this.startNanos = startNanos;
+			
+			this.speculative = speculative;
+		}
+	}
+	
+	private static final Decision IGNORED = new Decision( Outcome.IGNORED, -1, 0 );
+	
+	private final RetryPolicy policy;
+	
+	private int slots;
+	
+	private int[] failures;
+	
+	private int[] frameworkFailures;
+	
+	/** 等待 Container 的 slot，按照等待的先后顺序 **/
+	private final Set<Integer> waiting = new LinkedHashSet<Integer>();
+	
+	/** 按照数据所在的 Node 以及 Rack 索引的等待中的 slot **/
+	private final Map<String, Set<Integer>> waitingByHost = new HashMap<String, Set<Integer>>();
+	
+	private final Map<String, Set<Integer>> waitingByRack = new HashMap<String, Set<Integer>>();
+	
+	private String[][] hosts;
+	
+	private String[][] racks;
+	
+	/** 每个 slot 所在的组，没有分组的时候为 null **/
+	private int[] groups;
+	
+	private final Map<Integer, Set<Integer>> waitingByGroup = new HashMap<Integer, Set<Integer>>();
+	
+	private int nodeLocal = 0;
+	
+	private int rackLocal = 0;
+	
+	private int offSwitch = 0;
+	
+	private final Map<ContainerId, Attempt> running = new HashMap<ContainerId, Attempt>();
+	
+	/** 每个 slot 正在运行的 Container 的数量 **/
+	private int[] runningCount;
+	
+	private boolean[] finished;
+	
+	private boolean[] speculated;
+	
+	/** 成功的 slot 的执行时间，用于计算中位数；恢复的 slot 没有执行时间 **/
+	private long[] runtimesNanos;
+	
+	private int timed = 0;
+	
+	private int succeeded = 0;
+	
+	private int failed = 0;
+	
+	private int retired = 0;
+	
+	private int speculations = 0;
+	
+	private int speculationWins = 0;
+	
+	public ContainerAttempts( int slots, RetryPolicy policy ) {
+		
+		this.slots = slots;
+		
+		this.policy = policy;
+		
+		this.failures = new int[ slots ];
+		
+		this.frameworkFailures = new int[ slots ];
+		
+		this.hosts = new String[ slots ][];
+		
+		this.racks = new String[ slots ][];
+		
+		this.runningCount = new int[ slots ];
+		
+		this.finished = new boolean[ slots ];
+		
+		this.speculated = new boolean[ slots ];
+		
+		this.runtimesNanos = new long[ slots ];
+		
+		for ( int i = 0; i < slots; i++ ) {
+			
+			waiting.add( i );
+		}
+	}
+	
+	/**
+	 * 增加 count 个等待中的 slot
+	 * 
+	 * @return 第一个新增的 slot
+	 */
+	public synchronized int grow( int count ) {
+		
+		int first = slots;
+		
+		slots += count;
+		
+		failures = Arrays.copyOf( failures, slots );
+		
+		frameworkFailures = Arrays.copyOf( frameworkFailures, slots );
+		
+		hosts = Arrays.copyOf( hosts, slots );
+		
+		racks = Arrays.copyOf( racks, slots );
+		
+		runningCount = Arrays.copyOf( runningCount, slots );
+		
+		finished = Arrays.copyOf( finished, slots );
+		
+		speculated = Arrays.copyOf( speculated, slots );
+		
+		runtimesNanos = Arrays.copyOf( runtimesNanos, slots );
+		
+		if ( groups != null ) {
+			
+			groups = Arrays.copyOf( groups, slots );
+		}
+		
+		for ( int i = first; i < slots; i++ ) {
+			
+			waiting.add( i );
+			
+			index( i );
+		}
+		
+		return first;
+	}
+	
+	/**
+	 * 撤销一个没有 Container 在运行的 slot，它不再需要 Container
+	 * 
+	 * @return 该 slot 是否被撤销
+	 */
+	public synchronized boolean retire( int slot ) {
+		
+		if ( finished[slot] || runningCount[slot] > 0 ) {
+			
+			return false;
+		}
+		
+		if ( waiting.remove( slot ) ) {
+			
+			unindex( slot );
+		}
+		
+		finished[slot] = true;
+		
+		retired++;
+		
+		return true;
+	}
+	
+	/**
+	 * 从最晚等待的开始，撤销最多 count 个等待中的 slot
+	 * 
+	 * @return 撤销的数量
+	 */
+	public synchronized int retireWaiting( int count ) {
+		
+		List<Integer> candidates = new ArrayList<Integer>( waiting );
+		
+		int retiredNow = 0;
+		
+		for ( int i = candidates.size() - 1; i >= 0 && retiredNow < count; i-- ) {
+			
+			if ( retire( candidates.get( i ) ) ) {
+				
+				retiredNow++;
+			}
+		}
+		
+		return retiredNow;
+	}
+	
+	/**
+	 * 之前的 attempt 中已经结束的 slot，不再需要 Container
+	 * 
+	 * @return 该 slot 是否被恢复为结束；已经结束或者有 Container 在运行的时候返回 false
+	 */
+	public synchronized boolean restore( int slot, boolean succeeded ) {
+		
+		if ( slot < 0 || slot >= slots || finished[slot] || runningCount[slot] > 0 ) {
+			
+			return false;
+		}
+		
+		finish( slot, succeeded );
+		
+		return true;
+	}
+	
+	/**
+	 * 上游失败了，该 slot 不再执行，直接算作失败
+	 * 
+	 * @return 该 slot 已经结束或者有 Container 在运行的时候返回 false
+	 */
+	public synchronized boolean skip( int slot ) {
+		
+		if ( finished[slot] || runningCount[slot] > 0 ) {
+			
+			return false;
+		}
+		
+		finish( slot, false );
+		
+		return true;
+	}
+	
+	private void finish( int slot, boolean succeeded ) {
+		
+		if ( waiting.remove( slot ) ) {
+			
+			unindex( slot );
+		}
+		
+		finished[slot] = true;
+		
+		if ( succeeded ) {
+			
+			this.succeeded++;
+		
+		} else {
+			
+			failed++;
+		}
+	}
+	
+	/**
+	 * 设置 slot 所在的组，之后通过 assign( containerId, group ) 只把同组的 slot 分配给 Container
+	 */
+	public synchronized void group( int slot, int group ) {
+		
+		if ( groups == null ) {
+			
+			groups = new int[ slots ];
+		}
+		
+		boolean isWaiting = waiting.contains( slot );
+		
+		if ( isWaiting ) {
+			
+			unindex( slot );
+		}
+		
+		groups[slot] = group;
+		
+		if ( isWaiting ) {
+			
+			index( slot );
+		}
+	}
+	
+	/**
+	 * 该 slot 的输入还没有满足，暂时不等待 Container
+	 */
+	public synchronized void hold( int slot ) {
+		
+		if ( waiting.remove( slot ) ) {
+			
+			unindex( slot );
+		}
+	}
+	
+	/**
+	 * 输入满足了，该 slot 开始等待 Container
+	 * 
+	 * @return 该 slot 已经结束的时候返回 false
+	 */
+	public synchronized boolean ready( int slot ) {
+		
+		return retry( slot );
+	}
+	
+	/**
+	 * 接管之前的 attempt 留下来的、仍然在运行的 Container；它的执行时间从接管的时候算起
+	 * 
+	 * @return 该 slot 已经结束的时候返回 false，调用方负责停止这个 Container
+	 */
+	public synchronized boolean adopt( ContainerId containerId, int slot ) {
+		
+		if ( slot < 0 || slot >= slots || finished[slot] || running.containsKey( containerId ) ) {
+			
+			return false;
+		}
+		
+		if ( waiting.remove( slot ) ) {
+			
+			unindex( slot );
+		}
+		
+		running.put( containerId, new Attempt( slot, System.nanoTime(), runningCount[slot] > 0 ) );
+		
+		runningCount[slot]++;
+		
+		return true;
+	}
+	
+	/**
+	 * 分配给 slot 的 Container 还没有启动就被还给了 RM（比如 gang 没有凑齐），该 slot 重新等待 Container，不算失败
+	 *
+	 * @return 该 Container 没有分配给任何 slot 的时候返回 false
+	 */
+	public synchronized boolean unassign( ContainerId containerId ) {
+		
+		Attempt attempt = running.remove( containerId );
+		
+		if ( attempt == null ) {
+			
+			return false;
+		}
+		
+		runningCount[ attempt.slot ]--;
+		
+		if ( !finished[ attempt.slot ] && waiting.add( attempt.slot ) ) {
+			
+			index( attempt.slot );
+		}
+		
+		return true;
+	}
+	
+	/**
+	 *
+	 * @return 等待 Container 的 slot，按照等待的先后顺序
+	 */
+	public synchronized List<Integer> getWaitingSlots() {
+		
+		return new ArrayList<Integer>( waiting );
+	}
+	
+	/**
+	 * 
+	 * @return 还没有分配到 Container 的 slot 的数量
+	 */
+	public synchronized int getWaiting() {
+		
+		return waiting.size();
+	}
+	
+	/**
+	 * 
+	 * @return 该组中还没有分配到 Container 的 slot 的数量
+	 */
+	public synchronized int getWaiting( int group ) {
+		
+		Set<Integer> slots = waitingByGroup.get( group );
+		
+		return slots == null ? 0 : slots.size();
+	}
+	
+	/**
+	 * 
+	 * @return 还没有结束的 slot 的数量，包括正在运行的以及等待 Container 的
+	 */
+	public synchronized int getActive() {
+		
+		return slots - succeeded - failed - retired;
+	}
+	
+	/**
+	 * 设置该 slot 的数据所在的 Node 以及 Rack，需要在分配 Container 之前设置
+	 */
+	public synchronized void prefer( int slot, String[] hosts, String[] racks ) {
+		
+		boolean isWaiting = waiting.contains( slot );
+		
+		if ( isWaiting ) {
+			
+			unindex( slot );
+		}
+		
+		this.hosts[slot] = hosts;
+		
+		this.racks[slot] = racks;
+		
+		if ( isWaiting ) {
+			
+			index( slot );
+		}
+	}
+	
+	public synchronized Integer assign( ContainerId containerId ) {
+		
+		return assign( containerId, null, null );
+	}
+	
+	/**
+	 * 
+	 * @param host 该 Container 所在的 Node
+	 * @param rack 该 Container 所在的 Rack
+	 * @return 分配给该 Container 的 slot；如果没有等待中的 slot，返回 null
+	 */
+	public synchronized Integer assign( ContainerId containerId, String host, String rack ) {
+		
+		Integer slot = first( host == null ? null : waitingByHost.get( host ) );
+		
+		if ( slot != null ) {
+			
+			nodeLocal++;
+		
+		} else if ( ( slot = first( rack == null ? null : waitingByRack.get( rack ) ) ) != null ) {
+			
+			rackLocal++;
+		
+		} else if ( ( slot = first( waiting ) ) != null && ( hosts[slot] != null || racks[slot] != null ) ) {
+			
+			offSwitch++;
+		}
+		
+		if ( slot != null ) {
+			
+			waiting.remove( slot );
+			
+			unindex( slot );
+			
+			running.put( containerId, new Attempt( slot, System.nanoTime(), runningCount[slot] > 0 ) );
+			
+			runningCount[slot]++;
+		}
+		
+		return slot;
+	}
+	
+	/**
+	 * 把该组中最早等待的 slot 分配给 Container，用于 Container 的大小以及优先级由组决定的时候
+	 * 
+	 * @return 该组没有等待中的 slot 的时候返回 null
+	 */
+	public synchronized Integer assign( ContainerId containerId, int group ) {
+		
+		Integer slot = first( waitingByGroup.get( group ) );
+		
+		if ( slot != null ) {
+			
+			waiting.remove( slot );
+			
+			unindex( slot );
+			
+			running.put( containerId, new Attempt( slot, System.nanoTime(), runningCount[slot] > 0 ) );
+			
+			runningCount[slot]++;
+		}
+		
+		return slot;
+	}
+	
+	public synchronized Integer getSlot( ContainerId containerId ) {
+		
+		Attempt attempt = running.get( containerId );
+		
+		return attempt == null ? null : attempt.slot;
+	}
+	
+	/**
+	 * 
+	 * @param succeeded 该 Container 是否正常的完成了它的工作
+	 */
+	public synchronized Decision completed( ContainerId containerId, int exitStatus, boolean succeeded ) {
+		
+		Attempt attempt = running.remove( containerId );
+		
+		if ( attempt == null ) {
+			
+			return IGNORED;
+		}
+		
+		int slot = attempt.slot;
+		
+		runningCount[slot]--;
+		
+		// 同一个 slot 的其它 Container 已经先成功了
+		if ( finished[slot] ) {
+			
+			return IGNORED;
+		}
+		
+		if ( succeeded ) {
+			
+			finished[slot] = true;
+			
+			runtimesNanos[ timed++ ] = System.nanoTime() - attempt.startNanos;
+			
+			this.succeeded++;
+			
+			if ( attempt.speculative ) {
+				
+				speculationWins++;
+			}
+			
+			// 还没有分配到 Container 的推测执行请求不再需要了
+			if ( waiting.remove( slot ) ) {
+				
+				unindex( slot );
+			}
+			
+			return new Decision( Outcome.SUCCEEDED, slot, 0, losers( slot ) );
+		}
+		
+		// 该 slot 还有其它的 Container 在运行或者等待分配，由它们来完成
+		if ( runningCount[slot] > 0 || waiting.contains( slot ) ) {
+			
+			return IGNORED;
+		}
+		
+		if ( RetryPolicy.isFrameworkFailure( exitStatus ) ) {
+			
+			// 不是应用的问题，马上重试，不计入重试次数
+			if ( ++frameworkFailures[slot] <= policy.getMaxFrameworkRetries() ) {
+				
+				return new Decision( Outcome.RETRY, slot, 0 );
+			}
+		
+		} else if ( ++failures[slot] < policy.getMaxAttempts() ) {
+			
+			return new Decision( Outcome.RETRY, slot, policy.backoffMs( failures[slot] ) );
+		}
+		
+		LOGGER.warn( "Slot " + slot + " gave up after " + failures[slot] + " failures and " + frameworkFailures[slot] + " framework failures" );
+		
+		finished[slot] = true;
+		
+		failed++;
+		
+		return new Decision( Outcome.FAILED, slot, 0 );
+	}
+	
+	/**
+	 * 退避时间到了以后，把该 slot 重新放回等待队列，等待新的 Container
+	 * 
+	 * @return 该 slot 在等待期间已经被撤销的时候返回 false
+	 */
+	public synchronized boolean retry( int slot ) {
+		
+		if ( finished[slot] ) {
+			
+			return false;
+		}
+		
+		if ( waiting.add( slot ) ) {
+			
+			index( slot );
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * 
+	 * 找出执行时间远远超过中位数的 slot，把它们重新放回等待队列，等待一个备份的 Container；每个 slot 最多推测执行一次。
+	 * 
+	 * @param nowNanos 当前时间
+	 * @param factor 执行时间超过中位数的多少倍算作 straggler
+	 * @param minRuntimeMs 执行时间至少要超过这个值，避免对很短的任务推测执行
+	 * @param minCompleted 至少要有这么多 slot 已经成功，中位数才有意义
+	 * @param maxActive 同时处于推测执行中的 slot 的上限
+	 * @return 需要申请备份 Container 的 slot
+	 */
+	public synchronized List<Integer> speculate( long nowNanos, double factor, long minRuntimeMs, int minCompleted, int maxActive ) {
+		
+		if ( timed == 0 || timed < minCompleted ) {
+			
+			return Collections.emptyList();
+		}
+		
+		long[] sorted = Arrays.copyOf( runtimesNanos, timed );
+		
+		Arrays.sort( sorted );
+		
+		long threshold = Math.max( (long) ( sorted[ sorted.length / 2 ] * factor ), TimeUnit.MILLISECONDS.toNanos( minRuntimeMs ) );
+		
+		int active = 0;
+		
+		for ( int i = 0; i < slots; i++ ) {
+			
+			if ( speculated[i] && !finished[i] ) {
+				
+				active++;
+			}
+		}
+		
+		List<Integer> stragglers = new ArrayList<Integer>();
+		
+		for ( Attempt attempt : running.values() ) {
+			
+			if ( active >= maxActive ) {
+				
+				break;
+			}
+			
+			int slot = attempt.slot;
+			
+			if ( speculated[slot] || finished[slot] || nowNanos - attempt.startNanos <= threshold ) {
+				
+				continue;
+			}
+			
+			speculated[slot] = true;
+			
+			speculations++;
+			
+			active++;
+			
+			if ( waiting.add( slot ) ) {
+				
+				index( slot );
+			}
+			
+			stragglers.add( slot );
+		}
+		
+		return stragglers;
+	}
+	
+	public synchronized int getSpeculations() {
+		
+		return speculations;
+	}
+	
+	/**
+	 * 
+	 * @return 备份的 Container 比原来的 Container 先完成的次数
+	 */
+	public synchronized int getSpeculationWins() {
+		
+		return speculationWins;
+	}
+	
+	private List<ContainerId> losers( int slot ) {
+		
+		if ( runningCount[slot] == 0 ) {
+			
+			return Collections.emptyList();
+		}
+		
+		List<ContainerId> losers = new ArrayList<ContainerId>( runningCount[slot] );
+		
+		for ( Map.Entry<ContainerId, Attempt> entry : running.entrySet() ) {
+			
+			if ( entry.getValue().slot == slot ) {
+				
+				losers.add( entry.getKey() );
+			}
+		}
+		
+		return losers;
+	}
+	
+	public synchronized boolean isFinished() {
+		
+		return succeeded + failed + retired >= slots;
+	}
+	
+	public synchronized float getProgress() {
+		
+		return slots == retired ? 0 : (float) ( succeeded + failed ) / ( slots - retired );
+	}
+	
+	public synchronized int getSlots() {
+		
+		return slots;
+	}
+	
+	public synchronized int getSucceeded() {
+		
+		return succeeded;
+	}
+	
+	public synchronized int getFailed() {
+		
+		return failed;
+	}
+	
+	/**
+	 * 
+	 * @return 分配到数据所在的 Node 上的 slot 的次数
+	 */
+	public synchronized int getNodeLocal() {
+		
+		return nodeLocal;
+	}
+	
+	public synchronized int getRackLocal() {
+		
+		return rackLocal;
+	}
+	
+	/**
+	 * 
+	 * @return 有位置偏好，但是分配到的 Container 既不在同一个 Node 也不在同一个 Rack 的次数
+	 */
+	public synchronized int getOffSwitch() {
+		
+		return offSwitch;
+	}
+	
+	private void index( int slot ) {
+		
+		index( waitingByHost, hosts[slot], slot );
+		
+		index( waitingByRack, racks[slot], slot );
+		
+		if ( groups != null ) {
+			
+			Set<Integer> group = waitingByGroup.get( groups[slot] );
+			
+			if ( group == null ) {
+				
+				group = new LinkedHashSet<Integer>();
+				
+				waitingByGroup.put( groups[slot], group );
+			}
+			
+			group.add( slot );
+		}
+	}
+	
+	private void unindex( int slot ) {
+		
+		unindex( waitingByHost, hosts[slot], slot );
+		
+		unindex( waitingByRack, racks[slot], slot );
+		
+		if ( groups != null ) {
+			
+			Set<Integer> group = waitingByGroup.get( groups[slot] );
+			
+			if ( group != null && group.remove( slot ) && group.isEmpty() ) {
+				
+				waitingByGroup.remove( groups[slot] );
+			}
+		}
+	}
+	
+	private static void index( Map<String, Set<Integer>> index, String[] keys, int slot ) {
+		
+		if ( keys == null ) {
+			
+			return;
+		}
+		
+		for ( String key : keys ) {
+			
+			Set<Integer> slots = index.get( key );
+			
+			if ( slots == null ) {
+				
+				slots = new LinkedHashSet<Integer>();
+				
+				index.put( key, slots );
+			}
+			
+			slots.add( slot );
+		}
+	}
+	
+	private static void unindex( Map<String, Set<Integer>> index, String[] keys, int slot ) {
+		
+		if ( keys == null ) {
+			
+			return;
+		}
+		
+		for ( String key : keys ) {
+			
+			Set<Integer> slots = index.get( key );
+			
+			if ( slots != null && slots.remove( slot ) && slots.isEmpty() ) {
+				
+				index.remove( key );
+			}
+		}
+	}
+	
+	private static Integer first( Set<Integer> slots ) {
+		
+		if ( slots == null ) {
+			
+			return null;
+		}
+		
+		Iterator<Integer> iterator = slots.iterator();
+		
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+
+}
@@ -0,0 +1,195 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+
+/**
+ *
+ * Gang 模式：所有的 slot 要么一起启动，要么一个也不启动，用于 Worker 之间需要互相通讯、缺一个就跑不起来的应用（比如 MPI、参数服务器）。
+ *
+ * 分配到的 Container 先不启动，攒在这里，直到凑齐 size 个以后一起交给 ContainerLauncher；
+ * 每一轮申请开始以后 timeout-ms 内凑不齐，就把手上的 Container 全部还给 RM、撤销所有的请求，退避一段时间以后再开始下一轮。
+ * 占着一部分 Container 空等不仅浪费集群的资源，两个 gang 各占一半的时候谁也凑不齐；退避时间按照轮数指数增长，并且加上随机的抖动，错开互相竞争的 gang。
+ *
+ * 只管第一次凑齐：启动以后某个 Container 失败了，仍然按照 RetryPolicy 单独重试。
+ *
+ * @author 商洋
+ *
+ */
+public class ContainerGang {
+	
+	public static final String ENABLED = ApplicationMasterConfig.PREFIX + "gang.enabled";
+	
+	public static final boolean DEFAULT_ENABLED = false;
+	
+	/** 每一轮从注册请求开始，凑齐所有 Container 的时间上限 **/
+	public static final String TIMEOUT_MS = ApplicationMasterConfig.PREFIX + "gang.timeout-ms";
+	
+	public static final long DEFAULT_TIMEOUT_MS = 120000;
+	
+	public static final String BACKOFF_BASE_MS = ApplicationMasterConfig.PREFIX + "gang.backoff-base-ms";
+	
+	public static final long DEFAULT_BACKOFF_BASE_MS = 10000;
+	
+	public static final String BACKOFF_MAX_MS = ApplicationMasterConfig.PREFIX + "gang.backoff-max-ms";
+	
+	public static final long DEFAULT_BACKOFF_MAX_MS = 300000;
+	
+	private final int size;
+	
+	private final long timeoutMs;
+	
+	private final long backoffBaseMs;
+	
+	private final long backoffMaxMs;
+	
+	private final Random random;
+	
+	private final List<Container> held = new ArrayList<Container>();
+	
+	private int round = 0;
+	
+	private boolean launched = false;
+	
+	public ContainerGang( Configuration conf, int size ) {
+		
+		this( size, conf.getLong( TIMEOUT_MS, DEFAULT_TIMEOUT_MS ), conf.getLong( BACKOFF_BASE_MS, DEFAULT_BACKOFF_BASE_MS ),
+			  conf.getLong( BACKOFF_MAX_MS, DEFAULT_BACKOFF_MAX_MS ), new Random() );
+	}
+	
+	ContainerGang( int size, long timeoutMs, long backoffBaseMs, long backoffMaxMs, Random random ) {
+		
+		this.size = size;
+		
+		this.timeoutMs = Math.max( 1, timeoutMs );
+		
+		this.backoffBaseMs = Math.max( 0, backoffBaseMs );
+		
+		this.backoffMaxMs = Math.max( this.backoffBaseMs, backoffMaxMs );
+		
+		this.random = random;
+	}
+	
+	/**
+	 * 开始新的一轮，调用方在 timeout-ms 以后用返回的轮数调用 expire
+	 */
+	public synchronized int startRound() {
+		
+		return ++round;
+	}
+	
+	/**
+	 * 攒下一个分配到的 Container
+	 *
+	 * @return 凑齐了的时候返回整个 gang，调用方负责全部启动；否则返回空的列表
+	 */
+	public synchronized List<Container> hold( Container container ) {
+		
+		held.add( container );
+		
+		if ( held.size() < size ) {
+			
+			return Collections.emptyList();
+		}
+		
+		launched = true;
+		
+		List<Container> gang = new ArrayList<Container>( held );
+		
+		held.clear();
+		
+		return gang;
+	}
+	
+	/**
+	 * 还没有启动就结束了的 Container（比如被 RM 抢占），不再算在 gang 中；它的 slot 由调用方重新申请
+	 *
+	 * @return 该 Container 是否在 gang 中
+	 */
+	public synchronized boolean remove( ContainerId containerId ) {
+		
+		for ( Iterator<Container> iterator = held.iterator(); iterator.hasNext(); ) {
+			
+			if ( iterator.next().getId().equals( containerId ) ) {
+				
+				iterator.remove();
+				
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * 某一轮的时间到了
+	 *
+	 * @return 还没有凑齐的时候，返回手上所有的 Container，调用方负责还给 RM；已经启动或者不是当前这一轮的时候返回 null
+	 */
+	public synchronized List<Container> expire( int round ) {
+		
+		if ( launched || round != this.round ) {
+			
+			return null;
+		}
+		
+		List<Container> released = new ArrayList<Container>( held );
+		
+		held.clear();
+		
+		return released;
+	}
+	
+	/**
+	 *
+	 * @return base * 2^(round - 1)，不超过 backoff-max-ms，再加上最多一半的随机抖动
+	 */
+	public synchronized long backoffMs() {
+		
+		if ( backoffBaseMs == 0 ) {
+			
+			return 0;
+		}
+		
+		long backoff = Math.min( backoffMaxMs, backoffBaseMs << Math.min( Math.max( round - 1, 0 ), 30 ) );
+		
+		return backoff + (long) ( random.nextDouble() * backoff / 2 );
+	}
+	
+	public synchronized boolean isLaunched() {
+		
+		return launched;
+	}
+	
+	public int getSize() {
+		
+		return size;
+	}
+	
+	public long getTimeoutMs() {
+		
+		return timeoutMs;
+	}
+	
+	/**
+	 *
+	 * @return 攒下来还没有启动的 Container 的数量
+	 */
+	public synchronized int getHeld() {
+		
+		return held.size();
+	}
+	
+	public synchronized int getRounds() {
+		
+		return round;
+	}
+
+}
@@ -0,0 +1,17 @@
+package org.shangyang.yarn.learn.am;
+
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+
+/**
+ * 
+ * 为分配到的 Container 构造 ContainerLaunchContext；会被 ContainerLauncher 的多个线程并发调用。
+ * 
+ * @author 商洋
+ *
+ */
+public interface ContainerLaunchContextFactory {
+	
+	ContainerLaunchContext createLaunchContext( Container container );
+
+}
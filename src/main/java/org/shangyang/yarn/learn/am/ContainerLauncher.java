@@ -0,0 +1,298 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 
+ * 在独立的线程池中构造 ContainerLaunchContext 并且启动 Container，而不是占用 AMRM 的回调线程；
+ * 见 http://hadoop.apache.org/docs/stable/hadoop-yarn/hadoop-yarn-site/WritingYarnApplications.html 关于 onContainersAllocated() 方法的描述
+ * 
+ * 1) 线程数以及等待队列的长度都是有限的，当队列满了以后，由调用线程（既是 AMRM 的回调线程）自己来执行，从而形成反压；
+ * 2) 每个 NodeManager 同时正在启动的 Container 的数量是有上限的，超过上限的 Container 在该 Node 自己的队列中等待，
+ *    等到前面的 Container 启动成功或者失败以后再启动，这样单个 NodeManager 不会被大量的 startContainerAsync 请求淹没，
+ *    也不会因为某一个 Node 慢而阻塞住其它 Node 的启动。
+ * 
+ * @author 商洋
+ *
+ */
+public class ContainerLauncher {
+	
+	private static Log LOGGER = LogFactory.getLog(ContainerLauncher.class);
+	
+	public static final String THREADS = ApplicationMasterConfig.PREFIX + "launcher.threads";
+	
+	public static final int DEFAULT_THREADS = 16;
+	
+	public static final String QUEUE_CAPACITY = ApplicationMasterConfig.PREFIX + "launcher.queue-capacity";
+	
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	
+	public static final String MAX_STARTS_PER_NODE = ApplicationMasterConfig.PREFIX + "launcher.max-starts-per-node";
+	
+	public static final int DEFAULT_MAX_STARTS_PER_NODE = 8;
+	
+	private final NMClientAsync nodeManager;
+	
+	private final ContainerLaunchContextFactory launchContextFactory;
+	
+	private final ApplicationMasterMetrics metrics;
+	
+	private final ContainerLifecycleTracker tracker;
+	
+	private final Listener listener;
+	
+	private final ThreadPoolExecutor executor;
+	
+	private final int maxStartsPerNode;
+	
+	private final ConcurrentMap<NodeId, NodeLaunchQueue> nodes = new ConcurrentHashMap<NodeId, NodeLaunchQueue>();
+	
+	/** 正在启动的 Container 以及其所在的 Node；启动的延迟由 ContainerLifecycleTracker 统计 **/
+	private final ConcurrentMap<ContainerId, NodeId> launching = new ConcurrentHashMap<ContainerId, NodeId>();
+	
+	/**
+	 * Container 没有启动起来的时候通知调用方，由调用方把它还给 RM，并且按照 RetryPolicy 重新申请它的 slot
+	 */
+	public interface Listener {
+		
+		void onLaunchFailed( ContainerId containerId );
+	}
+	
+	public ContainerLauncher( Configuration conf, NMClientAsync nodeManager, ContainerLaunchContextFactory launchContextFactory, ApplicationMasterMetrics metrics, ContainerLifecycleTracker tracker, Listener listener ) {
+		
+		this.nodeManager = nodeManager;
+		
+		this.launchContextFactory = launchContextFactory;
+		
+		this.metrics = metrics;
+		
+		this.tracker = tracker;
+		
+		this.listener = listener;
+		
+		this.maxStartsPerNode = Math.max( 1, conf.getInt( MAX_STARTS_PER_NODE, DEFAULT_MAX_STARTS_PER_NODE ) );
+		
+		int threads = Math.max( 1, conf.getInt( THREADS, DEFAULT_THREADS ) );
+		
+		this.executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS, 
+												new LinkedBlockingQueue<Runnable>( Math.max( 1, conf.getInt( QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY ) ) ),
+												new ThreadFactoryBuilder().setDaemon(true).setNameFormat("container-launcher-%d").build(),
+												new ThreadPoolExecutor.CallerRunsPolicy() );
+		
+		this.executor.allowCoreThreadTimeOut( true );
+	}
+	
+	/**
+	 * 将 Container 交给线程池去启动，马上返回
+	 */
+	public void launch( Container container ) {
+		
+		launching.put( container.getId(), container.getNodeId() );
+		
+		tracker.launching( container.getId() );
+		
+		metrics.incrLaunchQueueDepth();
+		
+		executor.execute( new LaunchTask( container ) );
+	}
+	
+	/**
+	 * NM 回复 Container 已经启动，释放该 Node 的一个启动名额
+	 */
+	public void onContainerStarted( ContainerId containerId ) {
+		
+		NodeId nodeId = launching.remove( containerId );
+		
+		if ( nodeId == null ) {
+			
+			return;
+		}
+		
+		tracker.started( containerId );
+		
+		release( nodeId );
+	}
+	
+	/**
+	 * Container 启动失败，同样需要释放该 Node 的一个启动名额；并且通知调用方把 Container 还给 RM
+	 */
+	public void onStartContainerError( ContainerId containerId ) {
+		
+		NodeId nodeId = launching.remove( containerId );
+		
+		if ( nodeId == null ) {
+			
+			return;
+		}
+		
+		tracker.startFailed( containerId );
+		
+		release( nodeId );
+		
+		listener.onLaunchFailed( containerId );
+	}
+	
+	public void stop() {
+		
+		executor.shutdownNow();
+	}
+	
+	private void release( NodeId nodeId ) {
+		
+		NodeLaunchQueue node = nodes.get( nodeId );
+		
+		if ( node != null ) {
+			
+			node.release();
+		}
+	}
+	
+	private NodeLaunchQueue nodeQueue( NodeId nodeId ) {
+		
+		NodeLaunchQueue node = nodes.get( nodeId );
+		
+		if ( node == null ) {
+			
+			NodeLaunchQueue created = new NodeLaunchQueue();
+			
+			node = nodes.putIfAbsent( nodeId, created );
+			
+			if ( node == null ) {
+				
+				node = created;
+			}
+		}
+		
+		return node;
+	}
+	
+	private void start( Container container, ContainerLaunchContext launchContext ) {
+		
+		metrics.decrLaunchQueueDepth();
+		
+		nodeManager.startContainerAsync( container, launchContext );
+	}
+	
+	/**
+	 * 在 launcher 线程中构造 ContainerLaunchContext，然后交给对应 Node 的队列去启动
+	 */
+	private class LaunchTask implements Runnable {
+		
+		private final Container container;
+		
+		LaunchTask( Container container ) {
+			
+			this.container = container;
+		}
+		
+		@Override
+		public void run() {
+			
+			ContainerLaunchContext launchContext;
+			
+			try {
+				
+				launchContext = launchContextFactory.createLaunchContext( container );
+			
+			} catch ( RuntimeException e ) {
+				
+				LOGGER.error("Failed to create the launch context for container " + container.getId(), e );
+				
+				metrics.decrLaunchQueueDepth();
+				
+				// 还没有交给 Node 的队列，没有占用启动名额，不能 release
+				if ( launching.remove( container.getId() ) != null ) {
+					
+					tracker.startFailed( container.getId() );
+					
+					listener.onLaunchFailed( container.getId() );
+				}
+				
+				return;
+			}
+			
+			nodeQueue( container.getNodeId() ).submit( container, launchContext );
+		}
+	
+	}
+	
+	/**
+	 * 单个 NodeManager 的启动队列，同时正在启动的 Container 的数量不超过 maxStartsPerNode
+	 */
+	private class NodeLaunchQueue {
+		
+		private final Queue<ReadyLaunch> waiting = new ArrayDeque<ReadyLaunch>();
+		
+		private int inFlight = 0;
+		
+		void submit( Container container, ContainerLaunchContext launchContext ) {
+			
+			synchronized ( this ) {
+				
+				if ( inFlight >= maxStartsPerNode ) {
+					
+					waiting.add( new ReadyLaunch( container, launchContext ) );
+					
+					return;
+				}
+				
+				inFlight++;
+			}
+			
+			start( container, launchContext );
+		}
+		
+		void release() {
+			
+			ReadyLaunch next;
+			
+			synchronized ( this ) {
+				
+				next = waiting.poll();
+				
+				if ( next == null ) {
+					
+					inFlight--;
+					
+					return;
+				}
+			}
+			
+			// 名额直接转交给下一个等待的 Container，inFlight 保持不变
+			start( next.container, next.launchContext );
+		}
+	
+	}
+	
+	private static class ReadyLaunch {
+		
+		final Container container;
+		
+		final ContainerLaunchContext launchContext;
+		
+		ReadyLaunch( Container container, ContainerLaunchContext launchContext ) {
+			
+			this.container = container;
+			
+			this.launchContext = launchContext;
+		}
+	}
+
+}
@@ -0,0 +1,493 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+
+/**
+ * 
+ * 跟踪所有 Container 的生命周期，并且统计处于各个状态的 Container 的数量:
+ * 
+ * REQUESTED -> ALLOCATED -> LAUNCHING -> RUNNING -> SUCCEEDED / FAILED / STOPPED
+ * 
+ * STOPPED 是被 AM 主动停止的 Container（比如推测执行中落后的一方、任务执行完以后的 Worker），它们既没有成功也不算失败。
+ * 
+ * AMRM 的回调线程、NM 的回调线程以及 launcher 的线程都会并发的修改状态；
+ * 1) 每个状态的数量使用 StripedCounter，各个线程之间不会竞争同一个原子变量；
+ * 2) 单个 Container 的状态迁移通过 CAS 完成，重复的或者过期的事件（比如启动失败以后 RM 又汇报了一次结束）不会被重复统计。
+ * 
+ * REQUESTED 的请求是匿名的，只有数量，分配以后才有对应的 Container；分配到的 Container 按照先进先出的顺序对应到最早的一批请求，
+ * 以此计算请求到分配的延迟。每次状态迁移的耗时都记录到 ApplicationMasterMetrics 的 Histogram 中。
+ * 
+ * 设置了 EventJournal 的时候，每个事件同时写入事件日志，用于事后分析。
+ * 
+ * @author 商洋
+ *
+ */
+public class ContainerLifecycleTracker {
+	
+	public enum State {
+		
+		REQUESTED, ALLOCATED, LAUNCHING, RUNNING, SUCCEEDED, FAILED, STOPPED;
+		
+		boolean isFinal() {
+			
+			return this == SUCCEEDED || this == FAILED || this == STOPPED;
+		}
+	}
+	
+	private final StripedCounter[] counters = new StripedCounter[ State.values().length ];
+	
+	private final ConcurrentMap<ContainerId, Entry> containers = new ConcurrentHashMap<ContainerId, Entry>();
+	
+	/** 还没有被分配完的请求批次，按注册的先后顺序排列 **/
+	private final Queue<RequestBatch> requests = new ConcurrentLinkedQueue<RequestBatch>();
+	
+	private final ApplicationMasterMetrics metrics;
+	
+	private volatile EventJournal journal;
+	
+	public ContainerLifecycleTracker( ApplicationMasterMetrics metrics ) {
+		
+		this.metrics = metrics;
+		
+		for ( int i = 0; i < counters.length; i++ ) {
+			
+			counters[i] = new StripedCounter();
+		}
+	}
+	
+	public void setJournal( EventJournal journal ) {
+		
+		this.journal = journal;
+	}
+	
+	public void requested( int count ) {
+		
+		if ( count <= 0 ) {
+			
+			return;
+		}
+		
+		journal( EventJournal.Type.REQUEST, null, null, count );
+		
+		requests.add( new RequestBatch( System.nanoTime(), count ) );
+		
+		counter( State.REQUESTED ).add( count );
+	}
+	
+	/**
+	 * 撤销的请求不再等待分配，按照先进先出的顺序从最早的一批请求中扣除，不记录延迟
+	 */
+	public void cancelled( int count ) {
+		
+		if ( count > 0 ) {
+			
+			journal( EventJournal.Type.CANCEL, null, null, count );
+		}
+		
+		for ( int i = 0; i < count; i++ ) {
+			
+			counter( State.REQUESTED ).decrement();
+			
+			claimRequest();
+		}
+	}
+	
+	public void allocated( ContainerId containerId ) {
+		
+		allocated( containerId, null );
+	}
+	
+	public void allocated( ContainerId containerId, NodeId nodeId ) {
+		
+		journal( EventJournal.Type.ALLOCATE, containerId, nodeId, 0 );
+		
+		long now = System.nanoTime();
+		
+		if ( containers.putIfAbsent( containerId, new Entry( now ) ) == null ) {
+			
+			counter( State.REQUESTED ).decrement();
+			
+			counter( State.ALLOCATED ).increment();
+			
+			RequestBatch batch = claimRequest();
+			
+			if ( batch != null ) {
+				
+				metrics.getRequestToAllocatedMs().record( millisSince( batch.requestedNanos, now ) );
+			}
+		}
+	}
+	
+	/**
+	 * 之前的 attempt 留下来的、仍然在运行的 Container，直接进入 RUNNING，不对应任何请求，也不记录延迟
+	 */
+	public void adopted( ContainerId containerId, NodeId nodeId ) {
+		
+		journal( EventJournal.Type.ALLOCATE, containerId, nodeId, 0 );
+		
+		journal( EventJournal.Type.START, containerId, null, 0 );
+		
+		Entry entry = new Entry( System.nanoTime() );
+		
+		entry.set( State.RUNNING );
+		
+		entry.startedNanos = entry.allocatedNanos;
+		
+		if ( containers.putIfAbsent( containerId, entry ) == null ) {
+			
+			counter( State.RUNNING ).increment();
+		}
+	}
+	
+	public void launching( ContainerId containerId ) {
+		
+		journal( EventJournal.Type.LAUNCH, containerId, null, 0 );
+		
+		transition( containerId, State.ALLOCATED, State.LAUNCHING );
+	}
+	
+	public void started( ContainerId containerId ) {
+		
+		journal( EventJournal.Type.START, containerId, null, 0 );
+		
+		Entry entry = containers.get( containerId );
+		
+		if ( entry != null && transition( entry, State.LAUNCHING, State.RUNNING ) ) {
+			
+			entry.startedNanos = System.nanoTime();
+			
+			metrics.getAllocatedToStartedMs().record( millisSince( entry.allocatedNanos, entry.startedNanos ) );
+		}
+	}
+	
+	/**
+	 * 启动失败的 Container 直接进入 FAILED；之后 RM 汇报它结束的时候不会再统计一次
+	 */
+	public void startFailed( ContainerId containerId ) {
+		
+		journal( EventJournal.Type.ERROR, containerId, null, EventJournal.ERROR_START );
+		
+		transition( containerId, State.LAUNCHING, State.FAILED );
+	}
+	
+	/**
+	 * 
+	 * @return 如果该 Container 是第一次进入结束状态，返回 true
+	 */
+	public boolean completed( ContainerId containerId, boolean succeeded ) {
+		
+		return completed( containerId, succeeded ? ContainerExitStatus.SUCCESS : ContainerExitStatus.INVALID, succeeded );
+	}
+	
+	/**
+	 * 
+	 * @param exitStatus 只记录在事件日志中
+	 * @return 如果该 Container 是第一次进入结束状态，返回 true
+	 */
+	public boolean completed( ContainerId containerId, int exitStatus, boolean succeeded ) {
+		
+		return complete( containerId, exitStatus, succeeded ? State.SUCCEEDED : State.FAILED );
+	}
+	
+	/**
+	 * 被 AM 主动停止以后结束的 Container 进入 STOPPED，不计入成功或者失败
+	 * 
+	 * @param exitStatus 只记录在事件日志中
+	 * @return 如果该 Container 是第一次进入结束状态，返回 true
+	 */
+	public boolean stopped( ContainerId containerId, int exitStatus ) {
+		
+		return complete( containerId, exitStatus, State.STOPPED );
+	}
+	
+	private boolean complete( ContainerId containerId, int exitStatus, State target ) {
+		
+		journal( EventJournal.Type.COMPLETE, containerId, null, exitStatus );
+		
+		Entry entry = containers.remove( containerId );
+		
+		if ( entry == null ) {
+			
+			return false;
+		}
+		
+		while ( true ) {
+			
+			State current = entry.get();
+			
+			if ( current.isFinal() ) {
+				
+				return false;
+			}
+			
+			if ( entry.compareAndSet( current, target ) ) {
+				
+				counter( current ).decrement();
+				
+				counter( target ).increment();
+				
+				if ( current == State.RUNNING ) {
+					
+					metrics.getStartedToCompletedMs().record( millisSince( entry.startedNanos, System.nanoTime() ) );
+				}
+				
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * 多余的 Container 被直接释放了，不计入任何结束状态
+	 */
+	public void released( ContainerId containerId ) {
+		
+		journal( EventJournal.Type.RELEASE, containerId, null, 0 );
+		
+		Entry entry = containers.remove( containerId );
+		
+		if ( entry != null && !entry.get().isFinal() ) {
+			
+			counter( entry.getAndSet( State.SUCCEEDED ) ).decrement();
+		}
+	}
+	
+	/**
+	 * 与 NM 或者 RM 通讯失败，不影响 Container 的状态，只记录在事件日志中
+	 * 
+	 * @param containerId 与 RM 通讯失败的时候为 null
+	 * @param error EventJournal 中的 ERROR_*
+	 */
+	public void error( ContainerId containerId, int error ) {
+		
+		journal( EventJournal.Type.ERROR, containerId, null, error );
+	}
+	
+	private void journal( EventJournal.Type type, ContainerId containerId, NodeId nodeId, long value ) {
+		
+		EventJournal journal = this.journal;
+		
+		if ( journal != null ) {
+			
+			journal.record( type, containerId, nodeId, value );
+		}
+	}
+	
+	public State getState( ContainerId containerId ) {
+		
+		Entry entry = containers.get( containerId );
+		
+		return entry == null ? null : entry.get();
+	}
+	
+	/**
+	 * 
+	 * @return 当前处于该状态的 Container 的数量；SUCCEEDED、FAILED 和 STOPPED 是累计的数量
+	 */
+	public long count( State state ) {
+		
+		// 分配的 Container 比申请的多的时候，REQUESTED 会小于 0
+		return Math.max( 0, counter( state ).sum() );
+	}
+	
+	/**
+	 * 
+	 * @return 成功或者失败的 Container 的数量；被 AM 停止的不算完成了一个 Container
+	 */
+	public long completed() {
+		
+		return count( State.SUCCEEDED ) + count( State.FAILED );
+	}
+	
+	/**
+	 * 
+	 * @return 还在等待分配以及正在启动的 Container 的数量
+	 */
+	public long pending() {
+		
+		return count( State.REQUESTED ) + count( State.ALLOCATED ) + count( State.LAUNCHING );
+	}
+	
+	/**
+	 * 
+	 * @param target 一共需要完成的 Container 的数量
+	 */
+	public float progress( int target ) {
+		
+		if ( target <= 0 ) {
+			
+			return 0;
+		}
+		
+		return Math.min( 1f, (float) completed() / target );
+	}
+	
+	public Snapshot snapshot() {
+		
+		long[] counts = new long[ counters.length ];
+		
+		for ( State state : State.values() ) {
+			
+			counts[ state.ordinal() ] = count( state );
+		}
+		
+		return new Snapshot( counts );
+	}
+	
+	private void transition( ContainerId containerId, State from, State to ) {
+		
+		Entry entry = containers.get( containerId );
+		
+		if ( entry != null ) {
+			
+			transition( entry, from, to );
+		}
+	}
+	
+	private boolean transition( Entry entry, State from, State to ) {
+		
+		if ( entry.compareAndSet( from, to ) ) {
+			
+			counter( from ).decrement();
+			
+			counter( to ).increment();
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * 把分配到的 Container 算在最早的一批还没有分配完的请求上
+	 * 
+	 * @return 被扣除的那一批请求；比申请的多出来的 Container 返回 null，不记录延迟
+	 */
+	private RequestBatch claimRequest() {
+		
+		RequestBatch batch;
+		
+		while ( ( batch = requests.peek() ) != null ) {
+			
+			boolean claimed = batch.claim();
+			
+			if ( !claimed || batch.isExhausted() ) {
+				
+				requests.remove( batch );
+			}
+			
+			if ( claimed ) {
+				
+				return batch;
+			}
+		}
+		
+		return null;
+	}
+	
+	private static long millisSince( long fromNanos, long toNanos ) {
+		
+		return TimeUnit.NANOSECONDS.toMillis( toNanos - fromNanos );
+	}
+	
+	private StripedCounter counter( State state ) {
+		
+		return counters[ state.ordinal() ];
+	}
+	
+	/**
+	 * 单个 Container 的当前状态以及进入各个状态的时间
+	 */
+	@SuppressWarnings("serial")
+	private static class Entry extends AtomicReference<State> {
+		
+		final long allocatedNanos;
+		
+		volatile long startedNanos;
+		
+		Entry( long allocatedNanos ) {
+			
+			super( State.ALLOCATED );
+			
+			this.allocatedNanos = allocatedNanos;
+		}
+	}
+	
+	private static class RequestBatch {
+		
+		final long requestedNanos;
+		
+		private final AtomicInteger remaining;
+		
+		RequestBatch( long requestedNanos, int count ) {
+			
+			this.requestedNanos = requestedNanos;
+			
+			this.remaining = new AtomicInteger( count );
+		}
+		
+		boolean claim() {
+			
+			while ( true ) {
+				
+				int current = remaining.get();
+				
+				if ( current <= 0 ) {
+					
+					return false;
+				}
+				
+				if ( remaining.compareAndSet( current, current - 1 ) ) {
+					
+					return true;
+				}
+			}
+		}
+		
+		boolean isExhausted() {
+			
+			return remaining.get() <= 0;
+		}
+	}
+	
+	/**
+	 * 某一时刻各个状态的 Container 数量，不可变
+	 */
+	public static class Snapshot {
+		
+		private final long[] counts;
+		
+		Snapshot( long[] counts ) {
+			
+			this.counts = counts;
+		}
+		
+		public long get( State state ) {
+			
+			return counts[ state.ordinal() ];
+		}
+		
+		@Override
+		public String toString() {
+			
+			StringBuilder sb = new StringBuilder();
+			
+			for ( State state : State.values() ) {
+				
+				sb.append( sb.length() == 0 ? "" : ", " ).append( state.name().toLowerCase() ).append( "=" ).append( counts[ state.ordinal() ] );
+			}
+			
+			return sb.toString();
+		}
+	}
+
+}
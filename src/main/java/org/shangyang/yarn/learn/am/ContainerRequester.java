@@ -0,0 +1,205 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
+
+/**
+ * 
+ * 批量的向 Resource Manager 申请 Container。
+ * 
+ * ContainerRequest 只是被缓存在 AMRMClient 中，直到下一次心跳才会真正的发送给 RM；所以没有必要为每一个请求都启动一个线程，
+ * 反而大量的线程会在 AMRMClient 的同步锁上产生竞争。这里在调用线程中先构造好所有的 ContainerRequest，然后一次性的注册，
+ * 这样无论申请多少个 Container，都只需要一个线程，并且在下一次心跳之前就能全部注册完成。
+ * 
+ * 注册的请求同时记录在 OutstandingRequests 中，请求被满足或者不再需要的时候从 AMRMClient 中删除，否则 RM 会一直按照原来的数量分配。
+ * 
+ * @author 商洋
+ *
+ */
+public class ContainerRequester {
+	
+	private static Log LOGGER = LogFactory.getLog(ContainerRequester.class);
+
+	private final AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager;
+	
+	private final ContainerLifecycleTracker tracker;
+	
+	private final OutstandingRequests outstanding = new OutstandingRequests();
+	
+	public ContainerRequester( AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager, ContainerLifecycleTracker tracker ) {
+		
+		this.resourceManager = resourceManager;
+		
+		this.tracker = tracker;
+	}
+	
+	/**
+	 * 
+	 * 为每一个所需的 Container 构造一个 ContainerRequest，并且一次性的注册到 AMRMClient 中
+	 * 
+	 * @param capability 每个 Container 所需的资源
+	 * @param priority
+	 * @param count 需要申请的 Container 的数量
+	 * @return 已经注册的 ContainerRequest
+	 */
+	public List<AMRMClient.ContainerRequest> requestContainers( Resource capability, Priority priority, int count ) {
+		
+		List<AMRMClient.ContainerRequest> batch = new ArrayList<AMRMClient.ContainerRequest>( count );
+		
+		for ( int i = 0; i < count; i++ ) {
+			
+			batch.add( new AMRMClient.ContainerRequest( capability, 
+														null, // 让 RM 帮我们选择 Node
+														null, // 让 RM 帮我们选择 RACKS
+														priority ) );
+		}
+		
+		return register( capability, batch );
+	}
+	
+	/**
+	 * 
+	 * 为每一个 split 申请一个 Container，优先申请 split 的数据所在的 Node，其次是所在的 Rack；
+	 * relaxLocality 为 true，如果这些 Node 和 Rack 上都没有资源，RM 可以把 Container 分配到其它任何地方
+	 * 
+	 * @return 已经注册的 ContainerRequest
+	 */
+	public List<AMRMClient.ContainerRequest> requestContainers( Resource capability, Priority priority, List<InputSplit> splits ) {
+		
+		List<AMRMClient.ContainerRequest> batch = new ArrayList<AMRMClient.ContainerRequest>( splits.size() );
+		
+		for ( InputSplit split : splits ) {
+			
+			batch.add( new AMRMClient.ContainerRequest( capability, 
+														split.getHosts(), 
+														split.getRacks(), 
+														priority, 
+														true ) );
+		}
+		
+		return register( capability, batch );
+	}
+	
+	/**
+	 * 
+	 * @return available 中能放下多少个 capability 大小的 Container
+	 */
+	public static int fit( Resource available, Resource capability ) {
+		
+		if ( available == null || available.getMemorySize() <= 0 || available.getVirtualCores() < 0 ) {
+			
+			return 0;
+		}
+		
+		long fit = available.getMemorySize() / Math.max( 1, capability.getMemorySize() );
+		
+		if ( capability.getVirtualCores() > 0 ) {
+			
+			fit = Math.min( fit, available.getVirtualCores() / capability.getVirtualCores() );
+		}
+		
+		return (int) Math.min( Integer.MAX_VALUE, fit );
+	}
+	
+	/**
+	 * 
+	 * 分配到的 Container 满足了哪个请求，就把哪个请求从 AMRMClient 中删除
+	 * 
+	 * @param rack Container 所在的 Rack，不知道的时候为 null
+	 * @return 是否有对应的请求；没有的时候这个 Container 是多出来的
+	 */
+	public boolean fulfill( Container container, String rack ) {
+		
+		AMRMClient.ContainerRequest request = outstanding.match( container.getPriority(), container.getResource(), container.getNodeId().getHost(), rack );
+		
+		if ( request == null ) {
+			
+			return false;
+		}
+		
+		resourceManager.removeContainerRequest( request );
+		
+		return true;
+	}
+	
+	/**
+	 * 
+	 * 撤销最早注册的 count 个还没有被满足的请求
+	 * 
+	 * @return 撤销的数量
+	 */
+	public int cancel( int count ) {
+		
+		return cancel( null, count );
+	}
+	
+	/**
+	 * 
+	 * 撤销该 priority 最早注册的 count 个还没有被满足的请求；priority 为 null 的时候不区分 priority
+	 * 
+	 * @return 撤销的数量
+	 */
+	public int cancel( Priority priority, int count ) {
+		
+		List<AMRMClient.ContainerRequest> cancelled = outstanding.removeOldest( priority, count );
+		
+		for ( AMRMClient.ContainerRequest request : cancelled ) {
+			
+			resourceManager.removeContainerRequest( request );
+		}
+		
+		tracker.cancelled( cancelled.size() );
+		
+		if ( !cancelled.isEmpty() ) {
+			
+			LOGGER.info("Cancelled " + cancelled.size() + " container requests, " + outstanding.size() + " outstanding");
+		}
+		
+		return cancelled.size();
+	}
+	
+	/**
+	 * 
+	 * @return 已经注册、还没有被满足也没有被撤销的请求的数量
+	 */
+	public int getOutstanding() {
+		
+		return outstanding.size();
+	}
+	
+	/**
+	 * 
+	 * @return 该 priority 的还没有被满足的请求的数量
+	 */
+	public int getOutstanding( Priority priority ) {
+		
+		return outstanding.size( priority );
+	}
+	
+	private List<AMRMClient.ContainerRequest> register( Resource capability, List<AMRMClient.ContainerRequest> batch ) {
+		
+		// AM 向 RM 正式提交请求，当请求成功，会回调 ApplicationMasterResourceManagerCallbackHandler；
+		// 先放进索引，分配到的 Container 回来的时候一定能找到它
+		for ( AMRMClient.ContainerRequest request : batch ) {
+			
+			outstanding.add( request );
+			
+			resourceManager.addContainerRequest( request );
+		}
+		
+		tracker.requested( batch.size() );
+		
+		LOGGER.info("Registered " + batch.size() + " container requests, memory size: " + capability.getMemorySize() + ", vitual cores: " + capability.getVirtualCores() );
+		
+		return batch;
+	}
+	
+}
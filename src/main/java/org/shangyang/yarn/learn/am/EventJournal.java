@@ -0,0 +1,360 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.ApplicationConstants;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.util.ConverterUtils;
+
+/**
+ *
+ * AM 的 Container 生命周期事件日志：二进制、只追加，写在 AM Container 的日志目录中的一个内存映射文件里，随着日志聚合一起保留下来，
+ * 用 EventJournalReader 离线还原每个 Container 的时间线。
+ *
+ * 文件由 32 字节的槽组成（little-endian），前两个槽是文件头（magic、版本、打开时的墙上时间以及 nanoTime、AM 的 ApplicationAttemptId），之后每个事件占一个槽：
+ *
+ *   0  long  nanoTime
+ *   8  long  ContainerId.getContainerId()，没有的时候为 0
+ *   16 long  值，比如 REQUEST 的数量、COMPLETE 的退出码
+ *   24 int   Node 的编号，没有的时候为 -1
+ *   28 int   事件类型，最后写入；0 表示这个槽没有写完
+ *
+ * Node 第一次出现的时候写一个 NODE 事件定义它的编号，Node 的名字紧跟在后面，占用若干个槽。
+ *
+ * 写入的时候通过一次 getAndAdd 预留位置，然后直接写进映射的内存，不加锁，也不创建任何对象；文件写满以后的事件被丢弃并且计数。
+ * 进程挂掉的时候已经写进映射内存的事件仍然会由操作系统写回文件。
+ *
+ * @author 商洋
+ *
+ */
+public class EventJournal {
+	
+	private static Log LOGGER = LogFactory.getLog(EventJournal.class);
+	
+	public static final String ENABLED = ApplicationMasterConfig.PREFIX + "journal.enabled";
+	
+	public static final boolean DEFAULT_ENABLED = true;
+	
+	/** 事件日志所在的目录，默认是 AM Container 的第一个日志目录 **/
+	public static final String DIR = ApplicationMasterConfig.PREFIX + "journal.dir";
+	
+	/** 文件的大小，也就是最多能记录的事件数量乘以 32 字节 **/
+	public static final String SIZE_MB = ApplicationMasterConfig.PREFIX + "journal.size-mb";
+	
+	public static final int DEFAULT_SIZE_MB = 64;
+	
+	public static final String FILE_NAME = "am-events.journal";
+	
+	static final int MAGIC = 0x4c594a31; // LYJ1
+	
+	static final int VERSION = 1;
+	
+	static final int SLOT = 32;
+	
+	static final int HEADER = 2 * SLOT;
+	
+	public enum Type {
+		
+		/** 注册了一批请求，值是请求的数量 **/
+		REQUEST(1),
+		
+		/** 撤销了一批请求，值是请求的数量 **/
+		CANCEL(2),
+		
+		ALLOCATE(3),
+		
+		/** 多出来的 Container 被还给了 RM **/
+		RELEASE(4),
+		
+		LAUNCH(5),
+		
+		START(6),
+		
+		/** 值是退出码 **/
+		COMPLETE(7),
+		
+		/** 值是 Error 中的一种 **/
+		ERROR(8),
+		
+		/** 定义一个 Node 的编号，值是端口，ContainerId 的位置是名字的字节数 **/
+		NODE(9);
+		
+		final int code;
+		
+		Type( int code ) {
+			
+			this.code = code;
+		}
+		
+		static Type of( int code ) {
+			
+			for ( Type type : values() ) {
+				
+				if ( type.code == code ) {
+					
+					return type;
+				}
+			}
+			
+			return null;
+		}
+	}
+	
+	/** ERROR 事件的值 **/
+	public static final int ERROR_START = 1;
+	
+	public static final int ERROR_STOP = 2;
+	
+	public static final int ERROR_STATUS = 3;
+	
+	public static final int ERROR_RESOURCE_MANAGER = 4;
+	
+	private final File file;
+	
+	private final RandomAccessFile raf;
+	
+	private final MappedByteBuffer buffer;
+	
+	private final long capacity;
+	
+	private final AtomicLong position = new AtomicLong( HEADER );
+	
+	private final AtomicLong dropped = new AtomicLong();
+	
+	private final ConcurrentMap<NodeId, Integer> nodes = new ConcurrentHashMap<NodeId, Integer>();
+	
+	private final AtomicInteger nextNode = new AtomicInteger();
+	
+	private volatile boolean closed = false;
+	
+	public EventJournal( File file, int sizeMb, ApplicationAttemptId attempt ) throws IOException {
+		
+		this.file = file;
+		
+		// MappedByteBuffer 最大 2GB
+		this.capacity = Math.min( Integer.MAX_VALUE / SLOT * SLOT, (long) Math.max( 1, sizeMb ) << 20 );
+		
+		this.raf = new RandomAccessFile( file, "rw" );
+		
+		raf.setLength( 0 );
+		
+		this.buffer = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, capacity );
+		
+		// x86 上不需要交换字节序
+		buffer.order( ByteOrder.LITTLE_ENDIAN );
+		
+		buffer.putInt( 0, MAGIC );
+		
+		buffer.putInt( 4, VERSION );
+		
+		buffer.putInt( 8, SLOT );
+		
+		buffer.putLong( 16, System.currentTimeMillis() );
+		
+		buffer.putLong( 24, System.nanoTime() );
+		
+		if ( attempt != null ) {
+			
+			buffer.putLong( 32, attempt.getApplicationId().getClusterTimestamp() );
+			
+			buffer.putInt( 40, attempt.getApplicationId().getId() );
+			
+			buffer.putInt( 44, attempt.getAttemptId() );
+		}
+	}
+	
+	/**
+	 *
+	 * @return 没有开启、或者找不到日志目录的时候返回 null；打开失败只影响事件日志，不影响 AM
+	 */
+	public static EventJournal open( Configuration conf ) {
+		
+		if ( !conf.getBoolean( ENABLED, DEFAULT_ENABLED ) ) {
+			
+			return null;
+		}
+		
+		String dir = conf.get( DIR );
+		
+		String logDirs = System.getenv( ApplicationConstants.Environment.LOG_DIRS.name() );
+		
+		if ( dir == null && logDirs != null ) {
+			
+			dir = logDirs.split( "," )[0];
+		}
+		
+		if ( dir == null ) {
+			
+			return null;
+		}
+		
+		ApplicationAttemptId attempt = null;
+		
+		String containerId = System.getenv( ApplicationConstants.Environment.CONTAINER_ID.name() );
+		
+		if ( containerId != null ) {
+			
+			attempt = ConverterUtils.toContainerId( containerId ).getApplicationAttemptId();
+		}
+		
+		try {
+			
+			EventJournal journal = new EventJournal( new File( dir, FILE_NAME ), conf.getInt( SIZE_MB, DEFAULT_SIZE_MB ), attempt );
+			
+			LOGGER.info("Recording the container events to " + journal.file );
+			
+			return journal;
+		
+		} catch ( IOException e ) {
+			
+			LOGGER.warn("Failed to open the event journal in " + dir, e );
+			
+			return null;
+		}
+	}
+	
+	public void record( Type type, ContainerId containerId, NodeId nodeId, long value ) {
+		
+		record( type, containerId == null ? 0 : containerId.getContainerId(), nodeId == null ? -1 : node( nodeId ), value );
+	}
+	
+	private void record( Type type, long containerId, int node, long value ) {
+		
+		long offset = position.getAndAdd( SLOT );
+		
+		if ( offset + SLOT > capacity ) {
+			
+			dropped.incrementAndGet();
+			
+			return;
+		}
+		
+		int index = (int) offset;
+		
+		buffer.putLong( index, System.nanoTime() );
+		
+		buffer.putLong( index + 8, containerId );
+		
+		buffer.putLong( index + 16, value );
+		
+		buffer.putInt( index + 24, node );
+		
+		buffer.putInt( index + 28, type.code );
+	}
+	
+	/**
+	 *
+	 * @return Node 的编号；第一次出现的时候写入它的定义
+	 */
+	private int node( NodeId nodeId ) {
+		
+		Integer index = nodes.get( nodeId );
+		
+		if ( index != null ) {
+			
+			return index;
+		}
+		
+		int candidate = nextNode.getAndIncrement();
+		
+		index = nodes.putIfAbsent( nodeId, candidate );
+		
+		if ( index != null ) {
+			
+			return index;
+		}
+		
+		byte[] name = nodeId.getHost().getBytes( StandardCharsets.UTF_8 );
+		
+		int slots = 1 + ( name.length + SLOT - 1 ) / SLOT;
+		
+		long offset = position.getAndAdd( (long) slots * SLOT );
+		
+		if ( offset + (long) slots * SLOT > capacity ) {
+			
+			dropped.incrementAndGet();
+			
+			return candidate;
+		}
+		
+		int start = (int) offset;
+		
+		for ( int i = 0; i < name.length; i++ ) {
+			
+			buffer.put( start + SLOT + i, name[i] );
+		}
+		
+		buffer.putLong( start, System.nanoTime() );
+		
+		buffer.putLong( start + 8, name.length );
+		
+		buffer.putLong( start + 16, nodeId.getPort() );
+		
+		buffer.putInt( start + 24, candidate );
+		
+		buffer.putInt( start + 28, Type.NODE.code );
+		
+		return candidate;
+	}
+	
+	/**
+	 *
+	 * @return 因为文件写满而丢弃的事件的数量
+	 */
+	public long getDropped() {
+		
+		return dropped.get();
+	}
+	
+	public File getFile() {
+		
+		return file;
+	}
+	
+	/**
+	 * 之后的事件都被丢弃；已经预留了位置的事件都在截断的位置之前，截断以后仍然可以安全的写完
+	 */
+	public synchronized void close() {
+		
+		if ( closed ) {
+			
+			return;
+		}
+		
+		closed = true;
+		
+		long end = Math.min( capacity, position.getAndSet( capacity ) );
+		
+		buffer.force();
+		
+		try {
+			
+			// 去掉文件末尾没有用到的部分，日志聚合的时候不用上传
+			raf.getChannel().truncate( end );
+			
+			raf.close();
+		
+		} catch ( IOException e ) {
+			
+			LOGGER.warn("Failed to truncate the event journal " + file, e );
+		}
+		
+		LOGGER.info("Recorded " + ( end - HEADER ) / SLOT + " slots of container events to " + file + ( dropped.get() > 0 ? ", dropped " + dropped.get() : "" ) );
+	}
+
+}
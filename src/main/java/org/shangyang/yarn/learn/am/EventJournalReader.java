@@ -0,0 +1,447 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+
+/**
+ *
+ * 离线读取 EventJournal，还原每个 Container 的时间线：
+ *
+ *   java -cp learn-yarn.jar org.shangyang.yarn.learn.am.EventJournalReader am-events.journal [container id]
+ *
+ * 输出每个 Container 所在的 Node、分配的时间（相对于日志打开）以及 分配 -> 启动中 -> 启动完成 -> 结束 每一段的耗时，
+ * 最后是各类事件的数量以及每一段耗时的分布。
+ *
+ * @author 商洋
+ *
+ */
+public class EventJournalReader {
+	
+	/**
+	 * 日志中的一个事件
+	 */
+	public static class Event {
+		
+		final EventJournal.Type type;
+		
+		/** 相对于日志打开时的纳秒数 **/
+		final long nanos;
+		
+		final long containerId;
+		
+		final String node;
+		
+		final long value;
+		
+		Event( EventJournal.Type type, long nanos, long containerId, String node, long value ) {
+			
+			this.type = type;
+			
+			this.nanos = nanos;
+			
+			this.containerId = containerId;
+			
+			this.node = node;
+			
+			this.value = value;
+		}
+		
+		public EventJournal.Type getType() {
+			
+			return type;
+		}
+		
+		public long getNanos() {
+			
+			return nanos;
+		}
+		
+		public long getValue() {
+			
+			return value;
+		}
+	}
+	
+	/**
+	 * 一个 Container 从分配到结束的各个时间点，没有发生的为 -1
+	 */
+	public static class Timeline {
+		
+		final ContainerId containerId;
+		
+		String node;
+		
+		long allocated = -1;
+		
+		long launched = -1;
+		
+		long started = -1;
+		
+		long completed = -1;
+		
+		long released = -1;
+		
+		long exitStatus = Long.MIN_VALUE;
+		
+		final List<Long> errors = new ArrayList<Long>();
+		
+		Timeline( ContainerId containerId ) {
+			
+			this.containerId = containerId;
+		}
+		
+		public ContainerId getContainerId() {
+			
+			return containerId;
+		}
+		
+		public String getNode() {
+			
+			return node;
+		}
+		
+		public long getAllocated() {
+			
+			return allocated;
+		}
+		
+		public long getLaunched() {
+			
+			return launched;
+		}
+		
+		public long getStarted() {
+			
+			return started;
+		}
+		
+		public long getCompleted() {
+			
+			return completed;
+		}
+		
+		public long getReleased() {
+			
+			return released;
+		}
+		
+		public long getExitStatus() {
+			
+			return exitStatus;
+		}
+		
+		public List<Long> getErrors() {
+			
+			return errors;
+		}
+		
+		void apply( Event event ) {
+			
+			if ( event.node != null ) {
+				
+				node = event.node;
+			}
+			
+			switch ( event.type ) {
+				
+				case ALLOCATE: allocated = event.nanos; break;
+				
+				case LAUNCH: launched = event.nanos; break;
+				
+				case START: started = event.nanos; break;
+				
+				case COMPLETE: completed = event.nanos; exitStatus = event.value; break;
+				
+				case RELEASE: released = event.nanos; break;
+				
+				case ERROR: errors.add( event.value ); break;
+				
+				default: break;
+			}
+		}
+		
+		@Override
+		public String toString() {
+			
+			StringBuilder line = new StringBuilder( containerId.toString() ).append( ' ' ).append( node );
+			
+			line.append( " allocated " ).append( millis( allocated ) ).append( "ms" );
+			
+			phase( line, "launch", allocated, launched );
+			
+			phase( line, "start", launched, started );
+			
+			phase( line, "run", started, completed );
+			
+			if ( completed >= 0 ) {
+				
+				line.append( " exit " ).append( exitStatus );
+			}
+			
+			if ( released >= 0 ) {
+				
+				line.append( " released" );
+			}
+			
+			if ( !errors.isEmpty() ) {
+				
+				line.append( " errors " ).append( errors );
+			}
+			
+			return line.toString();
+		}
+		
+		private static void phase( StringBuilder line, String name, long from, long to ) {
+			
+			if ( from >= 0 && to >= 0 ) {
+				
+				line.append( ' ' ).append( name ).append( " +" ).append( millis( to - from ) ).append( "ms" );
+			}
+		}
+	}
+	
+	private final long startMillis;
+	
+	private final ApplicationAttemptId attempt;
+	
+	private final List<Event> events;
+	
+	private EventJournalReader( long startMillis, ApplicationAttemptId attempt, List<Event> events ) {
+		
+		this.startMillis = startMillis;
+		
+		this.attempt = attempt;
+		
+		this.events = events;
+	}
+	
+	public static EventJournalReader read( File file ) throws IOException {
+		
+		ByteBuffer buffer;
+		
+		try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+			
+			buffer = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() ).order( ByteOrder.LITTLE_ENDIAN );
+		}
+		
+		if ( buffer.limit() < EventJournal.HEADER || buffer.getInt( 0 ) != EventJournal.MAGIC ) {
+			
+			throw new IOException( file + " is not an event journal" );
+		}
+		
+		if ( buffer.getInt( 4 ) != EventJournal.VERSION || buffer.getInt( 8 ) != EventJournal.SLOT ) {
+			
+			throw new IOException( "Unsupported event journal version " + buffer.getInt( 4 ) + " of " + file );
+		}
+		
+		long startMillis = buffer.getLong( 16 );
+		
+		long startNanos = buffer.getLong( 24 );
+		
+		ApplicationAttemptId attempt = ApplicationAttemptId.newInstance( ApplicationId.newInstance( buffer.getLong( 32 ), buffer.getInt( 40 ) ), buffer.getInt( 44 ) );
+		
+		// Node 的定义可能出现在引用它的事件之后，先收集所有的定义
+		Map<Integer, String> nodes = new HashMap<Integer, String>();
+		
+		List<Integer> offsets = new ArrayList<Integer>();
+		
+		int offset = EventJournal.HEADER;
+		
+		while ( offset + EventJournal.SLOT <= buffer.limit() ) {
+			
+			EventJournal.Type type = EventJournal.Type.of( buffer.getInt( offset + 28 ) );
+			
+			int slots = 1;
+			
+			if ( type == EventJournal.Type.NODE ) {
+				
+				int length = (int) buffer.getLong( offset + 8 );
+				
+				byte[] name = new byte[ Math.max( 0, Math.min( length, buffer.limit() - offset - EventJournal.SLOT ) ) ];
+				
+				for ( int i = 0; i < name.length; i++ ) {
+					
+					name[i] = buffer.get( offset + EventJournal.SLOT + i );
+				}
+				
+				nodes.put( buffer.getInt( offset + 24 ), new String( name, StandardCharsets.UTF_8 ) + ":" + buffer.getLong( offset + 16 ) );
+				
+				slots += ( length + EventJournal.SLOT - 1 ) / EventJournal.SLOT;
+			
+			} else if ( type != null ) {
+				
+				offsets.add( offset );
+			}
+			
+			// 没有写完的槽（类型为 0）直接跳过
+			offset += slots * EventJournal.SLOT;
+		}
+		
+		List<Event> events = new ArrayList<Event>( offsets.size() );
+		
+		for ( int at : offsets ) {
+			
+			int node = buffer.getInt( at + 24 );
+			
+			events.add( new Event( EventJournal.Type.of( buffer.getInt( at + 28 ) ), buffer.getLong( at ) - startNanos, buffer.getLong( at + 8 ),
+								   node < 0 ? null : nodes.containsKey( node ) ? nodes.get( node ) : "node#" + node, buffer.getLong( at + 16 ) ) );
+		}
+		
+		return new EventJournalReader( startMillis, attempt, events );
+	}
+	
+	public List<Event> getEvents() {
+		
+		return Collections.unmodifiableList( events );
+	}
+	
+	/**
+	 *
+	 * @return 日志打开时的墙上时间
+	 */
+	public long getStartMillis() {
+		
+		return startMillis;
+	}
+	
+	/**
+	 *
+	 * @return 每个 Container 的时间线，按照第一次出现的顺序
+	 */
+	public Map<ContainerId, Timeline> timelines() {
+		
+		Map<ContainerId, Timeline> timelines = new LinkedHashMap<ContainerId, Timeline>();
+		
+		Map<Long, Timeline> byId = new HashMap<Long, Timeline>();
+		
+		for ( Event event : events ) {
+			
+			if ( event.containerId == 0 ) {
+				
+				continue;
+			}
+			
+			Timeline timeline = byId.get( event.containerId );
+			
+			if ( timeline == null ) {
+				
+				timeline = new Timeline( ContainerId.newContainerId( attempt, event.containerId ) );
+				
+				byId.put( event.containerId, timeline );
+				
+				timelines.put( timeline.containerId, timeline );
+			}
+			
+			timeline.apply( event );
+		}
+		
+		return timelines;
+	}
+	
+	private static long millis( long nanos ) {
+		
+		return TimeUnit.NANOSECONDS.toMillis( nanos );
+	}
+	
+	public static void main( String[] args ) throws IOException {
+		
+		if ( args.length < 1 ) {
+			
+			System.err.println( "Usage: EventJournalReader <journal file> [container id]" );
+			
+			System.exit( 1 );
+		}
+		
+		EventJournalReader reader = read( new File( args[0] ) );
+		
+		Map<ContainerId, Timeline> timelines = reader.timelines();
+		
+		if ( args.length > 1 ) {
+			
+			for ( Timeline timeline : timelines.values() ) {
+				
+				if ( timeline.containerId.toString().equals( args[1] ) ) {
+					
+					System.out.println( timeline );
+				}
+			}
+			
+			return;
+		}
+		
+		Map<EventJournal.Type, Integer> counts = new LinkedHashMap<EventJournal.Type, Integer>();
+		
+		long requested = 0;
+		
+		for ( Event event : reader.events ) {
+			
+			Integer count = counts.get( event.type );
+			
+			counts.put( event.type, count == null ? 1 : count + 1 );
+			
+			if ( event.type == EventJournal.Type.REQUEST ) {
+				
+				requested += event.value;
+			}
+		}
+		
+		Histogram launch = new Histogram();
+		
+		Histogram start = new Histogram();
+		
+		Histogram run = new Histogram();
+		
+		for ( Timeline timeline : timelines.values() ) {
+			
+			System.out.println( timeline );
+			
+			record( launch, timeline.allocated, timeline.launched );
+			
+			record( start, timeline.launched, timeline.started );
+			
+			record( run, timeline.started, timeline.completed );
+		}
+		
+		System.out.println();
+		
+		System.out.println( "journal opened at " + new Date( reader.startMillis ) + ", " + reader.events.size() + " events " + counts + ", " + requested + " containers requested" );
+		
+		summary( "allocated -> launching", launch );
+		
+		summary( "launching -> started", start );
+		
+		summary( "started -> completed", run );
+	}
+	
+	private static void record( Histogram histogram, long from, long to ) {
+		
+		if ( from >= 0 && to >= 0 ) {
+			
+			histogram.record( millis( to - from ) );
+		}
+	}
+	
+	private static void summary( String phase, Histogram histogram ) {
+		
+		System.out.println( String.format( "%-24s count %d, p50 %dms, p99 %dms, max %dms", phase, histogram.getCount(),
+										   histogram.getQuantile( 0.5 ), histogram.getQuantile( 0.99 ), histogram.getMax() ) );
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 
+ * 以 2 的幂为边界的直方图，第 i 个桶记录 [2^(i-1), 2^i - 1] 之间的值，第 0 个桶只记录 0。
+ * 
+ * 记录的时候只是对固定的数组做原子累加，不会创建任何对象，可以放在回调线程的热路径上；
+ * 精度是 2 倍以内，对于延迟的分布来说已经足够了。
+ * 
+ * @author 商洋
+ *
+ */
+public class Histogram {
+	
+	static final int BUCKETS = 65;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+	
+	private final StripedCounter count = new StripedCounter();
+	
+	private final StripedCounter sum = new StripedCounter();
+	
+	private final AtomicLong max = new AtomicLong(0);
+	
+	/**
+	 * 
+	 * @param value 小于 0 的值按 0 记录
+	 */
+	public void record( long value ) {
+		
+		if ( value < 0 ) {
+			
+			value = 0;
+		}
+		
+		buckets.incrementAndGet( bucket( value ) );
+		
+		count.increment();
+		
+		sum.add( value );
+		
+		long current = max.get();
+		
+		while ( value > current && !max.compareAndSet( current, value ) ) {
+			
+			current = max.get();
+		}
+	}
+	
+	public long getCount() {
+		
+		return count.sum();
+	}
+	
+	public long getSum() {
+		
+		return sum.sum();
+	}
+	
+	public long getMax() {
+		
+		return max.get();
+	}
+	
+	public long getBucketCount( int bucket ) {
+		
+		return buckets.get( bucket );
+	}
+	
+	/**
+	 * 
+	 * @param quantile 0 到 1 之间
+	 * @return 该分位所在的桶的上界，不会超过记录过的最大值
+	 */
+	public long getQuantile( double quantile ) {
+		
+		long total = 0;
+		
+		long[] counts = new long[ BUCKETS ];
+		
+		for ( int i = 0; i < BUCKETS; i++ ) {
+			
+			counts[i] = buckets.get( i );
+			
+			total += counts[i];
+		}
+		
+		if ( total == 0 ) {
+			
+			return 0;
+		}
+		
+		long rank = (long) Math.ceil( quantile * total );
+		
+		long seen = 0;
+		
+		for ( int i = 0; i < BUCKETS; i++ ) {
+			
+			seen += counts[i];
+			
+			if ( seen >= rank && counts[i] > 0 ) {
+				
+				return Math.min( upperBound( i ), max.get() );
+			}
+		}
+		
+		return max.get();
+	}
+	
+	static int bucket( long value ) {
+		
+		return 64 - Long.numberOfLeadingZeros( value );
+	}
+	
+	static long upperBound( int bucket ) {
+		
+		return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : ( 1L << bucket ) - 1;
+	}
+
+}
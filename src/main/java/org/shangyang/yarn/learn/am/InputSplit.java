@@ -0,0 +1,76 @@
+package org.shangyang.yarn.learn.am;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 
+ * 输入文件的一段，以及这段数据所在的 Node 和 Rack
+ * 
+ * @author 商洋
+ *
+ */
+public class InputSplit {
+	
+	private final Path path;
+	
+	private final long start;
+	
+	private final long length;
+	
+	private final String[] hosts;
+	
+	private final String[] racks;
+	
+	public InputSplit( Path path, long start, long length, String[] hosts, String[] racks ) {
+		
+		this.path = path;
+		
+		this.start = start;
+		
+		this.length = length;
+		
+		this.hosts = hosts;
+		
+		this.racks = racks;
+	}
+	
+	public Path getPath() {
+		
+		return path;
+	}
+	
+	public long getStart() {
+		
+		return start;
+	}
+	
+	public long getLength() {
+		
+		return length;
+	}
+	
+	/**
+	 * 
+	 * @return 数据所在的 Node，可能为 null
+	 */
+	public String[] getHosts() {
+		
+		return hosts;
+	}
+	
+	/**
+	 * 
+	 * @return 数据所在的 Rack，可能为 null
+	 */
+	public String[] getRacks() {
+		
+		return racks;
+	}
+	
+	@Override
+	public String toString() {
+		
+		return path + ":" + start + "+" + length;
+	}
+
+}
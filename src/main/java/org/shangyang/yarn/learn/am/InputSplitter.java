@@ -0,0 +1,107 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+/**
+ * 
+ * 把 INPUT_PATHS 下的所有文件按 block 切分成 split。
+ * 
+ * listFiles 返回的 LocatedFileStatus 已经带有 block 的位置，所以每个目录只需要一次 NameNode 的调用，不需要再逐个文件的调用 getFileBlockLocations。
+ * 
+ * @author 商洋
+ *
+ */
+public class InputSplitter {
+	
+	private static Log LOGGER = LogFactory.getLog(InputSplitter.class);
+	
+	private InputSplitter() {
+		
+	}
+	
+	/**
+	 * 
+	 * @return 没有配置 INPUT_PATHS 的时候返回空的列表
+	 */
+	public static List<InputSplit> split( Configuration conf ) throws IOException {
+		
+		String[] paths = conf.getTrimmedStrings( ApplicationMasterConfig.INPUT_PATHS );
+		
+		if ( paths.length == 0 ) {
+			
+			return Collections.emptyList();
+		}
+		
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		
+		for ( String input : paths ) {
+			
+			Path path = new Path( input );
+			
+			FileSystem fs = path.getFileSystem( conf );
+			
+			RemoteIterator<LocatedFileStatus> files = fs.listFiles( path, true );
+			
+			while ( files.hasNext() ) {
+				
+				LocatedFileStatus file = files.next();
+				
+				if ( file.getLen() == 0 ) {
+					
+					continue;
+				}
+				
+				for ( BlockLocation block : file.getBlockLocations() ) {
+					
+					splits.add( new InputSplit( file.getPath(), block.getOffset(), block.getLength(), hosts( block ), racks( block ) ) );
+				}
+			}
+		}
+		
+		LOGGER.info("Split " + paths.length + " input paths into " + splits.size() + " splits");
+		
+		return splits;
+	}
+	
+	private static String[] hosts( BlockLocation block ) throws IOException {
+		
+		String[] hosts = block.getHosts();
+		
+		return hosts == null || hosts.length == 0 ? null : hosts;
+	}
+	
+	/**
+	 * topology path 的格式是 /rack/host:port，去掉最后一段就是 rack
+	 */
+	static String[] racks( BlockLocation block ) throws IOException {
+		
+		Set<String> racks = new LinkedHashSet<String>();
+		
+		for ( String topologyPath : block.getTopologyPaths() ) {
+			
+			int index = topologyPath.lastIndexOf( '/' );
+			
+			if ( index > 0 ) {
+				
+				racks.add( topologyPath.substring( 0, index ) );
+			}
+		}
+		
+		return racks.isEmpty() ? null : racks.toArray( new String[ racks.size() ] );
+	}
+
+}
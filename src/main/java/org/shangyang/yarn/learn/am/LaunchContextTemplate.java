@@ -0,0 +1,244 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.DataInputByteBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.security.AMRMTokenIdentifier;
+import org.apache.hadoop.yarn.util.Records;
+
+/**
+ * 
+ * 所有 Container 的 ContainerLaunchContext 都是一样的，所以 commands、environment、local resources 以及 tokens 只构造一次，
+ * 之后每个 Container 只是复制一份引用，不再重复的拼接命令以及序列化 Credentials。
+ * 
+ * Tokens 的处理，
+ * 1) AMRM Token 只能由 AM 自己持有，必须在序列化之前就从 Credentials 中去掉，否则每个 Container 都会拿到 AMRM Token；
+ * 2) 只有当 Credentials 发生变化的时候（比如 delegation token 被更新）才重新序列化；检查是否变化需要复制一份 UGI 的 Credentials，
+ *    所以最多每隔 TOKEN_CHECK_INTERVAL_MS 检查一次。
+ * 
+ * @author 商洋
+ *
+ */
+public class LaunchContextTemplate implements ContainerLaunchContextFactory {
+	
+	private static Log LOGGER = LogFactory.getLog(LaunchContextTemplate.class);
+	
+	static final long TOKEN_CHECK_INTERVAL_MS = 1000;
+	
+	private final List<String> commands;
+	
+	private final Map<String, String> environment;
+	
+	private final Map<String, LocalResource> localResources;
+	
+	private volatile CachedTokens cachedTokens;
+	
+	public LaunchContextTemplate( List<String> commands, Map<String, String> environment, Map<String, LocalResource> localResources ) {
+		
+		this.commands = Collections.unmodifiableList( commands );
+		
+		this.environment = Collections.unmodifiableMap( new HashMap<String, String>( environment ) );
+		
+		this.localResources = Collections.unmodifiableMap( new HashMap<String, LocalResource>( localResources ) );
+	}
+
+	/**
+	 * 复制一份模板；ByteBuffer 的 position 会在转换成 PB 的时候被修改，所以每个 Container 使用自己的 duplicate
+	 */
+	@Override
+	public ContainerLaunchContext createLaunchContext( Container container ) {
+		
+		ContainerLaunchContext launchContext = Records.newRecord( ContainerLaunchContext.class );
+		
+		launchContext.setCommands( commands );
+		
+		launchContext.setEnvironment( environment );
+		
+		launchContext.setLocalResources( localResources );
+		
+		setupLaunchContextTokens( launchContext );
+		
+		return launchContext;
+	}
+	
+	public void setupLaunchContextTokens( ContainerLaunchContext launchContext ) {
+		
+		ByteBuffer tokens = currentTokens();
+		
+		if ( tokens != null ) {
+			
+			launchContext.setTokens( tokens.duplicate() );
+		}
+	}
+	
+	/**
+	 * 在共用的 tokens 之外再加上只属于这一个 Container 的 token，比如 Worker 连接 TaskServer 的 token；
+	 * 每个 Container 都要重新序列化一次，只适用于数量不多的、长期运行的 Container
+	 * 
+	 * @param alias 在 Credentials 中的别名，不能与共用的 tokens 冲突
+	 */
+	public void setupLaunchContextTokens( ContainerLaunchContext launchContext, Text alias, Token<?> containerToken ) throws IOException {
+		
+		Credentials credentials = new Credentials();
+		
+		ByteBuffer tokens = currentTokens();
+		
+		if ( tokens != null ) {
+			
+			DataInputByteBuffer in = new DataInputByteBuffer();
+			
+			in.reset( tokens.duplicate() );
+			
+			credentials.readTokenStorageStream( in );
+		}
+		
+		credentials.addToken( alias, containerToken );
+		
+		launchContext.setTokens( serialize( credentials ) );
+	}
+	
+	/**
+	 * 强制下一个 Container 重新序列化 tokens
+	 */
+	public void invalidate() {
+		
+		cachedTokens = null;
+	}
+	
+	ByteBuffer currentTokens() {
+		
+		long now = System.nanoTime();
+		
+		CachedTokens cached = cachedTokens;
+		
+		if ( cached != null && now - cached.checkedNanos < TimeUnit.MILLISECONDS.toNanos( TOKEN_CHECK_INTERVAL_MS ) ) {
+			
+			return cached.tokens;
+		}
+		
+		synchronized ( this ) {
+			
+			cached = cachedTokens;
+			
+			// 其它线程刚刚检查过
+			if ( cached != null && now - cached.checkedNanos < TimeUnit.MILLISECONDS.toNanos( TOKEN_CHECK_INTERVAL_MS ) ) {
+				
+				return cached.tokens;
+			}
+			
+			try {
+				
+				Credentials credentials = containerCredentials();
+				
+				long fingerprint = fingerprint( credentials );
+				
+				if ( cached != null && cached.fingerprint == fingerprint ) {
+					
+					cachedTokens = new CachedTokens( fingerprint, cached.tokens, now );
+					
+				} else {
+					
+					LOGGER.info("Credentials changed, serialize " + credentials.numberOfTokens() + " tokens for the launch context");
+					
+					cachedTokens = new CachedTokens( fingerprint, serialize( credentials ), now );
+				}
+				
+			} catch (IOException e) {
+				
+				LOGGER.error("Error setting tokens for launch context", e );
+				
+				return cached == null ? null : cached.tokens;
+			}
+			
+			return cachedTokens.tokens;
+		}
+	}
+	
+	/**
+	 * UserGroupInformation#getCredentials 返回的是一份拷贝，所以可以直接在上面去掉 AMRM Token
+	 */
+	static Credentials containerCredentials() throws IOException {
+		
+		Credentials credentials = UserGroupInformation.getCurrentUser().getCredentials();
+		
+		Iterator<Token<?>> iterator = credentials.getAllTokens().iterator();
+		
+		while (iterator.hasNext()) {
+			
+			Token<?> token = iterator.next();
+			
+			if (token.getKind().equals(AMRMTokenIdentifier.KIND_NAME)) {
+				
+				iterator.remove();
+			}
+		}
+		
+		return credentials;
+	}
+	
+	static ByteBuffer serialize( Credentials credentials ) throws IOException {
+		
+		DataOutputBuffer dob = new DataOutputBuffer();
+		
+		credentials.writeTokenStorageToStream(dob);
+		
+		return ByteBuffer.wrap( Arrays.copyOf( dob.getData(), dob.getLength() ) ).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * 与 token 的顺序无关的指纹，只要任意一个 token 或者 secret key 发生变化，指纹就会变化
+	 */
+	static long fingerprint( Credentials credentials ) {
+		
+		long fingerprint = 31L * credentials.numberOfTokens() + credentials.numberOfSecretKeys();
+		
+		for ( Token<?> token : credentials.getAllTokens() ) {
+			
+			fingerprint += ( 31L * token.getKind().hashCode() + token.getService().hashCode() ) * 31L + Arrays.hashCode( token.getIdentifier() );
+		}
+		
+		for ( org.apache.hadoop.io.Text alias : credentials.getAllSecretKeys() ) {
+			
+			fingerprint += 17L * alias.hashCode() + Arrays.hashCode( credentials.getSecretKey( alias ) );
+		}
+		
+		return fingerprint;
+	}
+	
+	private static class CachedTokens {
+		
+		final long fingerprint;
+		
+		final ByteBuffer tokens;
+		
+		final long checkedNanos;
+		
+		CachedTokens( long fingerprint, ByteBuffer tokens, long checkedNanos ) {
+			
+			this.fingerprint = fingerprint;
+			
+			this.tokens = tokens;
+			
+			this.checkedNanos = checkedNanos;
+		}
+	}
+
+}
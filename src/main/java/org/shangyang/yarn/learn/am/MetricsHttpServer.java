@@ -0,0 +1,287 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.net.NetUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 
+ * AM 内嵌的 HTTP 服务，它的地址会作为 tracking URL 注册到 RM，这样从 RM 的页面上就可以直接看到 AM 的运行指标；
+ * 
+ * 1) /metrics，文本格式（Prometheus 的格式），方便采集；
+ * 2) /metrics.json 以及 /，JSON 格式，方便人看以及脚本处理。
+ * 
+ * 只有在请求的时候才读取各个计数器并且生成输出，不会给回调线程带来任何额外的开销。
+ * 
+ * @author 商洋
+ *
+ */
+public class MetricsHttpServer {
+	
+	private static Log LOGGER = LogFactory.getLog(MetricsHttpServer.class);
+	
+	public static final String ENABLED = ApplicationMasterConfig.PREFIX + "http.enabled";
+	
+	public static final boolean DEFAULT_ENABLED = true;
+	
+	public static final String PORT = ApplicationMasterConfig.PREFIX + "http.port";
+	
+	public static final int DEFAULT_PORT = 0;
+	
+	private static final String METRIC_PREFIX = "learn_yarn_am_";
+	
+	private final ApplicationMasterMetrics metrics;
+	
+	private final ContainerLifecycleTracker tracker;
+	
+	private final int port;
+	
+	private HttpServer server;
+	
+	private ExecutorService executor;
+	
+	public MetricsHttpServer( Configuration conf, ApplicationMasterMetrics metrics, ContainerLifecycleTracker tracker ) {
+		
+		this.metrics = metrics;
+		
+		this.tracker = tracker;
+		
+		this.port = conf.getInt( PORT, DEFAULT_PORT );
+	}
+	
+	/**
+	 * 
+	 * @return 注册到 RM 的 tracking URL
+	 */
+	public String start() throws IOException {
+		
+		server = HttpServer.create( new InetSocketAddress( port ), 0 );
+		
+		server.createContext( "/metrics", new HttpHandler() {
+			
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException {
+				
+				if ( exchange.getRequestURI().getPath().endsWith( ".json" ) ) {
+					
+					respond( exchange, "application/json", renderJson() );
+					
+				} else {
+					
+					respond( exchange, "text/plain; version=0.0.4", renderText() );
+				}
+			}
+		});
+		
+		server.createContext( "/", new HttpHandler() {
+			
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException {
+				
+				respond( exchange, "application/json", renderJson() );
+			}
+		});
+		
+		executor = Executors.newSingleThreadExecutor( new ThreadFactoryBuilder().setDaemon(true).setNameFormat("metrics-http").build() );
+		
+		server.setExecutor( executor );
+		
+		server.start();
+		
+		String trackingUrl = "http://" + NetUtils.getHostname() + ":" + server.getAddress().getPort() + "/";
+		
+		LOGGER.info("Metrics are served at " + trackingUrl );
+		
+		return trackingUrl;
+	}
+	
+	public void stop() {
+		
+		if ( server != null ) {
+			
+			server.stop( 0 );
+			
+			executor.shutdownNow();
+		}
+	}
+	
+	String renderText() {
+		
+		StringBuilder sb = new StringBuilder();
+		
+		ContainerLifecycleTracker.Snapshot snapshot = tracker.snapshot();
+		
+		sb.append( "# TYPE " ).append( METRIC_PREFIX ).append( "containers gauge\n" );
+		
+		for ( ContainerLifecycleTracker.State state : ContainerLifecycleTracker.State.values() ) {
+			
+			sb.append( METRIC_PREFIX ).append( "containers{state=\"" ).append( state.name().toLowerCase() ).append( "\"} " ).append( snapshot.get( state ) ).append( '\n' );
+		}
+		
+		gaugeText( sb, "heartbeat_interval_ms", metrics.getHeartbeatIntervalMs() );
+		
+		for ( Map.Entry<String, ApplicationMasterMetrics.Gauge> gauge : metrics.getGauges().entrySet() ) {
+			
+			gaugeText( sb, gauge.getKey(), gauge.getValue().getValue() );
+		}
+		
+		histogramText( sb, "request_to_allocated_ms", metrics.getRequestToAllocatedMs() );
+		
+		histogramText( sb, "allocated_to_started_ms", metrics.getAllocatedToStartedMs() );
+		
+		histogramText( sb, "started_to_completed_ms", metrics.getStartedToCompletedMs() );
+		
+		histogramText( sb, "allocation_batch_size", metrics.getAllocationBatchSizes() );
+		
+		histogramText( sb, "heartbeat_round_trip_ms", metrics.getHeartbeatRoundTripMs() );
+		
+		return sb.toString();
+	}
+	
+	String renderJson() {
+		
+		StringBuilder sb = new StringBuilder( "{\"containers\":{" );
+		
+		ContainerLifecycleTracker.Snapshot snapshot = tracker.snapshot();
+		
+		for ( ContainerLifecycleTracker.State state : ContainerLifecycleTracker.State.values() ) {
+			
+			sb.append( state.ordinal() == 0 ? "" : "," ).append( '"' ).append( state.name().toLowerCase() ).append( "\":" ).append( snapshot.get( state ) );
+		}
+		
+		sb.append( "},\"gauges\":{\"heartbeat_interval_ms\":" ).append( metrics.getHeartbeatIntervalMs() );
+		
+		for ( Map.Entry<String, ApplicationMasterMetrics.Gauge> gauge : metrics.getGauges().entrySet() ) {
+			
+			sb.append( ",\"" ).append( gauge.getKey() ).append( "\":" ).append( gauge.getValue().getValue() );
+		}
+		
+		sb.append( "},\"histograms\":{" );
+		
+		histogramJson( sb.append( "\"request_to_allocated_ms\":" ), metrics.getRequestToAllocatedMs() );
+		
+		histogramJson( sb.append( ",\"allocated_to_started_ms\":" ), metrics.getAllocatedToStartedMs() );
+		
+		histogramJson( sb.append( ",\"started_to_completed_ms\":" ), metrics.getStartedToCompletedMs() );
+		
+		histogramJson( sb.append( ",\"allocation_batch_size\":" ), metrics.getAllocationBatchSizes() );
+		
+		histogramJson( sb.append( ",\"heartbeat_round_trip_ms\":" ), metrics.getHeartbeatRoundTripMs() );
+		
+		return sb.append( "}}" ).toString();
+	}
+	
+	private static void gaugeText( StringBuilder sb, String name, long value ) {
+		
+		sb.append( "# TYPE " ).append( METRIC_PREFIX ).append( name ).append( " gauge\n" )
+		  .append( METRIC_PREFIX ).append( name ).append( ' ' ).append( value ).append( '\n' );
+	}
+	
+	/**
+	 * 输出累计的桶，只输出到最后一个非空的桶为止
+	 */
+	private static void histogramText( StringBuilder sb, String name, Histogram histogram ) {
+		
+		String metric = METRIC_PREFIX + name;
+		
+		sb.append( "# TYPE " ).append( metric ).append( " histogram\n" );
+		
+		long[] counts = bucketCounts( histogram );
+		
+		int last = lastNonEmpty( counts );
+		
+		long cumulative = 0;
+		
+		for ( int i = 0; i <= last; i++ ) {
+			
+			cumulative += counts[i];
+			
+			sb.append( metric ).append( "_bucket{le=\"" ).append( Histogram.upperBound( i ) ).append( "\"} " ).append( cumulative ).append( '\n' );
+		}
+		
+		sb.append( metric ).append( "_bucket{le=\"+Inf\"} " ).append( cumulative ).append( '\n' )
+		  .append( metric ).append( "_sum " ).append( histogram.getSum() ).append( '\n' )
+		  .append( metric ).append( "_count " ).append( cumulative ).append( '\n' );
+	}
+	
+	private static void histogramJson( StringBuilder sb, Histogram histogram ) {
+		
+		sb.append( "{\"count\":" ).append( histogram.getCount() )
+		  .append( ",\"sum\":" ).append( histogram.getSum() )
+		  .append( ",\"max\":" ).append( histogram.getMax() )
+		  .append( ",\"p50\":" ).append( histogram.getQuantile( 0.5 ) )
+		  .append( ",\"p90\":" ).append( histogram.getQuantile( 0.9 ) )
+		  .append( ",\"p99\":" ).append( histogram.getQuantile( 0.99 ) )
+		  .append( ",\"buckets\":{" );
+		
+		long[] counts = bucketCounts( histogram );
+		
+		boolean first = true;
+		
+		for ( int i = 0; i < counts.length; i++ ) {
+			
+			if ( counts[i] > 0 ) {
+				
+				sb.append( first ? "" : "," ).append( '"' ).append( Histogram.upperBound( i ) ).append( "\":" ).append( counts[i] );
+				
+				first = false;
+			}
+		}
+		
+		sb.append( "}}" );
+	}
+	
+	private static long[] bucketCounts( Histogram histogram ) {
+		
+		long[] counts = new long[ Histogram.BUCKETS ];
+		
+		for ( int i = 0; i < counts.length; i++ ) {
+			
+			counts[i] = histogram.getBucketCount( i );
+		}
+		
+		return counts;
+	}
+	
+	private static int lastNonEmpty( long[] counts ) {
+		
+		for ( int i = counts.length - 1; i >= 0; i-- ) {
+			
+			if ( counts[i] > 0 ) {
+				
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private static void respond( HttpExchange exchange, String contentType, String body ) throws IOException {
+		
+		byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+		
+		exchange.getResponseHeaders().set( "Content-Type", contentType + "; charset=utf-8" );
+		
+		exchange.sendResponseHeaders( 200, bytes.length );
+		
+		try ( OutputStream out = exchange.getResponseBody() ) {
+			
+			out.write( bytes );
+		}
+	}
+
+}
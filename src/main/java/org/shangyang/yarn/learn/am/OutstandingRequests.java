@@ -0,0 +1,287 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+
+/**
+ *
+ * 已经注册到 AMRMClient、还没有被满足的 ContainerRequest，按照 (priority, capability) 分组索引。
+ *
+ * AMRMClient 不知道哪个请求已经被满足了：没有被 removeContainerRequest 的请求一直留在它的请求表中，
+ * 同一组里再注册新的请求的时候，整组的数量又会被发给 RM，RM 就会继续分配 AM 用不上的 Container。
+ * 所以每分配到一个 Container，都要从这里找到它满足的那个请求并且从 AMRMClient 中删除：
+ * 1) priority 相同，capability 不超过 Container 的大小（RM 会把申请的资源向上取整），有多组的时候取最大的一组；
+ * 2) 组内优先取 nodes 包含该 Container 所在 Node 的请求，其次是 racks 包含其 Rack 的，最后是最早注册的允许放宽位置的请求。
+ *
+ * 组的数量很少，按组遍历；组内按 Node 以及 Rack 建索引，匹配和删除都不需要遍历请求。ContainerRequest 没有重写 equals，按照对象本身索引。
+ *
+ * @author 商洋
+ *
+ */
+public class OutstandingRequests {
+	
+	private final List<Group> groups = new ArrayList<Group>();
+	
+	private int size = 0;
+	
+	public synchronized void add( AMRMClient.ContainerRequest request ) {
+		
+		Group group = null;
+		
+		for ( Group g : groups ) {
+			
+			if ( g.priority.equals( request.getPriority() ) && g.capability.equals( request.getCapability() ) ) {
+				
+				group = g;
+				
+				break;
+			}
+		}
+		
+		if ( group == null ) {
+			
+			group = new Group( request.getPriority(), request.getCapability() );
+			
+			groups.add( group );
+		}
+		
+		if ( group.add( request ) ) {
+			
+			size++;
+		}
+	}
+	
+	/**
+	 * 找到分配到的 Container 所满足的请求，并且把它从索引中删除
+	 *
+	 * @param allocated 分配到的 Container 的大小
+	 * @param host Container 所在的 Node
+	 * @param rack Container 所在的 Rack，不知道的时候为 null
+	 * @return 被满足的请求；没有匹配的请求的时候返回 null，说明这个 Container 是多出来的
+	 */
+	public synchronized AMRMClient.ContainerRequest match( Priority priority, Resource allocated, String host, String rack ) {
+		
+		Group best = null;
+		
+		for ( Group group : groups ) {
+			
+			if ( group.priority.equals( priority ) && !group.requests.isEmpty() && fitsIn( group.capability, allocated )
+				 && ( best == null || !fitsIn( group.capability, best.capability ) ) ) {
+				
+				best = group;
+			}
+		}
+		
+		if ( best == null ) {
+			
+			return null;
+		}
+		
+		AMRMClient.ContainerRequest request = best.match( host, rack );
+		
+		if ( request != null ) {
+			
+			size--;
+		}
+		
+		return request;
+	}
+	
+	/**
+	 * 从最早注册的开始，删除最多 count 个请求
+	 *
+	 * @return 被删除的请求，调用方负责从 AMRMClient 中删除
+	 */
+	public synchronized List<AMRMClient.ContainerRequest> removeOldest( int count ) {
+		
+		return removeOldest( null, count );
+	}
+	
+	/**
+	 * 只删除该 priority 的请求，没有指定 priority 的时候删除任何请求
+	 *
+	 * @return 被删除的请求，调用方负责从 AMRMClient 中删除
+	 */
+	public synchronized List<AMRMClient.ContainerRequest> removeOldest( Priority priority, int count ) {
+		
+		List<AMRMClient.ContainerRequest> removed = new ArrayList<AMRMClient.ContainerRequest>();
+		
+		for ( Group group : groups ) {
+			
+			if ( priority != null && !group.priority.equals( priority ) ) {
+				
+				continue;
+			}
+			
+			Iterator<AMRMClient.ContainerRequest> it = group.requests.iterator();
+			
+			while ( removed.size() < count && it.hasNext() ) {
+				
+				AMRMClient.ContainerRequest request = it.next();
+				
+				it.remove();
+				
+				group.unindex( request );
+				
+				removed.add( request );
+			}
+		}
+		
+		size -= removed.size();
+		
+		return removed;
+	}
+	
+	public synchronized int size() {
+		
+		return size;
+	}
+	
+	/**
+	 *
+	 * @return 该 priority 的请求的数量
+	 */
+	public synchronized int size( Priority priority ) {
+		
+		int count = 0;
+		
+		for ( Group group : groups ) {
+			
+			if ( group.priority.equals( priority ) ) {
+				
+				count += group.requests.size();
+			}
+		}
+		
+		return count;
+	}
+	
+	private static boolean fitsIn( Resource smaller, Resource bigger ) {
+		
+		return smaller.getMemorySize() <= bigger.getMemorySize() && smaller.getVirtualCores() <= bigger.getVirtualCores();
+	}
+	
+	/**
+	 * priority 以及 capability 都相同的一组请求
+	 */
+	private static class Group {
+		
+		final Priority priority;
+		
+		final Resource capability;
+		
+		/** 按照注册的先后顺序 **/
+		final Set<AMRMClient.ContainerRequest> requests = new LinkedHashSet<AMRMClient.ContainerRequest>();
+		
+		/** 按照 nodes 以及 racks 中的每一项索引的请求；Rack 的名字以 / 开头，不会与 Node 的名字冲突 **/
+		final Map<String, Set<AMRMClient.ContainerRequest>> byLocation = new HashMap<String, Set<AMRMClient.ContainerRequest>>();
+		
+		Group( Priority priority, Resource capability ) {
+			
+			this.priority = priority;
+			
+			this.capability = capability;
+		}
+		
+		boolean add( AMRMClient.ContainerRequest request ) {
+			
+			if ( !requests.add( request ) ) {
+				
+				return false;
+			}
+			
+			for ( String location : locations( request ) ) {
+				
+				Set<AMRMClient.ContainerRequest> indexed = byLocation.get( location );
+				
+				if ( indexed == null ) {
+					
+					indexed = new LinkedHashSet<AMRMClient.ContainerRequest>();
+					
+					byLocation.put( location, indexed );
+				}
+				
+				indexed.add( request );
+			}
+			
+			return true;
+		}
+		
+		AMRMClient.ContainerRequest match( String host, String rack ) {
+			
+			AMRMClient.ContainerRequest request = first( byLocation.get( host ) );
+			
+			if ( request == null && rack != null ) {
+				
+				request = first( byLocation.get( rack ) );
+			}
+			
+			if ( request == null ) {
+				
+				for ( AMRMClient.ContainerRequest candidate : requests ) {
+					
+					if ( candidate.getRelaxLocality() ) {
+						
+						request = candidate;
+						
+						break;
+					}
+				}
+			}
+			
+			if ( request != null ) {
+				
+				requests.remove( request );
+				
+				unindex( request );
+			}
+			
+			return request;
+		}
+		
+		void unindex( AMRMClient.ContainerRequest request ) {
+			
+			for ( String location : locations( request ) ) {
+				
+				Set<AMRMClient.ContainerRequest> indexed = byLocation.get( location );
+				
+				if ( indexed != null && indexed.remove( request ) && indexed.isEmpty() ) {
+					
+					byLocation.remove( location );
+				}
+			}
+		}
+		
+		private static AMRMClient.ContainerRequest first( Set<AMRMClient.ContainerRequest> requests ) {
+			
+			return requests == null || requests.isEmpty() ? null : requests.iterator().next();
+		}
+		
+		private static List<String> locations( AMRMClient.ContainerRequest request ) {
+			
+			List<String> locations = new ArrayList<String>();
+			
+			if ( request.getNodes() != null ) {
+				
+				locations.addAll( request.getNodes() );
+			}
+			
+			if ( request.getRacks() != null ) {
+				
+				locations.addAll( request.getRacks() );
+			}
+			
+			return locations;
+		}
+	}
+
+}
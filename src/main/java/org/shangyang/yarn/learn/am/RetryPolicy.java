@@ -0,0 +1,95 @@
+package org.shangyang.yarn.learn.am;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
+
+/**
+ * 
+ * 失败的 Container 的重试策略；
+ * 
+ * 1) 应用自身的错误（比如命令返回非 0）计入重试次数，超过 max-attempts 以后放弃，两次重试之间按照指数退避；
+ * 2) 被抢占、被 RM/AM 杀掉、磁盘故障等由框架造成的失败不是应用的问题，不计入重试次数，马上重新申请，
+ *    但是最多重试 max-framework-retries 次，避免集群出问题的时候无限的重试下去。
+ * 
+ * @author 商洋
+ *
+ */
+public class RetryPolicy {
+	
+	public static final String MAX_ATTEMPTS = ApplicationMasterConfig.PREFIX + "retry.max-attempts";
+	
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	
+	public static final String MAX_FRAMEWORK_RETRIES = ApplicationMasterConfig.PREFIX + "retry.max-framework-retries";
+	
+	public static final int DEFAULT_MAX_FRAMEWORK_RETRIES = 10;
+	
+	public static final String BACKOFF_BASE_MS = ApplicationMasterConfig.PREFIX + "retry.backoff-base-ms";
+	
+	public static final long DEFAULT_BACKOFF_BASE_MS = 1000;
+	
+	public static final String BACKOFF_MAX_MS = ApplicationMasterConfig.PREFIX + "retry.backoff-max-ms";
+	
+	public static final long DEFAULT_BACKOFF_MAX_MS = 30000;
+	
+	private final int maxAttempts;
+	
+	private final int maxFrameworkRetries;
+	
+	private final long backoffBaseMs;
+	
+	private final long backoffMaxMs;
+	
+	public RetryPolicy( Configuration conf ) {
+		
+		this.maxAttempts = Math.max( 1, conf.getInt( MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS ) );
+		
+		this.maxFrameworkRetries = Math.max( 0, conf.getInt( MAX_FRAMEWORK_RETRIES, DEFAULT_MAX_FRAMEWORK_RETRIES ) );
+		
+		this.backoffBaseMs = Math.max( 0, conf.getLong( BACKOFF_BASE_MS, DEFAULT_BACKOFF_BASE_MS ) );
+		
+		this.backoffMaxMs = Math.max( backoffBaseMs, conf.getLong( BACKOFF_MAX_MS, DEFAULT_BACKOFF_MAX_MS ) );
+	}
+	
+	public int getMaxAttempts() {
+		
+		return maxAttempts;
+	}
+	
+	public int getMaxFrameworkRetries() {
+		
+		return maxFrameworkRetries;
+	}
+	
+	/**
+	 * 
+	 * @return 这个退出码是否是由框架而不是应用本身造成的
+	 */
+	public static boolean isFrameworkFailure( int exitStatus ) {
+		
+		return exitStatus == ContainerExitStatus.PREEMPTED 
+			|| exitStatus == ContainerExitStatus.ABORTED
+			|| exitStatus == ContainerExitStatus.DISKS_FAILED
+			|| exitStatus == ContainerExitStatus.KILLED_BY_RESOURCEMANAGER
+			|| exitStatus == ContainerExitStatus.KILLED_BY_APPMASTER
+			|| exitStatus == ContainerExitStatus.KILLED_AFTER_APP_COMPLETION;
+	}
+	
+	/**
+	 * 
+	 * @param failures 已经失败的次数，从 1 开始
+	 * @return base * 2^(failures - 1)，不超过 backoff-max-ms
+	 */
+	public long backoffMs( int failures ) {
+		
+		if ( failures <= 0 || backoffBaseMs == 0 ) {
+			
+			return 0;
+		}
+		
+		int shift = Math.min( failures - 1, 30 );
+		
+		return Math.min( backoffMaxMs, backoffBaseMs << shift );
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 
+ * 推测执行：周期性的检查正在运行的 slot，执行时间超过已完成的 slot 的中位数 straggler-factor 倍的，为它申请一个备份的 Container；
+ * 两个 Container 中先完成的为准，另外一个由 AM 停止，见 ContainerAttempts。
+ * 
+ * 少数慢的 Node 决定了整个应用的完成时间，推测执行可以把这部分长尾去掉。
+ * 
+ * @author 商洋
+ *
+ */
+public class Speculator implements Runnable {
+	
+	private static Log LOGGER = LogFactory.getLog(Speculator.class);
+	
+	public static final String ENABLED = ApplicationMasterConfig.PREFIX + "speculation.enabled";
+	
+	public static final boolean DEFAULT_ENABLED = true;
+	
+	public static final String INTERVAL_MS = ApplicationMasterConfig.PREFIX + "speculation.interval-ms";
+	
+	public static final long DEFAULT_INTERVAL_MS = 1000;
+	
+	public static final String STRAGGLER_FACTOR = ApplicationMasterConfig.PREFIX + "speculation.straggler-factor";
+	
+	public static final float DEFAULT_STRAGGLER_FACTOR = 2.0f;
+	
+	public static final String MIN_RUNTIME_MS = ApplicationMasterConfig.PREFIX + "speculation.min-runtime-ms";
+	
+	public static final long DEFAULT_MIN_RUNTIME_MS = 10000;
+	
+	/** 至少有这个比例的 slot 已经成功以后才开始推测执行 **/
+	public static final String MIN_COMPLETED_FRACTION = ApplicationMasterConfig.PREFIX + "speculation.min-completed-fraction";
+	
+	public static final float DEFAULT_MIN_COMPLETED_FRACTION = 0.25f;
+	
+	/** 同时处于推测执行中的 slot 占所有 slot 的比例的上限 **/
+	public static final String MAX_ACTIVE_FRACTION = ApplicationMasterConfig.PREFIX + "speculation.max-active-fraction";
+	
+	public static final float DEFAULT_MAX_ACTIVE_FRACTION = 0.1f;
+	
+	/**
+	 * 为 straggler 申请备份的 Container
+	 */
+	public interface Listener {
+		
+		void onSpeculate( int slot );
+	}
+	
+	private final ContainerAttempts attempts;
+	
+	private final Listener listener;
+	
+	private final long intervalMs;
+	
+	private final float factor;
+	
+	private final long minRuntimeMs;
+	
+	private final int minCompleted;
+	
+	private final int maxActive;
+	
+	private ScheduledExecutorService scheduler;
+	
+	public Speculator( Configuration conf, ContainerAttempts attempts, Listener listener ) {
+		
+		this.attempts = attempts;
+		
+		this.listener = listener;
+		
+		this.intervalMs = Math.max( 1, conf.getLong( INTERVAL_MS, DEFAULT_INTERVAL_MS ) );
+		
+		this.factor = Math.max( 1f, conf.getFloat( STRAGGLER_FACTOR, DEFAULT_STRAGGLER_FACTOR ) );
+		
+		this.minRuntimeMs = Math.max( 0, conf.getLong( MIN_RUNTIME_MS, DEFAULT_MIN_RUNTIME_MS ) );
+		
+		this.minCompleted = Math.max( 1, (int) Math.ceil( attempts.getSlots() * conf.getFloat( MIN_COMPLETED_FRACTION, DEFAULT_MIN_COMPLETED_FRACTION ) ) );
+		
+		this.maxActive = Math.max( 1, (int) ( attempts.getSlots() * conf.getFloat( MAX_ACTIVE_FRACTION, DEFAULT_MAX_ACTIVE_FRACTION ) ) );
+	}
+	
+	public void start() {
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon(true).setNameFormat("speculator").build() );
+		
+		scheduler.scheduleWithFixedDelay( this, intervalMs, intervalMs, TimeUnit.MILLISECONDS );
+	}
+	
+	public void stop() {
+		
+		if ( scheduler != null ) {
+			
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Override
+	public void run() {
+		
+		try {
+			
+			List<Integer> stragglers = attempts.speculate( System.nanoTime(), factor, minRuntimeMs, minCompleted, maxActive );
+			
+			for ( int slot : stragglers ) {
+				
+				LOGGER.info("Slot " + slot + " is a straggler, request a backup container");
+				
+				listener.onSpeculate( slot );
+			}
+			
+		} catch ( Throwable t ) {
+			
+			// 不能让异常中断周期性的调度
+			LOGGER.error("Failed to speculate the stragglers", t );
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 
+ * 分段的计数器，多个线程并发累加的时候，各自落在不同的 cell 上，不会在同一个原子变量上竞争；读取的时候把所有的 cell 加起来。
+ * 
+ * 相当于 JDK 8 的 LongAdder；每个 cell 之间间隔 PADDING 个 long，避免不同的 cell 落在同一个 cache line 上产生伪共享。
+ * 
+ * @author 商洋
+ *
+ */
+public class StripedCounter {
+	
+	private static final int PADDING = 16;
+	
+	private static final int STRIPES = stripes();
+	
+	private final AtomicLongArray cells = new AtomicLongArray( STRIPES * PADDING );
+	
+	public void add( long delta ) {
+		
+		cells.addAndGet( index(), delta );
+	}
+	
+	public void increment() {
+		
+		add( 1 );
+	}
+	
+	public void decrement() {
+		
+		add( -1 );
+	}
+	
+	/**
+	 * 在没有并发修改的时候是精确的；有并发修改的时候，可能不包含正在进行中的修改
+	 */
+	public long sum() {
+		
+		long sum = 0;
+		
+		for ( int i = 0; i < STRIPES; i++ ) {
+			
+			sum += cells.get( i * PADDING );
+		}
+		
+		return sum;
+	}
+	
+	private static int index() {
+		
+		long id = Thread.currentThread().getId();
+		
+		return (int) ( ( id ^ ( id >>> 16 ) ) & ( STRIPES - 1 ) ) * PADDING;
+	}
+	
+	/**
+	 * CPU 个数的两倍，向上取 2 的幂，最多 64 个
+	 */
+	private static int stripes() {
+		
+		int target = Math.min( 64, Runtime.getRuntime().availableProcessors() * 2 );
+		
+		int stripes = 1;
+		
+		while ( stripes < target ) {
+			
+			stripes <<= 1;
+		}
+		
+		return stripes;
+	}
+
+}
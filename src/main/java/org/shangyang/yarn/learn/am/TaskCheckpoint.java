@@ -0,0 +1,433 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.ApplicationConstants;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.util.ConverterUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ *
+ * 任务完成情况的检查点，AM 重启以后（同一个 Application 的下一个 attempt）据此跳过已经完成的任务，并且接管上一个 attempt 留下来的 Container。
+ *
+ * 每个 attempt 只追加写自己的文件 <checkpoint.dir>/<appId>/attempt-<N>，记录：
+ * 1) 普通模式下 slot 分配给了哪个 Container，以及 slot 最终成功还是失败；
+ * 2) Worker 模式下每个任务最终成功还是失败。
+ * 写入的时候只进缓冲，由后台线程每隔 flush-interval-ms 做一次 hflush，AM 挂掉的时候最多丢失这段时间内的记录，丢失的任务在下一个 attempt 中重新执行。
+ *
+ * 恢复的时候按顺序读取之前所有 attempt 的文件，写了一半的记录直接忽略。slot 的编号要求每个 attempt 切分出来的 split 相同，也就是输入在重启期间没有变化。
+ * Application 结束（unregister）以后整个目录被删除。
+ *
+ * @author 商洋
+ *
+ */
+public class TaskCheckpoint {
+	
+	private static Log LOGGER = LogFactory.getLog(TaskCheckpoint.class);
+	
+	public static final String ENABLED = ApplicationMasterConfig.PREFIX + "checkpoint.enabled";
+	
+	public static final boolean DEFAULT_ENABLED = true;
+	
+	/** 默认是 FileSystem 的 home 目录下的 .learn-yarn/checkpoints **/
+	public static final String DIR = ApplicationMasterConfig.PREFIX + "checkpoint.dir";
+	
+	public static final String FLUSH_INTERVAL_MS = ApplicationMasterConfig.PREFIX + "checkpoint.flush-interval-ms";
+	
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+	
+	static final String ATTEMPT_PREFIX = "attempt-";
+	
+	private static final int MAGIC = 0x4C59434B; // LYCK
+	
+	private static final byte VERSION = 1;
+	
+	private static final byte ASSIGNED = 1;
+	
+	private static final byte SLOT_FINISHED = 2;
+	
+	private static final byte TASK_FINISHED = 3;
+	
+	/**
+	 * 从之前的 attempt 中恢复出来的状态
+	 */
+	public static class State {
+		
+		/** slot -> 是否成功 **/
+		private final Map<Integer, Boolean> slots = new TreeMap<Integer, Boolean>();
+		
+		/** ContainerId -> 分配给它的 slot **/
+		private final Map<String, Integer> assignments = new HashMap<String, Integer>();
+		
+		/** taskId -> 是否成功 **/
+		private final Map<Integer, Boolean> tasks = new TreeMap<Integer, Boolean>();
+		
+		public Map<Integer, Boolean> getSlots() {
+			
+			return Collections.unmodifiableMap( slots );
+		}
+		
+		public Map<Integer, Boolean> getTasks() {
+			
+			return Collections.unmodifiableMap( tasks );
+		}
+		
+		/**
+		 *
+		 * @return 该 Container 在之前的 attempt 中分配到的 slot，没有记录的时候返回 null
+		 */
+		public Integer getSlot( ContainerId containerId ) {
+			
+			return assignments.get( containerId.toString() );
+		}
+	}
+	
+	private final FileSystem fs;
+	
+	private final Path appDir;
+	
+	private final int attemptId;
+	
+	private final FSDataOutputStream out;
+	
+	private final ScheduledExecutorService flusher;
+	
+	private boolean dirty = false;
+	
+	/** 写入失败以后不再写，下一个 attempt 只会多执行一些任务 **/
+	private boolean broken = false;
+	
+	private boolean closed = false;
+	
+	public TaskCheckpoint( Configuration conf, Path appDir, int attemptId, long flushIntervalMs ) throws IOException {
+		
+		this.appDir = appDir;
+		
+		this.attemptId = attemptId;
+		
+		this.fs = appDir.getFileSystem( conf );
+		
+		fs.mkdirs( appDir );
+		
+		this.out = fs.create( new Path( appDir, ATTEMPT_PREFIX + attemptId ), true );
+		
+		out.writeInt( MAGIC );
+		
+		out.writeByte( VERSION );
+		
+		out.hflush();
+		
+		this.flusher = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon(true).setNameFormat("checkpoint-flusher").build() );
+		
+		flusher.scheduleWithFixedDelay( new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				flush();
+			}
+		
+		}, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS );
+	}
+	
+	/**
+	 *
+	 * @return 没有开启、或者不是运行在 YARN 的 Container 中的时候返回 null；打开失败只影响重启以后的恢复，不影响 AM
+	 */
+	public static TaskCheckpoint open( Configuration conf ) {
+		
+		if ( !conf.getBoolean( ENABLED, DEFAULT_ENABLED ) ) {
+			
+			return null;
+		}
+		
+		String containerId = System.getenv( ApplicationConstants.Environment.CONTAINER_ID.name() );
+		
+		if ( containerId == null ) {
+			
+			return null;
+		}
+		
+		ApplicationAttemptId attempt = ConverterUtils.toContainerId( containerId ).getApplicationAttemptId();
+		
+		try {
+			
+			String configured = conf.get( DIR );
+			
+			Path dir = configured != null ? new Path( configured ) : new Path( FileSystem.get( conf ).getHomeDirectory(), ".learn-yarn/checkpoints" );
+			
+			TaskCheckpoint checkpoint = new TaskCheckpoint( conf, new Path( dir, attempt.getApplicationId().toString() ), attempt.getAttemptId(),
+															conf.getLong( FLUSH_INTERVAL_MS, DEFAULT_FLUSH_INTERVAL_MS ) );
+			
+			LOGGER.info("Checkpoint the task state of attempt " + attempt.getAttemptId() + " to " + checkpoint.appDir );
+			
+			return checkpoint;
+		
+		} catch ( IOException e ) {
+			
+			LOGGER.warn("Failed to open the task checkpoint of " + attempt, e );
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * 读取之前所有 attempt 的检查点；读取失败的文件被跳过，对应的任务会被重新执行
+	 */
+	public State recover() {
+		
+		State state = new State();
+		
+		FileStatus[] files;
+		
+		try {
+			
+			files = fs.listStatus( appDir );
+		
+		} catch ( IOException e ) {
+			
+			LOGGER.warn("Failed to list the checkpoints in " + appDir, e );
+			
+			return state;
+		}
+		
+		// 按照 attempt 的顺序读取，后面的记录覆盖前面的
+		Map<Integer, Path> previous = new TreeMap<Integer, Path>();
+		
+		for ( FileStatus file : files ) {
+			
+			String name = file.getPath().getName();
+			
+			if ( name.startsWith( ATTEMPT_PREFIX ) ) {
+				
+				try {
+					
+					int attempt = Integer.parseInt( name.substring( ATTEMPT_PREFIX.length() ) );
+					
+					if ( attempt < attemptId ) {
+						
+						previous.put( attempt, file.getPath() );
+					}
+				
+				} catch ( NumberFormatException e ) {
+					
+					LOGGER.warn("Skip the unknown checkpoint " + file.getPath() );
+				}
+			}
+		}
+		
+		for ( Path path : previous.values() ) {
+			
+			try {
+				
+				read( path, state );
+			
+			} catch ( IOException e ) {
+				
+				LOGGER.warn("Failed to read the checkpoint " + path, e );
+			}
+		}
+		
+		LOGGER.info("Recovered " + state.slots.size() + " finished slots, " + state.tasks.size() + " finished tasks and " + state.assignments.size() + " assignments from " + previous.size() + " previous attempts");
+		
+		return state;
+	}
+	
+	private void read( Path path, State state ) throws IOException {
+		
+		try ( FSDataInputStream in = fs.open( path ) ) {
+			
+			if ( in.readInt() != MAGIC || in.readByte() != VERSION ) {
+				
+				LOGGER.warn("Skip the unknown checkpoint " + path );
+				
+				return;
+			}
+			
+			while ( true ) {
+				
+				byte type;
+				
+				try {
+					
+					type = in.readByte();
+				
+				} catch ( EOFException e ) {
+					
+					return;
+				}
+				
+				try {
+					
+					switch ( type ) {
+						
+						case ASSIGNED: {
+							
+							int slot = in.readInt();
+							
+							state.assignments.put( in.readUTF(), slot );
+							
+							break;
+						}
+						
+						case SLOT_FINISHED: state.slots.put( in.readInt(), in.readBoolean() ); break;
+						
+						case TASK_FINISHED: state.tasks.put( in.readInt(), in.readBoolean() ); break;
+						
+						default:
+							
+							LOGGER.warn("Unknown record type " + type + " in " + path + ", ignore the rest");
+							
+							return;
+					}
+				
+				} catch ( EOFException e ) {
+					
+					// 上一个 attempt 挂掉的时候写了一半的记录
+					return;
+				}
+			}
+		}
+	}
+	
+	public synchronized void assigned( int slot, ContainerId containerId ) {
+		
+		if ( writable() ) {
+			
+			try {
+				
+				out.writeByte( ASSIGNED );
+				
+				out.writeInt( slot );
+				
+				out.writeUTF( containerId.toString() );
+				
+				dirty = true;
+			
+			} catch ( IOException e ) {
+				
+				fail( e );
+			}
+		}
+	}
+	
+	public synchronized void slotFinished( int slot, boolean succeeded ) {
+		
+		write( SLOT_FINISHED, slot, succeeded );
+	}
+	
+	public synchronized void taskFinished( int taskId, boolean succeeded ) {
+		
+		write( TASK_FINISHED, taskId, succeeded );
+	}
+	
+	private void write( byte type, int id, boolean succeeded ) {
+		
+		if ( writable() ) {
+			
+			try {
+				
+				out.writeByte( type );
+				
+				out.writeInt( id );
+				
+				out.writeBoolean( succeeded );
+				
+				dirty = true;
+			
+			} catch ( IOException e ) {
+				
+				fail( e );
+			}
+		}
+	}
+	
+	/**
+	 * 让缓冲中的记录对下一个 attempt 可见
+	 */
+	public synchronized void flush() {
+		
+		if ( dirty && writable() ) {
+			
+			try {
+				
+				out.hflush();
+				
+				dirty = false;
+			
+			} catch ( IOException e ) {
+				
+				fail( e );
+			}
+		}
+	}
+	
+	private boolean writable() {
+		
+		return !closed && !broken;
+	}
+	
+	private void fail( IOException e ) {
+		
+		broken = true;
+		
+		LOGGER.warn("Failed to write the task checkpoint of attempt " + attemptId + ", stop checkpointing", e );
+	}
+	
+	/**
+	 *
+	 * @param delete Application 已经结束，不会再有下一个 attempt，删除所有 attempt 的检查点
+	 */
+	public synchronized void close( boolean delete ) {
+		
+		if ( closed ) {
+			
+			return;
+		}
+		
+		flush();
+		
+		closed = true;
+		
+		flusher.shutdownNow();
+		
+		try {
+			
+			out.close();
+			
+			if ( delete ) {
+				
+				fs.delete( appDir, true );
+			}
+		
+		} catch ( IOException e ) {
+			
+			LOGGER.warn("Failed to close the task checkpoint " + appDir, e );
+		}
+	}
+	
+	Path getAppDir() {
+		
+		return appDir;
+	}
+
+}
@@ -0,0 +1,583 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Resource;
+
+/**
+ *
+ * 多阶段作业的任务图（DAG），在同一个 AM 中执行，不再需要把每个阶段作为一个单独的 Application 串起来。
+ *
+ * 图定义在配置中：
+ *
+ *   learn.yarn.am.dag.vertices = extract,transform,load
+ *   learn.yarn.am.dag.vertex.transform.command = ...
+ *   learn.yarn.am.dag.vertex.transform.tasks = 10
+ *   learn.yarn.am.dag.vertex.transform.memory-mb = 2048
+ *   learn.yarn.am.dag.vertex.transform.vcores = 2
+ *   learn.yarn.am.dag.vertex.transform.inputs = extract:one-to-one
+ *
+ * 每个 vertex 有 tasks 个任务，每个任务是一个 slot，同一个 vertex 的 slot 编号连续，vertex 按照拓扑顺序排列；
+ * 没有配置资源的 vertex 使用 AM 默认的 Container 大小。inputs 中的每一项是一条边：
+ * 1) 默认是 all-to-all，上游所有的任务都成功以后，下游的任务才能开始；
+ * 2) 加上 :one-to-one 的时候，下游的第 i 个任务只依赖上游的第 i 个任务，上游的某个任务一成功下游对应的任务就可以开始，不用等整个上游结束，
+ *    两边的任务数量必须相同。
+ *
+ * 某个任务最终失败的时候，依赖它的所有下游任务都不会再执行，直接算作失败；不依赖它的分支继续执行。
+ *
+ * 没有 inputs 的 vertex 之间互不依赖，同一个 AM 中可以混合多类任务，比如延迟敏感的任务与批量任务，每一类有自己的优先级（tier）：
+ *
+ *   learn.yarn.am.dag.vertex.serve.priority = 0
+ *   learn.yarn.am.dag.vertex.bulk.priority = 1
+ *   learn.yarn.am.dag.vertex.bulk.weight = 0.2
+ *
+ * priority 与 YARN 的 Priority 一样，数字越小越重要，默认都是 0；vertex 按照 (priority, 拓扑顺序) 排名（rank），向 RM 申请 Container 的优先级由排名决定。
+ * weight 在 [0, 1] 之间，默认是 1：还有更重要的 tier 在等待 Container 的时候，该 vertex 只为 weight 比例的等待中的任务申请 Container，
+ * 为 0 的时候要等到更重要的 tier 都分配到 Container 以后才开始申请。
+ *
+ * @author 商洋
+ *
+ */
+public class TaskGraph {
+	
+	public static final String VERTICES = ApplicationMasterConfig.PREFIX + "dag.vertices";
+	
+	public static final String VERTEX_PREFIX = ApplicationMasterConfig.PREFIX + "dag.vertex.";
+	
+	public static final String COMMAND = "command";
+	
+	public static final String TASKS = "tasks";
+	
+	public static final String MEMORY_MB = "memory-mb";
+	
+	public static final String VCORES = "vcores";
+	
+	public static final String INPUTS = "inputs";
+	
+	public static final String ONE_TO_ONE = ":one-to-one";
+	
+	public static final String PRIORITY = "priority";
+	
+	public static final String WEIGHT = "weight";
+	
+	/**
+	 * 图中的一个顶点，也就是一个阶段
+	 */
+	public static class Vertex {
+		
+		private final String name;
+		
+		private final String command;
+		
+		private final int tasks;
+		
+		/** 没有配置的时候为 null **/
+		private Resource capability;
+		
+		private final int priority;
+		
+		private final float weight;
+		
+		private int index;
+		
+		private int rank;
+		
+		private int firstSlot;
+		
+		Vertex( String name, String command, int tasks, Resource capability ) {
+			
+			this( name, command, tasks, capability, 0, 1f );
+		}
+		
+		Vertex( String name, String command, int tasks, Resource capability, int priority, float weight ) {
+			
+			this.name = name;
+			
+			this.command = command;
+			
+			this.tasks = tasks;
+			
+			this.capability = capability;
+			
+			this.priority = priority;
+			
+			this.weight = weight;
+		}
+		
+		public String getName() {
+			
+			return name;
+		}
+		
+		public String getCommand() {
+			
+			return command;
+		}
+		
+		public int getTasks() {
+			
+			return tasks;
+		}
+		
+		/**
+		 *
+		 * @return 该 vertex 的 Container 大小，没有配置的时候返回 fallback
+		 */
+		public Resource getCapability( Resource fallback ) {
+			
+			return capability == null ? fallback : capability;
+		}
+		
+		/**
+		 *
+		 * @return 在拓扑顺序中的位置
+		 */
+		public int getIndex() {
+			
+			return index;
+		}
+		
+		public int getFirstSlot() {
+			
+			return firstSlot;
+		}
+		
+		/**
+		 *
+		 * @return 所在的 tier，数字越小越重要
+		 */
+		public int getPriority() {
+			
+			return priority;
+		}
+		
+		/**
+		 *
+		 * @return 有更重要的 tier 在等待的时候，可以为多少比例的等待中的任务申请 Container
+		 */
+		public float getWeight() {
+			
+			return weight;
+		}
+		
+		/**
+		 *
+		 * @return 按照 (priority, 拓扑顺序) 的排名，0 最重要
+		 */
+		public int getRank() {
+			
+			return rank;
+		}
+		
+		@Override
+		public String toString() {
+			
+			return name + "[" + tasks + "]";
+		}
+	}
+	
+	private static class Edge {
+		
+		final Vertex from;
+		
+		final Vertex to;
+		
+		final boolean oneToOne;
+		
+		/** all-to-all 的边上游还没有成功的任务数量 **/
+		int remaining;
+		
+		Edge( Vertex from, Vertex to, boolean oneToOne ) {
+			
+			this.from = from;
+			
+			this.to = to;
+			
+			this.oneToOne = oneToOne;
+			
+			this.remaining = from.tasks;
+		}
+	}
+	
+	private final List<Vertex> vertices;
+	
+	/** 按照排名排列的 vertex **/
+	private final List<Vertex> ranked;
+	
+	/** 每个 vertex 出发的边，按照 vertex 的位置索引 **/
+	private final List<List<Edge>> outgoing = new ArrayList<List<Edge>>();
+	
+	private final int slots;
+	
+	/** 每个 slot 还没有满足的输入边的数量，为 0 的时候可以开始 **/
+	private final int[] blockers;
+	
+	private final boolean[] done;
+	
+	TaskGraph( List<Vertex> vertices, List<Edge> edges ) {
+		
+		this.vertices = sort( vertices, edges );
+		
+		int slot = 0;
+		
+		for ( int i = 0; i < this.vertices.size(); i++ ) {
+			
+			Vertex vertex = this.vertices.get( i );
+			
+			vertex.index = i;
+			
+			vertex.firstSlot = slot;
+			
+			slot += vertex.tasks;
+			
+			outgoing.add( new ArrayList<Edge>() );
+		}
+		
+		this.slots = slot;
+		
+		// 稳定排序，同一个 tier 中保持拓扑顺序
+		this.ranked = new ArrayList<Vertex>( this.vertices );
+		
+		Collections.sort( ranked, new Comparator<Vertex>() {
+			
+			@Override
+			public int compare( Vertex a, Vertex b ) {
+				
+				return Integer.compare( a.priority, b.priority );
+			}
+		});
+		
+		for ( int i = 0; i < ranked.size(); i++ ) {
+			
+			ranked.get( i ).rank = i;
+		}
+		
+		this.blockers = new int[ slots ];
+		
+		this.done = new boolean[ slots ];
+		
+		for ( Edge edge : edges ) {
+			
+			outgoing.get( edge.from.index ).add( edge );
+			
+			for ( int i = 0; i < edge.to.tasks; i++ ) {
+				
+				blockers[ edge.to.firstSlot + i ]++;
+			}
+		}
+	}
+	
+	/**
+	 *
+	 * @return 没有配置 dag.vertices 的时候返回 null
+	 * @throws IllegalArgumentException 图的定义有错误，比如引用了不存在的 vertex、有环、one-to-one 两边的任务数量不同、weight 不在 [0, 1] 之间
+	 */
+	public static TaskGraph parse( Configuration conf ) {
+		
+		String[] names = conf.getTrimmedStrings( VERTICES );
+		
+		if ( names.length == 0 ) {
+			
+			return null;
+		}
+		
+		Map<String, Vertex> byName = new LinkedHashMap<String, Vertex>();
+		
+		for ( String name : names ) {
+			
+			String prefix = VERTEX_PREFIX + name + ".";
+			
+			String command = conf.get( prefix + COMMAND );
+			
+			if ( command == null ) {
+				
+				throw new IllegalArgumentException( "No command for the vertex " + name );
+			}
+			
+			int tasks = conf.getInt( prefix + TASKS, 1 );
+			
+			if ( tasks <= 0 || byName.containsKey( name ) ) {
+				
+				throw new IllegalArgumentException( "Invalid vertex " + name + " with " + tasks + " tasks" );
+			}
+			
+			int memoryMb = conf.getInt( prefix + MEMORY_MB, -1 );
+			
+			Resource capability = memoryMb > 0 ? Resource.newInstance( memoryMb, conf.getInt( prefix + VCORES, 1 ) ) : null;
+			
+			int priority = conf.getInt( prefix + PRIORITY, 0 );
+			
+			float weight = conf.getFloat( prefix + WEIGHT, 1f );
+			
+			if ( priority < 0 || weight < 0 || weight > 1 ) {
+				
+				throw new IllegalArgumentException( "Invalid priority " + priority + " or weight " + weight + " of the vertex " + name );
+			}
+			
+			byName.put( name, new Vertex( name, command, tasks, capability, priority, weight ) );
+		}
+		
+		List<Edge> edges = new ArrayList<Edge>();
+		
+		for ( Vertex to : byName.values() ) {
+			
+			for ( String input : conf.getTrimmedStrings( VERTEX_PREFIX + to.name + "." + INPUTS ) ) {
+				
+				boolean oneToOne = input.endsWith( ONE_TO_ONE );
+				
+				String name = oneToOne ? input.substring( 0, input.length() - ONE_TO_ONE.length() ) : input;
+				
+				Vertex from = byName.get( name );
+				
+				if ( from == null || from == to ) {
+					
+					throw new IllegalArgumentException( "Unknown input " + input + " of the vertex " + to.name );
+				}
+				
+				if ( oneToOne && from.tasks != to.tasks ) {
+					
+					throw new IllegalArgumentException( "The one-to-one edge " + from + " -> " + to + " needs the same number of tasks" );
+				}
+				
+				edges.add( new Edge( from, to, oneToOne ) );
+			}
+		}
+		
+		return new TaskGraph( new ArrayList<Vertex>( byName.values() ), edges );
+	}
+	
+	/**
+	 * Kahn 算法；同一层的 vertex 保持配置中的顺序
+	 */
+	private static List<Vertex> sort( List<Vertex> vertices, List<Edge> edges ) {
+		
+		Map<Vertex, Integer> indegree = new HashMap<Vertex, Integer>();
+		
+		Map<Vertex, List<Vertex>> downstream = new HashMap<Vertex, List<Vertex>>();
+		
+		for ( Vertex vertex : vertices ) {
+			
+			indegree.put( vertex, 0 );
+			
+			downstream.put( vertex, new ArrayList<Vertex>() );
+		}
+		
+		for ( Edge edge : edges ) {
+			
+			indegree.put( edge.to, indegree.get( edge.to ) + 1 );
+			
+			downstream.get( edge.from ).add( edge.to );
+		}
+		
+		Deque<Vertex> roots = new ArrayDeque<Vertex>();
+		
+		for ( Vertex vertex : vertices ) {
+			
+			if ( indegree.get( vertex ) == 0 ) {
+				
+				roots.add( vertex );
+			}
+		}
+		
+		List<Vertex> sorted = new ArrayList<Vertex>( vertices.size() );
+		
+		while ( !roots.isEmpty() ) {
+			
+			Vertex vertex = roots.poll();
+			
+			sorted.add( vertex );
+			
+			for ( Vertex next : downstream.get( vertex ) ) {
+				
+				int remaining = indegree.get( next ) - 1;
+				
+				indegree.put( next, remaining );
+				
+				if ( remaining == 0 ) {
+					
+					roots.add( next );
+				}
+			}
+		}
+		
+		if ( sorted.size() != vertices.size() ) {
+			
+			throw new IllegalArgumentException( "The task graph has a cycle among " + vertices );
+		}
+		
+		return sorted;
+	}
+	
+	/**
+	 * 把配置的 Container 大小限制在集群允许的最大值以内，否则 RM 会拒绝请求
+	 */
+	public void cap( Resource max ) {
+		
+		for ( Vertex vertex : vertices ) {
+			
+			if ( vertex.capability != null ) {
+				
+				vertex.capability = Resource.newInstance( Math.min( vertex.capability.getMemorySize(), max.getMemorySize() ),
+														  Math.min( vertex.capability.getVirtualCores(), max.getVirtualCores() ) );
+			}
+		}
+	}
+	
+	/**
+	 *
+	 * @return 所有 vertex 的任务数量之和
+	 */
+	public int getSlots() {
+		
+		return slots;
+	}
+	
+	/**
+	 *
+	 * @return 按照拓扑顺序排列的 vertex
+	 */
+	public List<Vertex> getVertices() {
+		
+		return Collections.unmodifiableList( vertices );
+	}
+	
+	/**
+	 *
+	 * @return 按照排名排列的 vertex，最重要的在前面
+	 */
+	public List<Vertex> getRanked() {
+		
+		return Collections.unmodifiableList( ranked );
+	}
+	
+	public Vertex getVertex( int index ) {
+		
+		return vertices.get( index );
+	}
+	
+	public Vertex vertexOf( int slot ) {
+		
+		// vertex 的数量很少，直接遍历
+		for ( int i = vertices.size() - 1; i > 0; i-- ) {
+			
+			if ( slot >= vertices.get( i ).firstSlot ) {
+				
+				return vertices.get( i );
+			}
+		}
+		
+		return vertices.get( 0 );
+	}
+	
+	/**
+	 *
+	 * @return 该 slot 的所有输入是否都已经满足
+	 */
+	public synchronized boolean isReady( int slot ) {
+		
+		return blockers[slot] == 0;
+	}
+	
+	/**
+	 * 某个任务成功了
+	 *
+	 * @return 因此满足了所有输入、可以开始的下游任务
+	 */
+	public synchronized List<Integer> succeeded( int slot ) {
+		
+		if ( done[slot] ) {
+			
+			return Collections.emptyList();
+		}
+		
+		done[slot] = true;
+		
+		Vertex vertex = vertexOf( slot );
+		
+		List<Integer> ready = new ArrayList<Integer>();
+		
+		for ( Edge edge : outgoing.get( vertex.index ) ) {
+			
+			if ( edge.oneToOne ) {
+				
+				unblock( edge.to.firstSlot + slot - vertex.firstSlot, ready );
+			
+			} else if ( --edge.remaining == 0 ) {
+				
+				for ( int i = 0; i < edge.to.tasks; i++ ) {
+					
+					unblock( edge.to.firstSlot + i, ready );
+				}
+			}
+		}
+		
+		return ready;
+	}
+	
+	private void unblock( int slot, List<Integer> ready ) {
+		
+		if ( !done[slot] && --blockers[slot] == 0 ) {
+			
+			ready.add( slot );
+		}
+	}
+	
+	/**
+	 * 某个任务最终失败了
+	 *
+	 * @return 直接或者间接依赖它、不会再执行的下游任务
+	 */
+	public synchronized List<Integer> failed( int slot ) {
+		
+		List<Integer> skipped = new ArrayList<Integer>();
+		
+		if ( done[slot] ) {
+			
+			return skipped;
+		}
+		
+		done[slot] = true;
+		
+		Deque<Integer> queue = new ArrayDeque<Integer>();
+		
+		queue.add( slot );
+		
+		while ( !queue.isEmpty() ) {
+			
+			int failed = queue.poll();
+			
+			Vertex vertex = vertexOf( failed );
+			
+			for ( Edge edge : outgoing.get( vertex.index ) ) {
+				
+				int from = edge.oneToOne ? edge.to.firstSlot + failed - vertex.firstSlot : edge.to.firstSlot;
+				
+				int to = edge.oneToOne ? from + 1 : edge.to.firstSlot + edge.to.tasks;
+				
+				for ( int i = from; i < to; i++ ) {
+					
+					if ( !done[i] ) {
+						
+						done[i] = true;
+						
+						skipped.add( i );
+						
+						queue.add( i );
+					}
+				}
+			}
+		}
+		
+		return skipped;
+	}
+
+}
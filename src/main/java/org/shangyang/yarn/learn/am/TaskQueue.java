@@ -0,0 +1,275 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.shangyang.yarn.learn.task.TaskSpec;
+
+/**
+ * 
+ * Worker 模式下，由 AM 维护的任务队列；Worker 通过 TaskServer 从这里拉取任务。
+ * 
+ * 如果某个 Worker 在执行任务的过程中挂掉了，它手上的任务会被重新放回队列，交给其它的 Worker 执行。
+ * 
+ * 每个任务最终的结果写入 TaskCheckpoint；AM 重启以后，之前的 attempt 中已经结束的任务通过 restore 直接出队，不再执行。
+ * 
+ * @author 商洋
+ *
+ */
+public class TaskQueue {
+	
+	private static Log LOGGER = LogFactory.getLog(TaskQueue.class);
+	
+	/**
+	 * 当所有的任务都执行完毕以后回调
+	 */
+	public interface Listener {
+		
+		void onTasksDrained( TaskQueue queue );
+	}
+	
+	private final Queue<TaskSpec> pending = new ArrayDeque<TaskSpec>();
+	
+	/** taskId -> 正在执行该任务的 Worker **/
+	private final Map<Integer, String> running = new HashMap<Integer, String>();
+	
+	private final Map<Integer, TaskSpec> tasks = new HashMap<Integer, TaskSpec>();
+	
+	/** taskId -> 该任务已经失败的次数 **/
+	private final Map<Integer, Integer> failures = new HashMap<Integer, Integer>();
+	
+	/** 每个任务最多执行的次数，默认不重试 **/
+	private int maxAttempts = 1;
+	
+	private int succeeded = 0;
+	
+	private int failed = 0;
+	
+	private boolean drained = false;
+	
+	private Listener listener;
+	
+	private TaskCheckpoint checkpoint;
+	
+	public synchronized void setListener( Listener listener ) {
+		
+		this.listener = listener;
+	}
+	
+	public synchronized void setCheckpoint( TaskCheckpoint checkpoint ) {
+		
+		this.checkpoint = checkpoint;
+	}
+	
+	public synchronized void setMaxAttempts( int maxAttempts ) {
+		
+		this.maxAttempts = Math.max( 1, maxAttempts );
+	}
+	
+	public synchronized void add( TaskSpec task ) {
+		
+		tasks.put( task.getId(), task );
+		
+		pending.add( task );
+		
+		drained = false;
+	}
+	
+	/**
+	 * 
+	 * @return 分配给该 Worker 的任务，如果当前没有可分配的任务，返回 null
+	 */
+	public synchronized TaskSpec poll( String workerId ) {
+		
+		TaskSpec task = pending.poll();
+		
+		if ( task != null ) {
+			
+			running.put( task.getId(), workerId );
+		}
+		
+		return task;
+	}
+	
+	public void done( String workerId, int taskId, int exitCode ) {
+		
+		Listener notify = null;
+		
+		synchronized ( this ) {
+			
+			String owner = running.get( taskId );
+			
+			// 该任务已经被重新分配给其它 Worker 了，忽略这个过期的汇报
+			if ( owner == null || !owner.equals( workerId ) ) {
+				
+				LOGGER.warn("Ignore the stale report of task " + taskId + " from " + workerId );
+				
+				return;
+			}
+			
+			running.remove( taskId );
+			
+			if ( exitCode == 0 ) {
+				
+				succeeded++;
+				
+				checkpoint( taskId, true );
+				
+			} else {
+				
+				LOGGER.warn( String.format( "任务挂了 TaskID=%d Worker=%s ExitCode=%d", taskId, workerId, exitCode ) );
+				
+				Integer failure = failures.get( taskId );
+				
+				int attempts = failure == null ? 1 : failure + 1;
+				
+				failures.put( taskId, attempts );
+				
+				if ( attempts < maxAttempts ) {
+					
+					// 放到队尾重试，交给下一个来取任务的 Worker
+					pending.add( tasks.get( taskId ) );
+					
+				} else {
+					
+					failed++;
+					
+					checkpoint( taskId, false );
+				}
+			}
+			
+			if ( !drained && pending.isEmpty() && running.isEmpty() ) {
+				
+				drained = true;
+				
+				notify = listener;
+			}
+		}
+		
+		// 在锁外回调，避免 listener 中再回调 TaskQueue 造成死锁
+		if ( notify != null ) {
+			
+			notify.onTasksDrained( this );
+		}
+	}
+	
+	private void checkpoint( int taskId, boolean succeeded ) {
+		
+		if ( checkpoint != null ) {
+			
+			checkpoint.taskFinished( taskId, succeeded );
+		}
+	}
+	
+	/**
+	 * 把之前的 attempt 中已经结束的任务从队列中去掉，并且计入成功或者失败；在 Worker 开始拉取任务之前调用
+	 * 
+	 * @param finished taskId -> 是否成功
+	 * @return 被恢复的任务的数量
+	 */
+	public synchronized int restore( Map<Integer, Boolean> finished ) {
+		
+		int restored = 0;
+		
+		Iterator<TaskSpec> iterator = pending.iterator();
+		
+		while ( iterator.hasNext() ) {
+			
+			Boolean succeeded = finished.get( iterator.next().getId() );
+			
+			if ( succeeded == null ) {
+				
+				continue;
+			}
+			
+			iterator.remove();
+			
+			restored++;
+			
+			if ( succeeded ) {
+				
+				this.succeeded++;
+				
+			} else {
+				
+				failed++;
+			}
+		}
+		
+		// 所有的任务都已经结束了，Worker 不需要再启动；不回调 listener，由调用方直接处理
+		if ( !tasks.isEmpty() && pending.isEmpty() && running.isEmpty() ) {
+			
+			drained = true;
+		}
+		
+		return restored;
+	}
+	
+	/**
+	 * Worker 所在的 Container 结束了，把它手上还没有执行完的任务放回队列
+	 * 
+	 * @return 被重新放回队列的任务
+	 */
+	public synchronized List<TaskSpec> workerLost( String workerId ) {
+		
+		List<TaskSpec> requeued = new ArrayList<TaskSpec>();
+		
+		Iterator<Map.Entry<Integer, String>> iterator = running.entrySet().iterator();
+		
+		while ( iterator.hasNext() ) {
+			
+			Map.Entry<Integer, String> entry = iterator.next();
+			
+			if ( entry.getValue().equals( workerId ) ) {
+				
+				iterator.remove();
+				
+				TaskSpec task = tasks.get( entry.getKey() );
+				
+				pending.add( task );
+				
+				requeued.add( task );
+			}
+		}
+		
+		if ( !requeued.isEmpty() ) {
+			
+			LOGGER.warn("Worker " + workerId + " lost, requeued " + requeued );
+		}
+		
+		return requeued;
+	}
+	
+	public synchronized boolean isDrained() {
+		
+		return drained;
+	}
+	
+	public synchronized int getTotal() {
+		
+		return tasks.size();
+	}
+	
+	public synchronized int getPending() {
+		
+		return pending.size();
+	}
+	
+	public synchronized int getSucceeded() {
+		
+		return succeeded;
+	}
+	
+	public synchronized int getFailed() {
+		
+		return failed;
+	}
+	
+}
@@ -0,0 +1,191 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.ProtocolSignature;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.ipc.WritableRpcEngine;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.SecurityUtil;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.yarn.api.ApplicationConstants.Environment;
+import org.shangyang.yarn.learn.sizing.ResourceUsage;
+import org.shangyang.yarn.learn.sizing.UsageCollector;
+import org.shangyang.yarn.learn.task.TaskProtocol;
+import org.shangyang.yarn.learn.task.TaskSpec;
+import org.shangyang.yarn.learn.task.TaskTokenIdentifier;
+
+/**
+ * 
+ * 嵌入在 AM 中的轻量级任务服务，Worker Container 通过 Hadoop RPC 从这里拉取任务并汇报结果。
+ * 
+ * 一个任务的分发只是一次 RPC，是毫秒级的；而为每个任务单独申请、本地化、启动一个 Container 则是秒级的。
+ * 
+ * 只监听 AM 所在的 host；每个 Worker Container 启动的时候带上 AM 为它签发的 token（见 TaskTokenSecretManager），
+ * 即使集群没有开启 Kerberos，Hadoop RPC 也会用 token 做 SASL 认证；每次调用都要求调用者的 token 与它声称的 workerId 一致，
+ * 没有 token 的连接（SIMPLE）以及已经结束的 Container 都会被拒绝。
+ * 
+ * @author 商洋
+ *
+ */
+public class TaskServer implements TaskProtocol {
+	
+	private static Log LOGGER = LogFactory.getLog(TaskServer.class);
+	
+	public static final String HANDLERS = ApplicationMasterConfig.PREFIX + "task-server.handlers";
+	
+	public static final int DEFAULT_HANDLERS = 8;
+	
+	/** TaskServer 监听的 host，默认是 NodeManager 告诉 AM 的它自己所在的 host **/
+	public static final String BIND_HOST = ApplicationMasterConfig.PREFIX + "task-server.bind-host";
+	
+	private final TaskQueue taskQueue;
+	
+	private final UsageCollector usageCollector;
+	
+	private final TaskTokenSecretManager secretManager = new TaskTokenSecretManager();
+	
+	private final RPC.Server server;
+	
+	public TaskServer( Configuration conf, TaskQueue taskQueue, UsageCollector usageCollector ) throws IOException {
+		
+		this.taskQueue = taskQueue;
+		
+		this.usageCollector = usageCollector;
+		
+		RPC.setProtocolEngine( conf, TaskProtocol.class, WritableRpcEngine.class );
+		
+		this.server = new RPC.Builder( conf ).setProtocol( TaskProtocol.class )
+											 .setInstance( this )
+											 .setBindAddress( bindHost( conf ) )
+											 .setPort( 0 ) // 随机端口
+											 .setNumHandlers( conf.getInt( HANDLERS, DEFAULT_HANDLERS ) )
+											 .setSecretManager( secretManager )
+											 .build();
+	}
+	
+	private static String bindHost( Configuration conf ) throws IOException {
+		
+		String host = conf.get( BIND_HOST, System.getenv( Environment.NM_HOST.name() ) );
+		
+		return host != null ? host : InetAddress.getLocalHost().getCanonicalHostName();
+	}
+	
+	public void start() {
+		
+		server.start();
+		
+		LOGGER.info("Task server started at " + getConnectAddress() );
+	}
+	
+	public void stop() {
+		
+		server.stop();
+	}
+	
+	/**
+	 * 
+	 * @return Worker 可以连接的地址，host:port
+	 */
+	public String getConnectAddress() {
+		
+		InetSocketAddress address = NetUtils.getConnectAddress( server );
+		
+		return NetUtils.getHostPortString( address );
+	}
+	
+	/**
+	 * 为即将启动的 Worker Container 签发 token，它只能用来以该 Container 的身份调用 TaskServer
+	 */
+	public Token<TaskTokenIdentifier> createToken( String workerId ) {
+		
+		Token<TaskTokenIdentifier> token = secretManager.createToken( workerId );
+		
+		SecurityUtil.setTokenService( token, NetUtils.getConnectAddress( server ) );
+		
+		return token;
+	}
+	
+	/**
+	 * Worker Container 结束了，它的 token 不再有效
+	 */
+	public void retire( String workerId ) {
+		
+		secretManager.retire( workerId );
+	}
+	
+	/**
+	 * 调用者必须是通过 token 认证的、仍然在运行的这个 Worker
+	 */
+	private void authorize( String workerId ) throws AccessControlException {
+		
+		UserGroupInformation caller = Server.getRemoteUser();
+		
+		if ( caller != null && workerId != null && secretManager.isActive( workerId ) ) {
+			
+			for ( TokenIdentifier identifier : caller.getTokenIdentifiers() ) {
+				
+				if ( identifier instanceof TaskTokenIdentifier && workerId.equals( ( (TaskTokenIdentifier) identifier ).getWorkerId() ) ) {
+					
+					return;
+				}
+			}
+		}
+		
+		LOGGER.warn("Reject the call of " + caller + " from " + Server.getRemoteAddress() + " as worker " + workerId );
+		
+		throw new AccessControlException( caller + " is not authorized as worker " + workerId );
+	}
+
+	@Override
+	public TaskSpec nextTask( String workerId ) throws IOException {
+		
+		authorize( workerId );
+		
+		TaskSpec task = taskQueue.poll( workerId );
+		
+		if ( task == null ) {
+			
+			// 正常情况下 AM 会通过 NMClientAsync 停止 Worker；这里只是让那些在任务执行完毕以后才启动的 Worker 自己退出
+			return taskQueue.isDrained() ? TaskSpec.exitSpec() : TaskSpec.waitSpec();
+		}
+		
+		if ( LOGGER.isDebugEnabled() ) {
+			LOGGER.debug("Dispatch " + task + " to " + workerId );
+		}
+		
+		return task;
+	}
+
+	@Override
+	public void taskDone( String workerId, int taskId, int exitCode, ResourceUsage usage ) throws IOException {
+		
+		authorize( workerId );
+		
+		usageCollector.add( usage );
+		
+		taskQueue.done( workerId, taskId, exitCode );
+	}
+
+	@Override
+	public long getProtocolVersion( String protocol, long clientVersion ) throws IOException {
+		
+		return versionID;
+	}
+
+	@Override
+	public ProtocolSignature getProtocolSignature( String protocol, long clientVersion, int clientMethodsHash ) throws IOException {
+		
+		return ProtocolSignature.getProtocolSignature( this, protocol, clientVersion, clientMethodsHash );
+	}
+
+}
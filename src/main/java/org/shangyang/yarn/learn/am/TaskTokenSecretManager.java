@@ -0,0 +1,76 @@
+package org.shangyang.yarn.learn.am;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKey;
+
+import org.apache.hadoop.security.token.SecretManager;
+import org.apache.hadoop.security.token.Token;
+import org.shangyang.yarn.learn.task.TaskTokenIdentifier;
+
+/**
+ *
+ * 签发以及校验 Worker 连接 TaskServer 的 token；密钥在 AM 启动的时候随机生成，只保存在 AM 的内存中，
+ * 所以 AM 重启以后上一个 attempt 的 Worker 也连接不上来。
+ *
+ * 只有 AM 启动过并且还没有结束的 Container 的 token 才是有效的。
+ *
+ * @author 商洋
+ *
+ */
+public class TaskTokenSecretManager extends SecretManager<TaskTokenIdentifier> {
+	
+	private final SecretKey masterKey = generateSecret();
+	
+	private final Set<String> workers = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+	
+	/**
+	 *
+	 * @param workerId Worker 所在的 Container 的 ID
+	 */
+	public Token<TaskTokenIdentifier> createToken( String workerId ) {
+		
+		workers.add( workerId );
+		
+		return new Token<TaskTokenIdentifier>( new TaskTokenIdentifier( workerId ), this );
+	}
+	
+	/**
+	 * Container 结束以后，它的 token 不再有效
+	 */
+	public void retire( String workerId ) {
+		
+		workers.remove( workerId );
+	}
+	
+	public boolean isActive( String workerId ) {
+		
+		return workers.contains( workerId );
+	}
+	
+	@Override
+	protected byte[] createPassword( TaskTokenIdentifier identifier ) {
+		
+		return createPassword( identifier.getBytes(), masterKey );
+	}
+	
+	@Override
+	public byte[] retrievePassword( TaskTokenIdentifier identifier ) throws InvalidToken {
+		
+		if ( !isActive( identifier.getWorkerId() ) ) {
+			
+			throw new InvalidToken( "Worker " + identifier.getWorkerId() + " is not a running container of this application master" );
+		}
+		
+		return createPassword( identifier.getBytes(), masterKey );
+	}
+	
+	@Override
+	public TaskTokenIdentifier createIdentifier() {
+		
+		return new TaskTokenIdentifier();
+	}
+
+}
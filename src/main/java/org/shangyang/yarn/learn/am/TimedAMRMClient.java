@@ -0,0 +1,42 @@
+package org.shangyang.yarn.learn.am;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateResponse;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.impl.AMRMClientImpl;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+
+/**
+ * 
+ * 记录每一次 allocate 心跳的往返时间；AMRMClientAsync 的心跳线程会调用 allocate，所以这里测量的就是 AM 与 RM 之间心跳的耗时。
+ * 
+ * @author 商洋
+ *
+ */
+public class TimedAMRMClient extends AMRMClientImpl<AMRMClient.ContainerRequest> {
+	
+	private final ApplicationMasterMetrics metrics;
+	
+	public TimedAMRMClient( ApplicationMasterMetrics metrics ) {
+		
+		this.metrics = metrics;
+	}
+	
+	@Override
+	public AllocateResponse allocate( float progressIndicator ) throws YarnException, IOException {
+		
+		long start = System.nanoTime();
+		
+		try {
+			
+			return super.allocate( progressIndicator );
+			
+		} finally {
+			
+			metrics.getHeartbeatRoundTripMs().record( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+		}
+	}
+
+}
@@ -0,0 +1,280 @@
+package org.shangyang.yarn.learn.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.shangyang.yarn.learn.am.ApplicationMaster;
+
+/**
+ *
+ * 精简模式下 AM 的 CLASSPATH。
+ *
+ * 与 ApplicationClient.hadoopClassPath() 相比，
+ * 1) 能够在本地解析的 jar（包括 dir/* 通配符）展开成排好序的 jar 列表，放在最前面；只要 Client 与 NM 的 Hadoop 安装路径相同，
+ *    每次提交、每个 Node 上的 CLASSPATH 就是完全相同的，这也是 class-data-sharing 归档能够被复用的前提；
+ * 2) 去掉重复的以及不存在的条目，去掉 classpath-excludes 中列出的测试用的 jar（MiniYARNCluster 模式下 Client 的 java.class.path 里有很多）；
+ * 3) 去掉 Client 自己的 AM 的类所在的 jar 或者目录，AM 的 jar 通过 ./* 加载；
+ * 4) 目录（比如 HADOOP_CONF_DIR）以及本地无法解析的条目保持原样，放在 ./* 之后，由 NM 展开。
+ *
+ * @author 商洋
+ *
+ */
+public class AppMasterClassPath {
+	
+	/** 以逗号分隔，文件名中包含其中任意一个的 jar 不会出现在 AM 的 CLASSPATH 中 **/
+	public static final String EXCLUDES = ApplicationClient.PREFIX + "am.lean.classpath-excludes";
+	
+	public static final String DEFAULT_EXCLUDES = "junit,hamcrest,mockito,jmh-,-tests.jar";
+	
+	/** $VAR、${VAR} 以及 YARN 跨平台的 {{VAR}} **/
+	private static final Pattern VARIABLE = Pattern.compile( "\\$\\{?(\\w+)\\}?|\\{\\{(\\w+)\\}\\}" );
+	
+	private final List<String> jars;
+	
+	private final List<String> others;
+	
+	AppMasterClassPath( List<String> jars, List<String> others ) {
+		
+		this.jars = jars;
+		
+		this.others = others;
+	}
+	
+	/**
+	 *
+	 * @param env 用来解析条目中的环境变量，一般就是 Client 的 System.getenv()
+	 * @param appMasterJar 提交的 AM jar，Client 本地的同名副本不需要出现在 CLASSPATH 中
+	 */
+	public static AppMasterClassPath lean( Configuration conf, String appMasterJar, Map<String, String> env ) {
+		
+		List<String> entries = new ArrayList<String>();
+		
+		for ( String c : conf.getStrings( YarnConfiguration.YARN_APPLICATION_CLASSPATH, YarnConfiguration.DEFAULT_YARN_APPLICATION_CLASSPATH ) ) {
+			
+			entries.add( c.trim() );
+		}
+		
+		if ( conf.getBoolean( YarnConfiguration.IS_MINI_YARN_CLUSTER, false ) ) {
+			
+			entries.addAll( Arrays.asList( System.getProperty( "java.class.path" ).split( File.pathSeparator ) ) );
+		}
+		
+		Set<File> own = new LinkedHashSet<File>();
+		
+		if ( appMasterJar != null ) {
+			
+			own.add( canonical( new File( appMasterJar ) ) );
+		}
+		
+		File location = codeLocation();
+		
+		if ( location != null ) {
+			
+			own.add( location );
+		}
+		
+		return build( entries, Arrays.asList( conf.getTrimmedStrings( EXCLUDES, DEFAULT_EXCLUDES.split( "," ) ) ), own, env );
+	}
+	
+	static AppMasterClassPath build( List<String> entries, List<String> excludes, Set<File> own, Map<String, String> env ) {
+		
+		Set<String> jars = new LinkedHashSet<String>();
+		
+		Set<String> others = new LinkedHashSet<String>();
+		
+		for ( String entry : entries ) {
+			
+			if ( entry.isEmpty() ) {
+				
+				continue;
+			}
+			
+			String resolved = resolve( entry, env );
+			
+			if ( resolved == null ) {
+				
+				// 本地没有这个变量，交给 NM
+				others.add( entry );
+				
+				continue;
+			}
+			
+			if ( resolved.endsWith( "*" ) ) {
+				
+				File dir = new File( resolved.substring( 0, resolved.length() - 1 ) );
+				
+				File[] files = dir.listFiles();
+				
+				if ( files == null ) {
+					
+					others.add( entry );
+					
+					continue;
+				}
+				
+				Arrays.sort( files );
+				
+				for ( File file : files ) {
+					
+					if ( isJar( file ) ) {
+						
+						addJar( jars, file, excludes, own );
+					}
+				}
+				
+				continue;
+			}
+			
+			File file = new File( resolved );
+			
+			if ( file.isDirectory() ) {
+				
+				if ( !own.contains( canonical( file ) ) ) {
+					
+					others.add( entry );
+				}
+			
+			} else if ( isJar( file ) ) {
+				
+				addJar( jars, file, excludes, own );
+			
+			} else if ( !resolved.equals( entry ) ) {
+				
+				// 包含变量的条目在本地不存在，NM 上不一定也不存在
+				others.add( entry );
+			}
+		}
+		
+		return new AppMasterClassPath( new ArrayList<String>( jars ), new ArrayList<String>( others ) );
+	}
+	
+	private static void addJar( Set<String> jars, File file, List<String> excludes, Set<File> own ) {
+		
+		for ( String exclude : excludes ) {
+			
+			if ( !exclude.isEmpty() && file.getName().contains( exclude ) ) {
+				
+				return;
+			}
+		}
+		
+		File jar = canonical( file );
+		
+		if ( !own.contains( jar ) ) {
+			
+			jars.add( jar.getPath() );
+		}
+	}
+	
+	private static boolean isJar( File file ) {
+		
+		return file.isFile() && file.getName().toLowerCase().endsWith( ".jar" );
+	}
+	
+	/**
+	 *
+	 * @return 替换了所有变量的条目；有变量在 env 中不存在的时候返回 null
+	 */
+	static String resolve( String entry, Map<String, String> env ) {
+		
+		Matcher matcher = VARIABLE.matcher( entry );
+		
+		StringBuffer resolved = new StringBuffer();
+		
+		while ( matcher.find() ) {
+			
+			String value = env.get( matcher.group( 1 ) != null ? matcher.group( 1 ) : matcher.group( 2 ) );
+			
+			if ( value == null ) {
+				
+				return null;
+			}
+			
+			matcher.appendReplacement( resolved, Matcher.quoteReplacement( value ) );
+		}
+		
+		matcher.appendTail( resolved );
+		
+		return resolved.toString();
+	}
+	
+	private static File canonical( File file ) {
+		
+		try {
+			
+			return file.getCanonicalFile();
+		
+		} catch ( IOException e ) {
+			
+			return file.getAbsoluteFile();
+		}
+	}
+	
+	/**
+	 *
+	 * @return Client 本地 AM 的类所在的 jar 或者目录
+	 */
+	private static File codeLocation() {
+		
+		CodeSource source = ApplicationMaster.class.getProtectionDomain().getCodeSource();
+		
+		if ( source == null ) {
+			
+			return null;
+		}
+		
+		try {
+			
+			return canonical( new File( source.getLocation().toURI() ) );
+		
+		} catch ( URISyntaxException | IllegalArgumentException e ) {
+			
+			return null;
+		}
+	}
+	
+	/**
+	 *
+	 * @return 本地展开的 jar，按照在 CLASSPATH 中的顺序
+	 */
+	public List<String> getJars() {
+		
+		return Collections.unmodifiableList( jars );
+	}
+	
+	/**
+	 * 本地展开的 jar 在最前面，然后是 AM 自己的 jar（./*），最后是目录以及由 NM 展开的条目
+	 */
+	public String toClassPath() {
+		
+		StringBuilder classPath = new StringBuilder();
+		
+		for ( String jar : jars ) {
+			
+			classPath.append( jar ).append( File.pathSeparatorChar );
+		}
+		
+		classPath.append( "./*" );
+		
+		for ( String other : others ) {
+			
+			classPath.append( File.pathSeparatorChar ).append( other );
+		}
+		
+		return classPath.toString();
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.shangyang.yarn.learn.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+
+/**
+ *
+ * AM 的 JVM 参数，由 AM Container 的大小决定。
+ *
+ * 不指定 -Xmx 的时候 JVM 按照机器的物理内存（而不是 Container 的大小）决定最大的堆，堆一旦长大就会被 NM 以超过物理内存为由杀掉；
+ * 所以堆固定为 Container 内存的 heap-ratio，剩下的留给 metaspace、线程栈以及 direct buffer。
+ * 堆不超过 1GB 的时候使用 SerialGC，它的启动最快、占用最少；更大的堆使用 ParallelGC，GC 线程数与 Container 的 vcores 相同，
+ * 而不是机器的 CPU 个数。am.java-opts 追加在最后，可以覆盖这里的任何一项。
+ *
+ * @author 商洋
+ *
+ */
+public class AppMasterJvmOptions {
+	
+	/** 堆占 Container 内存的比例 **/
+	public static final String HEAP_RATIO = ApplicationClient.PREFIX + "am.heap-ratio";
+	
+	public static final float DEFAULT_HEAP_RATIO = 0.75f;
+	
+	/** 追加在自动生成的参数之后，以空白分隔 **/
+	public static final String JAVA_OPTS = ApplicationClient.PREFIX + "am.java-opts";
+	
+	private static final long MIN_HEAP_MB = 32;
+	
+	private static final long SERIAL_GC_MAX_HEAP_MB = 1024;
+	
+	/**
+	 * RM 把申请的内存向上取整到 minimum-allocation-mb 的整数倍，并且不超过集群的最大值；JVM 参数要按照实际得到的大小来算
+	 */
+	public static Resource granted( Configuration conf, Resource requested, Resource clusterMax ) {
+		
+		long step = Math.max( 1, conf.getInt( YarnConfiguration.RM_SCHEDULER_MINIMUM_ALLOCATION_MB, YarnConfiguration.DEFAULT_RM_SCHEDULER_MINIMUM_ALLOCATION_MB ) );
+		
+		long memory = ( requested.getMemorySize() + step - 1 ) / step * step;
+		
+		return Resource.newInstance( Math.min( memory, clusterMax.getMemorySize() ), Math.max( 1, requested.getVirtualCores() ) );
+	}
+	
+	public static List<String> options( Configuration conf, Resource granted ) {
+		
+		float ratio = conf.getFloat( HEAP_RATIO, DEFAULT_HEAP_RATIO );
+		
+		long heapMb = Math.max( MIN_HEAP_MB, (long) ( granted.getMemorySize() * Math.min( 1f, Math.max( 0f, ratio ) ) ) );
+		
+		List<String> options = new ArrayList<String>();
+		
+		// 初始堆与最大堆相同，启动的时候不会因为堆的扩张而触发 GC
+		options.add( "-Xms" + heapMb + "m" );
+		
+		options.add( "-Xmx" + heapMb + "m" );
+		
+		if ( heapMb <= SERIAL_GC_MAX_HEAP_MB ) {
+			
+			options.add( "-XX:+UseSerialGC" );
+		
+		} else {
+			
+			options.add( "-XX:+UseParallelGC" );
+			
+			options.add( "-XX:ParallelGCThreads=" + granted.getVirtualCores() );
+		}
+		
+		options.add( "-Djava.net.preferIPv4Stack=true" );
+		
+		String extra = conf.getTrimmed( JAVA_OPTS );
+		
+		if ( extra != null && !extra.isEmpty() ) {
+			
+			for ( String option : extra.split( "\\s+" ) ) {
+				
+				options.add( option );
+			}
+		}
+		
+		return options;
+	}
+
+}
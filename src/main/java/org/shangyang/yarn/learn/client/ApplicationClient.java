@@ -1,11 +1,14 @@
 package org.shangyang.yarn.learn.client;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.security.Credentials;
@@ -21,13 +24,33 @@ import org.apache.hadoop.yarn.exceptions.YarnException;
 import org.apache.hadoop.yarn.util.ConverterUtils;
 import org.apache.hadoop.yarn.util.Records;
 import org.shangyang.yarn.learn.am.ApplicationMaster;
+import org.shangyang.yarn.learn.am.ApplicationMasterConfig;
+import org.shangyang.yarn.learn.sizing.ContainerSizer;
+import org.shangyang.yarn.learn.sizing.UsageHistory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * 
@@ -38,6 +61,48 @@ import java.util.Map;
 public class ApplicationClient {
 
 	private static Log LOGGER = LogFactory.getLog( ApplicationClient.class );
+	
+	public static final String PREFIX = "learn.yarn.client.";
+	
+	/** 通过 ApplicationClient 提交的 Application 的类型，ApplicationMonitor 据此批量获取它们的状态 **/
+	public static final String APPLICATION_TYPE = "LEARN-YARN";
+	
+	/** 是否按照内容的 hash 缓存上传到 HDFS 上的 jar，相同内容的 jar 只上传一次 **/
+	public static final String STAGING_CACHE_ENABLED = PREFIX + "staging-cache.enabled";
+	
+	public static final boolean DEFAULT_STAGING_CACHE_ENABLED = true;
+	
+	/** submitAll 并行提交所使用的线程数 **/
+	public static final String SUBMIT_THREADS = PREFIX + "submit.threads";
+	
+	public static final int DEFAULT_SUBMIT_THREADS = 8;
+	
+	/** 精简的 AM：只包含 AM 的类的 jar（构建时的 -am.jar）、精简的 CLASSPATH 以及可选的 class-data-sharing 归档 **/
+	public static final String LEAN_ENABLED = PREFIX + "am.lean.enabled";
+	
+	public static final boolean DEFAULT_LEAN_ENABLED = false;
+	
+	/** AM 最多的 attempt 次数，不能超过 RM 的 yarn.resourcemanager.am.max-attempts **/
+	public static final String AM_MAX_ATTEMPTS = PREFIX + "am.max-attempts";
+	
+	public static final int DEFAULT_AM_MAX_ATTEMPTS = 2;
+	
+	/** AM 重启的时候保留正在运行的 Container，交给下一个 attempt 接管 **/
+	public static final String KEEP_CONTAINERS = PREFIX + "am.keep-containers";
+	
+	public static final boolean DEFAULT_KEEP_CONTAINERS = true;
+	
+	private static final FsPermission CACHE_DIR_PERMISSION = FsPermission.createImmutable( (short) Integer.parseInt("755", 8) );
+	
+	private static final FsPermission CACHE_FILE_PERMISSION = FsPermission.createImmutable( (short) Integer.parseInt("644", 8) );
+	
+	/** 交给 AM 的配置只有提交的用户自己能读 **/
+	private static final FsPermission CONF_DIR_PERMISSION = FsPermission.createImmutable( (short) Integer.parseInt("700", 8) );
+	
+	private static final FsPermission CONF_FILE_PERMISSION = FsPermission.createImmutable( (short) Integer.parseInt("600", 8) );
+	
+	/** 本项目所有的配置都以此开头 **/
+	private static final String LEARN_YARN_PREFIX = "learn.yarn.";
 
 	private final Configuration conf;
 
@@ -46,6 +111,29 @@ public class ApplicationClient {
 	private final YarnClient yarnClient;
 
 	private String appMasterJar;
+	
+	/** 本地文件 (路径, 长度, 修改时间) -> 内容的 hash，避免每次提交都重新计算 **/
+	private final Map<String, String> contentHashes = new ConcurrentHashMap<String, String>();
+	
+	private ApplicationMonitor monitor;
+	
+	private ExecutorService submitPool;
+	
+	/**
+	 * 下面这些与具体的 Application 无关，所有的提交共用一份，第一次使用的时候计算
+	 */
+	private volatile FileSystem sharedFs;
+	
+	private volatile String classPath;
+	
+	private volatile AppMasterClassPath leanClassPath;
+	
+	private File cdsArchive;
+	
+	private boolean cdsArchiveResolved = false;
+	
+	/** 内容的 hash -> 已经缓存在 HDFS 上的 jar **/
+	private final Map<String, LocalResource> stagedJars = new HashMap<String, LocalResource>();
 
 	/**
 	 * 初始化 Yarn Client；
@@ -72,6 +160,44 @@ public class ApplicationClient {
 		this.appMasterJar = appMasterJar;
 	}
 
+	/**
+	 * 使用默认的 ApplicationSpec 提交
+	 */
+	public ApplicationId submit() throws IOException, YarnException {
+		
+		return submit( new ApplicationSpec() );
+	}
+	
+	/**
+	 * 
+	 * 使用有限的线程池并行的提交多个 Application；FileSystem、CLASSPATH 以及缓存的 jar 在所有的提交之间共用，只计算一次。
+	 * delegation tokens 仍然每个 Application 单独获取，RM 在 Application 结束的时候会取消它的 tokens。
+	 * 
+	 * @param specs
+	 * @return 与 specs 一一对应的 ApplicationId
+	 */
+	public List<Future<ApplicationId>> submitAll( List<ApplicationSpec> specs ) {
+		
+		ExecutorService pool = submitPool();
+		
+		List<Future<ApplicationId>> futures = new ArrayList<Future<ApplicationId>>( specs.size() );
+		
+		for ( final ApplicationSpec spec : specs ) {
+			
+			futures.add( pool.submit( new Callable<ApplicationId>() {
+
+				@Override
+				public ApplicationId call() throws Exception {
+					
+					return submit( spec );
+				}
+				
+			}) );
+		}
+		
+		return futures;
+	}
+	
 	/**
 	 * 
 	 * 做了如下几件事情，
@@ -87,13 +213,14 @@ public class ApplicationClient {
 	 * 7. submit the Application Master
 	 * 
 	 * 
+	 * @param spec
 	 * @return
 	 * @throws IOException
 	 * @throws YarnException
 	 */
-	public ApplicationId submit() throws IOException, YarnException {
+	public ApplicationId submit( ApplicationSpec spec ) throws IOException, YarnException {
 
-		FileSystem fs = FileSystem.get( conf );
+		FileSystem fs = fileSystem();
 
 		YarnClientApplication app = yarnClient.createApplication();
 
@@ -104,30 +231,69 @@ public class ApplicationClient {
 
 		// 
 		ApplicationSubmissionContext appContext = app.getApplicationSubmissionContext();
+		
+		appContext.setApplicationType( APPLICATION_TYPE );
+		
+		appContext.setApplicationName( spec.getName() );
+		
+		if ( spec.getQueue() != null ) {
+			
+			appContext.setQueue( spec.getQueue() );
+		}
+		
+		appContext.setMaxAppAttempts( conf.getInt( AM_MAX_ATTEMPTS, DEFAULT_AM_MAX_ATTEMPTS ) );
+		
+		appContext.setKeepContainersAcrossApplicationAttempts( conf.getBoolean( KEEP_CONTAINERS, DEFAULT_KEEP_CONTAINERS ) );
 
 		// 定义 Container 所需的资源 -> am: Application Master
 		Resource amResource = Records.newRecord( Resource.class );
 		
 		// 单机，资源有限，合理配置
-		amResource.setMemorySize( Math.min( clusterMax.getMemorySize(), 256 ) );
+		amResource.setMemorySize( Math.min( clusterMax.getMemorySize(), spec.getAmMemoryMb() ) );
 
-		amResource.setVirtualCores( Math.min(clusterMax.getVirtualCores(), 1 ) );
+		amResource.setVirtualCores( Math.min(clusterMax.getVirtualCores(), spec.getAmVirtualCores() ) );
+		
+		// 没有显式指定的时候，根据 AM 历史上的资源使用情况来决定
+		if ( !spec.isAmResourceSet() && conf.getBoolean( ContainerSizer.ENABLED, ContainerSizer.DEFAULT_ENABLED ) ) {
+			
+			amResource = new ContainerSizer( conf, new UsageHistory( conf ) ).size( UsageHistory.AM_TYPE, amResource, clusterMax );
+		}
 
 		appContext.setResource( amResource );
 
 		// 初始化 Container 启动环境 Context
 		ContainerLaunchContext containerLaunchContext = Records.newRecord( ContainerLaunchContext.class );
 		
+		boolean lean = conf.getBoolean( LEAN_ENABLED, DEFAULT_LEAN_ENABLED );
+		
+		File appMasterJarFile = new File( lean ? leanAppMasterJar() : appMasterJar );
+		
+		// 堆以及 GC 由 RM 实际分配的 Container 大小决定
+		List<String> javaOptions = new ArrayList<String>( AppMasterJvmOptions.options( conf, AppMasterJvmOptions.granted( conf, amResource, clusterMax ) ) );
+		
+		// .. add the execution jars into the Container Context
+		Map<String, LocalResource> localResourceMap = new HashMap<String, LocalResource>();
+		
+		File archive = lean ? cdsArchive( appMasterJarFile ) : null;
+		
+		if ( archive != null ) {
+			
+			localResourceMap.put( ClassDataSharingArchive.ARCHIVE_NAME, toLocalResource( fs, appResponse.getApplicationId().toString(), archive ) );
+			
+			javaOptions.addAll( ClassDataSharingArchive.options() );
+		}
+		
 		// .. define execution commands, add it into the Container Context
 		StringBuilder cmd = new StringBuilder();
 
-		cmd.append( "\"" + ApplicationConstants.Environment.JAVA_HOME.$() + "/bin/java\"").append(" ").append( appMasterMainClass ).append(" ");
+		cmd.append( "\"" + ApplicationConstants.Environment.JAVA_HOME.$() + "/bin/java\"").append(" ");
 		
-		// 如果不是使用 MINI YARN CLUSTER，那么需要设置一个参数 debug，需要重新构造 Configuration
-		if (conf.getBoolean(YarnConfiguration.IS_MINI_YARN_CLUSTER, false)) {
+		for ( String option : javaOptions ) {
 			
-			cmd.append(" ").append("debug").append(" ");
+			cmd.append( option ).append(" ");
 		}
+		
+		cmd.append( appMasterMainClass ).append(" ");
 
 		/*
 		 * 1> 指标准信息输出路径（也就是默认的输出方式）
@@ -141,28 +307,173 @@ public class ApplicationClient {
 		
 		LOGGER.info( cmd.toString() );
 		
-		// .. add the execution jars into the Container Context
-		Map<String, LocalResource> localResourceMap = new HashMap<String, LocalResource>();
+		/** toLocalResource 方法，将 jar 文件放置在 HDFS 上， 并返回相关路径 **/
+		LocalResource appMasterJarResource = toLocalResource( fs, appResponse.getApplicationId().toString(), appMasterJarFile );
 		
-		File appMasterJarFile = new File( appMasterJar );
+		localResourceMap.put( appMasterJarFile.getName(), appMasterJarResource );
 		
-		/** toLocalResource 方法，将 jar 文件放置在 HDFS 上， 并返回相关路径 **/
-		localResourceMap.put( appMasterJarFile.getName(), toLocalResource( fs, appResponse.getApplicationId().toString(), appMasterJarFile ) );
+		// AM 需要 Client 上的 learn.yarn.* 的配置以及 RM 的地址（MiniYARNCluster 使用的是随机端口）
+		localResourceMap.put( ApplicationMasterConfig.CONF_FILE, toConfResource( fs, appResponse.getApplicationId().toString() ) );
 		
 		containerLaunchContext.setLocalResources( localResourceMap );
 		
 		// .. add the execution environments into the Container Context
 		Map<String, String> envMap = new HashMap<String, String>();
 		
-		envMap.put( "JAVA_HOME", "/Library/Java/JavaVirtualMachines/jdk1.7.0_79.jdk/Contents/Home" );
-		
-		envMap.put( "CLASSPATH", hadoopClassPath() );
+		envMap.put( "CLASSPATH", lean ? leanClassPath( appMasterJarFile ).toClassPath() : classPath() );
 		
 		envMap.put( "LANG", "en_US.UTF-8" );
 		
+		// 告诉 AM 它自己的 jar 在 HDFS 上的位置，Worker 模式下 AM 会把同一个 jar 分发给 Worker Container
+		try {
+			
+			envMap.put( ApplicationMasterConfig.ENV_AM_JAR, ConverterUtils.getPathFromYarnURL( appMasterJarResource.getResource() ).toString() );
+			
+		} catch ( URISyntaxException e ) {
+			
+			throw new IOException( e );
+		}
+		
+		envMap.put( ApplicationMasterConfig.ENV_AM_JAR_LENGTH, String.valueOf( appMasterJarResource.getSize() ) );
+		
+		envMap.put( ApplicationMasterConfig.ENV_AM_JAR_TIMESTAMP, String.valueOf( appMasterJarResource.getTimestamp() ) );
+		
+		envMap.put( ApplicationMasterConfig.ENV_AM_JAR_VISIBILITY, appMasterJarResource.getVisibility().name() );
+		
 		containerLaunchContext.setEnvironment( envMap );		
 
 		// .. add the security token into the Container Context
+		ByteBuffer tokens = amTokens( fs );
+		
+		if ( tokens != null ) {
+			
+			containerLaunchContext.setTokens( tokens );
+		}
+		
+		// Add
+		appContext.setAMContainerSpec( containerLaunchContext );
+
+		// Launch the application
+		return yarnClient.submitApplication( appContext );
+	}
+
+	public ApplicationReport getApplicationReport(ApplicationId appId) throws IOException, YarnException {
+		
+		return yarnClient.getApplicationReport(appId);
+	}
+	
+	/**
+	 * 
+	 * @return 所有 Application 共用的状态监控，第一次调用的时候创建
+	 */
+	public synchronized ApplicationMonitor getMonitor() {
+		
+		if ( monitor == null ) {
+			
+			monitor = new ApplicationMonitor( yarnClient, conf );
+		}
+		
+		return monitor;
+	}
+	
+	public synchronized void stop() {
+		
+		if ( monitor != null ) {
+			
+			monitor.stop();
+		}
+		
+		if ( submitPool != null ) {
+			
+			submitPool.shutdownNow();
+		}
+		
+		yarnClient.stop();
+	}
+
+	private FileSystem fileSystem() throws IOException {
+		
+		if ( sharedFs == null ) {
+			
+			sharedFs = FileSystem.get( conf );
+		}
+		
+		return sharedFs;
+	}
+	
+	private String classPath() {
+		
+		if ( classPath == null ) {
+			
+			classPath = hadoopClassPath();
+		}
+		
+		return classPath;
+	}
+	
+	private AppMasterClassPath leanClassPath( File appMasterJarFile ) {
+		
+		if ( leanClassPath == null ) {
+			
+			leanClassPath = AppMasterClassPath.lean( conf, appMasterJarFile.getPath(), System.getenv() );
+		}
+		
+		return leanClassPath;
+	}
+	
+	/**
+	 * 构建时与完整的 jar 放在一起的 -am.jar 只包含 AM 以及 Worker 的类，没有的时候仍然使用完整的 jar
+	 */
+	private String leanAppMasterJar() {
+		
+		if ( appMasterJar.endsWith( ".jar" ) ) {
+			
+			File lean = new File( appMasterJar.substring( 0, appMasterJar.length() - ".jar".length() ) + "-am.jar" );
+			
+			if ( lean.isFile() ) {
+				
+				return lean.getPath();
+			}
+		}
+		
+		return appMasterJar;
+	}
+	
+	/**
+	 * 
+	 * @return 本地的 class-data-sharing 归档，只构建一次；没有开启或者构建失败的时候返回 null，AM 照常启动
+	 */
+	private synchronized File cdsArchive( File appMasterJarFile ) {
+		
+		if ( cdsArchiveResolved ) {
+			
+			return cdsArchive;
+		}
+		
+		cdsArchiveResolved = true;
+		
+		if ( conf.getBoolean( ClassDataSharingArchive.ENABLED, ClassDataSharingArchive.DEFAULT_ENABLED ) ) {
+			
+			try {
+				
+				cdsArchive = new ClassDataSharingArchive( conf ).getOrBuild( leanClassPath( appMasterJarFile ).getJars(), appMasterJarFile );
+				
+			} catch ( IOException e ) {
+				
+				LOGGER.warn( "Failed to build the class data sharing archive, start the application master without it", e );
+			}
+		}
+		
+		return cdsArchive;
+	}
+	
+	/**
+	 * 每次提交都重新获取：RM 在 Application 结束的时候会取消它的 delegation tokens，共用的话其它 Application 手上的 tokens 也跟着失效了
+	 * 
+	 * @return 序列化以后的 delegation tokens，没有开启 security 的时候返回 null
+	 */
+	private ByteBuffer amTokens( FileSystem fs ) throws IOException {
+		
 		if (UserGroupInformation.isSecurityEnabled()) {
 			
 			String tokenRenewer = conf.get(YarnConfiguration.RM_PRINCIPAL);
@@ -188,19 +499,21 @@ public class ApplicationClient {
 			
 			credentials.writeTokenStorageToStream(dob);
 			
-			containerLaunchContext.setTokens(ByteBuffer.wrap(dob.getData(), 0, dob.getLength()));
+			return ByteBuffer.wrap(dob.getData(), 0, dob.getLength());
 		}
 		
-		// Add
-		appContext.setAMContainerSpec( containerLaunchContext );
-
-		// Launch the application
-		return yarnClient.submitApplication( appContext );
+		return null;
 	}
-
-	public ApplicationReport getApplicationReport(ApplicationId appId) throws IOException, YarnException {
+	
+	private synchronized ExecutorService submitPool() {
 		
-		return yarnClient.getApplicationReport(appId);
+		if ( submitPool == null ) {
+			
+			submitPool = Executors.newFixedThreadPool( Math.max( 1, conf.getInt( SUBMIT_THREADS, DEFAULT_SUBMIT_THREADS ) ), 
+													   new ThreadFactoryBuilder().setDaemon(true).setNameFormat("application-submitter-%d").build() );
+		}
+		
+		return submitPool;
 	}
 
 	protected String hadoopClassPath() {
@@ -238,6 +551,157 @@ public class ApplicationClient {
 		return dst;
 	}
 	
+	/**
+	 * 
+	 * 按照内容的 hash 将文件放置到 HDFS 的 .staging/cache/<hash>/ 目录下；如果相同内容的文件已经上传过，直接复用。
+	 * 
+	 * 因为路径和修改时间不再随着每次提交变化，NodeManager 也可以直接复用它已经本地化过的副本。
+	 * 
+	 * @return HDFS 上的文件
+	 * @throws IOException
+	 */
+	protected Path copyToHdfsCache(FileSystem fs, File srcFile) throws IOException {
+		
+		String hash = contentHash( srcFile );
+		
+		Path dir = new Path( fs.getHomeDirectory(), ".staging" + File.separator + "cache" + File.separator + hash );
+		
+		Path dst = new Path( dir, srcFile.getName() );
+		
+		if ( isCached( fs, dst, srcFile ) ) {
+			
+			LOGGER.info( "Reuse the staged " + dst );
+			
+			return dst;
+		}
+		
+		FileSystem.mkdirs( fs, dir, CACHE_DIR_PERMISSION );
+		
+		// 先写临时文件再 rename，避免并发提交的 Application 读到上传了一半的文件
+		Path tmp = new Path( dir, srcFile.getName() + "." + UUID.randomUUID() + ".tmp" );
+		
+		fs.copyFromLocalFile( new Path( srcFile.getPath() ), tmp );
+		
+		fs.setPermission( tmp, CACHE_FILE_PERMISSION );
+		
+		if ( !fs.rename( tmp, dst ) ) {
+			
+			// 其它的提交已经先一步上传了相同的内容
+			fs.delete( tmp, false );
+			
+			if ( !isCached( fs, dst, srcFile ) ) {
+				
+				throw new IOException( "Failed to stage " + srcFile + " to " + dst );
+			}
+		}
+		
+		LOGGER.info( "Staged " + srcFile + " to " + dst );
+		
+		return dst;
+	}
+	
+	/**
+	 * 
+	 * @return 之前上传的文件仍然存在，并且长度和修改时间与 LocalResource 中记录的一致
+	 */
+	private static boolean isStaged( FileSystem fs, LocalResource staged ) throws IOException {
+		
+		try {
+			
+			FileStatus stat = fs.getFileStatus( ConverterUtils.getPathFromYarnURL( staged.getResource() ) );
+			
+			return stat.getLen() == staged.getSize() && stat.getModificationTime() == staged.getTimestamp();
+			
+		} catch ( FileNotFoundException e ) {
+			
+			return false;
+			
+		} catch ( URISyntaxException e ) {
+			
+			throw new IOException( e );
+		}
+	}
+	
+	private static boolean isCached( FileSystem fs, Path dst, File srcFile ) throws IOException {
+		
+		try {
+			
+			return fs.getFileStatus( dst ).getLen() == srcFile.length();
+			
+		} catch ( FileNotFoundException e ) {
+			
+			return false;
+		}
+	}
+	
+	/**
+	 * 文件内容的 SHA-256，按照 (路径, 长度, 修改时间) 缓存在内存中
+	 */
+	protected String contentHash( File file ) throws IOException {
+		
+		String key = file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+		
+		String hash = contentHashes.get( key );
+		
+		if ( hash != null ) {
+			
+			return hash;
+		}
+		
+		MessageDigest digest;
+		
+		try {
+			
+			digest = MessageDigest.getInstance( "SHA-256" );
+			
+		} catch ( NoSuchAlgorithmException e ) {
+			
+			throw new IOException( e );
+		}
+		
+		try ( InputStream in = new FileInputStream( file ) ) {
+			
+			byte[] buffer = new byte[ 64 * 1024 ];
+			
+			int read;
+			
+			while ( ( read = in.read( buffer ) ) != -1 ) {
+				
+				digest.update( buffer, 0, read );
+			}
+		}
+		
+		hash = Hex.encodeHexString( digest.digest() );
+		
+		contentHashes.put( key, hash );
+		
+		return hash;
+	}
+	
+	/**
+	 * 只有当文件对所有人可读，并且所有的上级目录对所有人可执行的时候，NodeManager 才能以 PUBLIC 的方式在不同用户之间共享；
+	 * 否则使用 PRIVATE，同一个用户的 Application 之间依然可以共享 NodeManager 上的本地副本。
+	 */
+	protected static LocalResourceVisibility visibilityOf( FileSystem fs, Path file ) throws IOException {
+		
+		FileStatus status = fs.getFileStatus( file );
+		
+		if ( !status.getPermission().getOtherAction().implies( FsAction.READ ) ) {
+			
+			return LocalResourceVisibility.PRIVATE;
+		}
+		
+		for ( Path dir = file.getParent(); dir != null; dir = dir.getParent() ) {
+			
+			if ( !fs.getFileStatus( dir ).getPermission().getOtherAction().implies( FsAction.EXECUTE ) ) {
+				
+				return LocalResourceVisibility.PRIVATE;
+			}
+		}
+		
+		return LocalResourceVisibility.PUBLIC;
+	}
+	
 	/**
 	 * 
 	 * 将 jarFile 放置到 HDFS 上，然后将该文件封装成 LocalResource 并返回给 Container 使用
@@ -250,56 +714,122 @@ public class ApplicationClient {
 	 */
 	private LocalResource toLocalResource(FileSystem fs, String appId, File jarFile) throws IOException {
 		
-		Path hdfsFile = copyToHdfs(fs, appId, jarFile.getPath());
+		if ( !conf.getBoolean( STAGING_CACHE_ENABLED, DEFAULT_STAGING_CACHE_ENABLED ) ) {
+			
+			Path hdfsFile = copyToHdfs(fs, appId, jarFile.getPath());
+			
+			FileStatus stat = fs.getFileStatus(hdfsFile);
+			
+			return LocalResource.newInstance( ConverterUtils.getYarnUrlFromURI(hdfsFile.toUri()), LocalResourceType.FILE, LocalResourceVisibility.PRIVATE, stat.getLen(), stat.getModificationTime());
+		}
 		
-		FileStatus stat = fs.getFileStatus(hdfsFile);
+		String hash = contentHash( jarFile );
 		
-		return LocalResource.newInstance( ConverterUtils.getYarnUrlFromURI(hdfsFile.toUri()), LocalResourceType.FILE, LocalResourceVisibility.PRIVATE, stat.getLen(), stat.getModificationTime());
+		// 并行提交的时候，相同内容的 jar 只需要一个线程去检查和上传
+		synchronized ( stagedJars ) {
+			
+			LocalResource staged = stagedJars.get( hash );
+			
+			// 缓存的文件可能已经被清理或者覆盖了，NodeManager 本地化的时候发现修改时间不一致会拒绝启动 Container
+			if ( staged == null || !isStaged( fs, staged ) ) {
+				
+				Path hdfsFile = copyToHdfsCache( fs, jarFile );
+				
+				FileStatus stat = fs.getFileStatus(hdfsFile);
+				
+				staged = LocalResource.newInstance( ConverterUtils.getYarnUrlFromURI(hdfsFile.toUri()), LocalResourceType.FILE, visibilityOf( fs, hdfsFile ), stat.getLen(), stat.getModificationTime());
+				
+				stagedJars.put( hash, staged );
+			}
+			
+			return staged;
+		}
 	}
 
-	public static void main(String args[]) throws IOException, YarnException, InterruptedException {
+	/**
+	 * 把 AM 需要的那部分 Client 的 Configuration 写到该 Application 的 staging 目录下，只有这个 Application 使用；
+	 * 目录和文件只有提交的用户自己能读，NodeManager 以该用户的身份本地化
+	 */
+	private LocalResource toConfResource( FileSystem fs, String appId ) throws IOException {
 		
-		Configuration conf = new YarnConfiguration();
+		Path confDir = new Path( fs.getHomeDirectory(), ".staging" + Path.SEPARATOR + appId );
 		
-		ApplicationClient client = new ApplicationClient(conf);
+		// 目录可能已经在上传 jar 的时候以 755 创建了，这里统一收紧
+		FileSystem.mkdirs( fs, confDir, CONF_DIR_PERMISSION );
 		
-		ApplicationId applicationId = client.submit();
+		Path confFile = new Path( confDir, ApplicationMasterConfig.CONF_FILE );
 		
-		boolean outAccepted = false;
+		try ( FSDataOutputStream out = FileSystem.create( fs, confFile, CONF_FILE_PERMISSION ) ) {
+			
+			applicationMasterConf( conf ).writeXml( out );
+		}
+		
+		FileStatus stat = fs.getFileStatus( confFile );
 		
-		boolean outTrackingUrl = false;
+		return LocalResource.newInstance( ConverterUtils.getYarnUrlFromPath( confFile ), LocalResourceType.FILE, LocalResourceVisibility.APPLICATION, stat.getLen(), stat.getModificationTime() );
+	}
+
+	/**
+	 * Client 的配置中可能有各种密码、密钥以及凭证的路径，只挑出 AM 用得到的：learn.yarn.* 的配置、RM 的地址（包括 HA）以及默认的文件系统；
+	 * 其它的配置 AM 从 NodeManager 的 classpath 中读取
+	 */
+	static Configuration applicationMasterConf( Configuration conf ) {
 		
-		ApplicationReport report = client.getApplicationReport( applicationId );
+		Configuration shipped = new Configuration( false );
 		
-		while ( report.getYarnApplicationState() != YarnApplicationState.FINISHED ) {
+		for ( Map.Entry<String, String> entry : conf ) {
 			
-			report = client.getApplicationReport(applicationId);
+			String name = entry.getKey();
 			
-			if ( !outAccepted && report.getYarnApplicationState() == YarnApplicationState.ACCEPTED ) {
-				
-				LOGGER.info("Application is accepted use Queue=" + report.getQueue() + " applicationId=" + report.getApplicationId() );
-				
-				outAccepted = true;
+			boolean needed = name.startsWith( LEARN_YARN_PREFIX ) || name.equals( FileSystem.FS_DEFAULT_NAME_KEY );
+			
+			if ( name.startsWith( YarnConfiguration.RM_PREFIX ) ) {
 				
+				needed = name.contains( "address" ) || name.contains( "hostname" ) || name.startsWith( YarnConfiguration.RM_HA_PREFIX ) || name.equals( YarnConfiguration.RM_CLUSTER_ID );
 			}
 			
-			if ( !outTrackingUrl && report.getYarnApplicationState() == YarnApplicationState.RUNNING ) {
+			if ( needed ) {
 				
-				String trackingUrl = report.getTrackingUrl();
+				// 按照 Client 上的值展开 ${...}
+				shipped.set( name, conf.get( name ) );
+			}
+		}
+		
+		return shipped;
+	}
+
+	public static void main(String args[]) throws IOException, YarnException, InterruptedException, ExecutionException {
+		
+		Configuration conf = new YarnConfiguration();
+		
+		ApplicationClient client = new ApplicationClient(conf);
+		
+		ApplicationId applicationId = client.submit();
+		
+		// 状态变化的时候才会回调，Application 结束（FINISHED/FAILED/KILLED）的时候 Future 返回
+		ApplicationReport report = client.getMonitor().monitor( applicationId, new ApplicationMonitor.Listener() {
+			
+			@Override
+			public void onStateChanged( ApplicationReport report, YarnApplicationState previous ) {
 				
-				LOGGER.info("Master Tracking URL = " + trackingUrl);
+				if ( report.getYarnApplicationState() == YarnApplicationState.ACCEPTED ) {
+					
+					LOGGER.info("Application is accepted use Queue=" + report.getQueue() + " applicationId=" + report.getApplicationId() );
+				}
 				
-				outTrackingUrl = true;
+				if ( report.getYarnApplicationState() == YarnApplicationState.RUNNING ) {
+					
+					LOGGER.info("Master Tracking URL = " + report.getTrackingUrl() );
+				}
 				
+				LOGGER.info( String.format("%f %s", report.getProgress(), report.getYarnApplicationState() ) );
 			}
 			
-			LOGGER.info( String.format("%f %s", report.getProgress(), report.getYarnApplicationState() ) );
-			
-			Thread.sleep(1000);
-			
-		}
+		}).get();
 		
 		LOGGER.info( report.getFinalApplicationStatus() );
+		
+		client.stop();
 	}
 	
 }
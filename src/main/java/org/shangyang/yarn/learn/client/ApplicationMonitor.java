@@ -0,0 +1,360 @@
+package org.shangyang.yarn.learn.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.yarn.api.ApplicationClientProtocol;
+import org.apache.hadoop.yarn.api.protocolrecords.ApplicationsRequestScope;
+import org.apache.hadoop.yarn.api.protocolrecords.GetApplicationsRequest;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.client.ClientRMProxy;
+import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.apache.hadoop.yarn.exceptions.ApplicationNotFoundException;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 
+ * 异步的监控多个 Application 的状态，所有的 Application 共用一个调度线程。
+ * 
+ * 1) 刚提交的 Application 状态变化很快，使用最小的轮询间隔；状态没有变化的时候，轮询间隔逐步退避到最大间隔，长时间运行的 Application 不会频繁的请求 RM；
+ * 2) 同一时刻需要轮询的 Application 比较多的时候，通过一次 getApplications 批量的获取它们的状态，而不是每个 Application 一次 RPC；
+ *    批量获取只请求当前用户的、还没有结束的 LEARN-YARN Application，RM 保留的历史 Application 以及其他用户的 Application 不会被传输回来；
+ * 3) 状态发生变化的时候（ACCEPTED、RUNNING、FINISHED/FAILED/KILLED）回调 Listener，结束的时候完成对应的 Future。
+ * 
+ * @author 商洋
+ *
+ */
+public class ApplicationMonitor {
+	
+	private static Log LOGGER = LogFactory.getLog( ApplicationMonitor.class );
+	
+	public static final String MIN_INTERVAL_MS = ApplicationClient.PREFIX + "monitor.min-interval-ms";
+	
+	public static final long DEFAULT_MIN_INTERVAL_MS = 100;
+	
+	public static final String MAX_INTERVAL_MS = ApplicationClient.PREFIX + "monitor.max-interval-ms";
+	
+	public static final long DEFAULT_MAX_INTERVAL_MS = 5000;
+	
+	/** 同一时刻需要轮询的 Application 达到这个数量的时候，使用批量获取 **/
+	public static final String BULK_THRESHOLD = ApplicationClient.PREFIX + "monitor.bulk-threshold";
+	
+	public static final int DEFAULT_BULK_THRESHOLD = 4;
+	
+	private static final EnumSet<YarnApplicationState> FINAL_STATES = EnumSet.of( YarnApplicationState.FINISHED, YarnApplicationState.FAILED, YarnApplicationState.KILLED );
+	
+	private static final EnumSet<YarnApplicationState> ACTIVE_STATES = EnumSet.complementOf( FINAL_STATES );
+	
+	/**
+	 * Application 状态变化的回调，在监控线程中执行，不要在这里做耗时的操作
+	 */
+	public interface Listener {
+		
+		/**
+		 * 
+		 * @param report 最新的状态
+		 * @param previous 之前的状态，第一次获取到状态的时候为 null
+		 */
+		void onStateChanged( ApplicationReport report, YarnApplicationState previous );
+	}
+	
+	private final YarnClient yarnClient;
+	
+	private final Configuration conf;
+	
+	/** YarnClient 不能指定 ApplicationsRequestScope，批量获取直接使用 RM 的协议；第一次批量获取的时候创建 **/
+	private ApplicationClientProtocol rmClient;
+	
+	private final long minIntervalMs;
+	
+	private final long maxIntervalMs;
+	
+	private final int bulkThreshold;
+	
+	private final ConcurrentMap<ApplicationId, Tracked> tracked = new ConcurrentHashMap<ApplicationId, Tracked>();
+	
+	private final ScheduledExecutorService scheduler;
+	
+	private ScheduledFuture<?> nextTick;
+	
+	private long nextTickAt = Long.MAX_VALUE;
+	
+	public ApplicationMonitor( YarnClient yarnClient, Configuration conf ) {
+		
+		this.yarnClient = yarnClient;
+		
+		this.conf = conf;
+		
+		this.minIntervalMs = Math.max( 1, conf.getLong( MIN_INTERVAL_MS, DEFAULT_MIN_INTERVAL_MS ) );
+		
+		this.maxIntervalMs = Math.max( minIntervalMs, conf.getLong( MAX_INTERVAL_MS, DEFAULT_MAX_INTERVAL_MS ) );
+		
+		this.bulkThreshold = Math.max( 1, conf.getInt( BULK_THRESHOLD, DEFAULT_BULK_THRESHOLD ) );
+		
+		this.scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon(true).setNameFormat("application-monitor").build() );
+	}
+	
+	/**
+	 * 开始监控一个 Application
+	 * 
+	 * @return 当 Application 结束（FINISHED/FAILED/KILLED）的时候返回最终的状态
+	 */
+	public Future<ApplicationReport> monitor( ApplicationId applicationId, Listener listener ) {
+		
+		Tracked app = new Tracked( applicationId, listener, System.currentTimeMillis() );
+		
+		Tracked existing = tracked.putIfAbsent( applicationId, app );
+		
+		if ( existing != null ) {
+			
+			return existing.result;
+		}
+		
+		schedule( app.nextPollAt );
+		
+		return app.result;
+	}
+	
+	public void stop() {
+		
+		scheduler.shutdownNow();
+		
+		for ( Tracked app : tracked.values() ) {
+			
+			app.result.cancel( false );
+		}
+		
+		synchronized ( this ) {
+			
+			if ( rmClient != null ) {
+				
+				RPC.stopProxy( rmClient );
+				
+				rmClient = null;
+			}
+		}
+	}
+	
+	private synchronized ApplicationClientProtocol rmClient() throws IOException {
+		
+		if ( rmClient == null ) {
+			
+			rmClient = ClientRMProxy.createRMProxy( conf, ApplicationClientProtocol.class );
+		}
+		
+		return rmClient;
+	}
+	
+	private synchronized void schedule( long at ) {
+		
+		if ( nextTick != null && nextTickAt <= at ) {
+			
+			return;
+		}
+		
+		if ( nextTick != null ) {
+			
+			nextTick.cancel( false );
+		}
+		
+		nextTickAt = at;
+		
+		nextTick = scheduler.schedule( new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				tick();
+			}
+			
+		}, Math.max( 0, at - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+	}
+	
+	private void tick() {
+		
+		synchronized ( this ) {
+			
+			nextTick = null;
+			
+			nextTickAt = Long.MAX_VALUE;
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		List<Tracked> due = new ArrayList<Tracked>();
+		
+		for ( Tracked app : tracked.values() ) {
+			
+			if ( app.nextPollAt <= now ) {
+				
+				due.add( app );
+			}
+		}
+		
+		try {
+			
+			Map<ApplicationId, ApplicationReport> reports = fetch( due );
+			
+			for ( Tracked app : due ) {
+				
+				update( app, reports.get( app.applicationId ), now );
+			}
+			
+		} catch ( Throwable t ) {
+			
+			// 不能让异常中断监控，下一个周期重试
+			LOGGER.error( "Failed to fetch the application reports", t );
+			
+			for ( Tracked app : due ) {
+				
+				app.backoff( now );
+			}
+		}
+		
+		long next = Long.MAX_VALUE;
+		
+		for ( Tracked app : tracked.values() ) {
+			
+			next = Math.min( next, app.nextPollAt );
+		}
+		
+		if ( next != Long.MAX_VALUE ) {
+			
+			schedule( next );
+		}
+	}
+	
+	private Map<ApplicationId, ApplicationReport> fetch( List<Tracked> due ) throws IOException, YarnException {
+		
+		Map<ApplicationId, ApplicationReport> reports = new HashMap<ApplicationId, ApplicationReport>();
+		
+		if ( due.size() >= bulkThreshold ) {
+			
+			GetApplicationsRequest request = GetApplicationsRequest.newInstance( Collections.singleton( ApplicationClient.APPLICATION_TYPE ), ACTIVE_STATES );
+			
+			request.setScope( ApplicationsRequestScope.OWN );
+			
+			for ( ApplicationReport report : rmClient().getApplications( request ).getApplicationList() ) {
+				
+				reports.put( report.getApplicationId(), report );
+			}
+		}
+		
+		// 批量获取中没有的（刚刚结束的，或者不是通过 ApplicationClient 提交的），单独获取
+		for ( Tracked app : due ) {
+			
+			if ( !reports.containsKey( app.applicationId ) ) {
+				
+				try {
+					
+					reports.put( app.applicationId, yarnClient.getApplicationReport( app.applicationId ) );
+					
+				} catch ( ApplicationNotFoundException e ) {
+					
+					LOGGER.warn( "Application " + app.applicationId + " is not known by the Resource Manager, stop monitoring it" );
+					
+					tracked.remove( app.applicationId );
+					
+					app.result.setException( e );
+				}
+			}
+		}
+		
+		return reports;
+	}
+	
+	private void update( Tracked app, ApplicationReport report, long now ) {
+		
+		if ( report == null ) {
+			
+			return;
+		}
+		
+		YarnApplicationState state = report.getYarnApplicationState();
+		
+		if ( state == app.state ) {
+			
+			app.backoff( now );
+			
+			return;
+		}
+		
+		YarnApplicationState previous = app.state;
+		
+		app.state = state;
+		
+		// 状态刚发生变化的时候，下一次变化往往很快就会到来
+		app.intervalMs = minIntervalMs;
+		
+		app.nextPollAt = now + minIntervalMs;
+		
+		try {
+			
+			app.listener.onStateChanged( report, previous );
+			
+		} catch ( Throwable t ) {
+			
+			LOGGER.error( "Listener failed for " + app.applicationId, t );
+		}
+		
+		if ( FINAL_STATES.contains( state ) ) {
+			
+			tracked.remove( app.applicationId );
+			
+			app.result.set( report );
+		}
+	}
+	
+	private class Tracked {
+		
+		final ApplicationId applicationId;
+		
+		final Listener listener;
+		
+		final SettableFuture<ApplicationReport> result = SettableFuture.create();
+		
+		YarnApplicationState state;
+		
+		long intervalMs = minIntervalMs;
+		
+		long nextPollAt;
+		
+		Tracked( ApplicationId applicationId, Listener listener, long now ) {
+			
+			this.applicationId = applicationId;
+			
+			this.listener = listener;
+			
+			this.nextPollAt = now;
+		}
+		
+		void backoff( long now ) {
+			
+			intervalMs = Math.min( intervalMs * 2, maxIntervalMs );
+			
+			nextPollAt = now + intervalMs;
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.shangyang.yarn.learn.client;
+
+/**
+ * 
+ * 描述一个需要提交的 Application，用于 ApplicationClient#submitAll 批量提交。
+ * 
+ * @author 商洋
+ *
+ */
+public class ApplicationSpec {
+	
+	private String name = "learn-yarn";
+	
+	private String queue;
+	
+	private long amMemoryMb = 256;
+	
+	private int amVirtualCores = 1;
+	
+	/** 没有显式设置 AM 的资源时，根据 AM 历史上的资源使用情况来决定 **/
+	private boolean amResourceSet = false;
+	
+	public String getName() {
+		
+		return name;
+	}
+
+	public void setName( String name ) {
+		
+		this.name = name;
+	}
+
+	/**
+	 * 
+	 * @return 提交到哪个队列，null 表示使用默认的队列
+	 */
+	public String getQueue() {
+		
+		return queue;
+	}
+
+	public void setQueue( String queue ) {
+		
+		this.queue = queue;
+	}
+
+	public long getAmMemoryMb() {
+		
+		return amMemoryMb;
+	}
+
+	public void setAmMemoryMb( long amMemoryMb ) {
+		
+		this.amMemoryMb = amMemoryMb;
+		
+		this.amResourceSet = true;
+	}
+
+	public int getAmVirtualCores() {
+		
+		return amVirtualCores;
+	}
+
+	public void setAmVirtualCores( int amVirtualCores ) {
+		
+		this.amVirtualCores = amVirtualCores;
+		
+		this.amResourceSet = true;
+	}
+	
+	/**
+	 * 
+	 * @return 是否显式的设置过 AM 的内存或者 CPU
+	 */
+	public boolean isAmResourceSet() {
+		
+		return amResourceSet;
+	}
+	
+}
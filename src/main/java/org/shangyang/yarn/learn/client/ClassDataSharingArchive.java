@@ -0,0 +1,222 @@
+package org.shangyang.yarn.learn.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.StringUtils;
+import org.shangyang.yarn.learn.am.ClassDataSharingWarmUp;
+
+/**
+ *
+ * AM 的 class-data-sharing（AppCDS）归档：JDK 以及 Hadoop 的类预先解析好放在归档中，AM 启动的时候直接映射进内存，不再从 jar 中解析。
+ *
+ * 归档在 Client 本地用当前的 JVM 构建一次（需要 JDK 10 及以上），
+ * 1) 在 -XX:DumpLoadedClassList 下运行 ClassDataSharingWarmUp，得到 AM 启动时加载的类；
+ * 2) -Xshare:dump 把这些类写进归档，-cp 只包含 AppMasterClassPath 中本地展开的 jar；
+ * 按照 (JVM, jar 的路径、长度、修改时间) 缓存在 cds.dir 下，之后的提交以及其它的 Client 进程直接复用；
+ * 再由 ApplicationClient 像 AM 的 jar 一样按内容缓存在 HDFS 上，以 PUBLIC 的方式在 NM 上本地化一次。
+ *
+ * JVM 只有在运行时的 CLASSPATH 以构建时的 -cp 开头、并且这些 jar 的长度和修改时间都没有变化的时候才会使用归档，
+ * 所以 AppMasterClassPath 把展开的 jar 放在 CLASSPATH 的最前面；Node 的 JDK 或者 Hadoop 的安装与 Client 不一致的时候，
+ * -Xshare:auto 让 JVM 忽略归档，照常启动，只是没有加速。
+ *
+ * @author 商洋
+ *
+ */
+public class ClassDataSharingArchive {
+	
+	private static Log LOGGER = LogFactory.getLog( ClassDataSharingArchive.class );
+	
+	public static final String ENABLED = ApplicationClient.PREFIX + "am.cds.enabled";
+	
+	public static final boolean DEFAULT_ENABLED = false;
+	
+	/** 本地缓存归档的目录，默认是 ~/.learn-yarn/cds **/
+	public static final String DIR = ApplicationClient.PREFIX + "am.cds.dir";
+	
+	/** 归档在 AM Container 工作目录中的名字 **/
+	public static final String ARCHIVE_NAME = "learn-yarn-am.jsa";
+	
+	private static final int MIN_JAVA_VERSION = 10;
+	
+	private final File dir;
+	
+	private final String java;
+	
+	public ClassDataSharingArchive( Configuration conf ) {
+		
+		String configured = conf.get( DIR );
+		
+		this.dir = configured != null ? new File( configured ) : new File( System.getProperty( "user.home" ), ".learn-yarn" + File.separator + "cds" );
+		
+		this.java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+	}
+	
+	/**
+	 *
+	 * @param jars AM 的 CLASSPATH 中本地展开的 jar
+	 * @param appMasterJar 包含 ClassDataSharingWarmUp 的 AM jar，只在生成类列表的时候使用
+	 * @return 本地的归档；当前的 JVM 不支持的时候返回 null
+	 */
+	public File getOrBuild( List<String> jars, File appMasterJar ) throws IOException {
+		
+		if ( javaVersion( System.getProperty( "java.specification.version" ) ) < MIN_JAVA_VERSION ) {
+			
+			LOGGER.warn( "Class data sharing of the application classes needs Java " + MIN_JAVA_VERSION + "+, the client runs " + System.getProperty( "java.version" ) );
+			
+			return null;
+		}
+		
+		if ( jars.isEmpty() ) {
+			
+			LOGGER.warn( "No jar of the application master classpath can be resolved locally, skip the class data sharing archive" );
+			
+			return null;
+		}
+		
+		File archive = new File( dir, key( jars, appMasterJar ) + ".jsa" );
+		
+		if ( archive.isFile() ) {
+			
+			return archive;
+		}
+		
+		if ( !dir.isDirectory() && !dir.mkdirs() ) {
+			
+			throw new IOException( "Failed to create " + dir );
+		}
+		
+		String base = archive.getName() + "." + System.nanoTime();
+		
+		File classList = new File( dir, base + ".classlist" );
+		
+		File tmp = new File( dir, base + ".tmp" );
+		
+		File log = new File( dir, base + ".log" );
+		
+		try {
+			
+			List<String> warmUpClassPath = new ArrayList<String>( jars );
+			
+			warmUpClassPath.add( appMasterJar.getPath() );
+			
+			run( Arrays.asList( java, "-Xshare:off", "-XX:DumpLoadedClassList=" + classList.getPath(),
+								"-cp", StringUtils.join( File.pathSeparator, warmUpClassPath ), ClassDataSharingWarmUp.class.getName() ), log );
+			
+			run( Arrays.asList( java, "-Xshare:dump", "-XX:SharedClassListFile=" + classList.getPath(), "-XX:SharedArchiveFile=" + tmp.getPath(),
+								"-cp", StringUtils.join( File.pathSeparator, jars ) ), log );
+			
+			// 并发构建的时候后完成的直接覆盖，内容是一样的
+			if ( !tmp.renameTo( archive ) && !archive.isFile() ) {
+				
+				throw new IOException( "Failed to rename " + tmp + " to " + archive );
+			}
+			
+			LOGGER.info( "Built the class data sharing archive " + archive + " (" + archive.length() + " bytes)" );
+			
+			log.delete();
+			
+			return archive;
+		
+		} finally {
+			
+			classList.delete();
+			
+			tmp.delete();
+		}
+	}
+	
+	private void run( List<String> command, File log ) throws IOException {
+		
+		ProcessBuilder builder = new ProcessBuilder( command ).redirectErrorStream( true ).redirectOutput( ProcessBuilder.Redirect.appendTo( log ) );
+		
+		try {
+			
+			int exitCode = builder.start().waitFor();
+			
+			if ( exitCode != 0 ) {
+				
+				throw new IOException( StringUtils.join( " ", command ) + " exited with " + exitCode + ", see " + log );
+			}
+		
+		} catch ( InterruptedException e ) {
+			
+			Thread.currentThread().interrupt();
+			
+			throw new IOException( e );
+		}
+	}
+	
+	/**
+	 * 归档只对构建它的 JVM 以及完全相同的 jar 有效
+	 */
+	private String key( List<String> jars, File appMasterJar ) throws IOException {
+		
+		MessageDigest digest;
+		
+		try {
+			
+			digest = MessageDigest.getInstance( "SHA-256" );
+		
+		} catch ( NoSuchAlgorithmException e ) {
+			
+			throw new IOException( e );
+		}
+		
+		StringBuilder identity = new StringBuilder( java ).append( '\n' ).append( System.getProperty( "java.vm.version" ) ).append( '\n' );
+		
+		List<File> files = new ArrayList<File>();
+		
+		for ( String jar : jars ) {
+			
+			files.add( new File( jar ) );
+		}
+		
+		files.add( appMasterJar );
+		
+		for ( File file : files ) {
+			
+			identity.append( file.getPath() ).append( ':' ).append( file.length() ).append( ':' ).append( file.lastModified() ).append( '\n' );
+		}
+		
+		return Hex.encodeHexString( digest.digest( identity.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+	}
+	
+	/**
+	 *
+	 * @return 1.8 -> 8，11 -> 11
+	 */
+	static int javaVersion( String specification ) {
+		
+		String[] parts = specification.split( "\\." );
+		
+		try {
+			
+			return Integer.parseInt( parts[0].equals( "1" ) && parts.length > 1 ? parts[1] : parts[0] );
+		
+		} catch ( NumberFormatException e ) {
+			
+			return 0;
+		}
+	}
+	
+	/**
+	 *
+	 * @return 使用归档的 JVM 参数；归档不可用的时候 JVM 照常启动
+	 */
+	public static List<String> options() {
+		
+		return Arrays.asList( "-Xshare:auto", "-XX:SharedArchiveFile=" + ARCHIVE_NAME );
+	}
+
+}
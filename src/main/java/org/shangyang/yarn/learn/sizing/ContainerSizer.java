@@ -0,0 +1,139 @@
+package org.shangyang.yarn.learn.sizing;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Resource;
+
+/**
+ * 
+ * 根据 UsageHistory 中同类任务的历史资源使用情况来决定 Container 的大小：取某个分位数，再加上一定比例的余量。
+ * 
+ * 1) 没有历史或者样本不够的时候，使用调用方给出的默认大小；
+ * 2) 内存和 CPU 分别计算，某一项没有已知的样本时，该项使用默认值；
+ * 3) 结果不会超过集群允许的最大值。
+ * 
+ * @author 商洋
+ *
+ */
+public class ContainerSizer {
+	
+	private static Log LOGGER = LogFactory.getLog(ContainerSizer.class);
+	
+	public static final String ENABLED = UsageHistory.PREFIX + "enabled";
+	
+	public static final boolean DEFAULT_ENABLED = true;
+	
+	public static final String PERCENTILE = UsageHistory.PREFIX + "percentile";
+	
+	public static final float DEFAULT_PERCENTILE = 95f;
+	
+	/** 在分位数的基础上增加的比例 **/
+	public static final String HEADROOM = UsageHistory.PREFIX + "headroom";
+	
+	public static final float DEFAULT_HEADROOM = 0.2f;
+	
+	public static final String MIN_SAMPLES = UsageHistory.PREFIX + "min-samples";
+	
+	public static final int DEFAULT_MIN_SAMPLES = 1;
+	
+	private final UsageHistory history;
+	
+	private final float percentile;
+	
+	private final float headroom;
+	
+	private final int minSamples;
+	
+	public ContainerSizer( Configuration conf, UsageHistory history ) {
+		
+		this.history = history;
+		
+		this.percentile = Math.min( 100f, Math.max( 0f, conf.getFloat( PERCENTILE, DEFAULT_PERCENTILE ) ) );
+		
+		this.headroom = Math.max( 0f, conf.getFloat( HEADROOM, DEFAULT_HEADROOM ) );
+		
+		this.minSamples = Math.max( 1, conf.getInt( MIN_SAMPLES, DEFAULT_MIN_SAMPLES ) );
+	}
+	
+	/**
+	 * 读取历史失败的时候不影响提交，直接使用默认大小
+	 * 
+	 * @param type 任务类型
+	 * @param fallback 没有历史时使用的大小
+	 * @param max 集群允许的最大值
+	 */
+	public Resource size( String type, Resource fallback, Resource max ) {
+		
+		List<ResourceUsage> samples;
+		
+		try {
+			
+			samples = history.load( type );
+			
+		} catch ( IOException e ) {
+			
+			LOGGER.warn("Failed to load the usage history of " + type + ", use the default size " + fallback, e );
+			
+			samples = Collections.emptyList();
+		}
+		
+		Resource sized = size( samples, fallback, max );
+		
+		LOGGER.info("Size " + type + " to " + sized + " from " + samples.size() + " history samples");
+		
+		return sized;
+	}
+	
+	Resource size( List<ResourceUsage> samples, Resource fallback, Resource max ) {
+		
+		int[] memory = known( samples, true );
+		
+		int[] cpu = known( samples, false );
+		
+		long memoryMb = memory.length >= minSamples ? (long) Math.ceil( percentile( memory, percentile ) * ( 1 + headroom ) ) : fallback.getMemorySize();
+		
+		int vcores = cpu.length >= minSamples ? (int) Math.ceil( percentile( cpu, percentile ) * ( 1 + headroom ) / 1000 ) : fallback.getVirtualCores();
+		
+		return Resource.newInstance( Math.max( 1, Math.min( memoryMb, max.getMemorySize() ) ), Math.max( 1, Math.min( vcores, max.getVirtualCores() ) ) );
+	}
+	
+	private static int[] known( List<ResourceUsage> samples, boolean memory ) {
+		
+		int[] values = new int[ samples.size() ];
+		
+		int count = 0;
+		
+		for ( ResourceUsage sample : samples ) {
+			
+			int value = memory ? sample.getPeakMemoryMb() : sample.getMilliVcores();
+			
+			if ( value != ResourceUsage.UNKNOWN ) {
+				
+				values[ count++ ] = value;
+			}
+		}
+		
+		return Arrays.copyOf( values, count );
+	}
+	
+	/**
+	 * nearest-rank 分位数
+	 */
+	static int percentile( int[] values, float percentile ) {
+		
+		int[] sorted = values.clone();
+		
+		Arrays.sort( sorted );
+		
+		int rank = (int) Math.ceil( percentile / 100 * sorted.length );
+		
+		return sorted[ Math.min( sorted.length - 1, Math.max( 0, rank - 1 ) ) ];
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.shangyang.yarn.learn.sizing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.yarn.util.ProcfsBasedProcessTree;
+
+/**
+ * 
+ * 读取当前进程的资源使用情况，依赖于 Linux 的 /proc；在其它平台上返回未知。
+ * 
+ * @author 商洋
+ *
+ */
+public class ProcessUsage {
+	
+	private ProcessUsage() {
+		
+	}
+	
+	/**
+	 * 
+	 * @return 当前进程的 pid，无法获取的时候返回 null
+	 */
+	public static String selfPid() {
+		
+		try {
+			
+			return new File( "/proc/self" ).getCanonicalFile().getName();
+			
+		} catch ( IOException e ) {
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * 
+	 * @return 以当前进程为根的进程树，/proc 不可用的时候返回 null
+	 */
+	public static ProcfsBasedProcessTree selfTree() {
+		
+		String pid = selfPid();
+		
+		return pid == null || !ProcfsBasedProcessTree.isAvailable() ? null : new ProcfsBasedProcessTree( pid );
+	}
+	
+	/**
+	 * 当前进程从启动到现在的资源使用情况，内存取 /proc/self/status 中的 VmHWM（物理内存的峰值）
+	 * 
+	 * @param wallMillis 进程已经运行的时间
+	 */
+	public static ResourceUsage self( long wallMillis ) {
+		
+		long cpuMillis = ResourceUsage.UNKNOWN;
+		
+		ProcfsBasedProcessTree tree = selfTree();
+		
+		if ( tree != null ) {
+			
+			tree.updateProcessTree();
+			
+			cpuMillis = tree.getCumulativeCpuTime();
+		}
+		
+		return ResourceUsage.of( peakRssBytes(), cpuMillis, wallMillis );
+	}
+	
+	private static long peakRssBytes() {
+		
+		File status = new File( "/proc/self/status" );
+		
+		if ( !status.exists() ) {
+			
+			return ResourceUsage.UNKNOWN;
+		}
+		
+		try ( BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( status ), StandardCharsets.UTF_8 ) ) ) {
+			
+			String line;
+			
+			while ( ( line = reader.readLine() ) != null ) {
+				
+				// VmHWM:	  123456 kB
+				if ( line.startsWith( "VmHWM:" ) ) {
+					
+					return Long.parseLong( line.substring( 6 ).replace( "kB", "" ).trim() ) * 1024;
+				}
+			}
+			
+		} catch ( IOException | NumberFormatException e ) {
+			
+			// 取不到就当作未知
+		}
+		
+		return ResourceUsage.UNKNOWN;
+	}
+
+}
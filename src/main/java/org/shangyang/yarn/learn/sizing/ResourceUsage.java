@@ -0,0 +1,124 @@
+package org.shangyang.yarn.learn.sizing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * 
+ * 一次执行所使用的资源：内存的峰值以及平均使用的 CPU 核数；未知的值为 UNKNOWN。
+ * 
+ * @author 商洋
+ *
+ */
+public class ResourceUsage implements Writable {
+	
+	public static final int UNKNOWN = -1;
+	
+	/** NM 因为物理内存超限杀掉 Container 时的 diagnostics，例如 "Current usage: 135.5 MB of 128 MB physical memory used" **/
+	private static final Pattern PHYSICAL_MEMORY_USAGE = Pattern.compile( "Current usage: ([0-9.]+) ([KMGT]?B) of [0-9.]+ [KMGT]?B physical memory used" );
+	
+	private int peakMemoryMb = UNKNOWN;
+	
+	private int milliVcores = UNKNOWN;
+	
+	public ResourceUsage() {
+		
+	}
+	
+	public ResourceUsage( int peakMemoryMb, int milliVcores ) {
+		
+		this.peakMemoryMb = peakMemoryMb;
+		
+		this.milliVcores = milliVcores;
+	}
+	
+	/**
+	 * 
+	 * @param peakMemoryBytes 内存的峰值，小于 0 表示未知
+	 * @param cpuMillis 占用的 CPU 时间，小于 0 表示未知
+	 * @param wallMillis 经过的时间
+	 */
+	public static ResourceUsage of( long peakMemoryBytes, long cpuMillis, long wallMillis ) {
+		
+		int memory = peakMemoryBytes < 0 ? UNKNOWN : (int) Math.max( 1, ( peakMemoryBytes + ( 1 << 20 ) - 1 ) >> 20 );
+		
+		int cpu = cpuMillis < 0 || wallMillis <= 0 ? UNKNOWN : (int) Math.min( Integer.MAX_VALUE, cpuMillis * 1000 / wallMillis );
+		
+		return new ResourceUsage( memory, cpu );
+	}
+	
+	/**
+	 * 从 Container 被杀掉时的 diagnostics 中解析出内存的使用量；Container 是在超限的时候被杀掉的，所以这只是实际需求的下限
+	 * 
+	 * @return 无法解析的时候返回 null
+	 */
+	public static ResourceUsage fromDiagnostics( String diagnostics ) {
+		
+		if ( diagnostics == null ) {
+			
+			return null;
+		}
+		
+		Matcher matcher = PHYSICAL_MEMORY_USAGE.matcher( diagnostics );
+		
+		if ( !matcher.find() ) {
+			
+			return null;
+		}
+		
+		double value = Double.parseDouble( matcher.group( 1 ) );
+		
+		switch ( matcher.group( 2 ) ) {
+		
+			case "B"  : value /= 1024 * 1024; break;
+			case "KB" : value /= 1024; break;
+			case "GB" : value *= 1024; break;
+			case "TB" : value *= 1024 * 1024; break;
+			default   : break;
+		}
+		
+		return new ResourceUsage( (int) Math.ceil( value ), UNKNOWN );
+	}
+	
+	public int getPeakMemoryMb() {
+		
+		return peakMemoryMb;
+	}
+	
+	/**
+	 * 
+	 * @return 平均使用的 CPU 核数乘以 1000
+	 */
+	public int getMilliVcores() {
+		
+		return milliVcores;
+	}
+	
+	@Override
+	public void write( DataOutput out ) throws IOException {
+		
+		out.writeInt( peakMemoryMb );
+		
+		out.writeInt( milliVcores );
+	}
+
+	@Override
+	public void readFields( DataInput in ) throws IOException {
+		
+		peakMemoryMb = in.readInt();
+		
+		milliVcores = in.readInt();
+	}
+	
+	@Override
+	public String toString() {
+		
+		return "peak memory " + peakMemoryMb + "MB, cpu " + milliVcores + " millicores";
+	}
+
+}
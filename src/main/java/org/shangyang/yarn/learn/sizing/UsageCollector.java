@@ -0,0 +1,33 @@
+package org.shangyang.yarn.learn.sizing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 
+ * 收集本次运行中每个任务的资源使用情况，结束的时候一起写入 UsageHistory
+ * 
+ * @author 商洋
+ *
+ */
+public class UsageCollector {
+	
+	private final List<ResourceUsage> samples = new ArrayList<ResourceUsage>();
+	
+	/**
+	 * 内存和 CPU 都未知的样本直接丢弃
+	 */
+	public synchronized void add( ResourceUsage usage ) {
+		
+		if ( usage != null && ( usage.getPeakMemoryMb() != ResourceUsage.UNKNOWN || usage.getMilliVcores() != ResourceUsage.UNKNOWN ) ) {
+			
+			samples.add( usage );
+		}
+	}
+	
+	public synchronized List<ResourceUsage> getSamples() {
+		
+		return new ArrayList<ResourceUsage>( samples );
+	}
+
+}
@@ -0,0 +1,212 @@
+package org.shangyang.yarn.learn.sizing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 
+ * 按任务类型保存历史上每个任务的资源使用情况。
+ * 
+ * 每次运行写一个文件 <history.dir>/<type>/<runId>，文件中每个样本只占 8 个字节（内存 MB 以及 CPU 毫核各一个 int）；
+ * 每种类型只保留最近的 max-runs 个文件，更早的直接删除。history.dir 可以是 HDFS 也可以是本地路径（file:///）。
+ * 
+ * @author 商洋
+ *
+ */
+public class UsageHistory {
+	
+	private static Log LOGGER = LogFactory.getLog(UsageHistory.class);
+	
+	public static final String PREFIX = "learn.yarn.sizing.";
+	
+	/** 默认是 FileSystem 的 home 目录下的 .learn-yarn/history **/
+	public static final String HISTORY_DIR = PREFIX + "history.dir";
+	
+	public static final String MAX_RUNS = PREFIX + "history.max-runs";
+	
+	public static final int DEFAULT_MAX_RUNS = 20;
+	
+	/** AM 自身的资源使用情况也按照一类任务记录，由 ApplicationClient 用来决定 AM 的大小 **/
+	public static final String AM_TYPE = "am";
+	
+	private static final int MAGIC = 0x4C595548; // LYUH
+	
+	private static final byte VERSION = 1;
+	
+	private final Configuration conf;
+	
+	private final Path dir;
+	
+	private final int maxRuns;
+	
+	public UsageHistory( Configuration conf ) throws IOException {
+		
+		this.conf = conf;
+		
+		String configured = conf.get( HISTORY_DIR );
+		
+		this.dir = configured != null ? new Path( configured ) : new Path( FileSystem.get( conf ).getHomeDirectory(), ".learn-yarn/history" );
+		
+		this.maxRuns = Math.max( 1, conf.getInt( MAX_RUNS, DEFAULT_MAX_RUNS ) );
+	}
+	
+	/**
+	 * 先写临时文件再 rename，读的时候不会读到写了一半的文件
+	 */
+	public void record( String type, String runId, List<ResourceUsage> samples ) throws IOException {
+		
+		if ( samples.isEmpty() ) {
+			
+			return;
+		}
+		
+		Path typeDir = typeDir( type );
+		
+		FileSystem fs = typeDir.getFileSystem( conf );
+		
+		Path target = new Path( typeDir, sanitize( runId ) );
+		
+		Path tmp = new Path( typeDir, "." + target.getName() + ".tmp" );
+		
+		try ( FSDataOutputStream out = fs.create( tmp, true ) ) {
+			
+			out.writeInt( MAGIC );
+			
+			out.writeByte( VERSION );
+			
+			out.writeInt( samples.size() );
+			
+			for ( ResourceUsage sample : samples ) {
+				
+				sample.write( out );
+			}
+		}
+		
+		fs.delete( target, false );
+		
+		if ( !fs.rename( tmp, target ) ) {
+			
+			throw new IOException( "Failed to rename " + tmp + " to " + target );
+		}
+		
+		LOGGER.info("Recorded " + samples.size() + " usage samples of " + type + " to " + target );
+		
+		prune( fs, typeDir );
+	}
+	
+	/**
+	 * 
+	 * @return 最近 max-runs 次运行的所有样本，没有历史的时候返回空的列表
+	 */
+	public List<ResourceUsage> load( String type ) throws IOException {
+		
+		Path typeDir = typeDir( type );
+		
+		FileSystem fs = typeDir.getFileSystem( conf );
+		
+		if ( !fs.exists( typeDir ) ) {
+			
+			return Collections.emptyList();
+		}
+		
+		List<ResourceUsage> samples = new ArrayList<ResourceUsage>();
+		
+		for ( FileStatus run : runs( fs, typeDir ) ) {
+			
+			try ( FSDataInputStream in = fs.open( run.getPath() ) ) {
+				
+				if ( in.readInt() != MAGIC || in.readByte() != VERSION ) {
+					
+					LOGGER.warn("Skip the unknown history file " + run.getPath() );
+					
+					continue;
+				}
+				
+				int count = in.readInt();
+				
+				for ( int i = 0; i < count; i++ ) {
+					
+					ResourceUsage sample = new ResourceUsage();
+					
+					sample.readFields( in );
+					
+					samples.add( sample );
+				}
+			}
+		}
+		
+		return samples;
+	}
+	
+	private void prune( FileSystem fs, Path typeDir ) throws IOException {
+		
+		List<FileStatus> runs = sortedRuns( fs.listStatus( typeDir ) );
+		
+		for ( int i = maxRuns; i < runs.size(); i++ ) {
+			
+			fs.delete( runs.get( i ).getPath(), false );
+		}
+	}
+	
+	/**
+	 * 
+	 * @return 最近的 max-runs 个文件
+	 */
+	private List<FileStatus> runs( FileSystem fs, Path typeDir ) throws IOException {
+		
+		List<FileStatus> runs = sortedRuns( fs.listStatus( typeDir ) );
+		
+		return runs.size() > maxRuns ? runs.subList( 0, maxRuns ) : runs;
+	}
+	
+	/**
+	 * 
+	 * @return 按修改时间从新到旧排序，忽略临时文件
+	 */
+	private static List<FileStatus> sortedRuns( FileStatus[] files ) {
+		
+		List<FileStatus> runs = new ArrayList<FileStatus>();
+		
+		for ( FileStatus file : files ) {
+			
+			if ( file.isFile() && !file.getPath().getName().startsWith( "." ) ) {
+				
+				runs.add( file );
+			}
+		}
+		
+		Collections.sort( runs, new Comparator<FileStatus>() {
+			
+			@Override
+			public int compare( FileStatus a, FileStatus b ) {
+				
+				return Long.compare( b.getModificationTime(), a.getModificationTime() );
+			}
+		});
+		
+		return runs;
+	}
+	
+	private Path typeDir( String type ) {
+		
+		return new Path( dir, sanitize( type ) );
+	}
+	
+	static String sanitize( String name ) {
+		
+		return name.replaceAll( "[^A-Za-z0-9._-]", "_" );
+	}
+
+}
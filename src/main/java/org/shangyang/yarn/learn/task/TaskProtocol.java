@@ -0,0 +1,41 @@
+package org.shangyang.yarn.learn.task;
+
+import java.io.IOException;
+
+import org.apache.hadoop.ipc.VersionedProtocol;
+import org.apache.hadoop.security.token.TokenInfo;
+import org.shangyang.yarn.learn.sizing.ResourceUsage;
+
+/**
+ * 
+ * Worker Container 与 Application Master 之间的 RPC 协议；Worker 主动向 AM 拉取任务，执行完以后汇报结果。
+ * 
+ * Worker 使用 AM 通过 Container 的 Credentials 下发的 TaskTokenIdentifier 认证，只能以它自己所在的 Container 的身份调用。
+ * 
+ * @author 商洋
+ *
+ */
+@TokenInfo( TaskTokenSelector.class )
+public interface TaskProtocol extends VersionedProtocol {
+	
+	long versionID = 3L;
+	
+	/**
+	 * 
+	 * @param workerId Worker 所在的 Container 的 ID
+	 * @return 下一个需要执行的任务；如果当前没有任务可分配，返回状态为 WAIT 的 TaskSpec
+	 * @throws IOException 调用者不是该 Worker，或者该 Worker 不是 AM 启动的 Container 的时候是 AccessControlException
+	 */
+	TaskSpec nextTask( String workerId ) throws IOException;
+	
+	/**
+	 * 
+	 * @param workerId Worker 所在的 Container 的 ID
+	 * @param taskId
+	 * @param exitCode 任务进程的退出码，0 表示成功
+	 * @param usage 任务执行期间的资源使用情况，用于下一次运行时确定 Container 的大小
+	 * @throws IOException 同 nextTask
+	 */
+	void taskDone( String workerId, int taskId, int exitCode, ResourceUsage usage ) throws IOException;
+
+}
@@ -0,0 +1,107 @@
+package org.shangyang.yarn.learn.task;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * 
+ * 一个需要在 Container 中执行的任务，目前就是一条 shell 命令。
+ * 
+ * @author 商洋
+ *
+ */
+public class TaskSpec implements Writable {
+	
+	/** 有任务需要执行 **/
+	public static final int RUN = 0;
+	
+	/** 暂时没有任务，稍后再来拉取 **/
+	public static final int WAIT = 1;
+	
+	/** 所有的任务都已经执行完毕，Worker 可以退出了 **/
+	public static final int EXIT = 2;
+	
+	private static final TaskSpec WAIT_SPEC = new TaskSpec( WAIT, -1, "" );
+	
+	private static final TaskSpec EXIT_SPEC = new TaskSpec( EXIT, -1, "" );
+	
+	private int status;
+	
+	private int id;
+	
+	private String command;
+	
+	public TaskSpec() {
+		
+	}
+	
+	public TaskSpec( int id, String command ) {
+		
+		this( RUN, id, command );
+	}
+	
+	private TaskSpec( int status, int id, String command ) {
+		
+		this.status = status;
+		
+		this.id = id;
+		
+		this.command = command;
+	}
+	
+	public static TaskSpec waitSpec() {
+		
+		return WAIT_SPEC;
+	}
+	
+	public static TaskSpec exitSpec() {
+		
+		return EXIT_SPEC;
+	}
+	
+	public int getStatus() {
+		
+		return status;
+	}
+
+	public int getId() {
+		
+		return id;
+	}
+
+	public String getCommand() {
+		
+		return command;
+	}
+
+	@Override
+	public void write( DataOutput out ) throws IOException {
+		
+		out.writeInt( status );
+		
+		out.writeInt( id );
+		
+		Text.writeString( out, command );
+	}
+
+	@Override
+	public void readFields( DataInput in ) throws IOException {
+		
+		status = in.readInt();
+		
+		id = in.readInt();
+		
+		command = Text.readString( in );
+	}
+	
+	@Override
+	public String toString() {
+		
+		return "task " + id + " [" + command + "]";
+	}
+
+}
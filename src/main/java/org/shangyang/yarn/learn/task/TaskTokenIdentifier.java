@@ -0,0 +1,72 @@
+package org.shangyang.yarn.learn.task;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.TokenIdentifier;
+
+/**
+ *
+ * AM 为每一个 Worker Container 签发的 token，Worker 凭它连接 TaskServer；token 中只有 Worker 所在的 Container 的 ID，
+ * TaskServer 据此确认调用者就是它声称的那个 Worker。
+ *
+ * @author 商洋
+ *
+ */
+public class TaskTokenIdentifier extends TokenIdentifier {
+	
+	public static final Text KIND_NAME = new Text( "LEARN_YARN_TASK" );
+	
+	private String workerId;
+	
+	public TaskTokenIdentifier() {
+	
+	}
+	
+	public TaskTokenIdentifier( String workerId ) {
+		
+		this.workerId = workerId;
+	}
+	
+	public String getWorkerId() {
+		
+		return workerId;
+	}
+	
+	@Override
+	public Text getKind() {
+		
+		return KIND_NAME;
+	}
+	
+	/**
+	 * TaskServer 上看到的调用者就是这个 Worker
+	 */
+	@Override
+	public UserGroupInformation getUser() {
+		
+		return workerId == null || workerId.isEmpty() ? null : UserGroupInformation.createRemoteUser( workerId );
+	}
+	
+	@Override
+	public void write( DataOutput out ) throws IOException {
+		
+		Text.writeString( out, workerId == null ? "" : workerId );
+	}
+	
+	@Override
+	public void readFields( DataInput in ) throws IOException {
+		
+		workerId = Text.readString( in );
+	}
+	
+	@Override
+	public String toString() {
+		
+		return "task token of " + workerId;
+	}
+
+}
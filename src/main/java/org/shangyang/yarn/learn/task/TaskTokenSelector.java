@@ -0,0 +1,39 @@
+package org.shangyang.yarn.learn.task;
+
+import java.util.Collection;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.security.token.TokenSelector;
+
+/**
+ *
+ * Worker 连接 TaskServer 的时候，RPC 客户端通过它从 Container 的 Credentials 中找出 TaskServer 签发的 token
+ *
+ * @author 商洋
+ *
+ */
+public class TaskTokenSelector implements TokenSelector<TaskTokenIdentifier> {
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public Token<TaskTokenIdentifier> selectToken( Text service, Collection<Token<? extends TokenIdentifier>> tokens ) {
+		
+		if ( service == null ) {
+			
+			return null;
+		}
+		
+		for ( Token<? extends TokenIdentifier> token : tokens ) {
+			
+			if ( TaskTokenIdentifier.KIND_NAME.equals( token.getKind() ) && service.equals( token.getService() ) ) {
+				
+				return (Token<TaskTokenIdentifier>) token;
+			}
+		}
+		
+		return null;
+	}
+
+}
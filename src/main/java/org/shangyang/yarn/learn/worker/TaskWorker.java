@@ -0,0 +1,140 @@
+package org.shangyang.yarn.learn.worker;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.WritableRpcEngine;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.yarn.api.ApplicationConstants.Environment;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.shangyang.yarn.learn.sizing.ResourceUsage;
+import org.shangyang.yarn.learn.task.TaskProtocol;
+import org.shangyang.yarn.learn.task.TaskSpec;
+
+/**
+ * 
+ * 运行在 Container 中的常驻 Worker，不断的从 AM 的 TaskServer 拉取任务并执行；
+ * 当所有的任务都执行完毕以后，由 AM 通过 NMClientAsync 来停止 Container。
+ * 
+ * 连接 TaskServer 使用的 token 由 AM 放在 Container 的 Credentials 中，RPC 客户端从当前用户的 Credentials 中自动选取。
+ * 
+ * 用法: TaskWorker <am host:port>
+ * 
+ * @author 商洋
+ *
+ */
+public class TaskWorker {
+	
+	private static Log LOGGER = LogFactory.getLog(TaskWorker.class);
+	
+	public static final String POLL_INTERVAL_MS = "learn.yarn.worker.poll-interval-ms";
+	
+	public static final int DEFAULT_POLL_INTERVAL_MS = 200;
+	
+	private final TaskProtocol taskServer;
+	
+	private final String workerId;
+	
+	private final long pollIntervalMs;
+	
+	private final UsageSampler usageSampler;
+	
+	public TaskWorker( TaskProtocol taskServer, String workerId, long pollIntervalMs, UsageSampler usageSampler ) {
+		
+		this.taskServer = taskServer;
+		
+		this.workerId = workerId;
+		
+		this.pollIntervalMs = pollIntervalMs;
+		
+		this.usageSampler = usageSampler;
+	}
+	
+	public void run() throws IOException, InterruptedException {
+		
+		LOGGER.info("Worker " + workerId + " starts to pull tasks ~~~~");
+		
+		while ( !Thread.currentThread().isInterrupted() ) {
+			
+			TaskSpec task = taskServer.nextTask( workerId );
+			
+			if ( task.getStatus() == TaskSpec.EXIT ) {
+				
+				LOGGER.info("No task left, worker " + workerId + " exits");
+				
+				return;
+			}
+			
+			if ( task.getStatus() == TaskSpec.WAIT ) {
+				
+				Thread.sleep( pollIntervalMs );
+				
+				continue;
+			}
+			
+			usageSampler.begin();
+			
+			int exitCode = execute( task );
+			
+			ResourceUsage usage = usageSampler.end();
+			
+			taskServer.taskDone( workerId, task.getId(), exitCode, usage );
+		}
+	}
+	
+	/**
+	 * 任务的输出直接写到 Worker 的 stdout 和 stderr 中，也就是 Container 的日志目录
+	 */
+	int execute( TaskSpec task ) throws InterruptedException {
+		
+		LOGGER.info("Worker " + workerId + " runs " + task );
+		
+		try {
+			
+			Process process = new ProcessBuilder( "bash", "-c", task.getCommand() ).inheritIO().start();
+			
+			return process.waitFor();
+			
+		} catch ( IOException e ) {
+			
+			LOGGER.error("Failed to run " + task, e );
+			
+			return -1;
+		}
+	}
+	
+	public static void main( String[] args ) throws IOException, InterruptedException {
+		
+		if ( args.length < 1 ) {
+			
+			System.err.println("Usage: TaskWorker <am host:port>");
+			
+			System.exit( 1 );
+		}
+		
+		Configuration conf = new YarnConfiguration();
+		
+		RPC.setProtocolEngine( conf, TaskProtocol.class, WritableRpcEngine.class );
+		
+		TaskProtocol taskServer = RPC.getProxy( TaskProtocol.class, TaskProtocol.versionID, NetUtils.createSocketAddr( args[0] ), conf );
+		
+		String workerId = System.getenv( Environment.CONTAINER_ID.name() );
+		
+		UsageSampler usageSampler = new UsageSampler( conf.getInt( UsageSampler.SAMPLE_INTERVAL_MS, UsageSampler.DEFAULT_SAMPLE_INTERVAL_MS ) );
+		
+		try {
+			
+			new TaskWorker( taskServer, workerId, conf.getInt( POLL_INTERVAL_MS, DEFAULT_POLL_INTERVAL_MS ), usageSampler ).run();
+			
+		} finally {
+			
+			usageSampler.stop();
+			
+			RPC.stopProxy( taskServer );
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package org.shangyang.yarn.learn.worker;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.yarn.util.ProcfsBasedProcessTree;
+import org.shangyang.yarn.learn.sizing.ProcessUsage;
+import org.shangyang.yarn.learn.sizing.ResourceUsage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 
+ * 在任务执行期间定时采样 Worker 进程树（Worker 自己以及它启动的任务进程）的物理内存，记录峰值；
+ * NM 也是按照整棵进程树来判断 Container 是否超限的，所以这里的峰值就是 Container 实际需要的大小。
+ * 
+ * @author 商洋
+ *
+ */
+public class UsageSampler {
+	
+	public static final String SAMPLE_INTERVAL_MS = "learn.yarn.worker.sample-interval-ms";
+	
+	public static final int DEFAULT_SAMPLE_INTERVAL_MS = 500;
+	
+	/** /proc 不可用的时候为 null，此时不做采样 **/
+	private final ProcfsBasedProcessTree tree;
+	
+	private final ScheduledExecutorService sampler;
+	
+	private final AtomicLong peakRssBytes = new AtomicLong( ResourceUsage.UNKNOWN );
+	
+	private long startCpuMillis;
+	
+	private long startNanos;
+	
+	public UsageSampler( long intervalMs ) {
+		
+		this.tree = ProcessUsage.selfTree();
+		
+		this.sampler = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "usage-sampler" ).build() );
+		
+		if ( tree != null ) {
+			
+			sampler.scheduleWithFixedDelay( new Runnable() {
+				
+				@Override
+				public void run() {
+					
+					sample();
+				}
+				
+			}, intervalMs, intervalMs, TimeUnit.MILLISECONDS );
+		}
+	}
+	
+	/**
+	 * 开始一个任务，重置峰值；先采样一次 Worker 自身的内存作为基线，比采样间隔还短的任务至少也有这个值
+	 */
+	public synchronized void begin() {
+		
+		peakRssBytes.set( ResourceUsage.UNKNOWN );
+		
+		startNanos = System.nanoTime();
+		
+		startCpuMillis = ResourceUsage.UNKNOWN;
+		
+		if ( tree != null ) {
+			
+			sample();
+			
+			startCpuMillis = tree.getCumulativeCpuTime();
+		}
+	}
+	
+	/**
+	 * 结束一个任务；任务进程已经退出，所以这里不再采样，峰值以任务执行期间的采样为准
+	 * 
+	 * @return 该任务执行期间的资源使用情况
+	 */
+	public synchronized ResourceUsage end() {
+		
+		long wallMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startNanos );
+		
+		long cpuMillis = startCpuMillis < 0 ? ResourceUsage.UNKNOWN : Math.max( 0, sampleCpu() - startCpuMillis );
+		
+		return ResourceUsage.of( peakRssBytes.get(), cpuMillis, wallMillis );
+	}
+	
+	public void stop() {
+		
+		sampler.shutdownNow();
+	}
+	
+	private synchronized void sample() {
+		
+		tree.updateProcessTree();
+		
+		long rss = tree.getRssMemorySize();
+		
+		if ( rss > peakRssBytes.get() ) {
+			
+			peakRssBytes.set( rss );
+		}
+	}
+	
+	/**
+	 * 进程树中已经退出的子进程的 CPU 时间不会被累计进来，所以短任务的 CPU 使用量可能偏低
+	 */
+	private synchronized long sampleCpu() {
+		
+		tree.updateProcessTree();
+		
+		return tree.getCumulativeCpuTime();
+	}
+
+}
@@ -0,0 +1,160 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
+import org.apache.hadoop.yarn.client.api.async.impl.AMRMClientAsyncImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * @author 商洋
+ *
+ */
+public class AdaptiveHeartbeatControllerTest {
+	
+	private ApplicationMasterMetrics metrics;
+	
+	private AdaptiveHeartbeatController controller;
+	
+	@Before
+	public void before() {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.setInt( AdaptiveHeartbeatController.MIN_INTERVAL_MS, 50 );
+		
+		conf.setInt( AdaptiveHeartbeatController.MAX_INTERVAL_MS, 300 );
+		
+		metrics = new ApplicationMasterMetrics();
+		
+		controller = new AdaptiveHeartbeatController( conf, metrics, new ContainerLifecycleTracker( metrics ) );
+	}
+
+	@Test
+	public void testStartsAtMinimumInterval() {
+		
+		assertEquals( 50, controller.getInitialIntervalMs() );
+		
+		assertEquals( 50, metrics.getHeartbeatIntervalMs() );
+	}
+	
+	@Test
+	public void testBacksOffWhenIdle() {
+		
+		assertEquals( 100, controller.nextInterval( 0 ) );
+	}
+	
+	@Test
+	public void testStaysFastWhileThereIsDemand() {
+		
+		assertEquals( 50, controller.nextInterval( 3 ) );
+	}
+	
+	@Test
+	public void testFollowsTrackerDemand() {
+		
+		Configuration conf = new Configuration( false );
+		
+		// 间隔足够长，定时任务在测试结束之前不会运行，只由测试调用 adjust
+		conf.setInt( AdaptiveHeartbeatController.MIN_INTERVAL_MS, 60000 );
+		
+		conf.setInt( AdaptiveHeartbeatController.MAX_INTERVAL_MS, 240000 );
+		
+		ContainerLifecycleTracker tracker = new ContainerLifecycleTracker( metrics );
+		
+		AdaptiveHeartbeatController controller = new AdaptiveHeartbeatController( conf, metrics, tracker );
+		
+		RecordingResourceManager resourceManager = new RecordingResourceManager();
+		
+		controller.start( resourceManager );
+		
+		try {
+			
+			// 还有没有被满足的请求，保持最短的间隔
+			tracker.requested( 1 );
+			
+			controller.adjust();
+			
+			assertEquals( 60000, controller.getCurrentIntervalMs() );
+			
+			assertEquals( 60000, metrics.getHeartbeatIntervalMs() );
+			
+			assertEquals( 0, resourceManager.intervals.size() );
+			
+			// 分配到了但是还在启动，仍然保持最短的间隔
+			ContainerId containerId = ContainerId.newContainerId( ApplicationAttemptId.newInstance( ApplicationId.newInstance( 0, 1 ), 1 ), 2 );
+			
+			tracker.allocated( containerId );
+			
+			tracker.launching( containerId );
+			
+			controller.adjust();
+			
+			assertEquals( 60000, controller.getCurrentIntervalMs() );
+			
+			assertEquals( 0, resourceManager.intervals.size() );
+			
+			// 没有需求了，逐步退避到最长的间隔
+			tracker.started( containerId );
+			
+			controller.adjust();
+			
+			assertEquals( 120000, metrics.getHeartbeatIntervalMs() );
+			
+			controller.adjust();
+			
+			controller.adjust();
+			
+			assertEquals( 240000, controller.getCurrentIntervalMs() );
+			
+			assertEquals( 240000, metrics.getHeartbeatIntervalMs() );
+			
+			// 出现新的需求，立刻回到最短的间隔
+			tracker.requested( 2 );
+			
+			controller.adjust();
+			
+			assertEquals( 60000, controller.getCurrentIntervalMs() );
+			
+			assertEquals( 60000, metrics.getHeartbeatIntervalMs() );
+			
+			assertEquals( "[120000, 240000, 60000]", resourceManager.intervals.toString() );
+		
+		} finally {
+			
+			controller.stop();
+		}
+	}
+	
+	/**
+	 * 不会启动，只记录设置过的心跳间隔
+	 */
+	private static class RecordingResourceManager extends AMRMClientAsyncImpl<AMRMClient.ContainerRequest> {
+		
+		final List<Integer> intervals = new CopyOnWriteArrayList<Integer>();
+		
+		RecordingResourceManager() {
+			
+			super( 1000, (AMRMClientAsync.CallbackHandler) null );
+		}
+		
+		@Override
+		public void setHeartbeatInterval( int interval ) {
+			
+			intervals.add( interval );
+			
+			super.setHeartbeatInterval( interval );
+		}
+	}
+
+}
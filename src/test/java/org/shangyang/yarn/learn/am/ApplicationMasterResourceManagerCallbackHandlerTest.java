@@ -0,0 +1,268 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.ContainerState;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.api.records.ResourceRequest;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
+import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
+import org.apache.hadoop.yarn.client.api.async.impl.AMRMClientAsyncImpl;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class ApplicationMasterResourceManagerCallbackHandlerTest {
+	
+	private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance( ApplicationId.newInstance( 0, 1 ), 1 );
+	
+	private static final Resource CAPABILITY = Resource.newInstance( 1024, 1 );
+	
+	private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+	
+	private int nextContainer = 2;
+	
+	@After
+	public void tearDown() {
+		
+		retryScheduler.shutdownNow();
+	}
+	
+	private static void vertex( Configuration conf, String name, int tasks, int priority, float weight ) {
+		
+		conf.set( TaskGraph.VERTEX_PREFIX + name + "." + TaskGraph.COMMAND, "run-" + name );
+		
+		conf.setInt( TaskGraph.VERTEX_PREFIX + name + "." + TaskGraph.TASKS, tasks );
+		
+		conf.setInt( TaskGraph.VERTEX_PREFIX + name + "." + TaskGraph.PRIORITY, priority );
+		
+		conf.setFloat( TaskGraph.VERTEX_PREFIX + name + "." + TaskGraph.WEIGHT, weight );
+	}
+	
+	/**
+	 * AMRMClient 中还没有被满足的请求；AMRMClient 没有启动，不会发给 RM
+	 */
+	private static int outstanding( AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager, int priority ) {
+		
+		int count = 0;
+		
+		for ( Collection<AMRMClient.ContainerRequest> requests : resourceManager.getMatchingRequests( Priority.newInstance( priority ), ResourceRequest.ANY, CAPABILITY ) ) {
+			
+			count += requests.size();
+		}
+		
+		return count;
+	}
+	
+	private List<Container> containers( int count, int priority ) {
+		
+		List<Container> containers = new ArrayList<Container>( count );
+		
+		for ( int i = 0; i < count; i++ ) {
+			
+			NodeId nodeId = NodeId.newInstance( "host" + i, 45454 );
+			
+			containers.add( Container.newInstance( ContainerId.newContainerId( ATTEMPT, nextContainer++ ), nodeId, nodeId.getHost() + ":8042",
+												   CAPABILITY, Priority.newInstance( priority ), null ) );
+		}
+		
+		return containers;
+	}
+	
+	@Test
+	public void testWeightedTiersRoundUp() throws Exception {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.set( TaskGraph.VERTICES, "serve,bulk,scan,batch" );
+		
+		vertex( conf, "serve", 4, 0, 1f );
+		
+		// 50 * 0.3f 不能因为 float 的误差进位成 16
+		vertex( conf, "bulk", 50, 1, 0.3f );
+		
+		// 截断的话就一个也不申请了
+		vertex( conf, "scan", 3, 1, 0.1f );
+		
+		// weight 为 0 的时候一直等到更重要的 tier 不再等待
+		vertex( conf, "batch", 2, 1, 0f );
+		
+		ApplicationMasterMetrics metrics = new ApplicationMasterMetrics();
+		
+		ApplicationMasterResourceManagerCallbackHandler handler = new ApplicationMasterResourceManagerCallbackHandler( conf, metrics, new ContainerLifecycleTracker( metrics ),
+																													  new IdleNodeManager(), retryScheduler );
+		
+		handler.setTaskGraph( TaskGraph.parse( conf ) );
+		
+		AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager = AMRMClientAsync.createAMRMClientAsync( 1000, handler );
+		
+		handler.setResourceManager( resourceManager );
+		
+		handler.requestContainers( CAPABILITY, Priority.newInstance( 0 ) );
+		
+		// 每个 vertex 的优先级是基础的优先级加上它的排名
+		assertEquals( 4, outstanding( resourceManager, 0 ) );
+		
+		assertEquals( 15, outstanding( resourceManager, 1 ) );
+		
+		assertEquals( 1, outstanding( resourceManager, 2 ) );
+		
+		assertEquals( 0, outstanding( resourceManager, 3 ) );
+		
+		// serve 的任务都分配到了 Container，其它的 tier 按照全部等待中的任务申请
+		handler.onContainersAllocated( containers( 4, 0 ) );
+		
+		assertEquals( 0, outstanding( resourceManager, 0 ) );
+		
+		assertEquals( 50, outstanding( resourceManager, 1 ) );
+		
+		assertEquals( 3, outstanding( resourceManager, 2 ) );
+		
+		assertEquals( 2, outstanding( resourceManager, 3 ) );
+	}
+	
+	private ApplicationMasterResourceManagerCallbackHandler workers( RecordingResourceManager resourceManager, IdleNodeManager nodeManager, int workers ) throws IOException {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.setBoolean( ApplicationMasterConfig.WORKER_ENABLED, true );
+		
+		conf.setInt( ApplicationMasterConfig.TASKS, 1 );
+		
+		ApplicationMasterMetrics metrics = new ApplicationMasterMetrics();
+		
+		ApplicationMasterResourceManagerCallbackHandler handler = new ApplicationMasterResourceManagerCallbackHandler( conf, metrics, new ContainerLifecycleTracker( metrics ),
+																													  nodeManager, retryScheduler );
+		
+		handler.setContainers( workers );
+		
+		handler.setResourceManager( resourceManager );
+		
+		handler.requestContainers( CAPABILITY, Priority.newInstance( 0 ) );
+		
+		assertEquals( workers, outstanding( resourceManager, 0 ) );
+		
+		return handler;
+	}
+	
+	@Test
+	public void testDrainRetiresWaitingWorkers() throws Exception {
+		
+		RecordingResourceManager resourceManager = new RecordingResourceManager();
+		
+		IdleNodeManager nodeManager = new IdleNodeManager();
+		
+		ApplicationMasterResourceManagerCallbackHandler handler = workers( resourceManager, nodeManager, 3 );
+		
+		List<Container> running = containers( 1, 0 );
+		
+		handler.onContainersAllocated( running );
+		
+		assertEquals( 2, outstanding( resourceManager, 0 ) );
+		
+		handler.onTasksDrained( new TaskQueue() );
+		
+		// 等待中的 Worker 以及它们的请求都撤销了，运行中的 Worker 被停止，结束以后才关闭 AM
+		assertEquals( 0, outstanding( resourceManager, 0 ) );
+		
+		assertEquals( Collections.singletonList( running.get( 0 ).getId() ), nodeManager.stopped );
+		
+		assertFalse( resourceManager.unregistered );
+		
+		handler.onContainersCompleted( Collections.singletonList( ContainerStatus.newInstance( running.get( 0 ).getId(), ContainerState.COMPLETE, "",
+																							   ContainerExitStatus.KILLED_BY_APPMASTER ) ) );
+		
+		assertTrue( resourceManager.unregistered );
+	}
+	
+	@Test
+	public void testDrainWithoutRunningWorkersStops() throws Exception {
+		
+		RecordingResourceManager resourceManager = new RecordingResourceManager();
+		
+		ApplicationMasterResourceManagerCallbackHandler handler = workers( resourceManager, new IdleNodeManager(), 2 );
+		
+		handler.onTasksDrained( new TaskQueue() );
+		
+		assertEquals( 0, outstanding( resourceManager, 0 ) );
+		
+		assertTrue( resourceManager.unregistered );
+	}
+	
+	/**
+	 * 不会启动，只记录 AM 是否已经注销
+	 */
+	private static class RecordingResourceManager extends AMRMClientAsyncImpl<AMRMClient.ContainerRequest> {
+		
+		volatile boolean unregistered;
+		
+		RecordingResourceManager() {
+			
+			super( 1000, (AMRMClientAsync.CallbackHandler) null );
+		}
+		
+		@Override
+		public void unregisterApplicationMaster( FinalApplicationStatus appStatus, String appMessage, String appTrackingUrl ) throws YarnException, IOException {
+			
+			unregistered = true;
+		}
+	}
+	
+	/**
+	 * 启动 Container 的请求直接忽略，只记录被停止的 Container
+	 */
+	private static class IdleNodeManager extends NMClientAsync {
+		
+		final List<ContainerId> stopped = Collections.synchronizedList( new ArrayList<ContainerId>() );
+		
+		IdleNodeManager() {
+			
+			super( IdleNodeManager.class.getName(), null, (NMClientAsync.CallbackHandler) null );
+		}
+		
+		@Override
+		public void startContainerAsync( Container container, ContainerLaunchContext containerLaunchContext ) {
+		}
+		
+		@Override
+		public void stopContainerAsync( ContainerId containerId, NodeId nodeId ) {
+			
+			stopped.add( containerId );
+		}
+		
+		public void increaseContainerResourceAsync( Container container ) {
+		}
+		
+		@Override
+		public void getContainerStatusAsync( ContainerId containerId, NodeId nodeId ) {
+		}
+	}
+
+}
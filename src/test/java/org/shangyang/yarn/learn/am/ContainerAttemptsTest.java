@@ -0,0 +1,298 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.junit.Test;
+
+/**
+ * 
+ * @author 商洋
+ *
+ */
+public class ContainerAttemptsTest {
+	
+	private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance( ApplicationId.newInstance( 0, 1 ), 1 );
+	
+	private int nextContainer = 1;
+	
+	private ContainerId container() {
+		
+		return ContainerId.newContainerId( ATTEMPT, nextContainer++ );
+	}
+	
+	private ContainerAttempts attempts( int slots ) {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.setInt( RetryPolicy.MAX_ATTEMPTS, 2 );
+		
+		conf.setInt( RetryPolicy.MAX_FRAMEWORK_RETRIES, 1 );
+		
+		conf.setLong( RetryPolicy.BACKOFF_BASE_MS, 100 );
+		
+		return new ContainerAttempts( slots, new RetryPolicy( conf ) );
+	}
+
+	@Test
+	public void testApplicationFailureIsRetriedWithBackoff() {
+		
+		ContainerAttempts attempts = attempts( 1 );
+		
+		ContainerId first = container();
+		
+		assertEquals( Integer.valueOf( 0 ), attempts.assign( first ) );
+		
+		// 没有等待中的 slot，多余的 Container
+		assertNull( attempts.assign( container() ) );
+		
+		ContainerAttempts.Decision decision = attempts.completed( first, 1, false );
+		
+		assertEquals( ContainerAttempts.Outcome.RETRY, decision.getOutcome() );
+		
+		assertEquals( 100, decision.getDelayMs() );
+		
+		attempts.retry( decision.getSlot() );
+		
+		ContainerId second = container();
+		
+		attempts.assign( second );
+		
+		assertEquals( ContainerAttempts.Outcome.FAILED, attempts.completed( second, 1, false ).getOutcome() );
+		
+		assertTrue( attempts.isFinished() );
+		
+		assertEquals( 1, attempts.getFailed() );
+	}
+	
+	@Test
+	public void testFrameworkFailureDoesNotCountAsAttempt() {
+		
+		ContainerAttempts attempts = attempts( 1 );
+		
+		ContainerId preempted = container();
+		
+		attempts.assign( preempted );
+		
+		ContainerAttempts.Decision decision = attempts.completed( preempted, ContainerExitStatus.PREEMPTED, false );
+		
+		assertEquals( ContainerAttempts.Outcome.RETRY, decision.getOutcome() );
+		
+		assertEquals( 0, decision.getDelayMs() );
+		
+		attempts.retry( decision.getSlot() );
+		
+		ContainerId failed = container();
+		
+		attempts.assign( failed );
+		
+		// 第一次应用失败，仍然可以重试
+		assertEquals( ContainerAttempts.Outcome.RETRY, attempts.completed( failed, 1, false ).getOutcome() );
+		
+		assertFalse( attempts.isFinished() );
+		
+		assertEquals( ContainerAttempts.Outcome.IGNORED, attempts.completed( failed, 1, false ).getOutcome() );
+	}
+	
+	@Test
+	public void testBackoffIsCapped() {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.setLong( RetryPolicy.BACKOFF_BASE_MS, 1000 );
+		
+		conf.setLong( RetryPolicy.BACKOFF_MAX_MS, 5000 );
+		
+		RetryPolicy policy = new RetryPolicy( conf );
+		
+		assertEquals( 1000, policy.backoffMs( 1 ) );
+		
+		assertEquals( 4000, policy.backoffMs( 3 ) );
+		
+		assertEquals( 5000, policy.backoffMs( 40 ) );
+	}
+
+	@Test
+	public void testPrefersNodeLocalThenRackLocalSlots() {
+		
+		ContainerAttempts attempts = attempts( 3 );
+		
+		attempts.prefer( 0, new String[] { "host-a" }, new String[] { "/rack-1" } );
+		
+		attempts.prefer( 1, new String[] { "host-b" }, new String[] { "/rack-2" } );
+		
+		attempts.prefer( 2, new String[] { "host-c" }, new String[] { "/rack-2" } );
+		
+		assertEquals( Integer.valueOf( 1 ), attempts.assign( container(), "host-b", "/rack-2" ) );
+		
+		assertEquals( Integer.valueOf( 2 ), attempts.assign( container(), "host-d", "/rack-2" ) );
+		
+		assertEquals( Integer.valueOf( 0 ), attempts.assign( container(), "host-e", "/rack-3" ) );
+		
+		assertEquals( 1, attempts.getNodeLocal() );
+		
+		assertEquals( 1, attempts.getRackLocal() );
+		
+		assertEquals( 1, attempts.getOffSwitch() );
+	}
+
+	@Test
+	public void testStragglerGetsBackupAndLoserIsReturned() {
+		
+		ContainerAttempts attempts = attempts( 2 );
+		
+		ContainerId fast = container();
+		
+		ContainerId slow = container();
+		
+		attempts.assign( fast );
+		
+		attempts.assign( slow );
+		
+		attempts.completed( fast, 0, true );
+		
+		// 还没有超过最短的执行时间
+		assertTrue( attempts.speculate( System.nanoTime(), 2.0, 1000, 1, 1 ).isEmpty() );
+		
+		long later = System.nanoTime() + TimeUnit.MINUTES.toNanos( 1 );
+		
+		assertEquals( Collections.singletonList( 1 ), attempts.speculate( later, 2.0, 1000, 1, 1 ) );
+		
+		// 每个 slot 只推测执行一次
+		assertTrue( attempts.speculate( later, 2.0, 1000, 1, 1 ).isEmpty() );
+		
+		ContainerId backup = container();
+		
+		assertEquals( Integer.valueOf( 1 ), attempts.assign( backup ) );
+		
+		ContainerAttempts.Decision decision = attempts.completed( backup, 0, true );
+		
+		assertEquals( ContainerAttempts.Outcome.SUCCEEDED, decision.getOutcome() );
+		
+		assertEquals( Collections.singletonList( slow ), decision.getLosers() );
+		
+		assertEquals( 1, attempts.getSpeculationWins() );
+		
+		// 被停止的 loser 不会影响结果
+		assertEquals( ContainerAttempts.Outcome.IGNORED, attempts.completed( slow, ContainerExitStatus.KILLED_BY_APPMASTER, false ).getOutcome() );
+		
+		assertTrue( attempts.isFinished() );
+		
+		assertEquals( 0, attempts.getFailed() );
+	}
+	
+	@Test
+	public void testGrowAndRetireSlots() {
+		
+		ContainerAttempts attempts = attempts( 1 );
+		
+		ContainerId first = container();
+		
+		attempts.assign( first );
+		
+		// 扩容两个 Worker
+		assertEquals( 1, attempts.grow( 2 ) );
+		
+		assertEquals( 3, attempts.getActive() );
+		
+		assertEquals( 2, attempts.getWaiting() );
+		
+		assertEquals( Integer.valueOf( 1 ), attempts.assign( container() ) );
+		
+		// 还在等待的 slot 不再需要了
+		assertEquals( 1, attempts.retireWaiting( 5 ) );
+		
+		assertEquals( 0, attempts.getWaiting() );
+		
+		// 正在运行的 slot 不能撤销
+		assertFalse( attempts.retire( 0 ) );
+		
+		attempts.completed( first, 0, true );
+		
+		assertFalse( attempts.isFinished() );
+		
+		assertEquals( 0.5f, attempts.getProgress(), 0.001f );
+		
+		// 撤销的 slot 不会再被重试
+		assertFalse( attempts.retry( 2 ) );
+		
+		assertEquals( 0, attempts.getFailed() );
+	}
+	
+	@Test
+	public void testRestoreAndAdoptAfterRestart() {
+		
+		ContainerAttempts attempts = attempts( 4 );
+		
+		// 之前的 attempt 中 slot 0 成功、slot 1 最终失败
+		assertTrue( attempts.restore( 0, true ) );
+		
+		assertTrue( attempts.restore( 1, false ) );
+		
+		assertFalse( attempts.restore( 0, true ) );
+		
+		// slot 2 的 Container 还在运行，接管过来；已经结束的 slot 不能接管
+		ContainerId survivor = container();
+		
+		assertTrue( attempts.adopt( survivor, 2 ) );
+		
+		assertFalse( attempts.adopt( container(), 0 ) );
+		
+		assertEquals( Collections.singletonList( 3 ), attempts.getWaitingSlots() );
+		
+		assertEquals( Integer.valueOf( 2 ), attempts.getSlot( survivor ) );
+		
+		assertEquals( ContainerAttempts.Outcome.SUCCEEDED, attempts.completed( survivor, 0, true ).getOutcome() );
+		
+		assertEquals( Integer.valueOf( 3 ), attempts.assign( container() ) );
+		
+		assertEquals( 2, attempts.getSucceeded() );
+		
+		assertEquals( 1, attempts.getFailed() );
+		
+		assertFalse( attempts.isFinished() );
+	}
+	
+	@Test
+	public void testGroupedSlotsWaitUntilReady() {
+		
+		ContainerAttempts attempts = attempts( 3 );
+		
+		attempts.group( 0, 0 );
+		
+		attempts.group( 1, 1 );
+		
+		attempts.group( 2, 1 );
+		
+		attempts.hold( 2 );
+		
+		assertEquals( 2, attempts.getWaiting() );
+		
+		// 只分配给同组的 slot
+		assertEquals( Integer.valueOf( 1 ), attempts.assign( container(), 1 ) );
+		
+		assertNull( attempts.assign( container(), 1 ) );
+		
+		assertTrue( attempts.ready( 2 ) );
+		
+		assertEquals( Integer.valueOf( 2 ), attempts.assign( container(), 1 ) );
+		
+		// 上游失败，不再执行
+		assertTrue( attempts.skip( 0 ) );
+		
+		assertNull( attempts.assign( container(), 0 ) );
+		
+		assertEquals( 1, attempts.getFailed() );
+	}
+
+}
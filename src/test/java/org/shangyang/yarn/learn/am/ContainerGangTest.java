@@ -0,0 +1,126 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.junit.Test;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class ContainerGangTest {
+	
+	private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance( ApplicationId.newInstance( 0, 1 ), 1 );
+	
+	private int nextContainer = 2;
+	
+	private Container container() {
+		
+		return Container.newInstance( ContainerId.newContainerId( ATTEMPT, nextContainer++ ), NodeId.newInstance( "host", 45454 ), "host:8042",
+									  Resource.newInstance( 1024, 1 ), Priority.newInstance( 0 ), null );
+	}
+	
+	@Test
+	public void testLaunchOnlyWhenComplete() {
+		
+		ContainerGang gang = new ContainerGang( 3, 1000, 100, 1000, new Random( 1 ) );
+		
+		int round = gang.startRound();
+		
+		assertTrue( gang.hold( container() ).isEmpty() );
+		
+		Container lost = container();
+		
+		assertTrue( gang.hold( lost ).isEmpty() );
+		
+		// 还没有启动就被 RM 收回了
+		assertTrue( gang.remove( lost.getId() ) );
+		
+		assertTrue( gang.hold( container() ).isEmpty() );
+		
+		assertEquals( 2, gang.getHeld() );
+		
+		List<Container> members = gang.hold( container() );
+		
+		assertEquals( 3, members.size() );
+		
+		assertTrue( gang.isLaunched() );
+		
+		assertEquals( 0, gang.getHeld() );
+		
+		// 已经启动了，超时不再有影响
+		assertNull( gang.expire( round ) );
+	}
+	
+	@Test
+	public void testExpireReleasesAndBacksOff() {
+		
+		ContainerGang gang = new ContainerGang( 2, 1000, 100, 300, new Random( 1 ) );
+		
+		int first = gang.startRound();
+		
+		gang.hold( container() );
+		
+		assertEquals( 1, gang.expire( first ).size() );
+		
+		assertEquals( 0, gang.getHeld() );
+		
+		assertFalse( gang.isLaunched() );
+		
+		long backoff = gang.backoffMs();
+		
+		assertTrue( backoff >= 100 && backoff <= 150 );
+		
+		int second = gang.startRound();
+		
+		gang.hold( container() );
+		
+		// 上一轮的超时不影响这一轮
+		assertNull( gang.expire( first ) );
+		
+		assertEquals( 1, gang.getHeld() );
+		
+		backoff = gang.backoffMs();
+		
+		assertTrue( backoff >= 200 && backoff <= 300 );
+		
+		gang.startRound();
+		
+		gang.startRound();
+		
+		// 不超过 backoff-max-ms，再加上抖动
+		backoff = gang.backoffMs();
+		
+		assertTrue( backoff >= 300 && backoff <= 450 );
+		
+		assertEquals( 2, gang.hold( container() ).size() );
+		
+		assertNull( gang.expire( second ) );
+	}
+	
+	@Test
+	public void testDefaults() {
+		
+		ContainerGang gang = new ContainerGang( new Configuration( false ), 4 );
+		
+		assertEquals( 4, gang.getSize() );
+		
+		assertEquals( ContainerGang.DEFAULT_TIMEOUT_MS, gang.getTimeoutMs() );
+	}
+
+}
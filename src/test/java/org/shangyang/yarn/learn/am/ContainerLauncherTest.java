@@ -0,0 +1,210 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
+import org.junit.Test;
+import org.shangyang.yarn.learn.am.ContainerLifecycleTracker.State;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class ContainerLauncherTest {
+	
+	private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance( ApplicationId.newInstance( 0, 1 ), 1 );
+	
+	private static final NodeId NODE = NodeId.newInstance( "host1", 45454 );
+	
+	private final ContainerLifecycleTracker tracker = new ContainerLifecycleTracker( new ApplicationMasterMetrics() );
+	
+	private final RecordingNodeManager nodeManager = new RecordingNodeManager();
+	
+	private final List<ContainerId> broken = Collections.synchronizedList( new ArrayList<ContainerId>() );
+	
+	private final BlockingQueue<ContainerId> failed = new LinkedBlockingQueue<ContainerId>();
+	
+	private int nextContainer = 2;
+	
+	private ContainerLauncher launcher( int maxStartsPerNode ) {
+		
+		Configuration conf = new Configuration( false );
+		
+		// 单线程，LaunchTask 按照 launch 的顺序执行
+		conf.setInt( ContainerLauncher.THREADS, 1 );
+		
+		conf.setInt( ContainerLauncher.MAX_STARTS_PER_NODE, maxStartsPerNode );
+		
+		return new ContainerLauncher( conf, nodeManager, new ContainerLaunchContextFactory() {
+			
+			@Override
+			public ContainerLaunchContext createLaunchContext( Container container ) {
+				
+				if ( broken.contains( container.getId() ) ) {
+					
+					throw new IllegalStateException( "Broken launch context of " + container.getId() );
+				}
+				
+				return ContainerLaunchContext.newInstance( null, null, null, null, null, null );
+			}
+		
+		}, new ApplicationMasterMetrics(), tracker, new ContainerLauncher.Listener() {
+			
+			@Override
+			public void onLaunchFailed( ContainerId containerId ) {
+				
+				failed.add( containerId );
+			}
+		
+		});
+	}
+	
+	private Container container( NodeId nodeId ) {
+		
+		Container container = Container.newInstance( ContainerId.newContainerId( ATTEMPT, nextContainer++ ), nodeId, nodeId.getHost() + ":8042",
+													 Resource.newInstance( 1024, 1 ), Priority.newInstance( 0 ), null );
+		
+		tracker.allocated( container.getId() );
+		
+		return container;
+	}
+	
+	/**
+	 * 在一个新的 Node 上启动一个 Container，它启动了，说明前面所有的 LaunchTask 都已经执行完了
+	 */
+	private void drain( ContainerLauncher launcher ) throws InterruptedException {
+		
+		Container other = container( NodeId.newInstance( "other" + nextContainer, 45454 ) );
+		
+		launcher.launch( other );
+		
+		assertEquals( other.getId(), nodeManager.started.poll( 10, TimeUnit.SECONDS ) );
+	}
+	
+	@Test
+	public void testFactoryFailureKeepsNodeSlots() throws InterruptedException {
+		
+		ContainerLauncher launcher = launcher( 1 );
+		
+		try {
+			
+			Container bad = container( NODE );
+			
+			broken.add( bad.getId() );
+			
+			Container first = container( NODE );
+			
+			Container second = container( NODE );
+			
+			launcher.launch( first );
+			
+			launcher.launch( bad );
+			
+			launcher.launch( second );
+			
+			assertEquals( first.getId(), nodeManager.started.poll( 10, TimeUnit.SECONDS ) );
+			
+			assertEquals( bad.getId(), failed.poll( 10, TimeUnit.SECONDS ) );
+			
+			assertEquals( State.FAILED, tracker.getState( bad.getId() ) );
+			
+			drain( launcher );
+			
+			// 构造失败的 Container 没有占用名额，也不能释放名额：host1 上仍然只有一个正在启动
+			assertTrue( nodeManager.started.isEmpty() );
+			
+			// NM 稍后对同一个 Container 回调启动失败，不能再释放一次
+			launcher.onStartContainerError( bad.getId() );
+			
+			assertTrue( nodeManager.started.isEmpty() );
+			
+			launcher.onContainerStarted( first.getId() );
+			
+			assertEquals( second.getId(), nodeManager.started.poll( 10, TimeUnit.SECONDS ) );
+			
+			launcher.onContainerStarted( second.getId() );
+			
+			Container third = container( NODE );
+			
+			launcher.launch( third );
+			
+			assertEquals( third.getId(), nodeManager.started.poll( 10, TimeUnit.SECONDS ) );
+			
+			Container fourth = container( NODE );
+			
+			launcher.launch( fourth );
+			
+			drain( launcher );
+			
+			assertTrue( nodeManager.started.isEmpty() );
+			
+			// NM 启动失败：释放名额给等待的 Container，并且通知调用方把它还给 RM
+			launcher.onStartContainerError( third.getId() );
+			
+			assertEquals( fourth.getId(), nodeManager.started.poll( 10, TimeUnit.SECONDS ) );
+			
+			assertEquals( third.getId(), failed.poll( 10, TimeUnit.SECONDS ) );
+			
+			assertTrue( failed.isEmpty() );
+		
+		} finally {
+			
+			launcher.stop();
+		}
+	}
+	
+	/**
+	 * 只记录被启动的 Container
+	 */
+	private static class RecordingNodeManager extends NMClientAsync {
+		
+		final BlockingQueue<ContainerId> started = new LinkedBlockingQueue<ContainerId>();
+		
+		RecordingNodeManager() {
+			
+			super( RecordingNodeManager.class.getName(), null, (NMClientAsync.CallbackHandler) null );
+		}
+		
+		@Override
+		public void startContainerAsync( Container container, ContainerLaunchContext containerLaunchContext ) {
+			
+			started.add( container.getId() );
+		}
+		
+		@Override
+		public void stopContainerAsync( ContainerId containerId, NodeId nodeId ) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		public void increaseContainerResourceAsync( Container container ) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public void getContainerStatusAsync( ContainerId containerId, NodeId nodeId ) {
+			
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.junit.Test;
+import org.shangyang.yarn.learn.am.ContainerLifecycleTracker.State;
+
+/**
+ * 
+ * @author 商洋
+ *
+ */
+public class ContainerLifecycleTrackerTest {
+	
+	private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance( ApplicationId.newInstance( 0, 1 ), 1 );
+
+	@Test
+	public void testLifecycle() {
+		
+		ContainerLifecycleTracker tracker = new ContainerLifecycleTracker( new ApplicationMasterMetrics() );
+		
+		tracker.requested( 2 );
+		
+		ContainerId first = ContainerId.newContainerId( ATTEMPT, 1 );
+		
+		ContainerId second = ContainerId.newContainerId( ATTEMPT, 2 );
+		
+		tracker.allocated( first );
+		
+		tracker.allocated( second );
+		
+		tracker.launching( first );
+		
+		tracker.launching( second );
+		
+		tracker.started( first );
+		
+		assertEquals( 1, tracker.count( State.RUNNING ) );
+		
+		assertEquals( 1, tracker.pending() );
+		
+		assertTrue( tracker.completed( first, true ) );
+		
+		assertEquals( 0.5f, tracker.progress( 2 ), 0.0001f );
+		
+		// 启动失败以后 RM 又汇报了一次结束，只能统计一次
+		tracker.startFailed( second );
+		
+		assertFalse( tracker.completed( second, false ) );
+		
+		ContainerLifecycleTracker.Snapshot snapshot = tracker.snapshot();
+		
+		assertEquals( 1, snapshot.get( State.SUCCEEDED ) );
+		
+		assertEquals( 1, snapshot.get( State.FAILED ) );
+		
+		assertEquals( 0, snapshot.get( State.REQUESTED ) + snapshot.get( State.LAUNCHING ) + snapshot.get( State.RUNNING ) );
+		
+		assertEquals( 1f, tracker.progress( 2 ), 0.0001f );
+	}
+	
+	@Test
+	public void testStoppedByApplicationMaster() {
+		
+		ContainerLifecycleTracker tracker = new ContainerLifecycleTracker( new ApplicationMasterMetrics() );
+		
+		tracker.requested( 1 );
+		
+		ContainerId id = ContainerId.newContainerId( ATTEMPT, 1 );
+		
+		tracker.allocated( id );
+		
+		tracker.launching( id );
+		
+		tracker.started( id );
+		
+		assertTrue( tracker.stopped( id, ContainerExitStatus.KILLED_BY_APPMASTER ) );
+		
+		// RM 又汇报了一次结束，只能统计一次
+		assertFalse( tracker.completed( id, ContainerExitStatus.KILLED_BY_APPMASTER, true ) );
+		
+		ContainerLifecycleTracker.Snapshot snapshot = tracker.snapshot();
+		
+		assertEquals( 1, snapshot.get( State.STOPPED ) );
+		
+		assertEquals( 0, snapshot.get( State.SUCCEEDED ) + snapshot.get( State.FAILED ) + snapshot.get( State.RUNNING ) );
+		
+		// 被停止的 Container 不算完成
+		assertEquals( 0f, tracker.progress( 1 ), 0.0001f );
+	}
+	
+	@Test
+	public void testConcurrentCompletions() throws InterruptedException {
+		
+		final ContainerLifecycleTracker tracker = new ContainerLifecycleTracker( new ApplicationMasterMetrics() );
+		
+		final int threads = 8, perThread = 1000;
+		
+		tracker.requested( threads * perThread );
+		
+		final CountDownLatch done = new CountDownLatch( threads );
+		
+		for ( int t = 0; t < threads; t++ ) {
+			
+			final int base = t * perThread;
+			
+			new Thread() {
+				
+				@Override
+				public void run() {
+					
+					for ( int i = 0; i < perThread; i++ ) {
+						
+						ContainerId id = ContainerId.newContainerId( ATTEMPT, base + i );
+						
+						tracker.allocated( id );
+						
+						tracker.launching( id );
+						
+						tracker.started( id );
+						
+						tracker.completed( id, true );
+					}
+					
+					done.countDown();
+				}
+			}.start();
+		}
+		
+		done.await();
+		
+		assertEquals( threads * perThread, tracker.count( State.SUCCEEDED ) );
+		
+		assertEquals( 0, tracker.pending() + tracker.count( State.RUNNING ) );
+	}
+
+}
@@ -0,0 +1,147 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.junit.Test;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class EventJournalTest {
+	
+	private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance( ApplicationId.newInstance( 1476748800000L, 7 ), 1 );
+	
+	@Test
+	public void testTimelinesFromTracker() throws IOException {
+		
+		File dir = Files.createTempDirectory( "journal" ).toFile();
+		
+		try {
+			
+			File file = new File( dir, EventJournal.FILE_NAME );
+			
+			EventJournal journal = new EventJournal( file, 1, ATTEMPT );
+			
+			ContainerLifecycleTracker tracker = new ContainerLifecycleTracker( new ApplicationMasterMetrics() );
+			
+			tracker.setJournal( journal );
+			
+			ContainerId first = ContainerId.newContainerId( ATTEMPT, 2 );
+			
+			ContainerId second = ContainerId.newContainerId( ATTEMPT, 3 );
+			
+			// 名字超过一个槽的 Node
+			NodeId node = NodeId.newInstance( "a-rather-long-host-name.rack-01.example.com", 45454 );
+			
+			tracker.requested( 2 );
+			
+			tracker.allocated( first, node );
+			
+			tracker.allocated( second, node );
+			
+			tracker.launching( first );
+			
+			tracker.launching( second );
+			
+			tracker.started( first );
+			
+			tracker.startFailed( second );
+			
+			tracker.completed( first, 0, true );
+			
+			tracker.completed( second, ContainerExitStatus.ABORTED, false );
+			
+			tracker.error( null, EventJournal.ERROR_RESOURCE_MANAGER );
+			
+			journal.close();
+			
+			// 文件被截断到实际写入的长度：文件头 + Node 的定义（3 个槽）+ 10 个事件
+			assertEquals( EventJournal.HEADER + 13 * EventJournal.SLOT, file.length() );
+			
+			EventJournalReader reader = EventJournalReader.read( file );
+			
+			assertEquals( 10, reader.getEvents().size() );
+			
+			assertEquals( EventJournal.Type.REQUEST, reader.getEvents().get( 0 ).getType() );
+			
+			assertEquals( 2, reader.getEvents().get( 0 ).getValue() );
+			
+			Map<ContainerId, EventJournalReader.Timeline> timelines = reader.timelines();
+			
+			assertEquals( Arrays.asList( first, second ), Arrays.asList( timelines.keySet().toArray() ) );
+			
+			EventJournalReader.Timeline timeline = timelines.get( first );
+			
+			assertEquals( "a-rather-long-host-name.rack-01.example.com:45454", timeline.getNode() );
+			
+			assertTrue( timeline.getAllocated() >= 0 && timeline.getAllocated() <= timeline.getLaunched() );
+			
+			assertTrue( timeline.getLaunched() <= timeline.getStarted() && timeline.getStarted() <= timeline.getCompleted() );
+			
+			assertEquals( 0, timeline.getExitStatus() );
+			
+			timeline = timelines.get( second );
+			
+			assertEquals( -1, timeline.getStarted() );
+			
+			assertEquals( ContainerExitStatus.ABORTED, timeline.getExitStatus() );
+			
+			assertEquals( Arrays.asList( (long) EventJournal.ERROR_START ), timeline.getErrors() );
+		
+		} finally {
+			
+			FileUtil.fullyDelete( dir );
+		}
+	}
+	
+	@Test
+	public void testFullJournalDropsEvents() throws IOException {
+		
+		File dir = Files.createTempDirectory( "journal" ).toFile();
+		
+		try {
+			
+			File file = new File( dir, EventJournal.FILE_NAME );
+			
+			EventJournal journal = new EventJournal( file, 1, ATTEMPT );
+			
+			int slots = ( ( 1 << 20 ) - EventJournal.HEADER ) / EventJournal.SLOT;
+			
+			for ( int i = 0; i < slots + 10; i++ ) {
+				
+				journal.record( EventJournal.Type.LAUNCH, ContainerId.newContainerId( ATTEMPT, 2 + i ), null, 0 );
+			}
+			
+			assertEquals( 10, journal.getDropped() );
+			
+			journal.close();
+			
+			// 关闭以后的事件也被丢弃
+			journal.record( EventJournal.Type.START, ContainerId.newContainerId( ATTEMPT, 2 ), null, 0 );
+			
+			assertEquals( 11, journal.getDropped() );
+			
+			assertEquals( slots, EventJournalReader.read( file ).getEvents().size() );
+		
+		} finally {
+			
+			FileUtil.fullyDelete( dir );
+		}
+	}
+
+}
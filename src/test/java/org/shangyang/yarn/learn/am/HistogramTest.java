@@ -0,0 +1,51 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author 商洋
+ *
+ */
+public class HistogramTest {
+
+	@Test
+	public void testPowerOfTwoBuckets() {
+		
+		assertEquals( 0, Histogram.bucket( 0 ) );
+		
+		assertEquals( 1, Histogram.bucket( 1 ) );
+		
+		assertEquals( 2, Histogram.bucket( 3 ) );
+		
+		assertEquals( 3, Histogram.bucket( 4 ) );
+		
+		assertEquals( 7, Histogram.upperBound( 3 ) );
+	}
+	
+	@Test
+	public void testQuantiles() {
+		
+		Histogram histogram = new Histogram();
+		
+		for ( int i = 1; i <= 100; i++ ) {
+			
+			histogram.record( i );
+		}
+		
+		assertEquals( 100, histogram.getCount() );
+		
+		assertEquals( 5050, histogram.getSum() );
+		
+		assertEquals( 100, histogram.getMax() );
+		
+		// 50 落在 [32, 63] 这个桶中
+		assertEquals( 63, histogram.getQuantile( 0.5 ) );
+		
+		// 不会超过记录过的最大值
+		assertEquals( 100, histogram.getQuantile( 0.99 ) );
+	}
+
+}
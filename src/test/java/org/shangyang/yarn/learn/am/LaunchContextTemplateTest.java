@@ -0,0 +1,93 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.apache.hadoop.io.DataInputByteBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.security.AMRMTokenIdentifier;
+import org.junit.Test;
+
+/**
+ * 
+ * @author 商洋
+ *
+ */
+public class LaunchContextTemplateTest {
+
+	@Test
+	public void testAMRMTokenIsNotShippedToContainers() throws Exception {
+		
+		UserGroupInformation ugi = UserGroupInformation.getCurrentUser();
+		
+		ugi.addToken( new Text("amrm"), new Token<TokenIdentifier>( new byte[]{1}, new byte[]{2}, AMRMTokenIdentifier.KIND_NAME, new Text("rm") ) );
+		
+		ugi.addToken( new Text("hdfs"), new Token<TokenIdentifier>( new byte[]{3}, new byte[]{4}, new Text("HDFS_DELEGATION_TOKEN"), new Text("nn") ) );
+		
+		LaunchContextTemplate template = new LaunchContextTemplate( Collections.singletonList("true"), 
+																	Collections.<String, String>emptyMap(), 
+																	Collections.<String, LocalResource>emptyMap() );
+		
+		ContainerLaunchContext launchContext = template.createLaunchContext( null );
+		
+		assertEquals( Collections.singletonList("true"), launchContext.getCommands() );
+		
+		Credentials credentials = read( launchContext.getTokens() );
+		
+		assertNull( credentials.getToken( new Text("amrm") ) );
+		
+		assertNotNull( credentials.getToken( new Text("hdfs") ) );
+		
+		// Credentials 没有变化的时候，不会重新序列化
+		assertSame( template.currentTokens(), template.currentTokens() );
+	}
+	
+	@Test
+	public void testContainerTokenIsAddedToTheSharedTokens() throws Exception {
+		
+		UserGroupInformation.getCurrentUser().addToken( new Text("hdfs"), new Token<TokenIdentifier>( new byte[]{3}, new byte[]{4}, new Text("HDFS_DELEGATION_TOKEN"), new Text("nn") ) );
+		
+		LaunchContextTemplate template = new LaunchContextTemplate( Collections.singletonList("true"), 
+																	Collections.<String, String>emptyMap(), 
+																	Collections.<String, LocalResource>emptyMap() );
+		
+		ContainerLaunchContext first = template.createLaunchContext( null );
+		
+		template.setupLaunchContextTokens( first, new Text("task"), new Token<TokenIdentifier>( new byte[]{5}, new byte[]{6}, new Text("TASK"), new Text("am") ) );
+		
+		Credentials credentials = read( first.getTokens() );
+		
+		assertNotNull( credentials.getToken( new Text("hdfs") ) );
+		
+		assertEquals( new Text("TASK"), credentials.getToken( new Text("task") ).getKind() );
+		
+		// 共用的 tokens 不受影响
+		assertNull( read( template.createLaunchContext( null ).getTokens() ).getToken( new Text("task") ) );
+	}
+	
+	private static Credentials read( ByteBuffer tokens ) throws Exception {
+		
+		DataInputByteBuffer in = new DataInputByteBuffer();
+		
+		in.reset( tokens.duplicate() );
+		
+		Credentials credentials = new Credentials();
+		
+		credentials.readTokenStorageStream( new DataInputStream( in ) );
+		
+		return credentials;
+	}
+	
+}
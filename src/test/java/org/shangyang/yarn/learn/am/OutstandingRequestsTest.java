@@ -0,0 +1,115 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.AMRMClient;
+import org.junit.Test;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class OutstandingRequestsTest {
+	
+	private static final Priority PRIORITY = Priority.newInstance( 0 );
+	
+	private static AMRMClient.ContainerRequest request( int memory, String[] nodes, String[] racks ) {
+		
+		return new AMRMClient.ContainerRequest( Resource.newInstance( memory, 1 ), nodes, racks, PRIORITY );
+	}
+	
+	@Test
+	public void testMatchPrefersNodeThenRackThenOldest() {
+		
+		OutstandingRequests outstanding = new OutstandingRequests();
+		
+		AMRMClient.ContainerRequest any = request( 512, null, null );
+		
+		AMRMClient.ContainerRequest onRack = request( 512, new String[] { "h9" }, new String[] { "/r1" } );
+		
+		AMRMClient.ContainerRequest onNode = request( 512, new String[] { "h1" }, new String[] { "/r2" } );
+		
+		for ( AMRMClient.ContainerRequest r : Arrays.asList( any, onRack, onNode ) ) {
+			
+			outstanding.add( r );
+		}
+		
+		// 同一个请求注册两次只算一次
+		outstanding.add( any );
+		
+		assertEquals( 3, outstanding.size() );
+		
+		// RM 把 512MB 向上取整成 1024MB
+		Resource granted = Resource.newInstance( 1024, 1 );
+		
+		assertSame( onNode, outstanding.match( PRIORITY, granted, "h1", "/r1" ) );
+		
+		assertSame( onRack, outstanding.match( PRIORITY, granted, "h1", "/r1" ) );
+		
+		assertSame( any, outstanding.match( PRIORITY, granted, "h1", "/r1" ) );
+		
+		// 没有请求了，多出来的 Container
+		assertNull( outstanding.match( PRIORITY, granted, "h1", "/r1" ) );
+		
+		assertEquals( 0, outstanding.size() );
+	}
+	
+	@Test
+	public void testMatchByPriorityAndCapability() {
+		
+		OutstandingRequests outstanding = new OutstandingRequests();
+		
+		AMRMClient.ContainerRequest small = request( 256, null, null );
+		
+		AMRMClient.ContainerRequest large = request( 2048, null, null );
+		
+		outstanding.add( small );
+		
+		outstanding.add( large );
+		
+		// 优先级不同
+		assertNull( outstanding.match( Priority.newInstance( 1 ), Resource.newInstance( 4096, 1 ), "h1", null ) );
+		
+		// 放不下 2048MB 的请求
+		assertSame( small, outstanding.match( PRIORITY, Resource.newInstance( 1024, 1 ), "h1", null ) );
+		
+		assertNull( outstanding.match( PRIORITY, Resource.newInstance( 1024, 1 ), "h1", null ) );
+		
+		assertSame( large, outstanding.match( PRIORITY, Resource.newInstance( 2048, 1 ), "h1", null ) );
+	}
+	
+	@Test
+	public void testRemoveOldest() {
+		
+		OutstandingRequests outstanding = new OutstandingRequests();
+		
+		AMRMClient.ContainerRequest first = request( 512, new String[] { "h1" }, null );
+		
+		AMRMClient.ContainerRequest second = request( 512, new String[] { "h1" }, null );
+		
+		AMRMClient.ContainerRequest third = request( 512, null, null );
+		
+		outstanding.add( first );
+		
+		outstanding.add( second );
+		
+		outstanding.add( third );
+		
+		assertEquals( Arrays.asList( first, second ), outstanding.removeOldest( 2 ) );
+		
+		assertEquals( 1, outstanding.size() );
+		
+		// 被撤销的请求也从 Node 的索引中删除了
+		assertSame( third, outstanding.match( PRIORITY, Resource.newInstance( 512, 1 ), "h1", null ) );
+		
+		assertEquals( 0, outstanding.removeOldest( 5 ).size() );
+	}
+
+}
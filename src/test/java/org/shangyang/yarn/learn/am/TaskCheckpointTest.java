@@ -0,0 +1,166 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.junit.Test;
+import org.shangyang.yarn.learn.task.TaskSpec;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class TaskCheckpointTest {
+	
+	private static final ApplicationId APP = ApplicationId.newInstance( 1476748800000L, 3 );
+	
+	private static final long NEVER = 3600000L;
+	
+	/**
+	 * 带校验和的本地 FileSystem 按块缓冲，hflush 以后也读不到，截断以后校验也通不过；HDFS 上没有这个问题
+	 */
+	private static Configuration conf() {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.setClass( "fs.file.impl", RawLocalFileSystem.class, FileSystem.class );
+		
+		conf.setBoolean( "fs.file.impl.disable.cache", true );
+		
+		return conf;
+	}
+	
+	@Test
+	public void testRecoverFromPreviousAttempts() throws IOException {
+		
+		File dir = Files.createTempDirectory( "checkpoint" ).toFile();
+		
+		try {
+			
+			Configuration conf = conf();
+			
+			Path appDir = new Path( dir.toURI().toString(), APP.toString() );
+			
+			ContainerId first = ContainerId.newContainerId( ApplicationAttemptId.newInstance( APP, 1 ), 2 );
+			
+			ContainerId second = ContainerId.newContainerId( ApplicationAttemptId.newInstance( APP, 2 ), 5 );
+			
+			TaskCheckpoint attempt1 = new TaskCheckpoint( conf, appDir, 1, NEVER );
+			
+			attempt1.assigned( 0, first );
+			
+			attempt1.slotFinished( 1, true );
+			
+			attempt1.taskFinished( 7, false );
+			
+			// AM 挂掉了，没有 close
+			attempt1.flush();
+			
+			TaskCheckpoint attempt2 = new TaskCheckpoint( conf, appDir, 2, NEVER );
+			
+			assertEquals( 1, attempt2.recover().getSlots().size() );
+			
+			attempt2.assigned( 2, second );
+			
+			attempt2.slotFinished( 0, true );
+			
+			attempt2.taskFinished( 7, true );
+			
+			attempt2.close( false );
+			
+			// 第 3 个 attempt 看到前两个 attempt 的记录，后面的覆盖前面的
+			TaskCheckpoint attempt3 = new TaskCheckpoint( conf, appDir, 3, NEVER );
+			
+			TaskCheckpoint.State state = attempt3.recover();
+			
+			assertEquals( 2, state.getSlots().size() );
+			
+			assertTrue( state.getSlots().get( 0 ) );
+			
+			assertEquals( Integer.valueOf( 0 ), state.getSlot( first ) );
+			
+			assertEquals( Integer.valueOf( 2 ), state.getSlot( second ) );
+			
+			assertNull( state.getSlot( ContainerId.newContainerId( ApplicationAttemptId.newInstance( APP, 2 ), 6 ) ) );
+			
+			TaskQueue queue = new TaskQueue();
+			
+			queue.add( new TaskSpec( 6, "true" ) );
+			
+			queue.add( new TaskSpec( 7, "true" ) );
+			
+			assertEquals( 1, queue.restore( state.getTasks() ) );
+			
+			assertEquals( 1, queue.getSucceeded() );
+			
+			assertEquals( 1, queue.getPending() );
+			
+			assertFalse( queue.isDrained() );
+			
+			// Application 结束以后删除所有的检查点
+			attempt3.close( true );
+			
+			assertFalse( new File( dir, APP.toString() ).exists() );
+		
+		} finally {
+			
+			FileUtil.fullyDelete( dir );
+		}
+	}
+	
+	@Test
+	public void testTruncatedRecordIsIgnored() throws IOException {
+		
+		File dir = Files.createTempDirectory( "checkpoint" ).toFile();
+		
+		try {
+			
+			Configuration conf = conf();
+			
+			Path appDir = new Path( dir.toURI().toString(), APP.toString() );
+			
+			TaskCheckpoint attempt1 = new TaskCheckpoint( conf, appDir, 1, NEVER );
+			
+			attempt1.taskFinished( 1, true );
+			
+			attempt1.taskFinished( 2, true );
+			
+			attempt1.close( false );
+			
+			// 最后一条记录只写了一半
+			File file = new File( new File( dir, APP.toString() ), TaskCheckpoint.ATTEMPT_PREFIX + 1 );
+			
+			try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) ) {
+				
+				raf.setLength( raf.length() - 2 );
+			}
+			
+			TaskCheckpoint.State state = new TaskCheckpoint( conf, appDir, 2, NEVER ).recover();
+			
+			assertEquals( 1, state.getTasks().size() );
+			
+			assertTrue( state.getTasks().get( 1 ) );
+		
+		} finally {
+			
+			FileUtil.fullyDelete( dir );
+		}
+	}
+
+}
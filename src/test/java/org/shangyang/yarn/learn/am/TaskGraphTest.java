@@ -0,0 +1,157 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.junit.Test;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class TaskGraphTest {
+	
+	private static void vertex( Configuration conf, String name, int tasks, String inputs ) {
+		
+		conf.set( TaskGraph.VERTEX_PREFIX + name + "." + TaskGraph.COMMAND, "run-" + name );
+		
+		conf.setInt( TaskGraph.VERTEX_PREFIX + name + "." + TaskGraph.TASKS, tasks );
+		
+		if ( inputs != null ) {
+			
+			conf.set( TaskGraph.VERTEX_PREFIX + name + "." + TaskGraph.INPUTS, inputs );
+		}
+	}
+	
+	@Test
+	public void testOneToOneStartsBeforeTheWholeStageFinishes() {
+		
+		Configuration conf = new Configuration( false );
+		
+		// 配置的顺序不是拓扑顺序
+		conf.set( TaskGraph.VERTICES, "load,extract,transform" );
+		
+		vertex( conf, "extract", 2, null );
+		
+		vertex( conf, "transform", 2, "extract:one-to-one" );
+		
+		vertex( conf, "load", 1, "transform" );
+		
+		conf.setInt( TaskGraph.VERTEX_PREFIX + "load." + TaskGraph.MEMORY_MB, 8192 );
+		
+		TaskGraph graph = TaskGraph.parse( conf );
+		
+		assertEquals( "[extract[2], transform[2], load[1]]", graph.getVertices().toString() );
+		
+		assertEquals( 5, graph.getSlots() );
+		
+		assertTrue( graph.isReady( 0 ) && graph.isReady( 1 ) );
+		
+		assertFalse( graph.isReady( 2 ) );
+		
+		// extract 的第 2 个任务一成功，transform 的第 2 个任务就可以开始
+		assertEquals( Arrays.asList( 3 ), graph.succeeded( 1 ) );
+		
+		assertEquals( Collections.emptyList(), graph.succeeded( 3 ) );
+		
+		assertEquals( Arrays.asList( 2 ), graph.succeeded( 0 ) );
+		
+		// load 要等 transform 全部成功
+		assertEquals( Arrays.asList( 4 ), graph.succeeded( 2 ) );
+		
+		assertEquals( "load", graph.vertexOf( 4 ).getName() );
+		
+		graph.cap( Resource.newInstance( 4096, 8 ) );
+		
+		assertEquals( 4096, graph.vertexOf( 4 ).getCapability( null ).getMemorySize() );
+		
+		Resource fallback = Resource.newInstance( 1024, 1 );
+		
+		assertEquals( fallback, graph.vertexOf( 0 ).getCapability( fallback ) );
+	}
+	
+	@Test
+	public void testFailureSkipsOnlyDownstreamTasks() {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.set( TaskGraph.VERTICES, "a,b,c,d" );
+		
+		vertex( conf, "a", 2, null );
+		
+		vertex( conf, "b", 2, "a:one-to-one" );
+		
+		vertex( conf, "c", 1, "b" );
+		
+		vertex( conf, "d", 1, null );
+		
+		TaskGraph graph = TaskGraph.parse( conf );
+		
+		// a 的第 1 个任务失败：b 的第 1 个任务以及依赖 b 全部任务的 c 都不再执行，b 的第 2 个任务以及 d 不受影响
+		assertEquals( Arrays.asList( 3, 5 ), graph.failed( 0 ) );
+		
+		assertEquals( Arrays.asList( 4 ), graph.succeeded( 1 ) );
+		
+		assertTrue( graph.isReady( 2 ) );
+		
+		assertEquals( Collections.emptyList(), graph.succeeded( 4 ) );
+	}
+	
+	@Test
+	public void testTiersRankBeforeTopologicalOrder() {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.set( TaskGraph.VERTICES, "bulk,prepare,serve" );
+		
+		vertex( conf, "bulk", 4, null );
+		
+		vertex( conf, "prepare", 1, null );
+		
+		vertex( conf, "serve", 2, "prepare" );
+		
+		conf.setInt( TaskGraph.VERTEX_PREFIX + "bulk." + TaskGraph.PRIORITY, 1 );
+		
+		conf.setFloat( TaskGraph.VERTEX_PREFIX + "bulk." + TaskGraph.WEIGHT, 0.25f );
+		
+		TaskGraph graph = TaskGraph.parse( conf );
+		
+		// 拓扑顺序仍然按照配置，slot 的编号不变
+		assertEquals( "bulk", graph.getVertex( 0 ).getName() );
+		
+		assertEquals( "serve", graph.getVertex( 2 ).getName() );
+		
+		// 同一个 tier 中按照拓扑顺序，不重要的 tier 排在最后
+		assertEquals( "prepare", graph.getRanked().get( 0 ).getName() );
+		
+		assertEquals( "serve", graph.getRanked().get( 1 ).getName() );
+		
+		assertEquals( 2, graph.getVertex( 0 ).getRank() );
+		
+		assertEquals( 0.25f, graph.getVertex( 0 ).getWeight(), 0 );
+		
+		assertEquals( 1f, graph.getVertex( 1 ).getWeight(), 0 );
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCycleIsRejected() {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.set( TaskGraph.VERTICES, "a,b" );
+		
+		vertex( conf, "a", 1, "b" );
+		
+		vertex( conf, "b", 1, "a" );
+		
+		TaskGraph.parse( conf );
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.shangyang.yarn.learn.task.TaskSpec;
+
+/**
+ * 
+ * @author 商洋
+ *
+ */
+public class TaskQueueTest {
+
+	@Test
+	public void testLostWorkerTasksAreRequeued() {
+		
+		final AtomicInteger drained = new AtomicInteger();
+		
+		TaskQueue queue = new TaskQueue();
+		
+		queue.setListener( new TaskQueue.Listener() {
+			
+			@Override
+			public void onTasksDrained( TaskQueue queue ) {
+				
+				drained.incrementAndGet();
+			}
+		});
+		
+		queue.add( new TaskSpec( 0, "true" ) );
+		
+		TaskSpec task = queue.poll( "worker-1" );
+		
+		assertNull( queue.poll( "worker-2" ) );
+		
+		assertEquals( 1, queue.workerLost( "worker-1" ).size() );
+		
+		// worker-1 的汇报已经过期了
+		queue.done( "worker-1", task.getId(), 0 );
+		
+		assertFalse( queue.isDrained() );
+		
+		assertEquals( task.getId(), queue.poll( "worker-2" ).getId() );
+		
+		queue.done( "worker-2", task.getId(), 1 );
+		
+		assertTrue( queue.isDrained() );
+		
+		assertEquals( 1, drained.get() );
+		
+		assertEquals( 1, queue.getFailed() );
+	}
+	
+}
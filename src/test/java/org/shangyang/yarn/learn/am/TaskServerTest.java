@@ -0,0 +1,126 @@
+package org.shangyang.yarn.learn.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.SecretManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shangyang.yarn.learn.sizing.UsageCollector;
+import org.shangyang.yarn.learn.task.TaskProtocol;
+import org.shangyang.yarn.learn.task.TaskSpec;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class TaskServerTest {
+	
+	private static final String WORKER = "container_0_0001_01_000002";
+	
+	private final Configuration conf = new Configuration( false );
+	
+	private TaskServer server;
+	
+	@Before
+	public void before() throws IOException {
+		
+		conf.set( TaskServer.BIND_HOST, "localhost" );
+		
+		TaskQueue queue = new TaskQueue();
+		
+		queue.add( new TaskSpec( 0, "true" ) );
+		
+		queue.add( new TaskSpec( 1, "true" ) );
+		
+		server = new TaskServer( conf, queue, new UsageCollector() );
+		
+		server.start();
+	}
+	
+	@After
+	public void after() {
+		
+		server.stop();
+	}
+	
+	/**
+	 * 以一个新的用户连接 TaskServer，每个用户使用自己的连接
+	 */
+	private TaskSpec nextTask( UserGroupInformation ugi, final String workerId ) throws Exception {
+		
+		return ugi.doAs( new PrivilegedExceptionAction<TaskSpec>() {
+			
+			@Override
+			public TaskSpec run() throws Exception {
+				
+				TaskProtocol proxy = RPC.getProxy( TaskProtocol.class, TaskProtocol.versionID, NetUtils.createSocketAddr( server.getConnectAddress() ), conf );
+				
+				try {
+					
+					return proxy.nextTask( workerId );
+				
+				} finally {
+					
+					RPC.stopProxy( proxy );
+				}
+			}
+		});
+	}
+	
+	private void assertRejected( UserGroupInformation ugi, String workerId ) throws Exception {
+		
+		try {
+			
+			nextTask( ugi, workerId );
+			
+			fail( ugi + " should not be able to pull tasks as " + workerId );
+		
+		} catch ( RemoteException e ) {
+			
+			// 已经建立的连接在调用的时候被拒绝，新的连接在 SASL 认证的时候就被拒绝
+			IOException rejection = e.unwrapRemoteException();
+			
+			assertTrue( rejection.toString(), rejection instanceof AccessControlException || rejection instanceof SecretManager.InvalidToken );
+		}
+	}
+	
+	@Test
+	public void testWorkerWithItsOwnToken() throws Exception {
+		
+		UserGroupInformation worker = UserGroupInformation.createRemoteUser( "app" );
+		
+		worker.addToken( server.createToken( WORKER ) );
+		
+		assertEquals( TaskSpec.RUN, nextTask( worker, WORKER ).getStatus() );
+		
+		// 冒充其它的 Worker
+		assertRejected( worker, "container_0_0001_01_000003" );
+		
+		// Container 结束以后，同一个 token 不再有效
+		server.retire( WORKER );
+		
+		assertRejected( worker, WORKER );
+	}
+	
+	@Test
+	public void testRejectsCallersWithoutToken() throws Exception {
+		
+		server.createToken( WORKER );
+		
+		assertRejected( UserGroupInformation.createRemoteUser( "app" ), WORKER );
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.shangyang.yarn.learn.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.junit.Test;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class AppMasterJvmOptionsTest {
+	
+	@Test
+	public void testGrantedIsRoundedUpAndCapped() {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.setInt( YarnConfiguration.RM_SCHEDULER_MINIMUM_ALLOCATION_MB, 512 );
+		
+		Resource granted = AppMasterJvmOptions.granted( conf, Resource.newInstance( 600, 0 ), Resource.newInstance( 8192, 8 ) );
+		
+		assertEquals( 1024, granted.getMemorySize() );
+		
+		assertEquals( 1, granted.getVirtualCores() );
+		
+		granted = AppMasterJvmOptions.granted( conf, Resource.newInstance( 9000, 2 ), Resource.newInstance( 8192, 8 ) );
+		
+		assertEquals( 8192, granted.getMemorySize() );
+	}
+	
+	@Test
+	public void testHeapAndGcFollowTheContainer() {
+		
+		Configuration conf = new Configuration( false );
+		
+		// 小堆：SerialGC
+		assertEquals( Arrays.asList( "-Xms768m", "-Xmx768m", "-XX:+UseSerialGC", "-Djava.net.preferIPv4Stack=true" ),
+					  AppMasterJvmOptions.options( conf, Resource.newInstance( 1024, 1 ) ) );
+		
+		// 大堆：ParallelGC，GC 线程数与 vcores 相同；java-opts 追加在最后
+		conf.setFloat( AppMasterJvmOptions.HEAP_RATIO, 0.5f );
+		
+		conf.set( AppMasterJvmOptions.JAVA_OPTS, " -XX:+PrintGC  -Dfoo=bar " );
+		
+		assertEquals( Arrays.asList( "-Xms2048m", "-Xmx2048m", "-XX:+UseParallelGC", "-XX:ParallelGCThreads=4", "-Djava.net.preferIPv4Stack=true", "-XX:+PrintGC", "-Dfoo=bar" ),
+					  AppMasterJvmOptions.options( conf, Resource.newInstance( 4096, 4 ) ) );
+		
+		// 堆有一个下限
+		assertEquals( "-Xmx32m", AppMasterJvmOptions.options( conf, Resource.newInstance( 16, 1 ) ).get( 1 ) );
+	}
+	
+	@Test
+	public void testLeanClassPath() throws IOException {
+		
+		File dir = Files.createTempDirectory( "am-classpath" ).toFile();
+		
+		try {
+			
+			File lib = new File( dir, "lib" );
+			
+			File conf = new File( dir, "conf" );
+			
+			lib.mkdirs();
+			
+			conf.mkdirs();
+			
+			for ( String name : new String[] { "b.jar", "a.jar", "junit-4.12.jar", "app.jar", "notes.txt" } ) {
+				
+				new File( lib, name ).createNewFile();
+			}
+			
+			Map<String, String> env = new HashMap<String, String>();
+			
+			env.put( "HOME_DIR", dir.getPath() );
+			
+			List<String> entries = Arrays.asList( "$HOME_DIR/conf", "${HOME_DIR}/lib/*", "{{HOME_DIR}}/lib/a.jar", "$MISSING/share/*", dir.getPath() + "/nothing.jar" );
+			
+			AppMasterClassPath classPath = AppMasterClassPath.build( entries, Arrays.asList( "junit" ), Collections.singleton( new File( lib, "app.jar" ).getCanonicalFile() ), env );
+			
+			String a = new File( lib, "a.jar" ).getCanonicalPath();
+			
+			String b = new File( lib, "b.jar" ).getCanonicalPath();
+			
+			// 展开排序、去重；测试的 jar、AM 自己的 jar 以及不存在的文件都去掉了
+			assertEquals( Arrays.asList( a, b ), classPath.getJars() );
+			
+			assertEquals( a + File.pathSeparator + b + File.pathSeparator + "./*" + File.pathSeparator + "$HOME_DIR/conf" + File.pathSeparator + "$MISSING/share/*",
+						  classPath.toClassPath() );
+			
+			assertNull( AppMasterClassPath.resolve( "$MISSING/lib", env ) );
+		
+		} finally {
+			
+			FileUtil.fullyDelete( dir );
+		}
+	}
+
+}
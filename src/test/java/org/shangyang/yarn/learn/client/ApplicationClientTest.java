@@ -2,6 +2,7 @@ package org.shangyang.yarn.learn.client;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
@@ -65,9 +66,10 @@ public class ApplicationClientTest {
 	 * @throws IOException
 	 * @throws YarnException
 	 * @throws InterruptedException
+	 * @throws ExecutionException
 	 */
 	@Test
-	public void testClient() throws IOException, YarnException, InterruptedException {
+	public void testClient() throws IOException, YarnException, InterruptedException, ExecutionException {
 		
 		ApplicationClient client = new ApplicationClient(conf);
 		
@@ -77,44 +79,26 @@ public class ApplicationClientTest {
 		
 		ApplicationId applicationId = client.submit();
 		
-		boolean outAccepted = false;
-		
-		boolean outTrackingUrl = false;
-		
-		// 下面的代码的用途是监控 application master 的执行状态。
-		ApplicationReport report = client.getApplicationReport( applicationId );
-		
-		while (report.getYarnApplicationState() != YarnApplicationState.FINISHED) {
-			
-			report = client.getApplicationReport( applicationId );
+		// 下面的代码的用途是监控 application master 的执行状态，Application 结束（FINISHED/FAILED/KILLED）的时候返回
+		ApplicationReport report = client.getMonitor().monitor( applicationId, new ApplicationMonitor.Listener() {
 			
-			if (!outAccepted && report.getYarnApplicationState() == YarnApplicationState.ACCEPTED) {
+			@Override
+			public void onStateChanged( ApplicationReport report, YarnApplicationState previous ) {
 				
-				System.out.println("Application is accepted use Queue=" + report.getQueue() + " applicationId="+ report.getApplicationId());
-				
-				outAccepted = true;
-			}
-			
-			if (!outTrackingUrl && report.getYarnApplicationState() == YarnApplicationState.RUNNING) {
-				
-				String trackingUrl = report.getTrackingUrl();
-				
-				System.out.println("Master Tracking URL = " + trackingUrl);
-				
-				outTrackingUrl = true;
-			}
-			
-			System.out.println(String.format("%f %s", report.getProgress(), report.getYarnApplicationState()));
-			
-			try {
+				if ( report.getYarnApplicationState() == YarnApplicationState.ACCEPTED ) {
+					
+					System.out.println("Application is accepted use Queue=" + report.getQueue() + " applicationId="+ report.getApplicationId());
+				}
 				
-				Thread.sleep(1000);
+				if ( report.getYarnApplicationState() == YarnApplicationState.RUNNING ) {
+					
+					System.out.println("Master Tracking URL = " + report.getTrackingUrl());
+				}
 				
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+				System.out.println(String.format("%f %s", report.getProgress(), report.getYarnApplicationState()));
 			}
 			
-		}
+		}).get();
 		
 		System.out.println( report.getFinalApplicationStatus() );
 
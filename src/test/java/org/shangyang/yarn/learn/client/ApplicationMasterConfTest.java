@@ -0,0 +1,64 @@
+package org.shangyang.yarn.learn.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.junit.Test;
+import org.shangyang.yarn.learn.am.ApplicationMasterConfig;
+
+/**
+ *
+ * @author 商洋
+ *
+ */
+public class ApplicationMasterConfTest {
+	
+	@Test
+	public void testOnlyShipsWhatTheApplicationMasterNeeds() {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.set( "learn.yarn.host", "rm1.example.com" );
+		
+		conf.setInt( ApplicationMasterConfig.TASKS, 7 );
+		
+		conf.set( YarnConfiguration.RM_SCHEDULER_ADDRESS, "${learn.yarn.host}:8030" );
+		
+		conf.set( YarnConfiguration.RM_HA_IDS, "rm1,rm2" );
+		
+		conf.set( YarnConfiguration.RM_HOSTNAME + ".rm2", "rm2.example.com" );
+		
+		conf.set( FileSystem.FS_DEFAULT_NAME_KEY, "hdfs://nn:8020" );
+		
+		// 凭证以及与 AM 无关的 RM 配置都留在 Client 上
+		conf.set( "fs.s3a.secret.key", "secret" );
+		
+		conf.set( "hadoop.security.credential.provider.path", "jceks://hdfs/user/me/creds.jceks" );
+		
+		conf.set( YarnConfiguration.RM_KEYTAB, "/etc/security/rm.keytab" );
+		
+		Configuration shipped = ApplicationClient.applicationMasterConf( conf );
+		
+		assertEquals( 7, shipped.getInt( ApplicationMasterConfig.TASKS, 0 ) );
+		
+		assertEquals( "rm1.example.com:8030", shipped.get( YarnConfiguration.RM_SCHEDULER_ADDRESS ) );
+		
+		assertEquals( "rm1,rm2", shipped.get( YarnConfiguration.RM_HA_IDS ) );
+		
+		assertEquals( "rm2.example.com", shipped.get( YarnConfiguration.RM_HOSTNAME + ".rm2" ) );
+		
+		assertEquals( "hdfs://nn:8020", shipped.get( FileSystem.FS_DEFAULT_NAME_KEY ) );
+		
+		assertNull( shipped.get( "fs.s3a.secret.key" ) );
+		
+		assertNull( shipped.get( "hadoop.security.credential.provider.path" ) );
+		
+		assertNull( shipped.get( YarnConfiguration.RM_KEYTAB ) );
+		
+		assertEquals( 6, shipped.size() );
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.shangyang.yarn.learn.sizing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.junit.Test;
+
+/**
+ * 
+ * @author 商洋
+ *
+ */
+public class ContainerSizerTest {
+	
+	@Test
+	public void testPercentileWithHeadroom() throws IOException {
+		
+		Configuration conf = new Configuration( false );
+		
+		conf.setFloat( ContainerSizer.PERCENTILE, 90 );
+		
+		conf.setFloat( ContainerSizer.HEADROOM, 0.5f );
+		
+		ContainerSizer sizer = new ContainerSizer( conf, null );
+		
+		List<ResourceUsage> samples = new ArrayList<ResourceUsage>();
+		
+		for ( int i = 1; i <= 10; i++ ) {
+			
+			// 100MB ~ 1000MB，CPU 未知
+			samples.add( new ResourceUsage( i * 100, ResourceUsage.UNKNOWN ) );
+		}
+		
+		Resource sized = sizer.size( samples, Resource.newInstance( 128, 2 ), Resource.newInstance( 8192, 8 ) );
+		
+		// P90 = 900MB，加上 50% 的余量；CPU 没有样本，使用默认值
+		assertEquals( 1350, sized.getMemorySize() );
+		
+		assertEquals( 2, sized.getVirtualCores() );
+		
+		// 不超过集群的最大值
+		sized = sizer.size( samples, Resource.newInstance( 128, 2 ), Resource.newInstance( 1024, 1 ) );
+		
+		assertEquals( 1024, sized.getMemorySize() );
+		
+		assertEquals( 1, sized.getVirtualCores() );
+		
+		// 没有历史的时候使用默认值
+		sized = sizer.size( new ArrayList<ResourceUsage>(), Resource.newInstance( 128, 2 ), Resource.newInstance( 8192, 8 ) );
+		
+		assertEquals( 128, sized.getMemorySize() );
+	}
+	
+	@Test
+	public void testParseDiagnostics() {
+		
+		String diagnostics = "Container [pid=4242,containerID=container_1_0001_01_000002] is running beyond physical memory limits. "
+						   + "Current usage: 1.5 GB of 1 GB physical memory used; 2.9 GB of 2.1 GB virtual memory used. Killing container.";
+		
+		assertEquals( 1536, ResourceUsage.fromDiagnostics( diagnostics ).getPeakMemoryMb() );
+		
+		assertEquals( ResourceUsage.UNKNOWN, ResourceUsage.fromDiagnostics( diagnostics ).getMilliVcores() );
+		
+		assertNull( ResourceUsage.fromDiagnostics( "Container killed by the ApplicationMaster." ) );
+	}
+	
+	@Test
+	public void testHistoryKeepsRecentRuns() throws IOException {
+		
+		File dir = Files.createTempDirectory( "usage-history" ).toFile();
+		
+		try {
+			
+			Configuration conf = new Configuration( false );
+			
+			conf.set( UsageHistory.HISTORY_DIR, dir.toURI().toString() );
+			
+			conf.setInt( UsageHistory.MAX_RUNS, 2 );
+			
+			UsageHistory history = new UsageHistory( conf );
+			
+			for ( int run = 0; run < 3; run++ ) {
+				
+				history.record( "sort job", "run" + run, Arrays.asList( new ResourceUsage( run, 1000 ) ) );
+				
+				// 保证修改时间不同
+				new File( new File( dir, "sort_job" ), "run" + run ).setLastModified( run * 1000L + 1000L );
+			}
+			
+			List<ResourceUsage> samples = history.load( "sort job" );
+			
+			assertEquals( 2, samples.size() );
+			
+			assertEquals( 2, samples.get( 0 ).getPeakMemoryMb() );
+			
+			assertEquals( 1, samples.get( 1 ).getPeakMemoryMb() );
+			
+		} finally {
+			
+			FileUtil.fullyDelete( dir );
+		}
+	}
+
+}